@@ -19,10 +19,13 @@
  */
 package org.xwiki.structureddata;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.xwiki.structureddata.internal.DocumentMap;
+import org.xwiki.structureddata.internal.ItemId;
+import org.xwiki.structureddata.internal.ItemList;
 import org.xwiki.structureddata.internal.ItemMap;
 
 /**
@@ -55,6 +58,15 @@ public interface Application
      * @throws Exception
      */
     ItemMap getItem(String itemId, List<String> properties) throws Exception;
+
+    /**
+     * Get an item of the application from its parsed id.
+     * @param itemId the parsed id of the item
+     * @param properties the list of properties to display in the result
+     * @return the map representing the item
+     * @throws Exception
+     */
+    ItemMap getItem(ItemId itemId, List<String> properties) throws Exception;
     
     /**
      * Get the items of the application.
@@ -71,6 +83,33 @@ public interface Application
      */
     Map<String, Object> getItems(Map<String, Object> options) throws Exception;
 
+    /**
+     * Get some items of the application, in the order of the query.
+     * @param options a map with query options (limit, offset, query ("where" clause), hidden, order and properties)
+     * @return the items which can be viewed by the current user, with the number of rows returned by the query
+     * @throws Exception
+     */
+    ItemList getItemList(Map<String, Object> options) throws Exception;
+
+    /**
+     * Iterate over the items of the application. The items are loaded page by page, in the order of their id, so
+     * that all the items can be read without keeping them in memory.
+     * @param options a map with query options (query ("where" clause), hidden and properties)
+     * @return an iterator over the items which can be viewed by the current user
+     * @throws Exception
+     */
+    Iterator<ItemMap> getItemsIterator(Map<String, Object> options) throws Exception;
+
+    /**
+     * Compute an aggregate of the items of the application.
+     * @param options a map with the aggregate options (function, property and groupBy) and the query options (filter,
+     *     query and hidden)
+     * @return a map with the number of items ("Count") and the aggregate ("Value"), or the aggregate of each group
+     *     ("Groups")
+     * @throws Exception
+     */
+    Map<String, Object> aggregate(Map<String, Object> options) throws Exception;
+
     /**
      * Store an item of the application in the wiki.
      * @param itemData the data of the item
@@ -86,6 +125,24 @@ public interface Application
      * @throws Exception
      */
     Map<String, Object> storeItem(ItemMap itemData, DocumentMap itemDocData) throws Exception;
+
+    /**
+     * Store several items of the application in the wiki. Items located in the same document are saved together.
+     * @param items the data of the items
+     * @return the state of the save of each item (Success/Error), indexed by item id
+     * @throws Exception
+     */
+    Map<String, Object> storeItems(List<ItemMap> items) throws Exception;
+
+    /**
+     * Create a new item of the application, with an id allocated by the server. The items of AWM applications get a
+     * new document, named from the sequence of the application. The items of other applications get a new object in
+     * the document given by the id of the item data.
+     * @param itemData the data of the item
+     * @return the state of the save (Success/Error) and the id of the new item ("Id")
+     * @throws Exception
+     */
+    Map<String, Object> createItem(ItemMap itemData) throws Exception;
     
     /**
      * Delete an item of the application from the wiki.
@@ -95,6 +152,14 @@ public interface Application
      */
     Map<String, Object> deleteItem(String itemId) throws Exception;
 
+    /**
+     * Delete an item of the application from the wiki, using its parsed id.
+     * @param itemId the parsed id of the item
+     * @return the state of the deletion (Success/Error)
+     * @throws Exception
+     */
+    Map<String, Object> deleteItem(ItemId itemId) throws Exception;
+
     /**
      * @return data about the application
      */
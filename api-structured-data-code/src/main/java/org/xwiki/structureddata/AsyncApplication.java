@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.xwiki.structureddata.internal.ItemMap;
+
+/**
+ * Asynchronous view of an Application. Each call starts the operation in a background thread (with the wiki and the
+ * user of the caller) and returns immediately, so that the operations on several applications can run at the same
+ * time.
+ *
+ * @version $Id$
+ */
+public interface AsyncApplication
+{
+    /**
+     * Get the application's data structure.
+     * @return the pending schema map
+     * @throws Exception if the operation can't be started
+     */
+    Future<Map<String, Object>> getSchemaAsync() throws Exception;
+
+    /**
+     * Get an item of the application.
+     * @param itemId the string id of the item
+     * @return the pending map representing the item
+     * @throws Exception if the operation can't be started
+     */
+    Future<ItemMap> getItemAsync(String itemId) throws Exception;
+
+    /**
+     * Get an item of the application.
+     * @param itemId the string id of the item
+     * @param properties the list of properties to display in the result
+     * @return the pending map representing the item
+     * @throws Exception if the operation can't be started
+     */
+    Future<ItemMap> getItemAsync(String itemId, List<String> properties) throws Exception;
+
+    /**
+     * Get the items of the application.
+     * @return the pending map with all items
+     * @throws Exception if the operation can't be started
+     */
+    Future<Map<String, Object>> getItemsAsync() throws Exception;
+
+    /**
+     * Get some items of the application.
+     * @param options a map with query options (limit, offset, and query ("where" clause))
+     * @return the pending map with the items
+     * @throws Exception if the operation can't be started
+     */
+    Future<Map<String, Object>> getItemsAsync(Map<String, Object> options) throws Exception;
+
+    /**
+     * Store an item of the application in the wiki.
+     * @param itemData the data of the item
+     * @return the pending state of the save (Success/Error)
+     * @throws Exception if the operation can't be started
+     */
+    Future<Map<String, Object>> storeItemAsync(ItemMap itemData) throws Exception;
+}
@@ -0,0 +1,47 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An application queried in several wikis at once. The items of each wiki are queried in parallel and merged in the
+ * requested order.
+ *
+ * @version $Id$
+ */
+public interface FederatedApplication
+{
+    /**
+     * Get a page of the items of the application in all the wikis.
+     * @param options a map with query options (limit, query ("where" clause), hidden, order, properties, and cursor,
+     *     the value returned with the previous page)
+     * @return a map with the items ("Items", indexed by "wiki:itemId", in the requested order), the cursor of the next
+     *     page ("Cursor", null after the last page) and the errors of the wikis which couldn't be queried ("Errors")
+     * @throws Exception
+     */
+    Map<String, Object> getItems(Map<String, Object> options) throws Exception;
+
+    /**
+     * @return the wikis in which the application is queried
+     */
+    List<String> getWikis();
+}
@@ -28,6 +28,7 @@ import com.xpn.xwiki.objects.classes.BaseClass;
 
 import java.util.*;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -50,6 +51,16 @@ import org.xwiki.structureddata.Application;
  */
 public class AWMApplication implements Application
 {
+    /**
+     * Name of the hidden document of the data space holding the sequence of the item ids.
+     */
+    private static final String SEQUENCE_DOCUMENT = "ItemIdSequence";
+
+    /**
+     * Number of allocated ids tried before the creation of an item fails.
+     */
+    private static final int MAX_CREATE_ATTEMPTS = 100;
+
     private EntityReferenceResolver<String> resolver;
     private EntityReferenceSerializer<String> serializer;
     private Logger logger;
@@ -61,8 +72,10 @@ public class AWMApplication implements Application
     private XWikiContext context;
     private XWiki xwiki;
     private String dataSpace;
+    private int partitions;
     private String appName;
     private ContextualAuthorizationManager authorization;
+    private ItemIdAllocator idAllocator;
 
     public AWMApplication(XWikiContext context,
             ContextualAuthorizationManager authorizationManager,
@@ -70,7 +83,24 @@ public class AWMApplication implements Application
             EntityReferenceSerializer<String> serializer,
             QueryManager queryManager,
             Logger logger,
-            DocumentReference appWebHomeRef) throws XWikiException
+            DocumentReference appWebHomeRef,
+            ItemIdAllocator idAllocator) throws XWikiException
+    {
+        this(context, authorizationManager, resolver, serializer, queryManager, logger,
+                getDescriptor(context, resolver, serializer, appWebHomeRef), idAllocator);
+    }
+
+    /**
+     * Create the application from its descriptor, without loading its WebHome.
+     */
+    public AWMApplication(XWikiContext context,
+            ContextualAuthorizationManager authorizationManager,
+            EntityReferenceResolver<String> resolver,
+            EntityReferenceSerializer<String> serializer,
+            QueryManager queryManager,
+            Logger logger,
+            AWMDescriptor descriptor,
+            ItemIdAllocator idAllocator)
     {
         this.context = context;
         this.queryManager = queryManager;
@@ -79,7 +109,20 @@ public class AWMApplication implements Application
         this.logger = logger;
         this.xwiki = context.getWiki();
         this.authorization = authorizationManager;
+        this.idAllocator = idAllocator;
 
+        this.wikiRef = descriptor.getWebHomeReference().getWikiReference();
+        this.xClassRef = descriptor.getClassReference();
+        this.appName = descriptor.getAppName();
+        this.dataSpace = descriptor.getDataSpace();
+        this.partitions = descriptor.getPartitions();
+    }
+
+    private static AWMDescriptor getDescriptor(XWikiContext context,
+            EntityReferenceResolver<String> resolver,
+            EntityReferenceSerializer<String> serializer,
+            DocumentReference appWebHomeRef) throws XWikiException
+    {
         // Get the class reference from the AppWithinMinutes.LiveTableClass object
         BaseObject item;
         if(appWebHomeRef != null) {
@@ -88,31 +131,24 @@ public class AWMApplication implements Application
         else {
             item = getAWMObject(context, serializer);
         }
-        if(appWebHomeRef != null)
-            this.wikiRef = appWebHomeRef.getWikiReference();
-        else
-            this.wikiRef = context.getDoc().getDocumentReference().getWikiReference();
-        DocumentReference classReference = new DocumentReference(resolver.resolve(item.getStringValue("class"), EntityType.DOCUMENT, this.wikiRef));
-        this.xClassRef = classReference;
-        this.xClass = this.xwiki.getXClass(classReference, context);
-        // Get data space
-        if(appWebHomeRef == null) {
-            List<SpaceReference> spacesRef = xClassRef.getSpaceReferences();
-            SpaceReference lastAncestor = spacesRef.get(0);
-            appWebHomeRef = new DocumentReference(context.getWikiId(), lastAncestor.getName(), "WebHome");
+        return AWMDescriptor.fromObject(item, resolver, serializer);
+    }
+
+    private BaseClass getXClass() throws XWikiException
+    {
+        if(this.xClass == null) {
+            this.xClass = this.xwiki.getXClass(this.xClassRef, this.context);
         }
-        SpaceReference appWebHomeSpaceRef = appWebHomeRef.getLastSpaceReference();
-        this.appName = serializer.serialize(appWebHomeSpaceRef, "local");
-        this.dataSpace = this.appName+item.getStringValue("dataSpace");
+        return this.xClass;
     }
 
     @Override
     public Map<String, Object> getSchema() throws XWikiException
     {
-        if(!this.authorization.hasAccess(Right.VIEW, xClass.getReference())) {
+        if(!this.authorization.hasAccess(Right.VIEW, this.xClassRef)) {
             return new HashMap<>();
         }
-        return ApplicationSchema.getAppSchema(xClass, context, logger);
+        return ApplicationSchema.getAppSchema(getXClass(), context, logger);
     }
 
     @Override
@@ -121,11 +157,17 @@ public class AWMApplication implements Application
         return getItem(itemId, properties);
     }
 
+    @Override
+    public ItemMap getItem(ItemId itemId, List<String> properties) throws Exception {
+        // The items of an AWM application are the pages of its data space, their id is the name of the page
+        return getItem(itemId.toString(), properties);
+    }
+
     @Override
     public ItemMap getItem(String itemId, List<String> properties) throws Exception {
         ItemMap value = new ItemMap();
         try {
-            String objId = this.dataSpace+"."+itemId;
+            String objId = this.getItemDocName(itemId);
             XWikiDocument xDoc = this.getDocFromId(objId);
             BaseObject xObj = this.getObjectFromId(objId);
             ApplicationItem item = this.getApplicationItem(itemId, 0, xObj, xDoc);
@@ -149,64 +191,267 @@ public class AWMApplication implements Application
     public Map<String, Object> getItems(Map<String, Object> options) throws Exception {
         Map<String, Object> value = new HashMap<>();
         try {
-            List<String> properties = new ArrayList<>();
-            if(options.containsKey("properties")) {
-                 properties = (List<String>) options.get("properties");
+            for (ItemMap map : this.getItemList(options)) {
+                value.put(map.getId(), map);
             }
-            String xClassFullName = serializer.serialize(xClassRef);
-            String awmWhereClause = "doc.space = '" + this.dataSpace + "'";
-            Query query = QueryItems.getQuery(context, queryManager, xClassFullName, options, awmWhereClause, "doc.name");
-            List<String> objDocList = query.setWiki(this.wikiRef.getName()).execute();
-            for (String docName : objDocList) {
-                // Get all instances of the class in the document
-                String docFullName = dataSpace + "." + docName;
-                try {
-                    XWikiDocument xDoc = this.getDocFromId(docFullName);
-                    BaseObject xObj = this.getObjectFromId(docFullName);
-                    if (xObj != null) {
-                        ApplicationItem item = this.getApplicationItem(docName, 0, xObj, xDoc);
-                        ItemMap map = item.getItemMap(properties);
-                        value.put(map.getId(), map);
+        } catch (QueryException e) {
+            logger.error("Unable to get the list of items", e);
+        }
+        return value;
+    }
+
+    @Override
+    public ItemList getItemList(Map<String, Object> options) throws QueryException, XWikiException {
+        List<String> properties = this.getPropertiesOption(options);
+        String xClassFullName = serializer.serialize(xClassRef);
+        String awmWhereClause = this.getSpaceClause();
+        Query query = QueryItems.getQuery(context, queryManager, xClassFullName, getXClass(), options, awmWhereClause, "doc.name");
+        List<String> objDocList = query.setWiki(this.wikiRef.getName()).execute();
+        ItemList items = new ItemList(objDocList.size());
+        items.addAll(this.getItemMaps(objDocList, properties));
+        return items;
+    }
+
+    @Override
+    public Iterator<ItemMap> getItemsIterator(Map<String, Object> options) {
+        final List<String> properties = this.getPropertiesOption(options);
+        final String xClassFullName = serializer.serialize(xClassRef);
+        final Map<String, Object> pageOptions = new HashMap<>(options);
+        pageOptions.remove("offset");
+        pageOptions.put("limit", ItemIterator.PAGE_SIZE);
+        // A custom "query" replaces the where clause, the pages are then selected with an offset, in the requested
+        // order completed by a stable order. Otherwise the pages are selected by name.
+        final boolean keyset = !options.containsKey("query");
+        if (keyset) {
+            pageOptions.remove("order");
+        }
+        return new ItemIterator() {
+            private String lastName;
+            private int offset;
+
+            @Override
+            protected int loadPage(List<ItemMap> items) throws Exception {
+                String awmWhereClause = getSpaceClause();
+                if (keyset && lastName != null) {
+                    awmWhereClause += " and doc.name > :lastName";
+                } else if (!keyset) {
+                    pageOptions.put("offset", offset);
+                }
+                Query query = QueryItems.getQuery(context, queryManager, xClassFullName, getXClass(), pageOptions, awmWhereClause, "doc.name");
+                if (keyset && lastName != null) {
+                    query = query.bindValue("lastName", lastName);
+                }
+                List<String> objDocList = query.setWiki(wikiRef.getName()).execute();
+                if (!objDocList.isEmpty()) {
+                    lastName = objDocList.get(objDocList.size() - 1);
+                }
+                offset += objDocList.size();
+                items.addAll(getItemMaps(objDocList, properties));
+                return objDocList.size();
+            }
+        };
+    }
+
+    /**
+     * Build the maps of the items returned by the items query, skipping the items which can't be viewed.
+     * @param objDocList the names of the documents returned by the query
+     * @param properties the list of properties to display in the result
+     * @return the item maps, in the order of the query
+     */
+    private List<ItemMap> getItemMaps(List<String> objDocList, List<String> properties) throws XWikiException {
+        List<ItemMap> value = new ArrayList<>();
+        // Load the documents of the whole page before building the items
+        List<DocumentReference> docRefList = new ArrayList<>();
+        for (String docName : objDocList) {
+            String docFullName = DataSpacePartitions.getSpace(dataSpace, partitions, docName) + "." + docName;
+            docRefList.add(new DocumentReference(this.resolver.resolve(docFullName, EntityType.DOCUMENT, this.wikiRef)));
+        }
+        Map<DocumentReference, DocumentPrefetcher.PrefetchedDocument> docs = DocumentPrefetcher.prefetch(
+            new DocumentPrefetcher.Loader(context, authorization, queryManager, resolver, serializer, logger),
+            getXClass(), docRefList);
+        for (int i = 0; i < objDocList.size(); i++) {
+            // Get all instances of the class in the document
+            String docName = objDocList.get(i);
+            try {
+                XWikiDocument xDoc = null;
+                DocumentPrefetcher.PrefetchedDocument prefetched = docs.get(docRefList.get(i));
+                BaseObject xObj;
+                if (docs.containsKey(docRefList.get(i))) {
+                    // The rights have been checked by the prefetch
+                    if (prefetched == null) {
+                        continue;
+                    }
+                    xObj = prefetched.getXObject();
+                } else {
+                    // Missing from its partition when the item hasn't been moved yet
+                    xDoc = this.getDocFromId(this.getItemDocName(docName));
+                    this.authorization.checkAccess(Right.VIEW, xDoc.getDocumentReference());
+                    xObj = xDoc.getXObject(this.xClassRef);
+                }
+                if (xObj != null) {
+                    ApplicationItem item = this.getApplicationItem(docName, 0, xObj, xDoc);
+                    ItemMap itemMap = item.getItemMap(properties);
+                    if (prefetched != null) {
+                        // The prefetched values are only read, the item is built without a document
+                        itemMap.setDocumentFields(prefetched.getDocumentFields());
                     }
-                } catch (AccessDeniedException e) {
-                    // logger.info("Access denied to item [{}] : [{}]", itemId, e.toString());
-                } catch (Exception e) {
-                    logger.error("Unable to load the item [{}] : [{}]", docName, e.toString());
+                    value.add(itemMap);
                 }
+            } catch (AccessDeniedException e) {
+                // logger.info("Access denied to item [{}] : [{}]", itemId, e.toString());
+            } catch (Exception e) {
+                logger.error("Unable to load the item [{}] : [{}]", docName, e.toString());
             }
-        } catch (QueryException e) {
-            logger.error("Unable to get the list of items", e);
         }
         return value;
     }
 
+    private List<String> getPropertiesOption(Map<String, Object> options) {
+        List<String> properties = new ArrayList<>();
+        if(options.containsKey("properties")) {
+             properties = (List<String>) options.get("properties");
+        }
+        return properties;
+    }
+
+    @Override
+    public Map<String, Object> aggregate(Map<String, Object> options) throws Exception {
+        return ItemAggregator.aggregate(this, options);
+    }
+
     @Override
     public Map<String, Object> storeItem(ItemMap itemData) throws Exception {
         return storeItem(itemData, null);
     }
 
     @Override
-    public Map<String, Object> storeItem(ItemMap itemData, DocumentMap itemDocData) throws Exception {
+    public Map<String, Object> storeItem(final ItemMap itemData, final DocumentMap itemDocData) throws Exception {
         String itemId = itemData.getId();
-        String objName = dataSpace + "." + itemId; // The XWiki object name is the document full name
-        DocumentReference itemDocRef = new DocumentReference(resolver.resolve(objName, EntityType.DOCUMENT, this.wikiRef));
+        final String objName = this.getItemDocName(itemId); // The XWiki object name is the document full name
+        DocumentReference itemDocRef = RequestMemo.get(this.context).resolve(this.resolver, objName, this.wikiRef);
         try {
             this.authorization.checkAccess(Right.EDIT, itemDocRef);
-            XWikiDocument xDoc = this.getDocFromId(objName);
-            BaseObject xObj = this.getObjectFromId(objName);
-            ApplicationItem item = this.getApplicationItem(objName, 0, xObj, xDoc);
-            return item.store(itemData, itemDocData);
+            // The concurrent changes of the same document are applied together and saved once
+            DocumentWriteCombiner.write(itemDocRef, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument xDoc) throws Exception
+                {
+                    checkNotMoved(objName, xDoc);
+                    BaseObject xObj = xDoc.getXObject(xClassRef);
+                    getApplicationItem(objName, 0, xObj, xDoc).apply(itemData, itemDocData);
+                    return true;
+                }
+            }, "Properties updated", this.context);
+            return this.getStateMap("Success", "1");
         } catch (AccessDeniedException e) {
             Map<String, Object> errorMap = new HashMap<>();
             errorMap.put("Error", e.getMessage());
             return errorMap;
+        } catch (Exception e) {
+            this.logger.warn("Unable to store the item [{}] : [{}]", itemId, e.toString());
+            return this.getStateMap("Error", e.getMessage());
+        } finally {
+            RequestMemo.get(this.context).forgetDocument(itemDocRef);
         }
     }
 
+    @Override
+    public Map<String, Object> storeItems(List<ItemMap> items) throws Exception {
+        // Each item has its own document, but the same item can be stored several times in a batch
+        return new ItemBatchWriter()
+        {
+            @Override
+            protected String getDocumentName(ItemMap item)
+            {
+                try {
+                    return getItemDocName(item.getId());
+                } catch (XWikiException e) {
+                    throw new IllegalStateException("Unable to find the document of the item [" + item.getId() + "]", e);
+                }
+            }
+
+            @Override
+            protected DocumentReference getDocumentReference(String documentName)
+            {
+                return RequestMemo.get(context).resolve(resolver, documentName, wikiRef);
+            }
+
+            @Override
+            protected void apply(String documentName, ItemMap item, XWikiDocument xDoc) throws Exception
+            {
+                checkNotMoved(documentName, xDoc);
+                BaseObject xObj = xDoc.getXObject(xClassRef);
+                getApplicationItem(documentName, 0, xObj, xDoc).apply(item);
+            }
+
+            @Override
+            protected void done(DocumentReference reference)
+            {
+                RequestMemo.get(context).forgetDocument(reference);
+            }
+        }.storeItems(items, this.authorization, this.context);
+    }
+
+    @Override
+    public Map<String, Object> createItem(final ItemMap itemData) throws Exception {
+        SpaceReference dataSpaceRef = new SpaceReference(
+            this.resolver.resolve(dataSpace, EntityType.SPACE, this.wikiRef));
+        // A user who can't create items doesn't reserve ids in the sequence
+        if (!this.authorization.hasAccess(Right.EDIT, dataSpaceRef)) {
+            return this.getStateMap("Error", "You are not allowed to create items in [" + dataSpace + "]");
+        }
+        DocumentReference sequenceRef = new DocumentReference(SEQUENCE_DOCUMENT, dataSpaceRef);
+        // The ids reserved by another node or already used as a document name are skipped
+        for (int attempt = 0; attempt < MAX_CREATE_ATTEMPTS; attempt++) {
+            final String itemId = String.valueOf(this.idAllocator.next(sequenceRef));
+            // New items are always created in their partition
+            final String objName = DataSpacePartitions.getSpace(dataSpace, partitions, itemId) + "." + itemId;
+            DocumentReference itemDocRef = RequestMemo.get(this.context).resolve(this.resolver, objName, this.wikiRef);
+            final DocumentReference baseDocRef = this.partitions > 0
+                ? RequestMemo.get(this.context).resolve(this.resolver, dataSpace + "." + itemId, this.wikiRef) : null;
+            final boolean[] exists = new boolean[1];
+            try {
+                this.authorization.checkAccess(Right.EDIT, itemDocRef);
+                DocumentWriteCombiner.write(itemDocRef, new DocumentWriteCombiner.Change()
+                {
+                    @Override
+                    public boolean apply(XWikiDocument xDoc) throws Exception
+                    {
+                        exists[0] = !xDoc.isNew() || (baseDocRef != null && xwiki.exists(baseDocRef, context));
+                        if (exists[0]) {
+                            return false;
+                        }
+                        getApplicationItem(objName, 0, null, xDoc).apply(itemData);
+                        return true;
+                    }
+                }, "Item created", this.context);
+            } catch (AccessDeniedException e) {
+                return this.getStateMap("Error", e.getMessage());
+            } catch (Exception e) {
+                this.logger.warn("Unable to create the item [{}] : [{}]", itemId, e.toString());
+                return this.getStateMap("Error", e.getMessage());
+            } finally {
+                RequestMemo.get(this.context).forgetDocument(itemDocRef);
+            }
+            if (!exists[0]) {
+                Map<String, Object> result = this.getStateMap("Success", "1");
+                result.put("Id", itemId);
+                return result;
+            }
+        }
+        return this.getStateMap("Error", "Unable to allocate a free item id");
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(ItemId itemId) throws Exception {
+        return deleteItem(itemId.toString());
+    }
+
     @Override
     public Map<String, Object> deleteItem(String itemId) throws Exception {
-        String objName = dataSpace+"."+itemId; // The XWiki object name is the document full name
-        DocumentReference itemDocRef = new DocumentReference(resolver.resolve(objName, EntityType.DOCUMENT, this.wikiRef));
+        String objName = this.getItemDocName(itemId); // The XWiki object name is the document full name
+        DocumentReference itemDocRef = RequestMemo.get(this.context).resolve(this.resolver, objName, this.wikiRef);
         try {
             this.authorization.checkAccess(Right.DELETE, itemDocRef);
             XWikiDocument xDoc = this.getDocFromId(objName);
@@ -218,6 +463,8 @@ public class AWMApplication implements Application
             Map<String, Object> errorMap = new HashMap<>();
             errorMap.put("Error", e.getMessage());
             return errorMap;
+        } finally {
+            RequestMemo.get(this.context).forgetDocument(itemDocRef);
         }
     }
 
@@ -308,8 +555,8 @@ public class AWMApplication implements Application
      */
     public XWikiDocument getDocFromId(String itemId) throws XWikiException
     {
-        DocumentReference itemDocRef = new DocumentReference(this.resolver.resolve(itemId, EntityType.DOCUMENT, this.wikiRef));
-        return this.xwiki.getDocument(itemDocRef, this.context);
+        RequestMemo memo = RequestMemo.get(this.context);
+        return memo.getDocument(memo.resolve(this.resolver, itemId, this.wikiRef), this.context);
     }
     /**
      * @param itemId the id of an XWiki object
@@ -326,8 +573,49 @@ public class AWMApplication implements Application
         return xDoc.getXObject(this.xClassRef);
     }
 
+    /**
+     * Get the full name of the document of an item. The items of a partitioned application are in their partition,
+     * except the items which haven't been moved yet by {@link PartitionJob}.
+     */
+    private String getItemDocName(String itemId) throws XWikiException {
+        String baseName = dataSpace + "." + itemId;
+        if (this.partitions <= 0) {
+            return baseName;
+        }
+        String partitionName = DataSpacePartitions.getSpace(dataSpace, partitions, itemId) + "." + itemId;
+        RequestMemo memo = RequestMemo.get(this.context);
+        if (!this.xwiki.exists(memo.resolve(this.resolver, partitionName, this.wikiRef), this.context)
+            && this.xwiki.exists(memo.resolve(this.resolver, baseName, this.wikiRef), this.context)) {
+            return baseName;
+        }
+        return partitionName;
+    }
+
+    /**
+     * The items of a partitioned application are listed from the data space and from all its partitions.
+     */
+    private String getSpaceClause() {
+        if (this.partitions <= 0) {
+            return "doc.space = '" + this.dataSpace + "'";
+        }
+        return "doc.space in ('" + StringUtils.join(DataSpacePartitions.getSpaces(dataSpace, partitions), "', '") + "')";
+    }
+
+    /**
+     * An item found in the data space of a partitioned application can be moved to its partition before it is saved.
+     */
+    private void checkNotMoved(String objName, XWikiDocument xDoc) {
+        if (this.partitions > 0 && xDoc.isNew() && objName.startsWith(dataSpace + ".")) {
+            throw new IllegalStateException("The item [" + objName + "] has been moved to its partition, store it again");
+        }
+    }
+
+    private Map<String, Object> getStateMap(String state, Object value) {
+        return ItemBatchWriter.getStateMap(state, value);
+    }
+
     private ApplicationItem getApplicationItem(String objName, Integer objNumber, BaseObject xObj, XWikiDocument xDoc) throws XWikiException {
-        return new ApplicationItem(objName, objNumber, xDoc, xObj, this.xClass, this.context, this.resolver, this.serializer);
+        return new ApplicationItem(objName, objNumber, xDoc, xObj, getXClass(), this.context, this.resolver, this.serializer);
     }
 
     @Override
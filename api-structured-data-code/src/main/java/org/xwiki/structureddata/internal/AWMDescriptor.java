@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.objects.BaseObject;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * The data of the AppWithinMinutes.LiveTableClass object of an AWM application, needed to create the Application.
+ *
+ * @version $Id$
+ */
+public class AWMDescriptor
+{
+    private final DocumentReference webHomeReference;
+
+    private final DocumentReference classReference;
+
+    private final String appName;
+
+    private final String dataSpace;
+
+    private final int partitions;
+
+    /**
+     * @param webHomeReference the reference of the application's WebHome
+     * @param classReference the reference of the class of the application
+     * @param appName the local name of the application space
+     * @param dataSpace the local name of the space containing the items
+     */
+    public AWMDescriptor(DocumentReference webHomeReference, DocumentReference classReference, String appName,
+        String dataSpace)
+    {
+        this(webHomeReference, classReference, appName, dataSpace, 0);
+    }
+
+    /**
+     * @param webHomeReference the reference of the application's WebHome
+     * @param classReference the reference of the class of the application
+     * @param appName the local name of the application space
+     * @param dataSpace the local name of the space containing the items
+     * @param partitions the number of partitions of the data space (see {@link DataSpacePartitions}), or 0
+     */
+    public AWMDescriptor(DocumentReference webHomeReference, DocumentReference classReference, String appName,
+        String dataSpace, int partitions)
+    {
+        this.webHomeReference = webHomeReference;
+        this.classReference = classReference;
+        this.appName = appName;
+        this.dataSpace = dataSpace;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Read the descriptor of an application from its LiveTableClass object.
+     * @param awmObject the AppWithinMinutes.LiveTableClass object, in the application's WebHome
+     * @param resolver the resolver of the class name
+     * @param serializer the serializer of the application space
+     * @return the descriptor of the application
+     */
+    public static AWMDescriptor fromObject(BaseObject awmObject, EntityReferenceResolver<String> resolver,
+        EntityReferenceSerializer<String> serializer)
+    {
+        DocumentReference webHomeRef = awmObject.getDocumentReference();
+        DocumentReference classRef = new DocumentReference(resolver.resolve(awmObject.getStringValue("class"),
+            EntityType.DOCUMENT, webHomeRef.getWikiReference()));
+        String appName = serializer.serialize(webHomeRef.getLastSpaceReference(), "local");
+        return new AWMDescriptor(webHomeRef, classRef, appName, appName + awmObject.getStringValue("dataSpace"));
+    }
+
+    /**
+     * @return the reference of the application's WebHome
+     */
+    public DocumentReference getWebHomeReference()
+    {
+        return this.webHomeReference;
+    }
+
+    /**
+     * @return the reference of the class of the application
+     */
+    public DocumentReference getClassReference()
+    {
+        return this.classReference;
+    }
+
+    /**
+     * @return the local name of the application space
+     */
+    public String getAppName()
+    {
+        return this.appName;
+    }
+
+    /**
+     * @return the local name of the space containing the items
+     */
+    public String getDataSpace()
+    {
+        return this.dataSpace;
+    }
+
+    /**
+     * @return the number of partitions of the data space (see {@link DataSpacePartitions}), or 0 if all the items are
+     *         in the data space
+     */
+    public int getPartitions()
+    {
+        return this.partitions;
+    }
+
+    /**
+     * @param partitions the number of partitions of the data space
+     * @return a copy of this descriptor with the given number of partitions
+     */
+    public AWMDescriptor withPartitions(int partitions)
+    {
+        return new AWMDescriptor(this.webHomeReference, this.classReference, this.appName, this.dataSpace, partitions);
+    }
+}
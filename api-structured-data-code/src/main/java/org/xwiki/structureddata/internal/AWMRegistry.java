@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Index of the AppWithinMinutes applications of each wiki, so that an application can be resolved without loading
+ * its WebHome.
+ *
+ * @version $Id$
+ */
+@Role
+public interface AWMRegistry
+{
+    /**
+     * @param appWebHomeRef the reference of the application's WebHome
+     * @return the descriptor of the application, or null if the document is not the WebHome of an AWM application
+     * @throws XWikiException if the applications of the wiki can't be indexed
+     */
+    AWMDescriptor getApplication(DocumentReference appWebHomeRef) throws XWikiException;
+
+    /**
+     * Find the AWM application containing a document (its WebHome, its Code or Data space, etc.).
+     * @param documentRef the reference of a document
+     * @return the descriptor of the application, or null if the document is not in an AWM application
+     * @throws XWikiException if the applications of the wiki can't be indexed
+     */
+    AWMDescriptor getApplicationOf(DocumentReference documentRef) throws XWikiException;
+
+    /**
+     * @param wikiId the id of a wiki
+     * @return the descriptors of all the AWM applications of the wiki
+     * @throws XWikiException if the applications of the wiki can't be indexed
+     */
+    Collection<AWMDescriptor> getApplications(String wikiId) throws XWikiException;
+
+    /**
+     * Update the index after a document has been saved or deleted.
+     * @param document the new version of the document
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Forget the applications of a wiki.
+     * @param wikiId the id of the wiki
+     */
+    void removeWiki(String wikiId);
+}
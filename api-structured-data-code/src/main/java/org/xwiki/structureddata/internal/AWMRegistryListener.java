@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+/**
+ * Keep the {@link AWMRegistry} up to date when AppWithinMinutes applications are created, modified or deleted.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(AWMRegistryListener.NAME)
+@Singleton
+public class AWMRegistryListener implements EventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "structureddata.awmRegistry";
+
+    @Inject
+    private AWMRegistry registry;
+
+    @Inject
+    private RemoteObservationManagerContext remoteContext;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(), new WikiDeletedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.remoteContext.isRemoteState() && !(event instanceof WikiDeletedEvent)) {
+            // The changes made on the other nodes are received with an ApplicationInvalidationEvent
+            return;
+        }
+        if (event instanceof WikiDeletedEvent) {
+            this.registry.removeWiki(((WikiDeletedEvent) event).getWikiId());
+        } else {
+            // The source of a deletion event is a document without objects
+            this.registry.update((XWikiDocument) source);
+        }
+    }
+}
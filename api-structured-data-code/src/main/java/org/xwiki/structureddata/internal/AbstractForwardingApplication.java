@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.structureddata.Application;
+
+/**
+ * Base class of the applications adding a feature in front of another application (cache, index, snapshot, etc.):
+ * all the operations are sent to the wrapped application, the subclasses only override the ones they change.
+ *
+ * @version $Id$
+ */
+public abstract class AbstractForwardingApplication implements Application
+{
+    /**
+     * The wrapped application.
+     */
+    protected final Application application;
+
+    /**
+     * @param application the wrapped application
+     */
+    protected AbstractForwardingApplication(Application application)
+    {
+        this.application = application;
+    }
+
+    @Override
+    public Map<String, Object> getSchema() throws Exception
+    {
+        return this.application.getSchema();
+    }
+
+    @Override
+    public ItemMap getItem(String itemId) throws Exception
+    {
+        return this.application.getItem(itemId);
+    }
+
+    @Override
+    public ItemMap getItem(String itemId, List<String> properties) throws Exception
+    {
+        return this.application.getItem(itemId, properties);
+    }
+
+    @Override
+    public ItemMap getItem(ItemId itemId, List<String> properties) throws Exception
+    {
+        return this.application.getItem(itemId, properties);
+    }
+
+    @Override
+    public Map<String, Object> getItems() throws Exception
+    {
+        return this.application.getItems();
+    }
+
+    @Override
+    public Map<String, Object> getItems(Map<String, Object> options) throws Exception
+    {
+        return this.application.getItems(options);
+    }
+
+    @Override
+    public ItemList getItemList(Map<String, Object> options) throws Exception
+    {
+        return this.application.getItemList(options);
+    }
+
+    @Override
+    public Iterator<ItemMap> getItemsIterator(Map<String, Object> options) throws Exception
+    {
+        return this.application.getItemsIterator(options);
+    }
+
+    @Override
+    public Map<String, Object> aggregate(Map<String, Object> options) throws Exception
+    {
+        return this.application.aggregate(options);
+    }
+
+    @Override
+    public Map<String, Object> storeItem(ItemMap itemData) throws Exception
+    {
+        return this.application.storeItem(itemData);
+    }
+
+    @Override
+    public Map<String, Object> storeItem(ItemMap itemData, DocumentMap itemDocData) throws Exception
+    {
+        return this.application.storeItem(itemData, itemDocData);
+    }
+
+    @Override
+    public Map<String, Object> storeItems(List<ItemMap> items) throws Exception
+    {
+        return this.application.storeItems(items);
+    }
+
+    @Override
+    public Map<String, Object> createItem(ItemMap itemData) throws Exception
+    {
+        return this.application.createItem(itemData);
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(String itemId) throws Exception
+    {
+        return this.application.deleteItem(itemId);
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(ItemId itemId) throws Exception
+    {
+        return this.application.deleteItem(itemId);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.application.toString();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Catalog of the classes and AppWithinMinutes applications of each wiki, with the number of objects of each class
+ * and the date of their last modification. The catalog is kept in memory and updated from the document events.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationCatalog
+{
+    /**
+     * List the applications of a wiki. AWM applications come first, then the classes, both sorted by name. Only the
+     * applications whose class the current user can view are listed, and the counts and dates, which include the
+     * documents the user can't see, are only given to the administrators of the wiki.
+     * @param wikiId the id of the wiki
+     * @param filter a text which must be contained in the name of the listed applications, or null
+     * @param offset the index of the first application to list
+     * @param limit the maximum number of applications to list, or a negative value for no limit
+     * @return a map with the list of AWM applications, the list of classes, the details of each listed application
+     *     and the total number of applications matching the filter
+     * @throws XWikiException if the AWM applications of the wiki can't be indexed
+     */
+    Map<String, Object> getApplications(String wikiId, String filter, int offset, int limit) throws XWikiException;
+
+    /**
+     * Update the catalog after a document has been saved or deleted.
+     * @param document the new version of the document (its original document is the previous version)
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Forget the applications of a wiki.
+     * @param wikiId the id of the wiki
+     */
+    void removeWiki(String wikiId);
+}
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Run the blocking work of the rest resources (application resolution, item queries and document loads), limiting
+ * the number of requests running at the same time for each wiki.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationExecutor
+{
+    /**
+     * Run a task, either in the current thread or in a dedicated thread pool depending on the configuration.
+     * @param <T> the type of the result
+     * @param wikiName the wiki targeted by the task, or null for the current wiki
+     * @param task the task to run
+     * @return the result of the task
+     * @throws java.util.concurrent.RejectedExecutionException if the wiki (or the pool) has too many running tasks
+     * @throws java.util.concurrent.TimeoutException if the result is not available before the configured timeout, the
+     *         task is then cancelled
+     * @throws Exception if the task fails
+     */
+    <T> T execute(String wikiName, Callable<T> task) throws Exception;
+
+    /**
+     * Start a task in the thread pool, whatever the configured execution mode, and return without waiting for its
+     * result. The task runs with a copy of the context of the calling thread.
+     * @param <T> the type of the result
+     * @param wikiName the wiki targeted by the task, or null for the current wiki
+     * @param task the task to run
+     * @return the pending result of the task
+     * @throws java.util.concurrent.RejectedExecutionException if the wiki (or the pool) has too many running tasks
+     * @throws InterruptedException if the thread is interrupted while waiting for a free slot for the wiki
+     */
+    <T> Future<T> submit(String wikiName, Callable<T> task) throws InterruptedException;
+
+    /**
+     * Start a write task in the pool dedicated to the writes and return without waiting for its result, so that the
+     * writes and the reads don't wait for each other. The task runs with a copy of the context of the calling thread.
+     * @param <T> the type of the result
+     * @param wikiName the wiki targeted by the task, or null for the current wiki
+     * @param task the task to run
+     * @return the pending result of the task
+     * @throws java.util.concurrent.RejectedExecutionException if the wiki (or the pool) has too many running writes
+     * @throws InterruptedException if the thread is interrupted while waiting for a free slot for the wiki
+     */
+    <T> Future<T> submitWrite(String wikiName, Callable<T> task) throws InterruptedException;
+}
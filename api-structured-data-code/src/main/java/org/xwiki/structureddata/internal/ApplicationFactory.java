@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.FederatedApplication;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+/**
+ * Create the Application objects for the components which are not bound to a script or rest request.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationFactory
+{
+    /**
+     * Get an Application with its AWM id or the name of its class.
+     * @param wikiName the wiki of the application, or null for the current wiki
+     * @param appId the id of the application (AWM id or class full name)
+     * @return the Application
+     * @throws XWikiException
+     */
+    Application getApplication(String wikiName, String appId) throws XWikiException;
+
+    /**
+     * Get an AppWithinMinutes application.
+     * @param descriptor the descriptor of the application
+     * @return the Application
+     */
+    Application getAWMApplication(AWMDescriptor descriptor);
+
+    /**
+     * Get the Application of a class.
+     * @param classReference the reference of the class
+     * @return the Application
+     * @throws XWikiException if the class can't be loaded
+     */
+    Application getClassApplication(DocumentReference classReference) throws XWikiException;
+
+    /**
+     * Add the cache and the index of the items queries, and the snapshot of the aggregates, to an application.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @return the decorated application
+     */
+    Application decorate(Application application, DocumentReference classReference, String dataSpace);
+
+    /**
+     * Get an Application queried in several wikis at once.
+     * @param wikis the wikis in which the application is queried, "*" for all the wikis of the farm
+     * @param appId the id of the application in each wiki (AWM id or class full name)
+     * @return the FederatedApplication
+     * @throws WikiManagerException if the list of wikis can't be read
+     */
+    FederatedApplication getFederatedApplication(List<String> wikis, String appId) throws WikiManagerException;
+}
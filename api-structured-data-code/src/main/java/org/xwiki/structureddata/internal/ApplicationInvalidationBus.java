@@ -0,0 +1,42 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Send the changes of the classes to the other nodes of a cluster, using the remote observation of the wiki. The
+ * changes made during a short delay are sent together in a single {@link ApplicationInvalidationEvent}, with the
+ * changed documents of each class.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationInvalidationBus
+{
+    /**
+     * Add changed classes to the next event.
+     * @param classes the references of the changed classes, with their wiki
+     * @param documentId the reference of the changed document, with its wiki
+     */
+    void publish(Collection<String> classes, String documentId);
+}
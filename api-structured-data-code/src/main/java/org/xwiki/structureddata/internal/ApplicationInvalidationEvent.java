@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.observation.event.Event;
+
+/**
+ * Sent to the other nodes of a cluster when the data of some classes has changed, so that they drop the results
+ * they computed for these classes. The event contains the references of the classes and of the documents changed for
+ * each class, so that the other nodes update their in-memory copies (snapshots, indexes) with these documents instead
+ * of reloading the whole class. When too many documents of a class have changed, only the class is sent.
+ *
+ * @version $Id$
+ */
+public class ApplicationInvalidationEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * The changed documents of each class, or null for the classes whose changed documents are not sent.
+     */
+    private final Map<String, Set<String>> documents;
+
+    /**
+     * Listen to all the invalidation events.
+     */
+    public ApplicationInvalidationEvent()
+    {
+        this.documents = Collections.emptyMap();
+    }
+
+    /**
+     * @param documents the references of the changed classes, with their wiki, and for each of them the references
+     *     of the changed documents (with their wiki), or null if they are not sent
+     */
+    public ApplicationInvalidationEvent(Map<String, Set<String>> documents)
+    {
+        this.documents = new HashMap<>();
+        for (Map.Entry<String, Set<String>> classDocuments : documents.entrySet()) {
+            this.documents.put(classDocuments.getKey(),
+                classDocuments.getValue() != null ? new HashSet<>(classDocuments.getValue()) : null);
+        }
+    }
+
+    /**
+     * @return the references of the changed classes, with their wiki
+     */
+    public Set<String> getClasses()
+    {
+        return Collections.unmodifiableSet(this.documents.keySet());
+    }
+
+    /**
+     * @param classId the reference of a changed class, with its wiki
+     * @return the references of the changed documents holding objects of the class (or the class itself), with
+     *         their wiki, or null if they are not known
+     */
+    public Set<String> getDocuments(String classId)
+    {
+        Set<String> classDocuments = this.documents.get(classId);
+        return classDocuments != null ? Collections.unmodifiableSet(classDocuments) : null;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof ApplicationInvalidationEvent;
+    }
+}
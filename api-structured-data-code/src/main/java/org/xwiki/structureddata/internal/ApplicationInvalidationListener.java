@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+/**
+ * Drop the results computed for the classes changed on another node of the cluster (see
+ * {@link ApplicationInvalidationBus}), and update the snapshots and the indexes with the changed documents.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(ApplicationInvalidationListener.NAME)
+@Singleton
+public class ApplicationInvalidationListener implements EventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "structureddata.applicationInvalidation";
+
+    private static final String AWM_CLASS = "AppWithinMinutes.LiveTableClass";
+
+    @Inject
+    private RemoteObservationManagerContext remoteContext;
+
+    @Inject
+    private ApplicationVersions versions;
+
+    @Inject
+    private ApplicationSnapshots snapshots;
+
+    @Inject
+    private ItemIndex index;
+
+    @Inject
+    private ApplicationCatalog catalog;
+
+    @Inject
+    private AWMRegistry registry;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ApplicationInvalidationEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // The local changes have already been applied by the document listeners
+        if (!this.remoteContext.isRemoteState()) {
+            return;
+        }
+        ApplicationInvalidationEvent invalidation = (ApplicationInvalidationEvent) event;
+        Set<String> classes = invalidation.getClasses();
+        // The items cache and the view rights cache are keyed by the version stamps
+        this.versions.invalidate(classes);
+
+        // The snapshots and the indexes are updated with the changed documents. They are loaded again when the
+        // documents are not known, or when the class itself has changed.
+        Set<String> reloaded = new HashSet<>();
+        Map<String, Set<String>> documentClasses = new HashMap<>();
+        for (String classId : classes) {
+            Set<String> documents = invalidation.getDocuments(classId);
+            if (documents == null || documents.contains(classId)) {
+                reloaded.add(classId);
+                continue;
+            }
+            for (String documentId : documents) {
+                Set<String> changedClasses = documentClasses.get(documentId);
+                if (changedClasses == null) {
+                    changedClasses = new HashSet<>();
+                    documentClasses.put(documentId, changedClasses);
+                }
+                changedClasses.add(classId);
+            }
+        }
+        for (Map.Entry<String, Set<String>> document : documentClasses.entrySet()) {
+            if (!update(document.getKey())) {
+                reloaded.addAll(document.getValue());
+            }
+        }
+        if (!reloaded.isEmpty()) {
+            this.snapshots.invalidate(reloaded);
+            this.index.invalidate(reloaded);
+        }
+
+        // The catalog and the AWM registry are loaded again for each changed wiki
+        Set<String> wikis = new HashSet<>();
+        Set<String> awmWikis = new HashSet<>();
+        for (String classId : classes) {
+            int separator = classId.indexOf(':');
+            String wikiId = classId.substring(0, Math.max(0, separator));
+            wikis.add(wikiId);
+            if (AWM_CLASS.equals(classId.substring(separator + 1))) {
+                awmWikis.add(wikiId);
+            }
+        }
+        for (String wikiId : wikis) {
+            this.catalog.removeWiki(wikiId);
+        }
+        for (String wikiId : awmWikis) {
+            this.registry.removeWiki(wikiId);
+        }
+    }
+
+    /**
+     * Load a document changed on another node and update the snapshots and the indexes with it.
+     * @return false if the document can't be loaded
+     */
+    private boolean update(String documentId)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        try {
+            // Deleted documents are loaded as new documents, without objects
+            XWikiDocument document = context.getWiki().getDocument(
+                new DocumentReference(this.resolver.resolve(documentId, EntityType.DOCUMENT)), context);
+            this.snapshots.update(document);
+            this.index.update(document);
+            return true;
+        } catch (Exception e) {
+            this.logger.warn("Unable to load the document [{}] changed on another node : [{}]", documentId,
+                e.toString());
+            return false;
+        }
+    }
+}
@@ -56,7 +56,8 @@ public class ApplicationItem
      * Create an item.
      * @param itemId the document full name in which the item is located
      * @param objNumber the item number in the document
-     * @param xDoc the document containing the item
+     * @param xDoc the document containing the item, or null for an item which is only read from a prefetched
+     *            document (its document fields are then set by the caller)
      * @param xObject the BaseObject representing the item in XWiki
      * @param xClass the BaseClass of the item
      * @param context the wiki context
@@ -108,10 +109,11 @@ public class ApplicationItem
                         value.put(key, propValue);
                     } catch (NullPointerException e) {
                         try {
-                            // If value is not set, set an empty value and try again
-                            this.xObject.set(key, "", this.context);
-                            Method methodToFind = this.xObject.getField(key).getClass().getMethod(methodToSearch);
-                            propValue = methodToFind.invoke(this.xObject.getField(key));
+                            // If value is not set, read an empty value. The object may be shared with other
+                            // requests, it is left unchanged.
+                            Object emptyField = prop.fromString("");
+                            Method methodToFind = emptyField.getClass().getMethod(methodToSearch);
+                            propValue = methodToFind.invoke(emptyField);
                             value.put(key, propValue);
                         } catch (NullPointerException | NoSuchMethodException f) {
                             //System.out.println("Can't find the value of property " + key + " in item " + this.itemId);
@@ -127,7 +129,9 @@ public class ApplicationItem
         }
         objectMap = value;
         objectMap.setId(id);
-        objectMap.setXDoc(this.xDoc, this.serializer);
+        if (this.xDoc != null) {
+            objectMap.setXDoc(this.xDoc, this.serializer);
+        }
         return objectMap;
     }
 
@@ -142,21 +146,9 @@ public class ApplicationItem
         Map<String, Object> result = new HashMap<>();
         try {
             if (this.xObject == null) {
-                this.xObject = this.create();
-            }
-            Set<String> itemKeySet = item.keySet();
-            for (String key : itemKeySet) {
-                String className = this.xObject.get(key).getClass().getSimpleName();
-                Object value = item.get(key);
-                Object newValue = convertTo(value, className);
-                this.xObject.set(key, newValue, this.context);
-            }
-            this.xDoc.setAuthorReference(context.getUserReference());
-            // Save the document fields if they have been changed. If the author has been changed in the item,
-            // it will override the previous line which set the author as the current user
-            if(itemDocData != null) {
-                this.updateDocumentFields(itemDocData);
+                this.xObject = this.create(true);
             }
+            this.update(item, itemDocData);
             this.context.getWiki().saveDocument(this.xDoc, "Properties updated", this.context);
             result.put(ApplicationItem.SUCCESS, "1");
         } catch (Exception e) {
@@ -166,6 +158,62 @@ public class ApplicationItem
         return result;
     }
 
+    /**
+     * Update the item in its document without saving the document. It allows several items of the same document to
+     * be saved together.
+     * @param item the item data to store
+     * @throws XWikiException
+     */
+    protected void apply(ItemMap item) throws XWikiException
+    {
+        apply(item, null);
+    }
+
+    /**
+     * Update the item and the fields of its document without saving the document. The values are set on a copy of the
+     * object, which replaces the object of the document once they are all set: an item which can't be applied leaves
+     * the document unchanged, so that the other items of the document can still be saved.
+     * @param item the item data to store
+     * @param itemDocData the document fields to store, or null
+     * @throws XWikiException
+     */
+    protected void apply(ItemMap item, DocumentMap itemDocData) throws XWikiException
+    {
+        BaseObject original = this.xObject;
+        this.xObject = original != null ? original.clone() : this.xClass.newCustomClassInstance(this.context);
+        try {
+            this.update(item, itemDocData);
+        } catch (RuntimeException e) {
+            this.xObject = original;
+            throw e;
+        }
+        if (original == null) {
+            BaseObject created = this.create(false);
+            created.merge(this.xObject);
+            this.xObject = created;
+        } else {
+            this.xDoc.setXObject(original.getNumber(), this.xObject);
+        }
+    }
+
+    private void update(ItemMap item, DocumentMap itemDocData)
+    {
+        Set<String> itemKeySet = item.keySet();
+        for (String key : itemKeySet) {
+            Object value = item.get(key);
+            // New objects don't have any field yet, the value is then converted by the property class
+            Object oldField = this.xObject.get(key);
+            Object newValue = oldField != null ? convertTo(value, oldField.getClass().getSimpleName()) : value;
+            this.xObject.set(key, newValue, this.context);
+        }
+        this.xDoc.setAuthorReference(context.getUserReference());
+        // Save the document fields if they have been changed. If the author has been changed in the item,
+        // it will override the previous line which set the author as the current user
+        if(itemDocData != null) {
+            this.updateDocumentFields(itemDocData);
+        }
+    }
+
     private Object convertTo(Object value, String type) {
         if(value == null)
             return null;
@@ -207,10 +255,11 @@ public class ApplicationItem
 
     /**
      * Create the item in the wiki.
+     * @param save true if the document has to be saved right after the creation of the object
      * @return theaseObject created
      * @throws XWikiException
      */
-    private BaseObject create() throws XWikiException
+    private BaseObject create(boolean save) throws XWikiException
     {
         BaseObject newObj = this.xDoc.newXObject(this.xClass.getReference(), this.context);
         try {
@@ -221,7 +270,9 @@ public class ApplicationItem
         if(this.xDoc.isNew()) {
             this.xDoc.setCreatorReference(context.getUserReference());
         }
-        this.context.getWiki().saveDocument(this.xDoc, this.context);
+        if (save) {
+            this.context.getWiki().saveDocument(this.xDoc, this.context);
+        }
         return newObj;
     }
 
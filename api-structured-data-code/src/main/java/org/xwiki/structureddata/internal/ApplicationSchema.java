@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 
 /**
@@ -23,7 +24,27 @@ import org.slf4j.Logger;
  * @version $Id$
  */
 public class ApplicationSchema {
-    
+
+    /**
+     * The Hibernate types of the stored properties which can be mapped to a column of a dedicated table.
+     */
+    private static final Map<String, String> CUSTOM_MAPPING_TYPES = new HashMap<>();
+
+    /**
+     * The property names which can be written in a mapping: they are used as XML attributes and column names.
+     */
+    private static final Pattern MAPPED_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    static {
+        CUSTOM_MAPPING_TYPES.put("StringProperty", "string");
+        CUSTOM_MAPPING_TYPES.put("LargeStringProperty", "text");
+        CUSTOM_MAPPING_TYPES.put("IntegerProperty", "integer");
+        CUSTOM_MAPPING_TYPES.put("LongProperty", "long");
+        CUSTOM_MAPPING_TYPES.put("FloatProperty", "float");
+        CUSTOM_MAPPING_TYPES.put("DoubleProperty", "double");
+        CUSTOM_MAPPING_TYPES.put("DateProperty", "timestamp");
+    }
+
     /**
      * @param xClass the BaseClass representing the application
      * @param context the wiki context
@@ -44,6 +65,36 @@ public class ApplicationSchema {
         return value;
     }
     
+    /**
+     * Generate the custom mapping storing the enabled properties of a class in a dedicated table (see
+     * {@link DedicatedTables}). The mapping only holds the properties, the table and its id are added by the store.
+     * @param xClass the BaseClass representing the application
+     * @return the property elements of the Hibernate mapping
+     * @throws IllegalArgumentException if a property can't be stored in a single column (multiple values lists), or if
+     *             its name isn't a valid identifier
+     */
+    protected static String getCustomMapping(BaseClass xClass) {
+        StringBuilder mapping = new StringBuilder();
+        for (PropertyClass property : xClass.getEnabledProperties()) {
+            String name = property.getName();
+            if (!MAPPED_NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("The name of the property [" + name + "] can't be used as a column");
+            }
+            String type = property.newProperty().getClass().getSimpleName();
+            if (!CUSTOM_MAPPING_TYPES.containsKey(type)) {
+                throw new IllegalArgumentException("The property [" + name + "] can't be stored in a dedicated table");
+            }
+            // The columns are quoted since the property names may be reserved words of the database
+            mapping.append("<property name=\"").append(name).append("\" type=\"")
+                .append(CUSTOM_MAPPING_TYPES.get(type)).append("\"><column name=\"`").append(name).append("`\"");
+            if ("StringProperty".equals(type)) {
+                mapping.append(" length=\"255\"");
+            }
+            mapping.append("/></property>\n");
+        }
+        return mapping.toString();
+    }
+
     /**
      * Add the posible values for DB and Static lists to the schema.
      * @param propertyMap the map representing the property where to put the list of values
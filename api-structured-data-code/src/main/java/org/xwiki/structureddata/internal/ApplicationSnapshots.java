@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Columnar snapshots of the classes declared with the "structureddata.snapshot.classes" configuration, used to compute
+ * the aggregates of their applications without loading the items.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationSnapshots
+{
+    /**
+     * Compute the aggregates of an application with the snapshot of its class, when there is one.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @return the application using the snapshot, or the application itself if its class has no snapshot
+     */
+    Application wrap(Application application, DocumentReference classReference, String dataSpace);
+
+    /**
+     * @param classReference the reference of a class
+     * @return the snapshot of the class, built if needed, or null if the class has no snapshot
+     */
+    ColumnarSnapshot getSnapshot(DocumentReference classReference);
+
+    /**
+     * Update the snapshots after a document has been saved or deleted.
+     * @param document the new version of the document
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Forget the snapshots of a wiki.
+     * @param wikiId the id of the wiki
+     */
+    void removeWiki(String wikiId);
+
+    /**
+     * Forget the snapshots of classes changed on another node of the cluster. They are loaded again on next use.
+     * @param classes the references of the classes, with their wiki
+     */
+    void invalidate(Collection<String> classes);
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collection;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Version stamps of the data of each class. A stamp changes each time a document holding an object of the class (or
+ * the class itself) is saved or deleted, so that the results computed for an older stamp can be recognized as stale
+ * without scanning them.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ApplicationVersions
+{
+    /**
+     * @param classReference the reference of a class
+     * @return the current version stamp of the objects of the class
+     */
+    long getVersion(DocumentReference classReference);
+
+    /**
+     * @return the current version stamp of the rights, groups and users of the farm, which change the items viewable
+     *         by a user
+     */
+    long getRightsVersion();
+
+    /**
+     * Change the stamps of the classes of a document after it has been saved or deleted.
+     * @param document the new version of the document
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Change the stamps of classes changed on another node of the cluster.
+     * @param classes the references of the classes, with their wiki
+     */
+    void invalidate(Collection<String> classes);
+}
@@ -0,0 +1,115 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.structureddata.Application;
+
+/**
+ * An application whose items queries are answered from the {@link ItemsCache} when the same query has already been
+ * run by the same user and the data of the class has not changed since. Identical queries running at the same time
+ * share one computation. The other operations are not cached.
+ *
+ * @version $Id$
+ */
+public class CachedApplication extends AbstractForwardingApplication
+{
+    private final DocumentReference classReference;
+
+    private final String dataSpace;
+
+    private final DefaultItemsCache cache;
+
+    private final Logger logger;
+
+    /**
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space containing the items of an AppWithinMinutes application, null for a class
+     * @param cache the cache of the results
+     * @param logger the console logger
+     */
+    public CachedApplication(Application application, DocumentReference classReference, String dataSpace,
+            DefaultItemsCache cache, Logger logger)
+    {
+        super(application);
+        this.classReference = classReference;
+        this.dataSpace = dataSpace;
+        this.cache = cache;
+        this.logger = logger;
+    }
+
+    @Override
+    public Map<String, Object> getItems() throws Exception
+    {
+        Map<String, Object> options = new HashMap<>();
+        return this.getItems(options);
+    }
+
+    @Override
+    public Map<String, Object> getItems(Map<String, Object> options) throws Exception
+    {
+        Map<String, Object> value = new HashMap<>();
+        try {
+            for (ItemMap map : this.getItemList(options)) {
+                value.put(map.getId(), map);
+            }
+        } catch (QueryException e) {
+            logger.error("Unable to get the list of items", e);
+        }
+        return value;
+    }
+
+    @Override
+    public ItemList getItemList(final Map<String, Object> options) throws Exception
+    {
+        String key = this.cache.getKey(this.application, this.classReference, this.dataSpace, options);
+        if (key == null) {
+            return this.application.getItemList(options);
+        }
+        ItemList items = this.cache.get(key);
+        if (items == null) {
+            items = this.cache.load(key, new Callable<ItemList>()
+            {
+                @Override
+                public ItemList call() throws Exception
+                {
+                    return application.getItemList(options);
+                }
+            });
+        }
+        return items;
+    }
+
+    @Override
+    public Iterator<ItemMap> getItemsIterator(Map<String, Object> options) throws Exception
+    {
+        // The iterator reads all the items page by page, keeping them would defeat its purpose
+        return this.application.getItemsIterator(options);
+    }
+
+}
@@ -0,0 +1,447 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Authorization manager used by the applications, which remembers the view right of the documents. The users having
+ * the same groups get the same view rights, so the decisions are shared by all the users of a group set: each
+ * document of a wiki gets an ordinal, and each group set of the wiki has a bitmap of the checked documents and a
+ * bitmap of the viewable ones. The bitmaps are dropped when the rights, groups or users change (see
+ * {@link ApplicationVersions#getRightsVersion()}). Users who are named directly in a global rights object granting or
+ * denying the view right, and the users whose rights don't come from their groups (superadmin, owner of the wiki,
+ * administrators) get their own bitmaps; the documents whose rights objects name the user directly are checked
+ * without the bitmaps. The other rights are checked by the default authorization manager.
+ *
+ * @version $Id$
+ */
+@Component
+@Named("structureddata.cached")
+@Singleton
+public class CachedAuthorizationManager implements ContextualAuthorizationManager
+{
+    private static final String GUEST = "guest";
+
+    /**
+     * The number of documents having an ordinal in a wiki, above which the ordinals and the bitmaps are dropped.
+     */
+    private static final int MAX_DOCUMENTS = 100000;
+
+    private static final String VIEW = "view";
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private ApplicationVersions versions;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The state of each wiki. Guarded by this.
+     */
+    private final Map<String, WikiRights> wikis = new HashMap<>();
+
+    /**
+     * The view rights of a group set.
+     */
+    private static class Visibility
+    {
+        private final BitSet checked = new BitSet();
+
+        private final BitSet viewable = new BitSet();
+    }
+
+    /**
+     * The users named in the rights objects granting or denying the view right.
+     */
+    private static class NamedUsers
+    {
+        /**
+         * The users named in the global rights objects, which apply to many documents.
+         */
+        private final Set<String> global = new HashSet<>();
+
+        /**
+         * The users named in the rights objects of each document, which apply only to the document.
+         */
+        private final Map<String, Set<String>> documents = new HashMap<>();
+    }
+
+    /**
+     * The view rights of the documents of a wiki. Guarded by itself.
+     */
+    private static class WikiRights
+    {
+        /**
+         * The ordinals of the documents, which are only reused once they have all been dropped.
+         */
+        private final Map<String, Integer> ordinals = new HashMap<>();
+
+        /**
+         * Incremented when the ordinals are dropped.
+         */
+        private long generation;
+
+        /**
+         * The group set of each user.
+         */
+        private final Map<String, String> userKeys;
+
+        /**
+         * The view rights of each group set, the least recently used ones being removed first.
+         */
+        private final Map<String, Visibility> visibilities;
+
+        /**
+         * The users named in the rights objects which apply to the wiki, or null if they have not been read yet.
+         */
+        private NamedUsers namedUsers;
+
+        private long rightsVersion;
+
+        WikiRights(final int size, long rightsVersion)
+        {
+            this.rightsVersion = rightsVersion;
+            this.visibilities = new LinkedHashMap<String, Visibility>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Visibility> eldest)
+                {
+                    return size() > size;
+                }
+            };
+            this.userKeys = new LinkedHashMap<String, String>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+                {
+                    return size() > size * 10;
+                }
+            };
+        }
+
+        private int getOrdinal(String documentName)
+        {
+            Integer ordinal = this.ordinals.get(documentName);
+            if (ordinal == null) {
+                if (this.ordinals.size() >= MAX_DOCUMENTS) {
+                    // The bitmaps use the ordinals, they are dropped with them
+                    this.ordinals.clear();
+                    this.visibilities.clear();
+                    this.generation++;
+                }
+                ordinal = this.ordinals.size();
+                this.ordinals.put(documentName, ordinal);
+            }
+            return ordinal;
+        }
+    }
+
+    @Override
+    public void checkAccess(Right right) throws AccessDeniedException
+    {
+        this.authorization.checkAccess(right);
+    }
+
+    @Override
+    public boolean hasAccess(Right right)
+    {
+        return this.authorization.hasAccess(right);
+    }
+
+    @Override
+    public void checkAccess(Right right, EntityReference entityReference) throws AccessDeniedException
+    {
+        if (!isCached(right, entityReference)) {
+            this.authorization.checkAccess(right, entityReference);
+        } else if (!hasAccess(right, entityReference)) {
+            throw new AccessDeniedException(right, this.xcontextProvider.get().getUserReference(), entityReference);
+        }
+    }
+
+    @Override
+    public boolean hasAccess(Right right, EntityReference entityReference)
+    {
+        if (!isCached(right, entityReference)) {
+            return this.authorization.hasAccess(right, entityReference);
+        }
+        String wikiId = entityReference.extractReference(EntityType.WIKI).getName();
+        String documentName = this.localSerializer.serialize(entityReference);
+        WikiRights wikiRights = getWikiRights(wikiId);
+        String userKey = getUserKey(wikiId, wikiRights, documentName);
+        if (userKey == null) {
+            return this.authorization.hasAccess(right, entityReference);
+        }
+        int ordinal;
+        long generation;
+        synchronized (wikiRights) {
+            ordinal = wikiRights.getOrdinal(documentName);
+            generation = wikiRights.generation;
+            Visibility visibility = wikiRights.visibilities.get(userKey);
+            if (visibility != null && visibility.checked.get(ordinal)) {
+                return visibility.viewable.get(ordinal);
+            }
+        }
+        long rightsVersion = this.versions.getRightsVersion();
+        boolean viewable = this.authorization.hasAccess(right, entityReference);
+        synchronized (wikiRights) {
+            // A decision taken while the rights were changing, or while the ordinals were dropped, is not kept
+            if (wikiRights.rightsVersion == rightsVersion && wikiRights.generation == generation) {
+                Visibility visibility = wikiRights.visibilities.get(userKey);
+                if (visibility == null) {
+                    visibility = new Visibility();
+                    wikiRights.visibilities.put(userKey, visibility);
+                }
+                visibility.checked.set(ordinal);
+                visibility.viewable.set(ordinal, viewable);
+            }
+        }
+        return viewable;
+    }
+
+    private boolean isCached(Right right, EntityReference entityReference)
+    {
+        return Right.VIEW.equals(right) && entityReference != null
+            && entityReference.getType() == EntityType.DOCUMENT && this.configuration.getRightsCacheSize() > 0;
+    }
+
+    private synchronized WikiRights getWikiRights(String wikiId)
+    {
+        long rightsVersion = this.versions.getRightsVersion();
+        WikiRights wikiRights = this.wikis.get(wikiId);
+        if (wikiRights == null) {
+            wikiRights = new WikiRights(this.configuration.getRightsCacheSize(), rightsVersion);
+            this.wikis.put(wikiId, wikiRights);
+        }
+        synchronized (wikiRights) {
+            if (wikiRights.rightsVersion != rightsVersion) {
+                // The ordinals don't depend on the rights
+                wikiRights.visibilities.clear();
+                wikiRights.userKeys.clear();
+                wikiRights.namedUsers = null;
+                wikiRights.rightsVersion = rightsVersion;
+            }
+        }
+        return wikiRights;
+    }
+
+    /**
+     * @return the group set of the current user in a wiki, or null if the view right of the document has to be
+     *         checked without the bitmaps
+     */
+    private String getUserKey(String wikiId, WikiRights wikiRights, String documentName)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        DocumentReference userReference = context.getUserReference();
+        if (userReference == null) {
+            return GUEST;
+        }
+        String userId = this.serializer.serialize(userReference);
+        String userName = this.localSerializer.serialize(userReference);
+        NamedUsers namedUsers;
+        try {
+            namedUsers = getNamedUsers(wikiId, wikiRights);
+        } catch (Exception e) {
+            this.logger.warn("Unable to read the rights of the wiki [{}] : [{}]", wikiId, e.toString());
+            return null;
+        }
+        if (isNamed(namedUsers.documents.get(documentName), userReference, userName)) {
+            return null;
+        }
+        synchronized (wikiRights) {
+            String userKey = wikiRights.userKeys.get(userId);
+            if (userKey != null) {
+                return userKey;
+            }
+        }
+
+        String userKey;
+        String oldWikiId = context.getWikiId();
+        try {
+            if (isNamed(namedUsers.global, userReference, userName)
+                || isPrivileged(wikiId, userReference, userId, userName, context)) {
+                userKey = userId;
+            } else {
+                // Registered users are implicitly members of the XWikiAllGroup of their wiki
+                Set<String> groups = new TreeSet<>();
+                groups.add(userReference.getWikiReference().getName());
+                for (String groupsWikiId : new HashSet<>(Arrays.asList(wikiId,
+                    userReference.getWikiReference().getName()))) {
+                    context.setWikiId(groupsWikiId);
+                    Collection<DocumentReference> groupReferences = context.getWiki().getGroupService(context)
+                        .getAllGroupsReferencesForMember(userReference, 0, 0, context);
+                    for (DocumentReference groupReference : groupReferences) {
+                        groups.add(this.serializer.serialize(groupReference));
+                    }
+                }
+                userKey = groups.toString();
+            }
+        } catch (Exception e) {
+            this.logger.warn("Unable to read the groups of the user [{}] : [{}]", userId, e.toString());
+            return null;
+        } finally {
+            context.setWikiId(oldWikiId);
+        }
+        synchronized (wikiRights) {
+            wikiRights.userKeys.put(userId, userKey);
+        }
+        return userKey;
+    }
+
+    private boolean isNamed(Set<String> users, DocumentReference userReference, String userName)
+    {
+        return users != null && (users.contains(userName) || users.contains(userReference.getName()));
+    }
+
+    /**
+     * The rights of the superadmin, of the owner of the wiki and of the administrators don't come from their groups.
+     */
+    private boolean isPrivileged(String wikiId, DocumentReference userReference, String userId, String userName,
+        XWikiContext context) throws Exception
+    {
+        if (XWikiRightService.SUPERADMIN_USER.equalsIgnoreCase(userReference.getName())) {
+            return true;
+        }
+        String owner = context.getWiki().getWikiOwner(wikiId, context);
+        if (userId.equals(owner) || userName.equals(owner)) {
+            return true;
+        }
+        return this.authorizationManager.hasAccess(Right.ADMIN, userReference, new WikiReference(wikiId))
+            || this.authorizationManager.hasAccess(Right.PROGRAM, userReference,
+            new WikiReference(context.getMainXWiki()));
+    }
+
+    /**
+     * Read the users named in the rights objects granting or denying the view right in a wiki, and in the global
+     * rights objects of the main wiki (which apply to the whole farm). The other rights objects, like the ones giving
+     * the edit right on the profile of each user, don't change the view rights.
+     */
+    private NamedUsers getNamedUsers(String wikiId, WikiRights wikiRights) throws Exception
+    {
+        synchronized (wikiRights) {
+            if (wikiRights.namedUsers != null) {
+                return wikiRights.namedUsers;
+            }
+        }
+        NamedUsers namedUsers = new NamedUsers();
+        XWikiContext context = this.xcontextProvider.get();
+        for (String rightsWikiId : new HashSet<>(Arrays.asList(wikiId, context.getMainXWiki()))) {
+            List<Object[]> rows = this.queryManager.createQuery("select rights.users, rights.levels "
+                + "from Document doc, doc.object(XWiki.XWikiGlobalRights) as rights where doc.translation = 0",
+                Query.XWQL).setWiki(rightsWikiId).execute();
+            for (Object[] row : rows) {
+                if (getValues(row[1]).contains(VIEW)) {
+                    namedUsers.global.addAll(getValues(row[0]));
+                }
+            }
+        }
+        List<Object[]> rows = this.queryManager.createQuery("select doc.fullName, rights.users, rights.levels "
+            + "from Document doc, doc.object(XWiki.XWikiRights) as rights where doc.translation = 0", Query.XWQL)
+            .setWiki(wikiId).execute();
+        for (Object[] row : rows) {
+            if (getValues(row[2]).contains(VIEW)) {
+                Set<String> users = namedUsers.documents.get(row[0]);
+                if (users == null) {
+                    users = new HashSet<>();
+                    namedUsers.documents.put((String) row[0], users);
+                }
+                users.addAll(getValues(row[1]));
+            }
+        }
+        synchronized (wikiRights) {
+            wikiRights.namedUsers = namedUsers;
+        }
+        return namedUsers;
+    }
+
+    /**
+     * @return the values of a users or levels property, without the wiki prefix of the users of other wikis
+     */
+    private static Set<String> getValues(Object value)
+    {
+        Set<String> values = new HashSet<>();
+        if (value == null) {
+            return values;
+        }
+        Collection<?> elements = value instanceof Collection ? (Collection<?>) value
+            : Arrays.asList(value.toString().split("[,|]"));
+        for (Object element : elements) {
+            String name = String.valueOf(element);
+            name = name.substring(name.indexOf(':') + 1).trim();
+            if (!name.isEmpty()) {
+                values.add(name);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,932 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.BooleanClass;
+import com.xpn.xwiki.objects.classes.DateClass;
+import com.xpn.xwiki.objects.classes.ListClass;
+import com.xpn.xwiki.objects.classes.NumberClass;
+import com.xpn.xwiki.objects.classes.PasswordClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+import com.xpn.xwiki.objects.classes.TextAreaClass;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Columnar copy of the objects of a class, stored outside of the Java heap. There is a row for each object: numbers
+ * (and booleans) are stored as doubles, dates as timestamps, and the other single values as codes in a dictionary of
+ * strings. Long texts, passwords and multiple values lists are not stored. The rows of deleted or modified objects
+ * are marked as removed, and the removed rows are compacted when they are the majority. The snapshot can be written
+ * in a file and read back through a memory mapping of the file (see {@link SnapshotFiles}), the columns then use the
+ * mapped file until they have to grow.
+ *
+ * @version $Id$
+ */
+public class ColumnarSnapshot
+{
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int MAGIC = 0x53445343;
+
+    /**
+     * The version of the file format, to increment when the format changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Decide which documents can be read by a scan (rights of the user, space of the application, etc.). The filter
+     * is called without holding the lock of the snapshot.
+     */
+    public interface DocumentFilter
+    {
+        /**
+         * @param documentName the full name of a document
+         * @return true if the rows of the document can be read
+         */
+        boolean accept(String documentName);
+    }
+
+    /**
+     * A condition on the rows, compiled from an {@link ItemFilter}.
+     */
+    private interface RowMatcher
+    {
+        boolean matches(int row);
+    }
+
+    /**
+     * A column of values, with a value (or an empty value) for each row.
+     */
+    private abstract static class Column
+    {
+        protected final PropertyClass propertyClass;
+
+        protected ByteBuffer buffer;
+
+        private final int width;
+
+        Column(PropertyClass propertyClass, int width)
+        {
+            this.propertyClass = propertyClass;
+            this.width = width;
+            this.buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY * width);
+        }
+
+        void ensureCapacity(int rows)
+        {
+            if ((long) rows * this.width > this.buffer.capacity()) {
+                ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(rows, this.buffer.capacity()
+                    / this.width * 2) * this.width);
+                ByteBuffer oldBuffer = this.buffer.duplicate();
+                oldBuffer.clear();
+                newBuffer.put(oldBuffer);
+                newBuffer.clear();
+                this.buffer = newBuffer;
+            }
+        }
+
+        void write(DataOutputStream output, int rows) throws IOException
+        {
+            SnapshotFiles.writeBytes(output, this.buffer, rows * this.width);
+        }
+
+        void read(ByteBuffer input, int rows)
+        {
+            this.buffer = SnapshotFiles.readBytes(input, rows * this.width);
+        }
+
+        void copy(int from, int to)
+        {
+            for (int i = 0; i < this.width; i++) {
+                this.buffer.put(to * this.width + i, this.buffer.get(from * this.width + i));
+            }
+        }
+
+        /**
+         * @param row a row
+         * @param value the value of the property, as read from the object
+         */
+        abstract void set(int row, Object value);
+
+        /**
+         * @return the value of a row (Double, Date or String), or null
+         */
+        abstract Object get(int row);
+
+        /**
+         * @return the numeric value of a row, or NaN
+         */
+        abstract double getNumber(int row);
+
+        /**
+         * @return the condition of a filter on the column, or null if the filter is not supported
+         */
+        abstract RowMatcher compile(ItemFilter filter);
+    }
+
+    /**
+     * Numbers and booleans, stored as doubles (NaN for the empty values).
+     */
+    private static class NumberColumn extends Column
+    {
+        NumberColumn(PropertyClass propertyClass)
+        {
+            super(propertyClass, 8);
+        }
+
+        @Override
+        void set(int row, Object value)
+        {
+            this.buffer.putDouble(row * 8, ItemAggregator.toNumber(value));
+        }
+
+        @Override
+        Object get(int row)
+        {
+            double value = getNumber(row);
+            return Double.isNaN(value) ? null : value;
+        }
+
+        @Override
+        double getNumber(int row)
+        {
+            return this.buffer.getDouble(row * 8);
+        }
+
+        @Override
+        RowMatcher compile(ItemFilter filter)
+        {
+            switch (filter.getOp()) {
+                case ItemFilter.EQ:
+                    final double value = convert(filter.getValue());
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return getNumber(row) == value;
+                        }
+                    };
+                case ItemFilter.IN:
+                    final double[] values = new double[filter.getValues().size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = convert(filter.getValues().get(i));
+                    }
+                    Arrays.sort(values);
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return Arrays.binarySearch(values, getNumber(row)) >= 0;
+                        }
+                    };
+                case ItemFilter.RANGE:
+                    final double min = filter.getMin() != null ? convert(filter.getMin()) : Double.NEGATIVE_INFINITY;
+                    final double max = filter.getMax() != null ? convert(filter.getMax()) : Double.POSITIVE_INFINITY;
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            double rowValue = getNumber(row);
+                            return rowValue >= min && rowValue <= max;
+                        }
+                    };
+                case ItemFilter.IS_NULL:
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return Double.isNaN(getNumber(row));
+                        }
+                    };
+                default:
+                    return null;
+            }
+        }
+
+        private double convert(Object value)
+        {
+            return ItemAggregator.toNumber(FilterCompiler.convert(this.propertyClass, value));
+        }
+    }
+
+    /**
+     * Dates, stored as timestamps (Long.MIN_VALUE for the empty values).
+     */
+    private static class DateColumn extends Column
+    {
+        DateColumn(PropertyClass propertyClass)
+        {
+            super(propertyClass, 8);
+        }
+
+        @Override
+        void set(int row, Object value)
+        {
+            this.buffer.putLong(row * 8, value instanceof Date ? ((Date) value).getTime() : Long.MIN_VALUE);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            long value = this.buffer.getLong(row * 8);
+            return value == Long.MIN_VALUE ? null : new Date(value);
+        }
+
+        @Override
+        double getNumber(int row)
+        {
+            long value = this.buffer.getLong(row * 8);
+            return value == Long.MIN_VALUE ? Double.NaN : value;
+        }
+
+        @Override
+        RowMatcher compile(ItemFilter filter)
+        {
+            switch (filter.getOp()) {
+                case ItemFilter.EQ:
+                    final long value = convert(filter.getValue());
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return buffer.getLong(row * 8) == value;
+                        }
+                    };
+                case ItemFilter.IN:
+                    final long[] values = new long[filter.getValues().size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = convert(filter.getValues().get(i));
+                    }
+                    Arrays.sort(values);
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return Arrays.binarySearch(values, buffer.getLong(row * 8)) >= 0;
+                        }
+                    };
+                case ItemFilter.RANGE:
+                    // Long.MIN_VALUE is the empty value, it is never in a range
+                    final long min = filter.getMin() != null ? convert(filter.getMin()) : Long.MIN_VALUE + 1;
+                    final long max = filter.getMax() != null ? convert(filter.getMax()) : Long.MAX_VALUE;
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            long rowValue = buffer.getLong(row * 8);
+                            return rowValue >= min && rowValue <= max;
+                        }
+                    };
+                case ItemFilter.IS_NULL:
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            return buffer.getLong(row * 8) == Long.MIN_VALUE;
+                        }
+                    };
+                default:
+                    return null;
+            }
+        }
+
+        private long convert(Object value)
+        {
+            return ((Date) FilterCompiler.convert(this.propertyClass, value)).getTime();
+        }
+    }
+
+    /**
+     * Other single values, stored as codes in a dictionary of strings (-1 for the empty values).
+     */
+    private static class StringColumn extends Column
+    {
+        private final List<String> dictionary = new ArrayList<>();
+
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        StringColumn(PropertyClass propertyClass)
+        {
+            super(propertyClass, 4);
+        }
+
+        @Override
+        void set(int row, Object value)
+        {
+            int code = -1;
+            if (value != null) {
+                String stringValue = value.toString();
+                Integer existingCode = this.codes.get(stringValue);
+                if (existingCode == null) {
+                    existingCode = this.dictionary.size();
+                    this.dictionary.add(stringValue);
+                    this.codes.put(stringValue, existingCode);
+                }
+                code = existingCode;
+            }
+            this.buffer.putInt(row * 4, code);
+        }
+
+        @Override
+        void write(DataOutputStream output, int rows) throws IOException
+        {
+            output.writeInt(this.dictionary.size());
+            for (String value : this.dictionary) {
+                SnapshotFiles.writeString(output, value);
+            }
+            super.write(output, rows);
+        }
+
+        @Override
+        void read(ByteBuffer input, int rows)
+        {
+            int size = input.getInt();
+            for (int code = 0; code < size; code++) {
+                String value = SnapshotFiles.readString(input);
+                this.dictionary.add(value);
+                this.codes.put(value, code);
+            }
+            super.read(input, rows);
+        }
+
+        @Override
+        Object get(int row)
+        {
+            int code = this.buffer.getInt(row * 4);
+            return code < 0 ? null : this.dictionary.get(code);
+        }
+
+        @Override
+        double getNumber(int row)
+        {
+            return Double.NaN;
+        }
+
+        @Override
+        RowMatcher compile(ItemFilter filter)
+        {
+            switch (filter.getOp()) {
+                case ItemFilter.EQ:
+                case ItemFilter.IN:
+                    // The values are compared through their codes, a value which is not in the dictionary can't match
+                    List<?> values = ItemFilter.EQ.equals(filter.getOp()) ? Arrays.asList(filter.getValue())
+                        : filter.getValues();
+                    final BitSet matchingCodes = new BitSet();
+                    for (Object value : values) {
+                        Integer code = this.codes.get(FilterCompiler.convert(this.propertyClass, value).toString());
+                        if (code != null) {
+                            matchingCodes.set(code);
+                        }
+                    }
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            int code = buffer.getInt(row * 4);
+                            return code >= 0 && matchingCodes.get(code);
+                        }
+                    };
+                case ItemFilter.RANGE:
+                    final String min = filter.getMin() != null ? filter.getMin().toString() : null;
+                    final String max = filter.getMax() != null ? filter.getMax().toString() : null;
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            Object value = get(row);
+                            return value != null && (min == null || value.toString().compareTo(min) >= 0)
+                                && (max == null || value.toString().compareTo(max) <= 0);
+                        }
+                    };
+                case ItemFilter.PREFIX:
+                    final String prefix = filter.getValue().toString();
+                    if (prefix.contains("%") || prefix.contains("_")) {
+                        return null;
+                    }
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            Object value = get(row);
+                            return value != null && value.toString().startsWith(prefix);
+                        }
+                    };
+                default:
+                    return new RowMatcher()
+                    {
+                        @Override
+                        public boolean matches(int row)
+                        {
+                            // Empty strings are considered as empty values, like in the queries
+                            Object value = get(row);
+                            return value == null || value.toString().isEmpty();
+                        }
+                    };
+            }
+        }
+    }
+
+    private final Map<String, Column> columns = new HashMap<>();
+
+    /**
+     * The document of each row, as a code in the list of documents.
+     */
+    private ByteBuffer rowDocuments = ByteBuffer.allocateDirect(INITIAL_CAPACITY * 4);
+
+    private final List<String> documents = new ArrayList<>();
+
+    private final List<String> documentVersions = new ArrayList<>();
+
+    private final Map<String, Integer> documentCodes = new HashMap<>();
+
+    private final Map<Integer, List<Integer>> documentRows = new HashMap<>();
+
+    private final BitSet liveRows = new BitSet();
+
+    private final BitSet hiddenRows = new BitSet();
+
+    private int rowCount;
+
+    private int removedRows;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The stored columns and their types, to check that a stored snapshot matches the current class.
+     */
+    private final String signature;
+
+    /**
+     * @param xClass the class of the objects
+     */
+    public ColumnarSnapshot(BaseClass xClass)
+    {
+        for (Object field : xClass.getProperties()) {
+            PropertyClass propertyClass = (PropertyClass) field;
+            Column column = createColumn(propertyClass);
+            if (column != null) {
+                this.columns.put(propertyClass.getName(), column);
+            }
+        }
+        this.signature = getSignature(xClass);
+    }
+
+    /**
+     * @param xClass the current class of the objects
+     * @return true if the columns of the snapshot are still the ones of the class, false if the snapshot has to be
+     *         built again
+     */
+    public boolean matches(BaseClass xClass)
+    {
+        return this.signature.equals(getSignature(xClass));
+    }
+
+    private static Column createColumn(PropertyClass propertyClass)
+    {
+        Class<? extends Column> type = getColumnType(propertyClass);
+        if (type == NumberColumn.class) {
+            return new NumberColumn(propertyClass);
+        } else if (type == DateColumn.class) {
+            return new DateColumn(propertyClass);
+        }
+        return type == StringColumn.class ? new StringColumn(propertyClass) : null;
+    }
+
+    /**
+     * @return the stored columns and their types
+     */
+    private static String getSignature(BaseClass xClass)
+    {
+        Map<String, String> types = new TreeMap<>();
+        for (Object field : xClass.getProperties()) {
+            PropertyClass propertyClass = (PropertyClass) field;
+            Class<? extends Column> type = getColumnType(propertyClass);
+            if (type != null) {
+                types.put(propertyClass.getName(), type.getSimpleName());
+            }
+        }
+        return types.toString();
+    }
+
+    /**
+     * @return the type of the column storing the values of a property, or null if the values are not stored
+     */
+    private static Class<? extends Column> getColumnType(PropertyClass propertyClass)
+    {
+        if (propertyClass.isDisabled()) {
+            return null;
+        }
+        if (propertyClass instanceof NumberClass || propertyClass instanceof BooleanClass) {
+            return NumberColumn.class;
+        } else if (propertyClass instanceof DateClass) {
+            return DateColumn.class;
+        } else if (!(propertyClass instanceof TextAreaClass || propertyClass instanceof PasswordClass
+            || (propertyClass instanceof ListClass && ((ListClass) propertyClass).isMultiSelect()))) {
+            return StringColumn.class;
+        }
+        return null;
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(DataOutputStream)}.
+     * @param xClass the current class of the objects
+     * @param input the content of the file
+     * @return the snapshot, or null if the file has been written with another format or for another version of the
+     *         class
+     */
+    public static ColumnarSnapshot read(BaseClass xClass, ByteBuffer input)
+    {
+        ColumnarSnapshot snapshot = new ColumnarSnapshot(xClass);
+        if (input.getInt() != MAGIC || input.getInt() != FORMAT_VERSION
+            || !snapshot.signature.equals(SnapshotFiles.readString(input))) {
+            return null;
+        }
+        int documentCount = input.getInt();
+        for (int document = 0; document < documentCount; document++) {
+            String documentName = SnapshotFiles.readString(input);
+            snapshot.documents.add(documentName);
+            snapshot.documentVersions.add(SnapshotFiles.readString(input));
+            snapshot.documentCodes.put(documentName, document);
+        }
+        snapshot.rowCount = input.getInt();
+        snapshot.rowDocuments = SnapshotFiles.readBytes(input, snapshot.rowCount * 4);
+        for (int row = 0; row < snapshot.rowCount; row++) {
+            int document = snapshot.rowDocuments.getInt(row * 4);
+            List<Integer> rows = snapshot.documentRows.get(document);
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                snapshot.documentRows.put(document, rows);
+            }
+            rows.add(row);
+        }
+        snapshot.liveRows.set(0, snapshot.rowCount);
+        long[] hiddenRows = new long[input.getInt()];
+        for (int i = 0; i < hiddenRows.length; i++) {
+            hiddenRows[i] = input.getLong();
+        }
+        snapshot.hiddenRows.or(BitSet.valueOf(hiddenRows));
+        for (int i = 0; i < snapshot.columns.size(); i++) {
+            snapshot.columns.get(SnapshotFiles.readString(input)).read(input, snapshot.rowCount);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the snapshot, without the removed rows.
+     * @param output the output stream of the file
+     * @throws IOException if the snapshot can't be written
+     */
+    public void write(DataOutputStream output) throws IOException
+    {
+        // The write lock is needed to compact the rows
+        this.lock.writeLock().lock();
+        try {
+            if (this.removedRows > 0) {
+                compact();
+            }
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            SnapshotFiles.writeString(output, this.signature);
+            // Only the documents which still have rows are written
+            int[] codes = new int[this.documents.size()];
+            output.writeInt(this.documentRows.size());
+            int code = 0;
+            for (Integer document : this.documentRows.keySet()) {
+                codes[document] = code++;
+                SnapshotFiles.writeString(output, this.documents.get(document));
+                SnapshotFiles.writeString(output, this.documentVersions.get(document));
+            }
+            output.writeInt(this.rowCount);
+            for (int row = 0; row < this.rowCount; row++) {
+                output.writeInt(codes[this.rowDocuments.getInt(row * 4)]);
+            }
+            long[] hiddenRows = this.hiddenRows.toLongArray();
+            output.writeInt(hiddenRows.length);
+            for (long word : hiddenRows) {
+                output.writeLong(word);
+            }
+            for (Map.Entry<String, Column> column : this.columns.entrySet()) {
+                SnapshotFiles.writeString(output, column.getKey());
+                column.getValue().write(output, this.rowCount);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the version of each document having rows in the snapshot, by full name
+     */
+    public Map<String, String> getDocumentVersions()
+    {
+        this.lock.readLock().lock();
+        try {
+            Map<String, String> versions = new HashMap<>();
+            for (Integer document : this.documentRows.keySet()) {
+                versions.put(this.documents.get(document), this.documentVersions.get(document));
+            }
+            return versions;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param property the name of a property
+     * @return true if the values of the property are in the snapshot
+     */
+    public boolean hasColumn(String property)
+    {
+        return this.columns.containsKey(property);
+    }
+
+    /**
+     * Add a row, without values.
+     * @param documentName the full name of the document of the object
+     * @param version the version of the document
+     * @param hidden true if the document is hidden
+     * @return the new row
+     */
+    public int addRow(String documentName, String version, boolean hidden)
+    {
+        this.lock.writeLock().lock();
+        try {
+            int row = this.rowCount++;
+            ensureCapacity(this.rowCount);
+            Integer document = this.documentCodes.get(documentName);
+            if (document == null) {
+                document = this.documents.size();
+                this.documents.add(documentName);
+                this.documentVersions.add(version);
+                this.documentCodes.put(documentName, document);
+            } else {
+                this.documentVersions.set(document, version);
+            }
+            this.rowDocuments.putInt(row * 4, document);
+            List<Integer> rows = this.documentRows.get(document);
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                this.documentRows.put(document, rows);
+            }
+            rows.add(row);
+            this.liveRows.set(row);
+            this.hiddenRows.set(row, hidden);
+            for (Column column : this.columns.values()) {
+                column.set(row, null);
+            }
+            return row;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Set a value of a row.
+     * @param row the row
+     * @param property the name of the property
+     * @param value the value, as read from the object
+     */
+    public void setValue(int row, String property, Object value)
+    {
+        Column column = this.columns.get(property);
+        if (column != null) {
+            this.lock.writeLock().lock();
+            try {
+                column.set(row, value);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Replace the rows of a document after it has been saved or deleted.
+     * @param documentName the full name of the document
+     * @param version the version of the document
+     * @param hidden true if the document is hidden
+     * @param objects the objects of the class in the document (empty if the document has been deleted)
+     */
+    public void updateDocument(String documentName, String version, boolean hidden, List<BaseObject> objects)
+    {
+        this.lock.writeLock().lock();
+        try {
+            Integer document = this.documentCodes.get(documentName);
+            List<Integer> rows = document != null ? this.documentRows.remove(document) : null;
+            if (rows != null) {
+                for (int row : rows) {
+                    this.liveRows.clear(row);
+                }
+                this.removedRows += rows.size();
+            }
+            if (objects != null) {
+                for (BaseObject object : objects) {
+                    if (object == null) {
+                        continue;
+                    }
+                    int row = addRow(documentName, version, hidden);
+                    for (Map.Entry<String, Column> column : this.columns.entrySet()) {
+                        Object field = object.safeget(column.getKey());
+                        column.getValue().set(row, field instanceof BaseProperty
+                            ? ((BaseProperty) field).getValue() : null);
+                    }
+                }
+            }
+            if (this.removedRows > INITIAL_CAPACITY && this.removedRows * 2 > this.rowCount) {
+                compact();
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aggregate the rows matching a filter. The documents of the matching rows are collected first, then checked by
+     * the document filter without holding the lock of the snapshot (the rights checks can be slow, and would block
+     * the updates), and the rows of the accepted documents are aggregated. The documents whose rows start matching
+     * between the two steps are left out, like if they had been saved after the aggregation.
+     * @param filter the filter, or null to aggregate all the rows
+     * @param viewHidden true if the rows of the hidden documents are aggregated
+     * @param documentFilter the documents whose rows can be read
+     * @param aggregator the aggregate, whose property and groupBy property must be columns of the snapshot
+     * @return true if the rows have been aggregated, false if the filter is not supported by the snapshot
+     */
+    public boolean aggregate(ItemFilter filter, boolean viewHidden, DocumentFilter documentFilter,
+        ItemAggregator aggregator)
+    {
+        // The codes of the documents don't change, the compaction only moves the rows
+        Map<Integer, String> candidates = new HashMap<>();
+        this.lock.readLock().lock();
+        try {
+            RowMatcher matcher = filter != null ? compile(filter) : null;
+            if (filter != null && matcher == null) {
+                return false;
+            }
+            for (int row = this.liveRows.nextSetBit(0); row >= 0; row = this.liveRows.nextSetBit(row + 1)) {
+                if (isCandidate(row, viewHidden, matcher)) {
+                    int document = this.rowDocuments.getInt(row * 4);
+                    if (!candidates.containsKey(document)) {
+                        candidates.put(document, this.documents.get(document));
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        BitSet acceptedDocuments = new BitSet();
+        for (Map.Entry<Integer, String> document : candidates.entrySet()) {
+            acceptedDocuments.set(document.getKey(), documentFilter.accept(document.getValue()));
+        }
+
+        this.lock.readLock().lock();
+        try {
+            // The values of the dictionaries may have changed, the filter is compiled again
+            RowMatcher matcher = filter != null ? compile(filter) : null;
+            Column column = aggregator.getProperty() != null ? this.columns.get(aggregator.getProperty()) : null;
+            Column groupColumn = aggregator.getGroupBy() != null ? this.columns.get(aggregator.getGroupBy()) : null;
+            for (int row = this.liveRows.nextSetBit(0); row >= 0; row = this.liveRows.nextSetBit(row + 1)) {
+                if (acceptedDocuments.get(this.rowDocuments.getInt(row * 4))
+                    && isCandidate(row, viewHidden, matcher)) {
+                    aggregator.add(groupColumn != null ? groupColumn.get(row) : null,
+                        column != null ? column.getNumber(row) : Double.NaN);
+                }
+            }
+            return true;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private boolean isCandidate(int row, boolean viewHidden, RowMatcher matcher)
+    {
+        return (viewHidden || !this.hiddenRows.get(row)) && (matcher == null || matcher.matches(row));
+    }
+
+    private RowMatcher compile(ItemFilter filter)
+    {
+        final String op = filter.getOp();
+        if (ItemFilter.AND.equals(op) || ItemFilter.OR.equals(op)) {
+            final List<RowMatcher> matchers = new ArrayList<>();
+            for (ItemFilter subFilter : filter.getFilters()) {
+                RowMatcher matcher = compile(subFilter);
+                if (matcher == null) {
+                    return null;
+                }
+                matchers.add(matcher);
+            }
+            return new RowMatcher()
+            {
+                @Override
+                public boolean matches(int row)
+                {
+                    boolean and = ItemFilter.AND.equals(op);
+                    for (RowMatcher matcher : matchers) {
+                        if (matcher.matches(row) != and) {
+                            return !and;
+                        }
+                    }
+                    return and;
+                }
+            };
+        }
+        Column column = this.columns.get(filter.getProperty());
+        if (column == null) {
+            return null;
+        }
+        try {
+            return column.compile(filter);
+        } catch (IllegalArgumentException e) {
+            // The query of the application reports the invalid values
+            return null;
+        }
+    }
+
+    private void ensureCapacity(int rows)
+    {
+        if ((long) rows * 4 > this.rowDocuments.capacity()) {
+            ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(rows, this.rowDocuments.capacity() / 2) * 4);
+            ByteBuffer oldBuffer = this.rowDocuments.duplicate();
+            oldBuffer.clear();
+            newBuffer.put(oldBuffer);
+            newBuffer.clear();
+            this.rowDocuments = newBuffer;
+        }
+        for (Column column : this.columns.values()) {
+            column.ensureCapacity(rows);
+        }
+    }
+
+    /**
+     * Move the live rows at the beginning of the columns, in place.
+     */
+    private void compact()
+    {
+        int newRow = 0;
+        this.documentRows.clear();
+        for (int row = this.liveRows.nextSetBit(0); row >= 0; row = this.liveRows.nextSetBit(row + 1)) {
+            int document = this.rowDocuments.getInt(row * 4);
+            if (row != newRow) {
+                this.rowDocuments.putInt(newRow * 4, document);
+                for (Column column : this.columns.values()) {
+                    column.copy(row, newRow);
+                }
+                this.hiddenRows.set(newRow, this.hiddenRows.get(row));
+            }
+            List<Integer> rows = this.documentRows.get(document);
+            if (rows == null) {
+                rows = new ArrayList<>(1);
+                this.documentRows.put(document, rows);
+            }
+            rows.add(newRow);
+            newRow++;
+        }
+        this.liveRows.clear();
+        this.liveRows.set(0, newRow);
+        this.hiddenRows.clear(newRow, Math.max(newRow, this.rowCount));
+        this.rowCount = newRow;
+        this.removedRows = 0;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.concurrent.Callable;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+
+/**
+ * Run a task in another thread with a copy of the XWiki context of the thread which created it (wiki, user, current
+ * document, etc.).
+ *
+ * @param <T> the type of the result of the task
+ * @version $Id$
+ */
+public class ContextualCallable<T> implements Callable<T>
+{
+    /**
+     * The keys of the store session in the XWiki context, a session can't be shared between two threads.
+     */
+    private static final String[] STORE_KEYS = {"hibsession", "hibtransaction"};
+
+    private Callable<T> task;
+
+    private Execution execution;
+
+    private ExecutionContextManager executionContextManager;
+
+    private XWikiContext xcontext;
+
+    /**
+     * Create the task. It has to be called in the thread owning the context to copy.
+     * @param task the task to run
+     * @param execution the execution, used to get the current context and to set the context of the new thread
+     * @param executionContextManager the manager initializing the context of the new thread
+     */
+    public ContextualCallable(Callable<T> task, Execution execution, ExecutionContextManager executionContextManager)
+    {
+        this.task = task;
+        this.execution = execution;
+        this.executionContextManager = executionContextManager;
+        ExecutionContext context = execution.getContext();
+        if (context != null) {
+            XWikiContext current = (XWikiContext) context.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+            if (current != null) {
+                this.xcontext = current.clone();
+                for (String key : STORE_KEYS) {
+                    this.xcontext.remove(key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public T call() throws Exception
+    {
+        ExecutionContext context = new ExecutionContext();
+        this.execution.setContext(context);
+        try {
+            this.executionContextManager.initialize(context);
+            if (this.xcontext != null) {
+                context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, this.xcontext);
+            }
+            return this.task.call();
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read items from CSV data. The first line contains the names of the properties, and values can be quoted (with
+ * double quotes) to contain separators or line breaks.
+ *
+ * @version $Id$
+ */
+public class CsvItemReader implements ItemReader
+{
+    private static final char SEPARATOR = ',';
+
+    private static final char QUOTE = '"';
+
+    private Reader reader;
+
+    private List<String> header;
+
+    private boolean ended;
+
+    /**
+     * @param reader the reader providing the CSV data
+     */
+    public CsvItemReader(Reader reader)
+    {
+        // Reading escaped quotes requires to look ahead of one character
+        this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException
+    {
+        if (this.header == null) {
+            this.header = readLine();
+            if (this.header == null) {
+                return null;
+            }
+        }
+        List<String> line = readLine();
+        // Skip the empty lines
+        while (line != null && line.size() == 1 && line.get(0).isEmpty()) {
+            line = readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        if (line.size() > this.header.size()) {
+            throw new IllegalArgumentException("The line has more values than the header");
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < line.size(); i++) {
+            // A blank cell keeps the stored value of the property
+            if (!line.get(i).isEmpty()) {
+                values.put(this.header.get(i), line.get(i));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the values of the next line, or null at the end of the data
+     */
+    private List<String> readLine() throws IOException
+    {
+        if (this.ended) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean empty = true;
+        int c;
+        while ((c = this.reader.read()) != -1) {
+            empty = false;
+            char ch = (char) c;
+            if (quoted) {
+                if (ch == QUOTE) {
+                    this.reader.mark(1);
+                    int next = this.reader.read();
+                    if (next == QUOTE) {
+                        value.append(QUOTE);
+                    } else {
+                        quoted = false;
+                        if (next != -1) {
+                            this.reader.reset();
+                        }
+                    }
+                } else {
+                    value.append(ch);
+                }
+            } else if (ch == QUOTE) {
+                quoted = true;
+            } else if (ch == SEPARATOR) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (ch == '\n') {
+                values.add(value.toString());
+                return values;
+            } else if (ch != '\r') {
+                value.append(ch);
+            }
+        }
+        this.ended = true;
+        if (quoted) {
+            throw new IOException("Unterminated quoted value at the end of the data");
+        }
+        if (empty) {
+            return null;
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.reader.close();
+    }
+}
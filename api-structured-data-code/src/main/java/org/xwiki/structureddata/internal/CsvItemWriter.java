@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Write items as CSV, with a header line containing the id and the names of the properties. The values are written
+ * so that they can be imported again with {@link CsvItemReader}: dates are timestamps and the values of lists are
+ * separated with "|".
+ *
+ * @version $Id$
+ */
+public class CsvItemWriter implements ItemWriter
+{
+    private static final char SEPARATOR = ',';
+
+    private static final char QUOTE = '"';
+
+    private static final String LIST_SEPARATOR = "|";
+
+    private static final String NEW_LINE = "\r\n";
+
+    private Writer writer;
+
+    private List<String> columns;
+
+    private boolean headerWritten;
+
+    /**
+     * @param output the stream where the items are written
+     * @param columns the properties to write, in the order of the columns
+     */
+    public CsvItemWriter(OutputStream output, List<String> columns)
+    {
+        this.writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+        this.columns = columns;
+    }
+
+    @Override
+    public void write(ItemMap item) throws IOException
+    {
+        writeHeader();
+        this.writer.write(escape(item.getId()));
+        for (String column : this.columns) {
+            this.writer.write(SEPARATOR);
+            this.writer.write(escape(format(item.get(column))));
+        }
+        this.writer.write(NEW_LINE);
+        this.writer.flush();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        // The header is also written when there is no item
+        writeHeader();
+        this.writer.flush();
+    }
+
+    private void writeHeader() throws IOException
+    {
+        if (!this.headerWritten) {
+            this.writer.write(ItemReader.ID_FIELD);
+            for (String column : this.columns) {
+                this.writer.write(SEPARATOR);
+                this.writer.write(escape(column));
+            }
+            this.writer.write(NEW_LINE);
+            this.headerWritten = true;
+        }
+    }
+
+    private String format(Object value)
+    {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return String.valueOf(((Date) value).getTime());
+        }
+        if (value instanceof Collection) {
+            StringBuilder builder = new StringBuilder();
+            for (Object element : (Collection<?>) value) {
+                if (builder.length() > 0) {
+                    builder.append(LIST_SEPARATOR);
+                }
+                builder.append(element);
+            }
+            return builder.toString();
+        }
+        return value.toString();
+    }
+
+    private String escape(String value)
+    {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(SEPARATOR) < 0 && value.indexOf(QUOTE) < 0 && value.indexOf('\n') < 0
+            && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return QUOTE + value.replace("\"", "\"\"") + QUOTE;
+    }
+}
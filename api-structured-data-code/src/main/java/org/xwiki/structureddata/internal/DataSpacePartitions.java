@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The partitions of the data space of a large AWM application. The items of a partitioned application are spread by
+ * the hash of their id in the spaces "{dataSpace}_0" to "{dataSpace}_{count - 1}", so that each space keeps a bounded
+ * number of pages. The items created before the application was partitioned stay in the data space itself until they
+ * are moved by {@link PartitionJob}. The id of an item is always the name of its page, whatever its space.
+ *
+ * @version $Id$
+ */
+public final class DataSpacePartitions
+{
+    private static final char PARTITION_SEPARATOR = '_';
+
+    private static final char SPACE_SEPARATOR = '.';
+
+    private static final String COUNT_SEPARATOR = "=";
+
+    private DataSpacePartitions()
+    {
+    }
+
+    /**
+     * Get the number of partitions of an application from the "structureddata.partitions" configuration.
+     * @param entries the configured entries, as "Space.Class=count" or "wiki:Space.Class=count"
+     * @param className the local name of the class of the application
+     * @param fullClassName the name of the class of the application, with its wiki
+     * @return the number of partitions, or 0 if the application isn't partitioned
+     */
+    public static int getCount(List<String> entries, String className, String fullClassName)
+    {
+        if (entries == null) {
+            return 0;
+        }
+        for (String entry : entries) {
+            int separator = entry.lastIndexOf(COUNT_SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            String entryClass = entry.substring(0, separator).trim();
+            if (entryClass.equals(className) || entryClass.equals(fullClassName)) {
+                try {
+                    return Math.max(0, Integer.parseInt(entry.substring(separator + 1).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param dataSpace the data space of the application
+     * @param count the number of partitions of the application
+     * @param itemId the id of an item
+     * @return the space of the item in the partitioned layout, or the data space if the application isn't partitioned
+     */
+    public static String getSpace(String dataSpace, int count, String itemId)
+    {
+        if (count <= 0) {
+            return dataSpace;
+        }
+        // String hashes are the same on every node
+        return dataSpace + PARTITION_SEPARATOR + (itemId.hashCode() & Integer.MAX_VALUE) % count;
+    }
+
+    /**
+     * @param dataSpace the data space of the application
+     * @param count the number of partitions of the application
+     * @return the data space followed by all the partitions
+     */
+    public static List<String> getSpaces(String dataSpace, int count)
+    {
+        List<String> spaces = new ArrayList<>(count + 1);
+        spaces.add(dataSpace);
+        for (int i = 0; i < count; i++) {
+            spaces.add(dataSpace + PARTITION_SEPARATOR + i);
+        }
+        return spaces;
+    }
+
+    /**
+     * Get the id of the item stored in a document, if the document is in the data space or in one of its partitions.
+     * Only the partitions of the application count: a space named like a partition beyond the number of partitions
+     * (e.g. "{dataSpace}_2024") isn't part of the application.
+     * @param dataSpace the data space of the application
+     * @param count the number of partitions of the application
+     * @param documentName the full name of the document, without the wiki
+     * @return the id of the item, or null if the document is outside of the data space
+     */
+    public static String getItemId(String dataSpace, int count, String documentName)
+    {
+        if (!documentName.startsWith(dataSpace) || documentName.length() <= dataSpace.length() + 1) {
+            return null;
+        }
+        int start = dataSpace.length();
+        char separator = documentName.charAt(start);
+        if (separator == SPACE_SEPARATOR) {
+            return documentName.substring(start + 1);
+        }
+        if (separator != PARTITION_SEPARATOR) {
+            return null;
+        }
+        int end = documentName.indexOf(SPACE_SEPARATOR, start + 1);
+        if (end <= start + 1) {
+            return null;
+        }
+        String partition = documentName.substring(start + 1, end);
+        for (int i = 0; i < partition.length(); i++) {
+            if (!Character.isDigit(partition.charAt(i))) {
+                return null;
+            }
+        }
+        // The partitions are named by getSpace(), without leading zero
+        try {
+            int index = Integer.parseInt(partition);
+            if (index >= count || !partition.equals(String.valueOf(index))) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return documentName.substring(end + 1);
+    }
+}
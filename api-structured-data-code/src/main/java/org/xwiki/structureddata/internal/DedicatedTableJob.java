@@ -0,0 +1,298 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Store the items of an application class in a dedicated table (see {@link DedicatedTables}): the custom mapping
+ * generated from the schema of the class is saved and injected in the store, then the objects of the class are saved
+ * again to copy their values to the new table. The objects are saved alone, so the documents don't get new revisions.
+ * The store reads the values which are not in the dedicated table yet from the generic tables, so the items can be
+ * used during the migration. Once all the objects have been copied, the items queries use the dedicated table. The
+ * values of the mapped properties are kept in the generic tables, they are only removed by a separate cleanup job
+ * (see {@link DedicatedTableRequest#isCleanup()}), started once the dedicated table has been checked: the cleanup
+ * can't be undone.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(DedicatedTableJob.JOBTYPE)
+public class DedicatedTableJob extends AbstractJob<DedicatedTableRequest, DefaultJobStatus<DedicatedTableRequest>>
+{
+    /**
+     * The type of the job.
+     */
+    public static final String JOBTYPE = "structureddata.dedicatedtable";
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final String LAST = "last";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    private final AtomicInteger migrated = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        // The objects are saved with the rights of the user who started the migration
+        XWikiContext context = this.xcontextProvider.get();
+        DocumentReference classReference = this.request.getClassReference();
+        String wikiId = classReference.getWikiReference().getName();
+        context.setWikiId(wikiId);
+        context.setUserReference(this.request.getUserReference());
+        XWiki xwiki = context.getWiki();
+        if (!xwiki.hasCustomMappings() || !xwiki.hasDynamicCustomMappings()) {
+            throw new IllegalStateException("The dynamic custom mappings are disabled in the configuration of the "
+                + "store (xwiki.store.hibernate.custommapping and xwiki.store.hibernate.custommapping.dynamic)");
+        }
+
+        if (this.request.isCleanup()) {
+            BaseClass xClass = xwiki.getXClass(classReference, context);
+            if (!DedicatedTables.isActive(xClass, context)) {
+                throw new IllegalStateException("The generic values of the class [" + classReference
+                    + "] are still used, the migration to the dedicated table has to be completed first");
+            }
+            // The values of the mapped properties are only read from the dedicated table
+            migrateDocuments(context, classReference, DedicatedTables.getMappedProperties(xClass, context));
+            return;
+        }
+
+        setMapping(context, classReference, false);
+        migrateDocuments(context, classReference, null);
+        if (this.failed.get() > 0) {
+            this.logger.error("The dedicated table of the class [{}] is not used by the queries since [{}] "
+                + "documents couldn't be migrated, the migration can be started again", classReference,
+                this.failed.get());
+            return;
+        }
+        setMapping(context, classReference, true);
+    }
+
+    /**
+     * Copy the objects of the class to the dedicated table, or remove the values of the mapped properties from the
+     * generic tables, document by document.
+     * @param mapped the mapped properties whose generic values are removed, or null to copy the objects
+     */
+    private void migrateDocuments(XWikiContext context, DocumentReference classReference, List<String> mapped)
+        throws QueryException
+    {
+        String wikiId = classReference.getWikiReference().getName();
+        String className = this.serializer.serialize(classReference);
+        String queryString = "from Document doc, doc.object('" + className + "') as item";
+        List<Long> counts = this.queryManager.createQuery("select count(distinct doc.fullName) " + queryString,
+            Query.XWQL).setWiki(wikiId).execute();
+        int total = counts.isEmpty() ? 0 : counts.get(0).intValue();
+
+        this.progressManager.pushLevelProgress(Math.max(1, total), this);
+        try {
+            // The documents are paged by name, since documents may be created or deleted during the migration
+            String last = "";
+            while (true) {
+                List<String> names = this.queryManager
+                    .createQuery("select distinct doc.fullName " + queryString + " where doc.fullName > :last "
+                        + "order by doc.fullName", Query.XWQL)
+                    .bindValue(LAST, last).setWiki(wikiId).setLimit(BATCH_SIZE).execute();
+                for (String name : names) {
+                    migrate(context, new DocumentReference(
+                        this.resolver.resolve(name, EntityType.DOCUMENT, classReference.getWikiReference())),
+                        classReference, mapped);
+                    this.progressManager.stepPropress(this);
+                    last = name;
+                }
+                if (names.size() < BATCH_SIZE) {
+                    break;
+                }
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    /**
+     * Save the mapping of the dedicated table in the class, and inject it in the store.
+     * @param active false while the existing objects are migrated, true once they are all migrated
+     */
+    private void setMapping(final XWikiContext context, DocumentReference classReference, final boolean active)
+        throws Exception
+    {
+        DocumentWriteCombiner.write(classReference, new DocumentWriteCombiner.Change()
+        {
+            @Override
+            public boolean apply(XWikiDocument document) throws Exception
+            {
+                BaseClass xClass = document.getXClass();
+                String mapping = xClass.getCustomMapping();
+                boolean generated = mapping != null
+                    && (mapping.contains(DedicatedTables.MIGRATING) || mapping.contains(DedicatedTables.ACTIVE));
+                if (xClass.hasCustomMapping() && !generated) {
+                    throw new IllegalStateException("The class [" + document.getDocumentReference()
+                        + "] already has a custom mapping");
+                }
+                // The mapping of a class can't be changed once it is injected, a migration started again keeps it
+                String properties = generated ? mapping.replace(DedicatedTables.MIGRATING, "")
+                    .replace(DedicatedTables.ACTIVE, "") : ApplicationSchema.getCustomMapping(xClass);
+                String newMapping = (active ? DedicatedTables.ACTIVE : DedicatedTables.MIGRATING) + properties;
+                if (newMapping.equals(mapping)) {
+                    return false;
+                }
+                xClass.setCustomMapping(newMapping);
+                if (!xClass.isCustomMappingValid(context)) {
+                    throw new IllegalStateException("Invalid mapping for the class [" + document.getDocumentReference()
+                        + "] : " + newMapping);
+                }
+                return true;
+            }
+        }, active ? "Activated the dedicated table" : "Created the dedicated table", context);
+
+        BaseClass xClass = context.getWiki().getXClass(classReference, context);
+        XWikiHibernateStore store = context.getWiki().getHibernateStore();
+        if (store.injectCustomMapping(xClass, context)) {
+            store.updateSchema(xClass, context);
+        }
+    }
+
+    private void migrate(final XWikiContext context, final DocumentReference reference,
+        final DocumentReference classReference, final List<String> mapped)
+    {
+        try {
+            // The document is not changed by the users while its objects are migrated
+            DocumentWriteCombiner.execute(reference, new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    XWikiDocument document = context.getWiki().getDocument(reference, context);
+                    final List<BaseObject> objects = document.getXObjects(classReference);
+                    if (document.isNew() || objects == null) {
+                        return null;
+                    }
+                    final XWikiHibernateStore store = context.getWiki().getHibernateStore();
+                    store.executeWrite(context, new HibernateCallback<Void>()
+                    {
+                        @Override
+                        public Void doInHibernate(Session session) throws HibernateException, XWikiException
+                        {
+                            for (BaseObject object : objects) {
+                                if (object == null) {
+                                    continue;
+                                }
+                                if (mapped == null) {
+                                    // Saving the object writes its values to the dedicated table
+                                    store.saveXWikiCollection(object, context, false);
+                                } else {
+                                    removeGenericValues(session, object, mapped);
+                                }
+                            }
+                            return null;
+                        }
+                    });
+                    return null;
+                }
+            });
+            this.migrated.incrementAndGet();
+        } catch (Exception e) {
+            this.failed.incrementAndGet();
+            if (mapped == null) {
+                this.logger.error("Failed to migrate the document [{}] to the dedicated table : [{}]", reference,
+                    e.toString());
+            } else {
+                // The generic values are not read anymore, they only take space until the cleanup is run again
+                this.logger.warn("Failed to remove the generic values of the document [{}] : [{}]", reference,
+                    e.toString());
+            }
+        }
+    }
+
+    private static void removeGenericValues(Session session, BaseObject object, List<String> mapped)
+    {
+        for (String property : mapped) {
+            List<?> values = session.createQuery("from BaseProperty prop where prop.id.id = :id "
+                + "and prop.id.name = :name").setLong("id", object.getId()).setString("name", property).list();
+            for (Object value : values) {
+                session.delete(value);
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents migrated to the dedicated table, or cleaned up by a cleanup job
+     */
+    public int getMigratedCount()
+    {
+        return this.migrated.get();
+    }
+
+    /**
+     * @return the number of documents which couldn't be migrated or cleaned up
+     */
+    public int getFailedCount()
+    {
+        return this.failed.get();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request of a {@link DedicatedTableJob}.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class DedicatedTableRequest extends AbstractRequest
+{
+    private static final String PROPERTY_CLASS = "class.reference";
+
+    private static final String PROPERTY_USER = "user.reference";
+
+    private static final String PROPERTY_CLEANUP = "cleanup";
+
+    /**
+     * @param id the id of the job
+     */
+    public DedicatedTableRequest(List<String> id)
+    {
+        setId(id);
+    }
+
+    /**
+     * @return the class of the application
+     */
+    public DocumentReference getClassReference()
+    {
+        return getProperty(PROPERTY_CLASS);
+    }
+
+    /**
+     * @param classReference the class of the application
+     */
+    public void setClassReference(DocumentReference classReference)
+    {
+        setProperty(PROPERTY_CLASS, classReference);
+    }
+
+    /**
+     * @return the user who started the migration
+     */
+    public DocumentReference getUserReference()
+    {
+        return getProperty(PROPERTY_USER);
+    }
+
+    /**
+     * @param userReference the user who started the migration
+     */
+    public void setUserReference(DocumentReference userReference)
+    {
+        setProperty(PROPERTY_USER, userReference);
+    }
+
+    /**
+     * @return true to remove the values of the mapped properties from the generic tables, once the dedicated table is
+     *         used by the queries, false to migrate the objects to the dedicated table
+     */
+    public boolean isCleanup()
+    {
+        return Boolean.TRUE.equals(getProperty(PROPERTY_CLEANUP));
+    }
+
+    /**
+     * @param cleanup true to remove the values of the mapped properties from the generic tables, false to migrate the
+     *            objects to the dedicated table
+     */
+    public void setCleanup(boolean cleanup)
+    {
+        setProperty(PROPERTY_CLEANUP, cleanup);
+    }
+}
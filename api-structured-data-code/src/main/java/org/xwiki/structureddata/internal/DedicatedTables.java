@@ -0,0 +1,146 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The dedicated table of an application class: a custom mapping generated from the schema of the class (see
+ * {@link ApplicationSchema#getCustomMapping(BaseClass)}), which stores all the values of an item in a single row
+ * instead of a row per value. Once the existing objects have been migrated (see {@link DedicatedTableJob}), the values
+ * of the mapped properties are only read from this table: the items queries select and filter the items on this table
+ * only (see {@link QueryItems}), and the scans of the values read it (see {@link ObjectScans}). Their former values
+ * are left in the generic tables until the cleanup job removes them. A property added to the class afterwards is
+ * stored in the generic tables, but can't be used to filter or order the items.
+ *
+ * @version $Id$
+ */
+public final class DedicatedTables
+{
+    /**
+     * Marks the mappings generated by this API, while the existing objects are migrated.
+     */
+    protected static final String MIGRATING = "<!-- structureddata:migrating -->";
+
+    /**
+     * Marks the mappings generated by this API, once the existing objects have been migrated.
+     */
+    protected static final String ACTIVE = "<!-- structureddata:active -->";
+
+    /**
+     * The fields of the object of an item, referenced with the alias of the item in the queries.
+     */
+    private static final Pattern OBJECT_FIELDS = Pattern.compile("\\bitem\\.(name|number|className)\\b");
+
+    /**
+     * Number of parsed mappings kept in memory.
+     */
+    private static final int MAPPINGS_CACHE_SIZE = 100;
+
+    /**
+     * The mapped properties of the generated mappings, by mapping: parsing a mapping is costly and the mapping of a
+     * class doesn't change once it is injected. Guarded by itself.
+     */
+    private static final Map<String, List<String>> MAPPED_PROPERTIES =
+        new LinkedHashMap<String, List<String>>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest)
+            {
+                return size() > MAPPINGS_CACHE_SIZE;
+            }
+        };
+
+    private DedicatedTables()
+    {
+    }
+
+    /**
+     * @param xClass the class of an application
+     * @param context the wiki context
+     * @return true if the items of the class are queried on its dedicated table: the migration is over, the values
+     *         of the mapped properties left in the generic tables are not read anymore
+     */
+    public static boolean isActive(BaseClass xClass, XWikiContext context)
+    {
+        String mapping = xClass.getCustomMapping();
+        return mapping != null && mapping.contains(ACTIVE) && context.getWiki().hasCustomMappings();
+    }
+
+    /**
+     * @param xClass the class of an application
+     * @param context the wiki context
+     * @return the properties whose values are stored in the dedicated table of the class (during or after the
+     *         migration), or an empty list if the class has no dedicated table
+     */
+    public static List<String> getMappedProperties(BaseClass xClass, XWikiContext context)
+    {
+        String mapping = xClass.getCustomMapping();
+        if (mapping == null || !(mapping.contains(MIGRATING) || mapping.contains(ACTIVE))
+            || !context.getWiki().hasCustomMappings()) {
+            return Collections.emptyList();
+        }
+        synchronized (MAPPED_PROPERTIES) {
+            List<String> mapped = MAPPED_PROPERTIES.get(mapping);
+            if (mapped != null) {
+                return mapped;
+            }
+        }
+        List<String> properties = xClass.getCustomMappingPropertyList(context);
+        List<String> mapped = properties != null ? Collections.unmodifiableList(properties)
+            : Collections.<String>emptyList();
+        synchronized (MAPPED_PROPERTIES) {
+            MAPPED_PROPERTIES.put(mapping, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * @param xClass the class of an application
+     * @param property the name of a property of the class
+     * @param context the wiki context
+     * @return true if the values of the property are read from the generic tables: the property isn't mapped, or the
+     *         objects are being migrated to the dedicated table
+     */
+    public static boolean hasGenericValues(BaseClass xClass, String property, XWikiContext context)
+    {
+        return !getMappedProperties(xClass, context).contains(property) || !isActive(xClass, context);
+    }
+
+    /**
+     * Replace the fields of the object of the item in a clause of the items query, since the alias "item" designates
+     * the row of the dedicated table in the single table queries.
+     * @param clause a clause of the items query
+     * @return the clause referencing the object fields with the alias "obj"
+     */
+    public static String toObjectFields(String clause)
+    {
+        return OBJECT_FIELDS.matcher(clause).replaceAll("obj.$1");
+    }
+}
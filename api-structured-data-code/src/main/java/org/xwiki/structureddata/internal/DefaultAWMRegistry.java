@@ -0,0 +1,204 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Default implementation of {@link AWMRegistry}. The applications of a wiki are indexed the first time the wiki is
+ * used, then the index is kept up to date by {@link AWMRegistryListener}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultAWMRegistry implements AWMRegistry
+{
+    private static final String WEBHOME = "WebHome";
+
+    private static final String TEMPLATE_NAME = "AppWithinMinutes.LiveTableTemplate";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private EntityReferenceSerializer<String> defaultSerializer;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    private final ConcurrentMap<String, Map<DocumentReference, AWMDescriptor>> index = new ConcurrentHashMap<>();
+
+    @Override
+    public AWMDescriptor getApplication(DocumentReference appWebHomeRef) throws XWikiException
+    {
+        return getIndex(appWebHomeRef.getWikiReference().getName()).get(appWebHomeRef);
+    }
+
+    @Override
+    public AWMDescriptor getApplicationOf(DocumentReference documentRef) throws XWikiException
+    {
+        String wikiId = documentRef.getWikiReference().getName();
+        String webHomeSpace = this.serializer.serialize(documentRef.getSpaceReferences().get(0), "local");
+        AWMDescriptor descriptor = null;
+        // Start compatibility code for XWiki < 7.2 (without Nested spaces)
+        // --> AWM code space is a top-level space named "{ApplicationName}Code"
+        if (webHomeSpace.endsWith("Code") && webHomeSpace.length() > 4) {
+            String appName = webHomeSpace.substring(0, webHomeSpace.length() - 4);
+            descriptor = getApplication(new DocumentReference(wikiId, appName, WEBHOME));
+        }
+        // End compatibility code
+        if (descriptor == null) {
+            descriptor = getApplication(new DocumentReference(wikiId, webHomeSpace, WEBHOME));
+        }
+        return descriptor;
+    }
+
+    @Override
+    public Collection<AWMDescriptor> getApplications(String wikiId) throws XWikiException
+    {
+        return Collections.unmodifiableCollection(getIndex(wikiId).values());
+    }
+
+    @Override
+    public void update(XWikiDocument document)
+    {
+        DocumentReference docRef = document.getDocumentReference();
+        String wikiId = docRef.getWikiReference().getName();
+        if (!this.index.containsKey(wikiId) || !isWebHome(docRef)) {
+            // Wikis which were not used yet are indexed from the database on first use
+            return;
+        }
+        BaseObject awmObject = document.getXObject(getAWMClassReference(wikiId));
+        synchronized (this) {
+            Map<DocumentReference, AWMDescriptor> wikiIndex = this.index.get(wikiId);
+            if (wikiIndex == null) {
+                return;
+            }
+            if (awmObject != null && !TEMPLATE_NAME.equals(this.serializer.serialize(docRef))) {
+                wikiIndex.put(docRef, getDescriptor(awmObject));
+            } else {
+                wikiIndex.remove(docRef);
+            }
+        }
+    }
+
+    @Override
+    public void removeWiki(String wikiId)
+    {
+        this.index.remove(wikiId);
+    }
+
+    private Map<DocumentReference, AWMDescriptor> getIndex(String wikiId) throws XWikiException
+    {
+        Map<DocumentReference, AWMDescriptor> wikiIndex = this.index.get(wikiId);
+        if (wikiIndex == null) {
+            // Loading a wiki and applying the document events are serialized, so that no update is lost while the
+            // wiki is being indexed. A failed load is not kept, so that the next call tries again
+            synchronized (this) {
+                wikiIndex = this.index.get(wikiId);
+                if (wikiIndex == null) {
+                    wikiIndex = loadIndex(wikiId);
+                    this.index.put(wikiId, wikiIndex);
+                }
+            }
+        }
+        return wikiIndex;
+    }
+
+    private Map<DocumentReference, AWMDescriptor> loadIndex(String wikiId) throws XWikiException
+    {
+        Map<DocumentReference, AWMDescriptor> wikiIndex = new ConcurrentHashMap<>();
+        XWikiContext context = this.xcontextProvider.get();
+        String queryString = "select doc.fullName"
+                + " from Document doc, doc.object(AppWithinMinutes.LiveTableClass) as item"
+                + " where doc.fullName <> '" + TEMPLATE_NAME + "'";
+        try {
+            Query query = this.queryManager.createQuery(queryString, Query.XWQL).setWiki(wikiId);
+            List<String> webHomes = query.execute();
+            DocumentReference awmClassRef = getAWMClassReference(wikiId);
+            for (String webHome : webHomes) {
+                DocumentReference webHomeRef = new DocumentReference(this.resolver.resolve(webHome,
+                    EntityType.DOCUMENT, awmClassRef.getWikiReference()));
+                BaseObject awmObject = context.getWiki().getDocument(webHomeRef, context).getXObject(awmClassRef);
+                if (awmObject != null) {
+                    wikiIndex.put(webHomeRef, getDescriptor(awmObject));
+                }
+            }
+        } catch (QueryException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_STORE_SEARCH,
+                "Unable to index the AppWithinMinutes applications of wiki [" + wikiId + "]", e);
+        }
+        return wikiIndex;
+    }
+
+    private AWMDescriptor getDescriptor(BaseObject awmObject)
+    {
+        AWMDescriptor descriptor = AWMDescriptor.fromObject(awmObject, this.resolver, this.serializer);
+        DocumentReference classRef = descriptor.getClassReference();
+        int partitions = DataSpacePartitions.getCount(this.configuration.getPartitions(),
+            this.serializer.serialize(classRef), this.defaultSerializer.serialize(classRef));
+        return partitions > 0 ? descriptor.withPartitions(partitions) : descriptor;
+    }
+
+    private boolean isWebHome(DocumentReference docRef)
+    {
+        return WEBHOME.equals(docRef.getName());
+    }
+
+    private DocumentReference getAWMClassReference(String wikiId)
+    {
+        return new DocumentReference(wikiId, "AppWithinMinutes", "LiveTableClass");
+    }
+}
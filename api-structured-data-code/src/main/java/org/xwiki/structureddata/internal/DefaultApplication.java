@@ -27,8 +27,7 @@ import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.objects.classes.BaseClass;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -51,10 +50,6 @@ import org.xwiki.structureddata.Application;
 public class DefaultApplication implements Application 
 {
 
-    private static final String ITEM_ID_SEPARATOR = "|";
-    //private static final String PATTERN_ITEM_ID_SEPARATOR = "\\|";
-    private static final String PATTERN_ITEM_ID_NUMBER = "\\|[0-9]+";
-
     private QueryManager queryManager;
     private ContextualAuthorizationManager authorization;
     private EntityReferenceResolver<String> resolver;
@@ -119,14 +114,18 @@ public class DefaultApplication implements Application
 
     @Override
     public ItemMap getItem(String itemId, List<String> properties)
+    {
+        return getItem(ItemId.parse(itemId), properties);
+    }
+
+    @Override
+    public ItemMap getItem(ItemId itemId, List<String> properties)
     {
         ItemMap value = new ItemMap();
         try {
-            String objName = this.getDocNameFromId(itemId);
-            Integer objNumber = this.getObjNumberFromId(itemId);
-            XWikiDocument xDoc = this.getDocFromId(itemId);
-            BaseObject xObj = this.getObjectFromId(itemId);
-            ApplicationItem item = this.getApplicationItem(objName, objNumber, xObj, xDoc);
+            XWikiDocument xDoc = this.getDocument(itemId);
+            BaseObject xObj = this.getObject(itemId, xDoc);
+            ApplicationItem item = this.getApplicationItem(itemId.getDocumentName(), itemId.getObjectNumber(), xObj, xDoc);
             value = item.getItemMap(properties);
         } catch (AccessDeniedException e) {
             // logger.info("Access denied to item [{}] : [{}]", itemId, e.toString());
@@ -147,119 +146,286 @@ public class DefaultApplication implements Application
     public Map<String, Object> getItems(Map<String, Object> options) throws QueryException, XWikiException {
         Map<String, Object> value = new HashMap<>();
         try {
-            List<String> properties = new ArrayList<>();
-            if(options.containsKey("properties")) {
-                properties = (List<String>) options.get("properties");
+            for (ItemMap map : this.getItemList(options)) {
+                value.put(map.getId(), map);
+            }
+        } catch (QueryException e) {
+            logger.error("Unable to get the list of items", e);
+        }
+        return value;
+    }
+
+    @Override
+    public ItemList getItemList(Map<String, Object> options) throws QueryException, XWikiException {
+        List<String> properties = this.getPropertiesOption(options);
+        Query query = QueryItems.getQuery(context, queryManager, xClassFullName, xClass, options, "1=1", "item.name, item.number");
+        List<Object[]> objDocList = query.setWiki(this.wikiRef.getName()).execute();
+        ItemList items = new ItemList(objDocList.size());
+        items.addAll(this.getItemMaps(objDocList, properties));
+        return items;
+    }
+
+    @Override
+    public Iterator<ItemMap> getItemsIterator(Map<String, Object> options) {
+        final List<String> properties = this.getPropertiesOption(options);
+        final Map<String, Object> pageOptions = new HashMap<>(options);
+        pageOptions.remove("offset");
+        pageOptions.put("limit", ItemIterator.PAGE_SIZE);
+        // A custom "query" replaces the where clause, the pages are then selected with an offset, in the requested
+        // order completed by a stable order. Otherwise the pages are selected by name.
+        final boolean keyset = !options.containsKey("query");
+        if (keyset) {
+            pageOptions.remove("order");
+        }
+        return new ItemIterator() {
+            private String lastName;
+            private Integer lastNumber;
+            private int offset;
+
+            @Override
+            protected int loadPage(List<ItemMap> items) throws Exception {
+                String whereClause = "1=1";
+                if (keyset && lastName != null) {
+                    whereClause = "(item.name > :lastName or (item.name = :lastName and item.number > :lastNumber))";
+                } else if (!keyset) {
+                    pageOptions.put("offset", offset);
+                }
+                Query query = QueryItems.getQuery(context, queryManager, xClassFullName, xClass, pageOptions, whereClause, "item.name, item.number");
+                if (keyset && lastName != null) {
+                    query = query.bindValue("lastName", lastName).bindValue("lastNumber", lastNumber);
+                }
+                List<Object[]> objDocList = query.setWiki(wikiRef.getName()).execute();
+                if (!objDocList.isEmpty()) {
+                    Object[] lastRow = objDocList.get(objDocList.size() - 1);
+                    lastName = (String) lastRow[0];
+                    lastNumber = (Integer) lastRow[1];
+                }
+                offset += objDocList.size();
+                items.addAll(getItemMaps(objDocList, properties));
+                return objDocList.size();
             }
-            Query query = QueryItems.getQuery(context, queryManager, xClassFullName, options, "1=1", "item.name, item.number");
-            List<Object[]> objDocList = query.setWiki(this.wikiRef.getName()).execute();
-            for (Object[] anObjDocList : objDocList) {
-                // Get all instances of the class in the document
-                String objName = (String) anObjDocList[0];
-                Integer objNumber = (Integer) anObjDocList[1];
-                DocumentReference docRef = new DocumentReference(this.resolver.resolve(objName, EntityType.DOCUMENT, this.wikiRef));
-                try {
+        };
+    }
+
+    /**
+     * Build the maps of the items returned by the items query, skipping the items which can't be viewed.
+     * @param objDocList the rows of the query (document name and object number)
+     * @param properties the list of properties to display in the result
+     * @return the item maps, in the order of the query
+     */
+    private List<ItemMap> getItemMaps(List<Object[]> objDocList, List<String> properties) {
+        List<ItemMap> value = new ArrayList<>();
+        // Load the documents of the whole page before building the items
+        List<DocumentReference> docRefList = new ArrayList<>();
+        for (Object[] anObjDocList : objDocList) {
+            docRefList.add(new DocumentReference(this.resolver.resolve((String) anObjDocList[0], EntityType.DOCUMENT, this.wikiRef)));
+        }
+        Map<DocumentReference, DocumentPrefetcher.PrefetchedDocument> docs = DocumentPrefetcher.prefetch(
+            new DocumentPrefetcher.Loader(context, authorization, queryManager, resolver, serializer, logger), xClass,
+            docRefList);
+        for (int i = 0; i < objDocList.size(); i++) {
+            // Get all instances of the class in the document
+            Object[] anObjDocList = objDocList.get(i);
+            String objName = (String) anObjDocList[0];
+            Integer objNumber = (Integer) anObjDocList[1];
+            DocumentReference docRef = docRefList.get(i);
+            try {
+                XWikiDocument xDoc = null;
+                DocumentPrefetcher.PrefetchedDocument prefetched = docs.get(docRef);
+                BaseObject xObj;
+                if (docs.containsKey(docRef)) {
+                    // The rights have been checked by the prefetch
+                    if (prefetched == null) {
+                        continue;
+                    }
+                    xObj = prefetched.getXObject(objNumber);
+                } else {
                     this.authorization.checkAccess(Right.VIEW, docRef);
-                    XWikiDocument xDoc = this.xwiki.getDocument(docRef, this.context);
-                    BaseObject xObj = xDoc.getXObject(this.xClassRef, objNumber);
-                    if (xObj != null) {
-                        ApplicationItem item = this.getApplicationItem(objName, objNumber, xObj, xDoc);
-                        ItemMap map = item.getItemMap(properties);
-                        value.put(map.getId(), map);
+                    xDoc = this.xwiki.getDocument(docRef, this.context);
+                    xObj = xDoc.getXObject(this.xClassRef, objNumber);
+                }
+                if (xObj != null) {
+                    ApplicationItem item = this.getApplicationItem(objName, objNumber, xObj, xDoc);
+                    ItemMap itemMap = item.getItemMap(properties);
+                    if (prefetched != null) {
+                        // The prefetched values are only read, the item is built without a document
+                        itemMap.setDocumentFields(prefetched.getDocumentFields());
                     }
-                } catch (AccessDeniedException e) {
-                    // logger.info("Access denied to item [{}] : [{}]", itemId, e.toString());
-                } catch (Exception e) {
-                    logger.error("Unable to load the item [{}] : [{}]", objName, e.toString());
+                    value.add(itemMap);
                 }
+            } catch (AccessDeniedException e) {
+                // logger.info("Access denied to item [{}] : [{}]", itemId, e.toString());
+            } catch (Exception e) {
+                logger.error("Unable to load the item [{}] : [{}]", objName, e.toString());
             }
-        } catch (QueryException e) {
-            logger.error("Unable to get the list of items", e);
         }
         return value;
     }
 
+    private List<String> getPropertiesOption(Map<String, Object> options) {
+        List<String> properties = new ArrayList<>();
+        if(options.containsKey("properties")) {
+            properties = (List<String>) options.get("properties");
+        }
+        return properties;
+    }
+
+    @Override
+    public Map<String, Object> aggregate(Map<String, Object> options) throws Exception {
+        return ItemAggregator.aggregate(this, options);
+    }
+
     @Override
     public Map<String, Object> storeItem(ItemMap itemData) throws Exception {
         return storeItem(itemData, null);
     }
 
     @Override
-    public Map<String, Object> storeItem(ItemMap itemData, DocumentMap itemDocData) throws Exception {
-        String itemId = itemData.getId();
-        String objName = this.getDocNameFromId(itemId);
-        DocumentReference itemDocRef = new DocumentReference(resolver.resolve(objName, EntityType.DOCUMENT, this.wikiRef));
+    public Map<String, Object> storeItem(final ItemMap itemData, final DocumentMap itemDocData) throws Exception {
+        final ItemId itemId = ItemId.parse(itemData.getId());
+        DocumentReference itemDocRef = itemId.getDocumentReference(this.resolver, this.wikiRef);
         try {
             this.authorization.checkAccess(Right.EDIT, itemDocRef);
-            Integer objNumber = this.getObjNumberFromId(itemId);
-            XWikiDocument xDoc = this.getDocFromId(itemId);
-            BaseObject xObj = this.getObjectFromId(itemId);
-            ApplicationItem item = this.getApplicationItem(objName, objNumber, xObj, xDoc);
-            return item.store(itemData, itemDocData);
+            // The concurrent changes of the same document are applied together and saved once
+            DocumentWriteCombiner.write(itemDocRef, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument xDoc) throws Exception
+                {
+                    BaseObject xObj = xDoc.getXObject(xClassRef, itemId.getObjectNumber());
+                    getApplicationItem(itemId.getDocumentName(), itemId.getObjectNumber(), xObj, xDoc)
+                        .apply(itemData, itemDocData);
+                    return true;
+                }
+            }, "Properties updated", this.context);
+            return this.getStateMap("Success", "1");
         } catch(AccessDeniedException e) {
             Map<String, Object> errorMap = new HashMap<>();
             errorMap.put("Error", e.getMessage());
             return errorMap;
+        } catch (Exception e) {
+            this.logger.warn("Unable to store the item [{}] : [{}]", itemId, e.toString());
+            return this.getStateMap("Error", e.getMessage());
+        } finally {
+            RequestMemo.get(this.context).forgetDocument(itemDocRef);
+        }
+    }
+
+    @Override
+    public Map<String, Object> storeItems(List<ItemMap> items) throws Exception {
+        return new ItemBatchWriter()
+        {
+            @Override
+            protected String getDocumentName(ItemMap item)
+            {
+                return ItemId.parse(item.getId()).getDocumentName();
+            }
+
+            @Override
+            protected DocumentReference getDocumentReference(String documentName)
+            {
+                return RequestMemo.get(context).resolve(resolver, documentName, wikiRef);
+            }
+
+            @Override
+            protected void apply(String documentName, ItemMap item, XWikiDocument xDoc) throws Exception
+            {
+                Integer objNumber = ItemId.parse(item.getId()).getObjectNumber();
+                BaseObject xObj = xDoc.getXObject(xClassRef, objNumber);
+                getApplicationItem(documentName, objNumber, xObj, xDoc).apply(item);
+            }
+
+            @Override
+            protected void done(DocumentReference reference)
+            {
+                RequestMemo.get(context).forgetDocument(reference);
+            }
+        }.storeItems(items, this.authorization, this.context);
+    }
+
+    @Override
+    public Map<String, Object> createItem(final ItemMap itemData) throws Exception {
+        // The objects of a document are numbered by the document itself: the sequences are only used by AWM
+        if (StringUtils.isEmpty(itemData.getId())) {
+            return this.getStateMap("Error", "The document of the new item is missing");
+        }
+        final String objName = ItemId.parse(itemData.getId()).getDocumentName();
+        DocumentReference itemDocRef = RequestMemo.get(this.context).resolve(this.resolver, objName, this.wikiRef);
+        final int[] objNumber = new int[1];
+        try {
+            this.authorization.checkAccess(Right.EDIT, itemDocRef);
+            DocumentWriteCombiner.write(itemDocRef, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument xDoc) throws Exception
+                {
+                    // The new object gets the first free number of the current version of the document
+                    objNumber[0] = xDoc.getXObjectSize(xClassRef);
+                    getApplicationItem(objName, objNumber[0], null, xDoc).apply(itemData);
+                    return true;
+                }
+            }, "Item created", this.context);
+            Map<String, Object> result = this.getStateMap("Success", "1");
+            result.put("Id", objName + "|" + objNumber[0]);
+            return result;
+        } catch(AccessDeniedException e) {
+            return this.getStateMap("Error", e.getMessage());
+        } catch (Exception e) {
+            this.logger.warn("Unable to create an item in [{}] : [{}]", objName, e.toString());
+            return this.getStateMap("Error", e.getMessage());
+        } finally {
+            RequestMemo.get(this.context).forgetDocument(itemDocRef);
         }
     }
 
     @Override
     public Map<String, Object> deleteItem(String itemId) throws Exception {
-        String objName = this.getDocNameFromId(itemId);
-        DocumentReference itemDocRef = new DocumentReference(resolver.resolve(objName, EntityType.DOCUMENT, this.wikiRef));
+        return deleteItem(ItemId.parse(itemId));
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(final ItemId itemId) throws Exception {
+        DocumentReference itemDocRef = itemId.getDocumentReference(this.resolver, this.wikiRef);
         try {
             this.authorization.checkAccess(Right.EDIT, itemDocRef);
-            Integer objNumber = this.getObjNumberFromId(itemId);
-            XWikiDocument xDoc = this.getDocFromId(itemId);
-            BaseObject xObj = this.getObjectFromId(itemId);
-            ApplicationItem item = this.getApplicationItem(objName, objNumber, xObj, xDoc);
-            return item.delete();
+            DocumentWriteCombiner.write(itemDocRef, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument xDoc) throws Exception
+                {
+                    BaseObject xObj = getObject(itemId, xDoc);
+                    if (xObj == null) {
+                        throw new IllegalArgumentException("The item [" + itemId + "] doesn't exist");
+                    }
+                    xDoc.removeXObject(xObj);
+                    return true;
+                }
+            }, null, this.context);
+            return this.getStateMap("Success", "1");
         } catch(AccessDeniedException e) {
             Map<String, Object> errorMap = new HashMap<>();
             errorMap.put("Error", e.getMessage());
             return errorMap;
+        } catch (Exception e) {
+            return this.getStateMap("Error", e.getMessage());
+        } finally {
+            RequestMemo.get(this.context).forgetDocument(itemDocRef);
         }
     }
     
-    protected String getDocNameFromId(String objId) {
-        Pattern pattern = Pattern.compile(PATTERN_ITEM_ID_NUMBER);
-        Matcher matcher = pattern.matcher(objId);
-        while (matcher.find()) {
-            try {
-                Integer lastPipe = objId.lastIndexOf(ITEM_ID_SEPARATOR);
-                return objId.substring(0,lastPipe);
-            } catch(Exception e) {
-                // logger.info("Unable to get the name or object number missing");
-            }
-        }
-        return objId;
+    protected XWikiDocument getDocument(ItemId itemId) throws XWikiException {
+        return RequestMemo.get(this.context).getDocument(itemId.getDocumentReference(this.resolver, this.wikiRef), this.context);
     }
-    protected Integer getObjNumberFromId(String objId) {
-        Pattern pattern = Pattern.compile(PATTERN_ITEM_ID_NUMBER);
-        Matcher matcher = pattern.matcher(objId);
-        while (matcher.find()) {
-            try {
-                Integer lastPipe = objId.lastIndexOf(ITEM_ID_SEPARATOR)+1;
-                return Integer.parseInt(objId.substring(lastPipe));
-            } catch(Exception e) {
-                e.printStackTrace();
-            }
-        }
-        return 0;
-    }
-    protected XWikiDocument getDocFromId(String objId) throws XWikiException {
-        String docName = this.getDocNameFromId(objId);
-        DocumentReference itemDocRef = new DocumentReference(this.resolver.resolve(docName, EntityType.DOCUMENT, this.wikiRef));
-        return this.xwiki.getDocument(itemDocRef, this.context);
-    }
-    protected BaseObject getObjectFromId(String objId) throws XWikiException, AccessDeniedException {
-        Integer objNumber = this.getObjNumberFromId(objId);
-        XWikiDocument xDoc = this.getDocFromId(objId);
+    protected BaseObject getObject(ItemId itemId, XWikiDocument xDoc) throws AccessDeniedException {
         if (xDoc == null) {
             return null;
         }
         this.authorization.checkAccess(Right.VIEW, xDoc.getDocumentReference());
-        return xDoc.getXObject(this.xClassRef, objNumber);
+        return xDoc.getXObject(this.xClassRef, itemId.getObjectNumber());
+    }
+
+    private Map<String, Object> getStateMap(String state, Object value) {
+        return ItemBatchWriter.getStateMap(state, value);
     }
 
     private ApplicationItem getApplicationItem(String objName, Integer objNumber, BaseObject xObj, XWikiDocument xDoc) throws XWikiException {
@@ -0,0 +1,376 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Default implementation of {@link ApplicationCatalog}. The catalog of a wiki is loaded with two queries the first
+ * time the wiki is listed, then it is updated by {@link ApplicationCatalogListener}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationCatalog implements ApplicationCatalog
+{
+    private static final String TYPE_AWM = "AWM";
+
+    private static final String TYPE_CLASS = "Class";
+
+    private static final String CLASS = "Class";
+
+    private static final String COUNT = "Count";
+
+    private static final String LAST_MODIFIED = "Last Modified";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private AWMRegistry awmRegistry;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    /**
+     * The entries of each wiki, indexed by class full name. Guarded by this.
+     */
+    private final Map<String, Map<String, ClassEntry>> catalog = new HashMap<>();
+
+    /**
+     * The loads of the wikis in progress. Guarded by this.
+     */
+    private final Map<String, FutureTask<Map<String, ClassEntry>>> loads = new HashMap<>();
+
+    /**
+     * The wikis which had a document saved or deleted while they were being loaded. Guarded by this.
+     */
+    private final Set<String> changedDuringLoad = new HashSet<>();
+
+    /**
+     * The state of a class in the catalog. Objects can exist for a class which has been deleted, so the entry is
+     * kept until no object remains.
+     */
+    private static class ClassEntry
+    {
+        private boolean isClass;
+
+        private long count;
+
+        private Date lastModified;
+
+        private void touch(Date date)
+        {
+            if (date != null && (this.lastModified == null || date.after(this.lastModified))) {
+                this.lastModified = date;
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> getApplications(String wikiId, String filter, int offset, int limit)
+        throws XWikiException
+    {
+        String lowerFilter = filter != null ? filter.toLowerCase() : null;
+        List<Map<String, Object>> candidates = new ArrayList<>();
+        List<AWMDescriptor> awmApps = new ArrayList<>(this.awmRegistry.getApplications(wikiId));
+        Collections.sort(awmApps, new Comparator<AWMDescriptor>()
+        {
+            @Override
+            public int compare(AWMDescriptor app1, AWMDescriptor app2)
+            {
+                return app1.getAppName().compareTo(app2.getAppName());
+            }
+        });
+        Map<String, ClassEntry> entries = getEntries(wikiId);
+        synchronized (this) {
+            for (AWMDescriptor awmApp : awmApps) {
+                if (matches(awmApp.getAppName(), lowerFilter)) {
+                    String className = this.serializer.serialize(awmApp.getClassReference());
+                    candidates.add(getEntryMap(awmApp.getAppName(), TYPE_AWM, className, entries.get(className)));
+                }
+            }
+            for (Map.Entry<String, ClassEntry> entry : entries.entrySet()) {
+                if (entry.getValue().isClass && matches(entry.getKey(), lowerFilter)) {
+                    candidates.add(getEntryMap(entry.getKey(), TYPE_CLASS, entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+
+        // The rights are checked outside of the lock. The counts and dates are aggregated over all the documents of
+        // the wiki, including the ones the user can't see, so they are only given to the administrators
+        WikiReference wikiReference = new WikiReference(wikiId);
+        boolean isAdmin = this.authorization.hasAccess(Right.ADMIN, wikiReference);
+        List<Map<String, Object>> applications = new ArrayList<>();
+        for (Map<String, Object> candidate : candidates) {
+            DocumentReference classReference = new DocumentReference(
+                this.resolver.resolve((String) candidate.get(CLASS), EntityType.DOCUMENT, wikiReference));
+            if (this.authorization.hasAccess(Right.VIEW, classReference)) {
+                if (!isAdmin) {
+                    candidate.put(COUNT, null);
+                    candidate.put(LAST_MODIFIED, null);
+                }
+                applications.add(candidate);
+            }
+        }
+
+        int total = applications.size();
+        int fromIndex = Math.min(Math.max(offset, 0), total);
+        int toIndex = limit < 0 ? total : Math.min(fromIndex + limit, total);
+        List<Map<String, Object>> page = applications.subList(fromIndex, toIndex);
+        List<Object> awmList = new ArrayList<>();
+        List<Object> classList = new ArrayList<>();
+        for (Map<String, Object> application : page) {
+            if (TYPE_AWM.equals(application.get("Type"))) {
+                awmList.add(application.get("Id"));
+            } else {
+                classList.add(application.get("Id"));
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("AWM Applications", awmList);
+        result.put("XWiki Classes", classList);
+        result.put("Applications", new ArrayList<>(page));
+        result.put("Total", total);
+        return result;
+    }
+
+    @Override
+    public void update(XWikiDocument document)
+    {
+        // Translations don't have objects nor class, they don't change the catalog
+        if (document.getTranslation() != 0) {
+            return;
+        }
+        String wikiId = document.getDocumentReference().getWikiReference().getName();
+        String fullName = this.serializer.serialize(document.getDocumentReference());
+        boolean isClass = StringUtils.isNotEmpty(document.getXClassXML());
+        Map<String, Long> countChanges = new HashMap<>();
+        countObjects(document, 1, countChanges);
+        if (document.getOriginalDocument() != null) {
+            countObjects(document.getOriginalDocument(), -1, countChanges);
+        }
+
+        synchronized (this) {
+            Map<String, ClassEntry> entries = this.catalog.get(wikiId);
+            if (entries == null) {
+                // Wikis which were not listed yet are loaded from the database on first use
+                if (this.loads.containsKey(wikiId)) {
+                    this.changedDuringLoad.add(wikiId);
+                }
+                return;
+            }
+            ClassEntry classEntry = getOrCreate(entries, fullName);
+            classEntry.isClass = isClass;
+            if (isClass) {
+                classEntry.touch(document.getDate());
+            }
+            removeIfEmpty(entries, fullName);
+            for (Map.Entry<String, Long> change : countChanges.entrySet()) {
+                ClassEntry entry = getOrCreate(entries, change.getKey());
+                entry.count = Math.max(0, entry.count + change.getValue());
+                entry.touch(document.getDate());
+                removeIfEmpty(entries, change.getKey());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeWiki(String wikiId)
+    {
+        this.catalog.remove(wikiId);
+        if (this.loads.containsKey(wikiId)) {
+            this.changedDuringLoad.add(wikiId);
+        }
+    }
+
+    private Map<String, ClassEntry> getEntries(final String wikiId) throws XWikiException
+    {
+        FutureTask<Map<String, ClassEntry>> load;
+        boolean loader = false;
+        synchronized (this) {
+            Map<String, ClassEntry> entries = this.catalog.get(wikiId);
+            if (entries != null) {
+                return entries;
+            }
+            // The first caller loads the wiki without holding the lock, so that the document events are not
+            // blocked, and the other callers wait for the same load
+            load = this.loads.get(wikiId);
+            if (load == null) {
+                load = new FutureTask<>(new Callable<Map<String, ClassEntry>>()
+                {
+                    @Override
+                    public Map<String, ClassEntry> call() throws Exception
+                    {
+                        return loadEntries(wikiId);
+                    }
+                });
+                this.loads.put(wikiId, load);
+                loader = true;
+            }
+        }
+        if (loader) {
+            load.run();
+        }
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_STORE_SEARCH,
+                "Interrupted while loading the application catalog of wiki [" + wikiId + "]", e);
+        } catch (ExecutionException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_STORE_SEARCH,
+                "Unable to load the application catalog of wiki [" + wikiId + "]", e.getCause());
+        } finally {
+            if (loader) {
+                synchronized (this) {
+                    this.loads.remove(wikiId);
+                }
+            }
+        }
+    }
+
+    private Map<String, ClassEntry> loadEntries(String wikiId) throws QueryException
+    {
+        synchronized (this) {
+            this.changedDuringLoad.remove(wikiId);
+        }
+        Map<String, ClassEntry> entries = new TreeMap<>();
+        String classesQuery = "select doc.fullName, doc.date from XWikiDocument as doc"
+                + " where doc.xWikiClassXML is not null and doc.xWikiClassXML like '<%'";
+        String objectsQuery = "select obj.className, count(obj.id), max(doc.date)"
+                + " from XWikiDocument as doc, BaseObject as obj"
+                + " where obj.name = doc.fullName and doc.translation = 0"
+                + " group by obj.className";
+        List<Object[]> classes = this.queryManager.createQuery(classesQuery, Query.HQL).setWiki(wikiId).execute();
+        for (Object[] row : classes) {
+            ClassEntry entry = getOrCreate(entries, (String) row[0]);
+            entry.isClass = true;
+            entry.touch((Date) row[1]);
+        }
+        List<Object[]> objects = this.queryManager.createQuery(objectsQuery, Query.HQL).setWiki(wikiId).execute();
+        for (Object[] row : objects) {
+            ClassEntry entry = getOrCreate(entries, (String) row[0]);
+            entry.count = ((Number) row[1]).longValue();
+            entry.touch((Date) row[2]);
+        }
+        synchronized (this) {
+            // A document saved during the load may or may not be counted by the queries: the result is used by the
+            // waiting callers but not kept, the next listing loads the wiki again
+            if (!this.changedDuringLoad.remove(wikiId)) {
+                this.catalog.put(wikiId, entries);
+            }
+        }
+        return entries;
+    }
+
+    private void countObjects(XWikiDocument document, long increment, Map<String, Long> countChanges)
+    {
+        for (Map.Entry<DocumentReference, List<BaseObject>> objects : document.getXObjects().entrySet()) {
+            long count = 0;
+            for (BaseObject object : objects.getValue()) {
+                if (object != null) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                String className = this.serializer.serialize(objects.getKey());
+                Long previous = countChanges.get(className);
+                countChanges.put(className, (previous != null ? previous : 0) + increment * count);
+            }
+        }
+    }
+
+    private ClassEntry getOrCreate(Map<String, ClassEntry> entries, String className)
+    {
+        ClassEntry entry = entries.get(className);
+        if (entry == null) {
+            entry = new ClassEntry();
+            entries.put(className, entry);
+        }
+        return entry;
+    }
+
+    private void removeIfEmpty(Map<String, ClassEntry> entries, String className)
+    {
+        ClassEntry entry = entries.get(className);
+        if (entry != null && !entry.isClass && entry.count == 0) {
+            entries.remove(className);
+        }
+    }
+
+    private boolean matches(String name, String lowerFilter)
+    {
+        return lowerFilter == null || name.toLowerCase().contains(lowerFilter);
+    }
+
+    private Map<String, Object> getEntryMap(String id, String type, String className, ClassEntry entry)
+    {
+        Map<String, Object> entryMap = new LinkedHashMap<>();
+        entryMap.put("Id", id);
+        entryMap.put("Type", type);
+        entryMap.put(CLASS, className);
+        entryMap.put(COUNT, entry != null ? entry.count : 0L);
+        entryMap.put(LAST_MODIFIED, entry != null ? entry.lastModified : null);
+        return entryMap;
+    }
+}
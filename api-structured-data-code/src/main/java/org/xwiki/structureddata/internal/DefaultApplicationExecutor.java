@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+
+/**
+ * Default implementation of {@link ApplicationExecutor}. In "pool" mode the tasks run in a bounded thread pool with a
+ * copy of the context of the request, otherwise they run in the calling thread. Submitted tasks always run in the
+ * pool, and the writes run in a pool of their own so that a burst of writes doesn't delay the reads, and the other way
+ * round. In both modes the number of tasks running at the same time for a wiki can be limited.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationExecutor implements ApplicationExecutor, Initializable, Disposable
+{
+    private static final String MODE_POOL = "pool";
+
+    /**
+     * Number of waiting tasks allowed for each thread of the pool.
+     */
+    private static final int QUEUE_FACTOR = 4;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Semaphore> writePermits = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    private ThreadPoolExecutor writeExecutor;
+
+    private boolean pooled;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.pooled = MODE_POOL.equals(this.configuration.getRestExecutionMode());
+        this.executor = createPool("XApp executor #", this.configuration.getRestPoolSize());
+        this.writeExecutor = createPool("XApp writer #", this.configuration.getWritePoolSize());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+        this.writeExecutor.shutdownNow();
+    }
+
+    @Override
+    public <T> T execute(String wikiName, Callable<T> task) throws Exception
+    {
+        long timeout = this.configuration.getRestTimeout();
+        Semaphore wikiPermits = acquire(this.permits, wikiName, timeout);
+        if (!this.pooled) {
+            try {
+                return task.call();
+            } finally {
+                release(wikiPermits);
+            }
+        }
+
+        Future<T> future = submit(this.executor, wikiPermits, task);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Nobody waits for the result anymore: the task is interrupted, or dropped if it hasn't started yet
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Future<T> submit(String wikiName, Callable<T> task) throws InterruptedException
+    {
+        return submit(this.executor, acquire(this.permits, wikiName, this.configuration.getRestTimeout()), task);
+    }
+
+    @Override
+    public <T> Future<T> submitWrite(String wikiName, Callable<T> task) throws InterruptedException
+    {
+        return submit(this.writeExecutor, acquire(this.writePermits, wikiName, this.configuration.getRestTimeout()),
+            task);
+    }
+
+    private ThreadPoolExecutor createPool(final String threadName, int size)
+    {
+        // The threads are only started when a task is submitted: the read pool is also used by the asynchronous
+        // applications in "direct" mode
+        int poolSize = Math.max(1, size);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, threadName + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(poolSize * QUEUE_FACTOR), threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private <T> Future<T> submit(ThreadPoolExecutor pool, final Semaphore wikiPermits, Callable<T> task)
+    {
+        // The permit is released when the task is over, including when it is cancelled before running, so that the
+        // limit applies to the work really running on the database even when the caller stopped waiting for it
+        FutureTask<T> future =
+            new FutureTask<T>(new ContextualCallable<T>(task, this.execution, this.executionContextManager))
+            {
+                @Override
+                protected void done()
+                {
+                    release(wikiPermits);
+                }
+            };
+        try {
+            pool.execute(future);
+        } catch (RejectedExecutionException e) {
+            release(wikiPermits);
+            throw e;
+        }
+        return future;
+    }
+
+    private Semaphore acquire(ConcurrentMap<String, Semaphore> allPermits, String wikiName, long timeout)
+        throws InterruptedException
+    {
+        String wikiId = wikiName != null ? wikiName : this.xcontextProvider.get().getWikiId();
+        Semaphore wikiPermits = getPermits(allPermits, wikiId);
+        if (wikiPermits != null && !wikiPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new RejectedExecutionException("Too many requests running for wiki [" + wikiId + "]");
+        }
+        return wikiPermits;
+    }
+
+    private Semaphore getPermits(ConcurrentMap<String, Semaphore> allPermits, String wikiId)
+    {
+        int maxRequests = this.configuration.getMaxConcurrentRequestsPerWiki();
+        if (maxRequests <= 0 || wikiId == null) {
+            return null;
+        }
+        Semaphore wikiPermits = allPermits.get(wikiId);
+        if (wikiPermits == null) {
+            allPermits.putIfAbsent(wikiId, new Semaphore(maxRequests));
+            wikiPermits = allPermits.get(wikiId);
+        }
+        return wikiPermits;
+    }
+
+    private void release(Semaphore wikiPermits)
+    {
+        if (wikiPermits != null) {
+            wikiPermits.release();
+        }
+    }
+}
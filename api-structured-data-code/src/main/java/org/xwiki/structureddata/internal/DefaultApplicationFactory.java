@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.FederatedApplication;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+/**
+ * Default implementation of {@link ApplicationFactory}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationFactory implements ApplicationFactory
+{
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("structureddata.cached")
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private AWMRegistry awmRegistry;
+
+    @Inject
+    private ApplicationExecutor executor;
+
+    @Inject
+    private ItemsCache itemsCache;
+
+    @Inject
+    private ItemIndex itemIndex;
+
+    @Inject
+    private ApplicationSnapshots snapshots;
+
+    @Inject
+    private ItemWriteBuffer writeBuffer;
+
+    @Inject
+    private ItemIdAllocator idAllocator;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public Application getApplication(String wikiName, String appId) throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        String wikiId = wikiName != null ? wikiName : context.getWikiId();
+        DocumentReference awmWebHomeRef = new DocumentReference(wikiId, appId, "WebHome");
+        AWMDescriptor awmDescriptor = this.awmRegistry.getApplication(awmWebHomeRef);
+        if (awmDescriptor != null) {
+            return getAWMApplication(awmDescriptor);
+        }
+        DocumentReference classRef = new DocumentReference(resolver.resolve(appId, EntityType.DOCUMENT, new WikiReference(wikiId)));
+        return getClassApplication(classRef);
+    }
+
+    @Override
+    public Application getAWMApplication(AWMDescriptor descriptor)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        return decorate(
+            new AWMApplication(context, authorization, resolver, serializer, queryManager, logger, descriptor,
+                idAllocator),
+            descriptor.getClassReference(), descriptor.getDataSpace());
+    }
+
+    @Override
+    public Application getClassApplication(DocumentReference classReference) throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        return decorate(
+            new DefaultApplication(context, authorization, resolver, serializer, queryManager, logger, classReference),
+            classReference, null);
+    }
+
+    @Override
+    public Application decorate(Application application, DocumentReference classReference, String dataSpace)
+    {
+        // The index is in front of the cache: the queries it resolves don't need to be cached
+        Application snapshotApplication = this.snapshots.wrap(application, classReference, dataSpace);
+        Application indexedApplication = this.itemIndex.wrap(this.itemsCache.wrap(snapshotApplication,
+            classReference, dataSpace), classReference, dataSpace);
+        // The buffered updates are added to the items read through all the other layers
+        return this.writeBuffer.wrap(indexedApplication, classReference, dataSpace);
+    }
+
+    @Override
+    public FederatedApplication getFederatedApplication(List<String> wikis, String appId)
+        throws WikiManagerException
+    {
+        List<String> wikiIds;
+        if (wikis.contains("*")) {
+            wikiIds = new ArrayList<>(this.wikiDescriptorManager.getAllIds());
+        } else {
+            wikiIds = new ArrayList<>();
+            for (String wiki : wikis) {
+                String wikiId = wiki.trim();
+                if (!wikiId.isEmpty() && !wikiIds.contains(wikiId)) {
+                    wikiIds.add(wikiId);
+                }
+            }
+        }
+        return new DefaultFederatedApplication(this, this.executor, appId, wikiIds,
+            this.configuration.getFederationMaxParallelWikis(), this.configuration.getRestTimeout());
+    }
+}
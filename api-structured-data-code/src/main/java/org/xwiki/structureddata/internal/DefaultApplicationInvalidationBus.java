@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.observation.ObservationManager;
+
+/**
+ * Default implementation of {@link ApplicationInvalidationBus}. The event is notified locally; the remote observation
+ * of the wiki sends it to the other nodes when the cluster is enabled, and it is ignored otherwise.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationInvalidationBus implements ApplicationInvalidationBus, Initializable, Disposable
+{
+    /**
+     * The source of the sent events.
+     */
+    private static final String SOURCE = "structureddata";
+
+    /**
+     * The number of changed documents of a class above which only the class is sent.
+     */
+    private static final int MAX_DOCUMENTS = 1000;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The classes changed since the last event, with their changed documents (null when there are too many of them).
+     * Guarded by this.
+     */
+    private Map<String, Set<String>> pending = new HashMap<>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "XApp invalidation");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        // The scheduled event is still sent
+        this.scheduler.shutdown();
+    }
+
+    @Override
+    public void publish(Collection<String> classes, String documentId)
+    {
+        if (classes.isEmpty()) {
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            // The first change of a batch schedules the event, the next ones are added to it
+            schedule = this.pending.isEmpty();
+            for (String classId : classes) {
+                boolean known = this.pending.containsKey(classId);
+                Set<String> documents = this.pending.get(classId);
+                if (!known) {
+                    documents = new HashSet<>();
+                    this.pending.put(classId, documents);
+                }
+                if (documents != null) {
+                    documents.add(documentId);
+                    if (documents.size() > MAX_DOCUMENTS) {
+                        // The other nodes reload the whole class
+                        this.pending.put(classId, null);
+                    }
+                }
+            }
+        }
+        if (schedule) {
+            int delay = Math.max(0, this.configuration.getInvalidationBatchDelay());
+            try {
+                this.scheduler.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        flush();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The wiki is stopping
+            }
+        }
+    }
+
+    /**
+     * Send the pending changes in a single event.
+     */
+    protected void flush()
+    {
+        Map<String, Set<String>> classes;
+        synchronized (this) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            classes = this.pending;
+            this.pending = new HashMap<>();
+        }
+        ExecutionContext context = new ExecutionContext();
+        this.execution.setContext(context);
+        try {
+            this.executionContextManager.initialize(context);
+            this.observationManager.notify(new ApplicationInvalidationEvent(classes), SOURCE, null);
+        } catch (Exception e) {
+            this.logger.warn("Unable to send the changes of the classes [{}] : [{}]", classes.keySet(), e.toString());
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Default implementation of {@link ApplicationSnapshots}. The snapshot of a class is built the first time it is used
+ * in a wiki, by scanning its objects page by page outside of the lock so that the document events are not blocked,
+ * then it is updated by {@link ApplicationSnapshotsListener}. A snapshot is built again when the stored columns of its
+ * class change. The
+ * snapshots are stored in the permanent directory when they are built and when the component is disposed, and a
+ * stored snapshot replaces the scan after a restart, once the documents changed in the meantime have been loaded
+ * again.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationSnapshots implements ApplicationSnapshots, Disposable
+{
+    private static final String FILE_KIND = "snapshots";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    @Named("structureddata.cached")
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The loaded snapshots, by class reference (with the wiki). Guarded by this.
+     */
+    private final Map<String, ColumnarSnapshot> snapshots = new HashMap<>();
+
+    /**
+     * The references of the classes of the loaded snapshots. Guarded by this.
+     */
+    private final Map<String, DocumentReference> classReferences = new HashMap<>();
+
+    /**
+     * The snapshots being loaded, by class reference (with the wiki). Guarded by this.
+     */
+    private final Map<String, PendingSnapshot> loading = new HashMap<>();
+
+    /**
+     * The documents saved or deleted while a snapshot is loaded, applied to the snapshot once it is loaded.
+     */
+    private static class PendingSnapshot
+    {
+        private final DocumentReference classReference;
+
+        private final Map<String, XWikiDocument> changed = new HashMap<>();
+
+        PendingSnapshot(DocumentReference classReference)
+        {
+            this.classReference = classReference;
+        }
+    }
+
+    @Override
+    public Application wrap(Application application, DocumentReference classReference, String dataSpace)
+    {
+        if (!hasSnapshot(classReference)) {
+            return application;
+        }
+        int partitions = dataSpace != null ? DataSpacePartitions.getCount(this.configuration.getPartitions(),
+            this.localSerializer.serialize(classReference), this.serializer.serialize(classReference)) : 0;
+        return new SnapshotApplication(application, classReference, dataSpace, partitions, this, this.authorization,
+            this.resolver, this.xcontextProvider);
+    }
+
+    @Override
+    public ColumnarSnapshot getSnapshot(DocumentReference classReference)
+    {
+        if (!hasSnapshot(classReference)) {
+            return null;
+        }
+        String classId = this.serializer.serialize(classReference);
+        PendingSnapshot pending = new PendingSnapshot(classReference);
+        synchronized (this) {
+            ColumnarSnapshot snapshot = this.snapshots.get(classId);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            if (this.loading.containsKey(classId)) {
+                // Another request is loading the snapshot, this one is computed by the database meanwhile
+                return null;
+            }
+            this.loading.put(classId, pending);
+        }
+
+        ColumnarSnapshot snapshot = null;
+        try {
+            snapshot = loadSnapshot(classReference);
+        } catch (Exception e) {
+            this.logger.warn("Unable to build the snapshot of the class [{}] : [{}]", classId, e.toString());
+        }
+        synchronized (this) {
+            // The load is dropped when it failed, or when the class has been invalidated or changed meanwhile
+            if (this.loading.get(classId) != pending) {
+                return null;
+            }
+            this.loading.remove(classId);
+            if (snapshot == null) {
+                return null;
+            }
+            for (Map.Entry<String, XWikiDocument> document : pending.changed.entrySet()) {
+                updateDocument(snapshot, classReference, document.getKey(), document.getValue());
+            }
+            this.snapshots.put(classId, snapshot);
+            this.classReferences.put(classId, classReference);
+            return snapshot;
+        }
+    }
+
+    @Override
+    public synchronized void update(XWikiDocument document)
+    {
+        // Translations don't have objects
+        if ((this.snapshots.isEmpty() && this.loading.isEmpty()) || document.getTranslation() != 0) {
+            return;
+        }
+        DocumentReference documentReference = document.getDocumentReference();
+        String documentName = this.localSerializer.serialize(documentReference);
+        Iterator<Map.Entry<String, ColumnarSnapshot>> iterator = this.snapshots.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, ColumnarSnapshot> snapshot = iterator.next();
+            DocumentReference classReference = this.classReferences.get(snapshot.getKey());
+            if (!classReference.getWikiReference().equals(documentReference.getWikiReference())) {
+                continue;
+            }
+            if (classReference.equals(documentReference)) {
+                // The columns can't be changed in place, the snapshot is built again when it is used
+                if (!snapshot.getValue().matches(document.getXClass())) {
+                    iterator.remove();
+                    this.classReferences.remove(snapshot.getKey());
+                }
+                continue;
+            }
+            updateDocument(snapshot.getValue(), classReference, documentName, document);
+        }
+        Iterator<PendingSnapshot> loadingIterator = this.loading.values().iterator();
+        while (loadingIterator.hasNext()) {
+            PendingSnapshot pending = loadingIterator.next();
+            if (!pending.classReference.getWikiReference().equals(documentReference.getWikiReference())) {
+                continue;
+            }
+            if (pending.classReference.equals(documentReference)) {
+                // The snapshot may have been loaded with the previous version of the class
+                loadingIterator.remove();
+            } else if (ObjectScans.hasObjects(document, pending.classReference)
+                || ObjectScans.hasObjects(document.getOriginalDocument(), pending.classReference)) {
+                // Updating a document replaces all its rows, so only its last version is kept
+                pending.changed.put(documentName, document);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeWiki(String wikiId)
+    {
+        Iterator<Map.Entry<String, DocumentReference>> iterator = this.classReferences.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, DocumentReference> classReference = iterator.next();
+            if (classReference.getValue().getWikiReference().getName().equals(wikiId)) {
+                this.snapshots.remove(classReference.getKey());
+                iterator.remove();
+            }
+        }
+        Iterator<PendingSnapshot> loadingIterator = this.loading.values().iterator();
+        while (loadingIterator.hasNext()) {
+            if (loadingIterator.next().classReference.getWikiReference().getName().equals(wikiId)) {
+                loadingIterator.remove();
+            }
+        }
+        if (this.configuration.isPersistenceEnabled()) {
+            try {
+                SnapshotFiles.deleteWiki(this.environment, FILE_KIND, wikiId);
+            } catch (IOException e) {
+                this.logger.warn("Unable to delete the snapshots of the wiki [{}] : [{}]", wikiId, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(Collection<String> classes)
+    {
+        // The stored snapshot is read again, and the documents changed since are replayed from the database
+        for (String classId : classes) {
+            this.snapshots.remove(classId);
+            this.classReferences.remove(classId);
+            this.loading.remove(classId);
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        for (Map.Entry<String, ColumnarSnapshot> snapshot : this.snapshots.entrySet()) {
+            store(this.classReferences.get(snapshot.getKey()), snapshot.getValue());
+        }
+    }
+
+    private boolean hasSnapshot(DocumentReference classReference)
+    {
+        List<String> classes = this.configuration.getSnapshotClasses();
+        if (classes.isEmpty()) {
+            return false;
+        }
+        for (String entry : classes) {
+            String className = entry.trim();
+            if (className.equals(this.localSerializer.serialize(classReference))
+                || className.equals(this.serializer.serialize(classReference))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ColumnarSnapshot loadSnapshot(DocumentReference classReference) throws XWikiException, QueryException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        BaseClass xClass = context.getWiki().getXClass(classReference, context);
+        ColumnarSnapshot snapshot = null;
+        if (this.configuration.isPersistenceEnabled()) {
+            snapshot = readSnapshot(classReference, xClass);
+        }
+        if (snapshot == null) {
+            snapshot = scanSnapshot(classReference, xClass);
+            store(classReference, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Read the stored snapshot of a class, and update it with the documents changed since it was stored.
+     * @return the snapshot, or null if it has to be built again
+     */
+    private ColumnarSnapshot readSnapshot(DocumentReference classReference, BaseClass xClass)
+        throws XWikiException, QueryException
+    {
+        String wikiId = classReference.getWikiReference().getName();
+        String className = this.localSerializer.serialize(classReference);
+        ColumnarSnapshot snapshot;
+        try {
+            ByteBuffer content = SnapshotFiles.map(SnapshotFiles.getFile(this.environment, FILE_KIND, wikiId,
+                className));
+            snapshot = content != null ? ColumnarSnapshot.read(xClass, content) : null;
+        } catch (Exception e) {
+            this.logger.warn("Unable to read the stored snapshot of the class [{}] : [{}]", className, e.toString());
+            return null;
+        }
+        if (snapshot == null) {
+            return null;
+        }
+
+        Map<String, String> versions = SnapshotFiles.getDocumentVersions(this.queryManager, wikiId, className);
+        versions.keySet().removeAll(QueryItems.getTemplates(className));
+        Set<String> changed = SnapshotFiles.getChangedDocuments(snapshot.getDocumentVersions(), versions);
+        if (!SnapshotFiles.isReplayable(changed.size(), versions.size())) {
+            this.logger.info("Rebuilding the snapshot of the class [{}] : [{}] documents have changed", className,
+                changed.size());
+            return null;
+        }
+        XWikiContext context = this.xcontextProvider.get();
+        for (String documentName : changed) {
+            // Deleted documents are loaded as new documents, without objects
+            updateDocument(snapshot, classReference, documentName, context.getWiki().getDocument(new DocumentReference(
+                this.resolver.resolve(documentName, EntityType.DOCUMENT, classReference.getWikiReference())), context));
+        }
+        if (!changed.isEmpty()) {
+            store(classReference, snapshot);
+        }
+        return snapshot;
+    }
+
+    private void store(DocumentReference classReference, final ColumnarSnapshot snapshot)
+    {
+        if (!this.configuration.isPersistenceEnabled()) {
+            return;
+        }
+        String className = this.localSerializer.serialize(classReference);
+        File file = SnapshotFiles.getFile(this.environment, FILE_KIND, classReference.getWikiReference().getName(),
+            className);
+        try {
+            SnapshotFiles.write(file, new SnapshotFiles.Content()
+            {
+                @Override
+                public void write(DataOutputStream output) throws IOException
+                {
+                    snapshot.write(output);
+                }
+            });
+        } catch (IOException e) {
+            this.logger.warn("Unable to store the snapshot of the class [{}] : [{}]", className, e.toString());
+        }
+    }
+
+    private void updateDocument(ColumnarSnapshot snapshot, DocumentReference classReference, String documentName,
+        XWikiDocument document)
+    {
+        if (QueryItems.getTemplates(this.localSerializer.serialize(classReference)).contains(documentName)) {
+            return;
+        }
+        // Deleted documents don't have objects anymore
+        snapshot.updateDocument(documentName, document.getVersion(), Boolean.TRUE.equals(document.isHidden()),
+            document.getXObjects(classReference));
+    }
+
+    private ColumnarSnapshot scanSnapshot(DocumentReference classReference, BaseClass xClass) throws QueryException
+    {
+        final ColumnarSnapshot snapshot = new ColumnarSnapshot(xClass);
+        String wikiId = classReference.getWikiReference().getName();
+        String className = this.localSerializer.serialize(classReference);
+        final Set<String> templates = QueryItems.getTemplates(className);
+
+        final Map<Long, Integer> rows = new HashMap<>();
+        ObjectScans.scanObjects(this.queryManager, wikiId, className, new ObjectScans.ObjectHandler()
+        {
+            @Override
+            public void object(long id, String documentName, int number, boolean hidden, String version)
+            {
+                if (!templates.contains(documentName)) {
+                    rows.put(id, snapshot.addRow(documentName, version, hidden));
+                }
+            }
+        });
+        for (Object field : xClass.getProperties()) {
+            final PropertyClass propertyClass = (PropertyClass) field;
+            if (!snapshot.hasColumn(propertyClass.getName())) {
+                continue;
+            }
+            ObjectScans.scanValues(this.queryManager, wikiId, className, xClass, propertyClass.getName(),
+                propertyClass, this.xcontextProvider.get(), new ObjectScans.ValueHandler()
+                {
+                    @Override
+                    public void value(long id, String documentName, int number, Object value)
+                    {
+                        Integer row = rows.get(id);
+                        if (row != null) {
+                            snapshot.setValue(row, propertyClass.getName(), value);
+                        }
+                    }
+                });
+        }
+        return snapshot;
+    }
+}
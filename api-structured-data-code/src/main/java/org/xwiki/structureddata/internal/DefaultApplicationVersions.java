@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Default implementation of {@link ApplicationVersions}. The stamps are kept in memory and never reset, so a stamp
+ * read before a change can't be seen again after it. They are updated by {@link ApplicationVersionsListener}, and by
+ * {@link ApplicationInvalidationListener} for the changes made on the other nodes of a cluster.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultApplicationVersions implements ApplicationVersions
+{
+    /**
+     * The classes whose objects decide which documents a user can view.
+     */
+    private static final List<String> RIGHTS_CLASSES = Arrays.asList("XWiki.XWikiRights", "XWiki.XWikiGlobalRights",
+        "XWiki.XWikiGroups", "XWiki.XWikiUsers");
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private ApplicationInvalidationBus invalidationBus;
+
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong rightsVersion = new AtomicLong();
+
+    @Override
+    public long getVersion(DocumentReference classReference)
+    {
+        AtomicLong version = this.versions.get(this.serializer.serialize(classReference));
+        return version != null ? version.get() : 0;
+    }
+
+    @Override
+    public long getRightsVersion()
+    {
+        return this.rightsVersion.get();
+    }
+
+    @Override
+    public void update(XWikiDocument document)
+    {
+        Set<DocumentReference> classes = new HashSet<>();
+        collectClasses(document, classes);
+        if (document.getOriginalDocument() != null) {
+            // Deleted documents only have their objects in the original document
+            collectClasses(document.getOriginalDocument(), classes);
+        }
+        Set<String> classIds = new HashSet<>();
+        for (DocumentReference classReference : classes) {
+            classIds.add(this.serializer.serialize(classReference));
+        }
+        invalidate(classIds);
+        // The other nodes of the cluster load the changed document again
+        this.invalidationBus.publish(classIds, this.serializer.serialize(document.getDocumentReference()));
+    }
+
+    @Override
+    public void invalidate(Collection<String> classes)
+    {
+        for (String classId : classes) {
+            if (RIGHTS_CLASSES.contains(classId.substring(classId.indexOf(':') + 1))) {
+                this.rightsVersion.incrementAndGet();
+            }
+            increment(classId);
+        }
+    }
+
+    private void increment(String classId)
+    {
+        AtomicLong version = this.versions.get(classId);
+        if (version == null) {
+            AtomicLong newVersion = new AtomicLong();
+            version = this.versions.putIfAbsent(classId, newVersion);
+            if (version == null) {
+                version = newVersion;
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    private void collectClasses(XWikiDocument document, Set<DocumentReference> classes)
+    {
+        // A change of the class definition changes the schema and the values of the items
+        if (StringUtils.isNotEmpty(document.getXClassXML())) {
+            classes.add(document.getDocumentReference());
+        }
+        for (Map.Entry<DocumentReference, List<BaseObject>> objects : document.getXObjects().entrySet()) {
+            for (BaseObject object : objects.getValue()) {
+                if (object != null) {
+                    classes.add(objects.getKey());
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.AsyncApplication;
+
+/**
+ * Default implementation of {@link AsyncApplication}. The Application is created again in the thread running each
+ * operation, since an Application keeps the XWiki context of the thread which created it.
+ *
+ * @version $Id$
+ */
+public class DefaultAsyncApplication implements AsyncApplication
+{
+    private ApplicationFactory applicationFactory;
+
+    private ApplicationExecutor executor;
+
+    private String wikiName;
+
+    private String appId;
+
+    /**
+     * Create the asynchronous view of an application.
+     * @param applicationFactory the factory creating the application in the background threads
+     * @param executor the executor running the operations
+     * @param wikiName the wiki of the application
+     * @param appId the id of the application (AWM id or class full name)
+     */
+    public DefaultAsyncApplication(ApplicationFactory applicationFactory, ApplicationExecutor executor,
+        String wikiName, String appId)
+    {
+        this.applicationFactory = applicationFactory;
+        this.executor = executor;
+        this.wikiName = wikiName;
+        this.appId = appId;
+    }
+
+    @Override
+    public Future<Map<String, Object>> getSchemaAsync() throws Exception
+    {
+        return this.executor.submit(this.wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                return getApplication().getSchema();
+            }
+        });
+    }
+
+    @Override
+    public Future<ItemMap> getItemAsync(final String itemId) throws Exception
+    {
+        return this.executor.submit(this.wikiName, new Callable<ItemMap>()
+        {
+            @Override
+            public ItemMap call() throws Exception
+            {
+                return getApplication().getItem(itemId);
+            }
+        });
+    }
+
+    @Override
+    public Future<ItemMap> getItemAsync(final String itemId, final List<String> properties) throws Exception
+    {
+        return this.executor.submit(this.wikiName, new Callable<ItemMap>()
+        {
+            @Override
+            public ItemMap call() throws Exception
+            {
+                return getApplication().getItem(itemId, properties);
+            }
+        });
+    }
+
+    @Override
+    public Future<Map<String, Object>> getItemsAsync() throws Exception
+    {
+        return this.executor.submit(this.wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                return getApplication().getItems();
+            }
+        });
+    }
+
+    @Override
+    public Future<Map<String, Object>> getItemsAsync(final Map<String, Object> options) throws Exception
+    {
+        return this.executor.submit(this.wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                return getApplication().getItems(options);
+            }
+        });
+    }
+
+    @Override
+    public Future<Map<String, Object>> storeItemAsync(final ItemMap itemData) throws Exception
+    {
+        return this.executor.submitWrite(this.wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                return getApplication().storeItem(itemData);
+            }
+        });
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Async application [" + this.appId + "] in wiki [" + this.wikiName + "]";
+    }
+
+    private Application getApplication() throws XWikiException
+    {
+        return this.applicationFactory.getApplication(this.wikiName, this.appId);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.xwiki.structureddata.FederatedApplication;
+
+/**
+ * Default implementation of {@link FederatedApplication}.
+ * <p>
+ * Each page runs one items query per wiki (at most {@code maxParallelWikis} at the same time), then merges the sorted
+ * results with a k-way merge. The cursor keeps, for each wiki which still has items, the offset of its next query and
+ * the number of viewable items of that query which were already returned.
+ * <p>
+ * The queries of the wikis are submitted to the {@link ApplicationExecutor}, and take the permits of their wikis. The
+ * federated query must not run itself in a task of this executor: it would hold a thread of the pool and a permit of
+ * the current wiki while waiting for the queries of the wikis.
+ *
+ * @version $Id$
+ */
+public class DefaultFederatedApplication implements FederatedApplication
+{
+    /**
+     * The number of items of a page when no limit is given.
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    private static final String LIMIT_OPT = "limit";
+
+    private static final String OFFSET_OPT = "offset";
+
+    private static final String ORDER_OPT = "order";
+
+    private static final String CURSOR_OPT = "cursor";
+
+    private static final String PROPERTIES_OPT = "properties";
+
+    private static final String CURSOR_SEPARATOR = ",";
+
+    private static final String POSITION_SEPARATOR = ":";
+
+    private ApplicationFactory applicationFactory;
+
+    private ApplicationExecutor executor;
+
+    private String appId;
+
+    private List<String> wikis;
+
+    private int maxParallelWikis;
+
+    private long timeout;
+
+    /**
+     * The position of a wiki in the merged stream.
+     */
+    private static class WikiPosition
+    {
+        private int offset;
+
+        private int skip;
+
+        WikiPosition(int offset, int skip)
+        {
+            this.offset = offset;
+            this.skip = skip;
+        }
+    }
+
+    /**
+     * The items of a wiki for the current page.
+     */
+    private static class WikiItems
+    {
+        private String wiki;
+
+        private WikiPosition position;
+
+        private int requestedRows;
+
+        private ItemList items;
+
+        private int index;
+
+        ItemMap current()
+        {
+            return this.items.get(this.index);
+        }
+    }
+
+    /**
+     * @param applicationFactory the factory creating the application in each wiki
+     * @param executor the executor running the queries
+     * @param appId the id of the application (AWM id or class full name)
+     * @param wikis the wikis in which the application is queried
+     * @param maxParallelWikis the maximum number of wikis queried at the same time
+     * @param timeout the time (in milliseconds) to wait for the result of a wiki
+     */
+    public DefaultFederatedApplication(ApplicationFactory applicationFactory, ApplicationExecutor executor,
+        String appId, List<String> wikis, int maxParallelWikis, long timeout)
+    {
+        this.applicationFactory = applicationFactory;
+        this.executor = executor;
+        this.appId = appId;
+        this.wikis = wikis;
+        this.maxParallelWikis = Math.max(1, maxParallelWikis);
+        this.timeout = timeout;
+    }
+
+    @Override
+    public List<String> getWikis()
+    {
+        return Collections.unmodifiableList(this.wikis);
+    }
+
+    @Override
+    public Map<String, Object> getItems(Map<String, Object> options) throws Exception
+    {
+        int limit = options.containsKey(LIMIT_OPT) ? ((Number) options.get(LIMIT_OPT)).intValue() : DEFAULT_LIMIT;
+        Object order = options.get(ORDER_OPT);
+        final ItemComparator comparator = new ItemComparator(order != null ? order.toString() : null);
+        Map<String, WikiPosition> positions = parseCursor((String) options.get(CURSOR_OPT));
+
+        Map<String, Object> baseOptions = new HashMap<>(options);
+        baseOptions.remove(CURSOR_OPT);
+        baseOptions.remove(OFFSET_OPT);
+        addOrderProperties(baseOptions, comparator);
+
+        // Query the wikis, with a bounded number of queries running at the same time
+        Map<String, Object> errors = new LinkedHashMap<>();
+        List<WikiItems> results = new ArrayList<>();
+        Map<WikiItems, Future<ItemList>> pending = new LinkedHashMap<>();
+        for (WikiItems wikiItems : getWikiItems(positions, limit)) {
+            if (pending.size() >= this.maxParallelWikis) {
+                collect(pending, results, errors);
+            }
+            try {
+                pending.put(wikiItems, submit(wikiItems, baseOptions));
+            } catch (RejectedExecutionException e) {
+                errors.put(wikiItems.wiki, e.getMessage());
+            }
+        }
+        while (!pending.isEmpty()) {
+            collect(pending, results, errors);
+        }
+
+        // Merge the sorted lists of the wikis
+        PriorityQueue<WikiItems> heads = new PriorityQueue<>(Math.max(1, results.size()), new Comparator<WikiItems>()
+        {
+            @Override
+            public int compare(WikiItems wikiItems1, WikiItems wikiItems2)
+            {
+                int result = comparator.compare(wikiItems1.current(), wikiItems2.current());
+                return result != 0 ? result : wikiItems1.wiki.compareTo(wikiItems2.wiki);
+            }
+        });
+        for (WikiItems wikiItems : results) {
+            if (wikiItems.index < wikiItems.items.size()) {
+                heads.add(wikiItems);
+            }
+        }
+        Map<String, Object> items = new LinkedHashMap<>();
+        while (items.size() < limit && !heads.isEmpty()) {
+            WikiItems wikiItems = heads.poll();
+            ItemMap item = wikiItems.current();
+            items.put(wikiItems.wiki + POSITION_SEPARATOR + item.getId(), item);
+            wikiItems.index++;
+            if (wikiItems.index < wikiItems.items.size()) {
+                heads.add(wikiItems);
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("Items", items);
+        result.put("Cursor", getNextCursor(positions, results, errors));
+        result.put("Errors", errors);
+        return result;
+    }
+
+    private List<WikiItems> getWikiItems(Map<String, WikiPosition> positions, int limit)
+    {
+        List<WikiItems> wikiItemsList = new ArrayList<>();
+        for (String wiki : this.wikis) {
+            WikiPosition position;
+            if (positions == null) {
+                position = new WikiPosition(0, 0);
+            } else {
+                // The wikis which are not in the cursor have no more items
+                position = positions.get(wiki);
+                if (position == null) {
+                    continue;
+                }
+            }
+            WikiItems wikiItems = new WikiItems();
+            wikiItems.wiki = wiki;
+            wikiItems.position = position;
+            wikiItems.requestedRows = limit + position.skip;
+            wikiItemsList.add(wikiItems);
+        }
+        return wikiItemsList;
+    }
+
+    private Future<ItemList> submit(final WikiItems wikiItems, Map<String, Object> baseOptions)
+        throws InterruptedException
+    {
+        final Map<String, Object> wikiOptions = new HashMap<>(baseOptions);
+        wikiOptions.put(OFFSET_OPT, wikiItems.position.offset);
+        wikiOptions.put(LIMIT_OPT, wikiItems.requestedRows);
+        return this.executor.submit(wikiItems.wiki, new Callable<ItemList>()
+        {
+            @Override
+            public ItemList call() throws Exception
+            {
+                return applicationFactory.getApplication(wikiItems.wiki, appId).getItemList(wikiOptions);
+            }
+        });
+    }
+
+    private void collect(Map<WikiItems, Future<ItemList>> pending, List<WikiItems> results,
+        Map<String, Object> errors) throws InterruptedException
+    {
+        Iterator<Map.Entry<WikiItems, Future<ItemList>>> iterator = pending.entrySet().iterator();
+        Map.Entry<WikiItems, Future<ItemList>> entry = iterator.next();
+        iterator.remove();
+        WikiItems wikiItems = entry.getKey();
+        try {
+            wikiItems.items = entry.getValue().get(this.timeout, TimeUnit.MILLISECONDS);
+            // The viewable items already returned by the previous pages are skipped
+            wikiItems.index = Math.min(wikiItems.position.skip, wikiItems.items.size());
+            results.add(wikiItems);
+        } catch (ExecutionException e) {
+            errors.put(wikiItems.wiki, String.valueOf(e.getCause()));
+        } catch (TimeoutException e) {
+            errors.put(wikiItems.wiki, "Timeout");
+        }
+    }
+
+    /**
+     * Compute the position of each wiki after the items of the page.
+     */
+    private String getNextCursor(Map<String, WikiPosition> positions, List<WikiItems> results,
+        Map<String, Object> errors)
+    {
+        Map<String, WikiPosition> nextPositions = new LinkedHashMap<>();
+        for (WikiItems wikiItems : results) {
+            WikiPosition position = wikiItems.position;
+            ItemList items = wikiItems.items;
+            boolean lastRows = items.getRowCount() < wikiItems.requestedRows;
+            if (wikiItems.index >= items.size()) {
+                // All the viewable items of the query have been returned
+                if (!lastRows) {
+                    nextPositions.put(wikiItems.wiki, new WikiPosition(position.offset + items.getRowCount(), 0));
+                }
+            } else if (items.size() == items.getRowCount()) {
+                // All the rows were viewable, so the next offset is known exactly
+                nextPositions.put(wikiItems.wiki, new WikiPosition(position.offset + wikiItems.index, 0));
+            } else {
+                nextPositions.put(wikiItems.wiki, new WikiPosition(position.offset, wikiItems.index));
+            }
+        }
+        // The wikis which failed are queried again from the same position
+        for (String wiki : errors.keySet()) {
+            WikiPosition position = positions != null ? positions.get(wiki) : new WikiPosition(0, 0);
+            if (position != null) {
+                nextPositions.put(wiki, position);
+            }
+        }
+        if (nextPositions.isEmpty()) {
+            return null;
+        }
+        StringBuilder cursor = new StringBuilder();
+        for (Map.Entry<String, WikiPosition> entry : nextPositions.entrySet()) {
+            if (cursor.length() > 0) {
+                cursor.append(CURSOR_SEPARATOR);
+            }
+            cursor.append(entry.getKey()).append(POSITION_SEPARATOR).append(entry.getValue().offset)
+                .append(POSITION_SEPARATOR).append(entry.getValue().skip);
+        }
+        return cursor.toString();
+    }
+
+    private Map<String, WikiPosition> parseCursor(String cursor)
+    {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        Map<String, WikiPosition> positions = new HashMap<>();
+        for (String wikiCursor : cursor.split(CURSOR_SEPARATOR)) {
+            String[] parts = wikiCursor.split(POSITION_SEPARATOR);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid cursor [" + cursor + "]");
+            }
+            positions.put(parts[0], new WikiPosition(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+        }
+        return positions;
+    }
+
+    /**
+     * The properties used to sort the items have to be loaded to merge the lists.
+     */
+    @SuppressWarnings("unchecked")
+    private void addOrderProperties(Map<String, Object> wikiOptions, ItemComparator comparator)
+    {
+        Object properties = wikiOptions.get(PROPERTIES_OPT);
+        if (properties instanceof List && !((List<String>) properties).isEmpty()) {
+            List<String> allProperties = new ArrayList<>((List<String>) properties);
+            for (String property : comparator.getProperties()) {
+                if (!allProperties.contains(property)) {
+                    allProperties.add(property);
+                }
+            }
+            wikiOptions.put(PROPERTIES_OPT, allProperties);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Federated application [" + this.appId + "] in wikis " + this.wikis;
+    }
+}
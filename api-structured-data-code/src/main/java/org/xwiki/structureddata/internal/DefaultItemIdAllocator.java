@@ -0,0 +1,187 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Default implementation of {@link ItemIdAllocator}. The sequence document contains the first id which has not been
+ * reserved yet. The document is created with the other changes of the document (see {@link DocumentWriteCombiner}),
+ * then the blocks are reserved directly in the database: the content of the document is only replaced if its version
+ * is still the one the block was read from, so two nodes sharing the database never reserve the same block. The
+ * reservations don't add revisions to the history of the document.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultItemIdAllocator implements ItemIdAllocator
+{
+    /**
+     * Number of times a block is read again, when another node has reserved the block read before.
+     */
+    private static final int MAX_RESERVE_ATTEMPTS = 20;
+
+    private static final String VERSION_SEPARATOR = ".";
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * The reserved ids of each sequence.
+     */
+    private final ConcurrentMap<DocumentReference, Block> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * A block of reserved ids. Guarded by this.
+     */
+    private static class Block
+    {
+        private long next;
+
+        private long end;
+    }
+
+    @Override
+    public long next(DocumentReference sequenceReference) throws Exception
+    {
+        Block block = this.blocks.get(sequenceReference);
+        if (block == null) {
+            Block newBlock = new Block();
+            block = this.blocks.putIfAbsent(sequenceReference, newBlock);
+            if (block == null) {
+                block = newBlock;
+            }
+        }
+        synchronized (block) {
+            if (block.next >= block.end) {
+                int size = Math.max(1, this.configuration.getIdBlockSize());
+                block.next = reserve(sequenceReference, size);
+                block.end = block.next + size;
+            }
+            return block.next++;
+        }
+    }
+
+    /**
+     * Reserve a block of ids in the sequence document.
+     * @return the first id of the block
+     */
+    private long reserve(DocumentReference sequenceReference, final int size) throws Exception
+    {
+        final XWikiContext context = this.xcontextProvider.get();
+        DocumentWriteCombiner.write(sequenceReference, new DocumentWriteCombiner.Change()
+        {
+            @Override
+            public boolean apply(XWikiDocument document)
+            {
+                if (!document.isNew()) {
+                    return false;
+                }
+                document.setContent("1");
+                document.setHidden(true);
+                document.setAuthorReference(context.getUserReference());
+                return true;
+            }
+        }, "Created the item id sequence", context);
+
+        final String fullName = this.localSerializer.serialize(sequenceReference);
+        HibernateCallback<Long> callback = new HibernateCallback<Long>()
+        {
+            @Override
+            public Long doInHibernate(Session session) throws HibernateException, XWikiException
+            {
+                Object[] sequence = (Object[]) session.createQuery("select doc.content, doc.version "
+                    + "from XWikiDocument doc where doc.fullName = :name and doc.language = ''")
+                    .setString("name", fullName).uniqueResult();
+                if (sequence == null) {
+                    throw new HibernateException("The sequence [" + fullName + "] doesn't exist");
+                }
+                String content = StringUtils.trim((String) sequence[0]);
+                long start = StringUtils.isNumeric(content) && !content.isEmpty() ? Long.parseLong(content) : 1;
+                String version = (String) sequence[1];
+                int updated = session.createQuery("update XWikiDocument doc set doc.content = :content, "
+                    + "doc.version = :newVersion where doc.fullName = :name and doc.language = '' "
+                    + "and doc.version = :version").setString("content", String.valueOf(start + size))
+                    .setString("newVersion", getNextVersion(version)).setString("name", fullName)
+                    .setString("version", version).executeUpdate();
+                // Another node has reserved this block in the meantime
+                return updated == 1 ? start : null;
+            }
+        };
+        // The sequence is in the database of the wiki of the application
+        String oldWikiId = context.getWikiId();
+        context.setWikiId(sequenceReference.getWikiReference().getName());
+        try {
+            XWikiHibernateStore store = context.getWiki().getHibernateStore();
+            for (int attempt = 0; attempt < MAX_RESERVE_ATTEMPTS; attempt++) {
+                Long start = store.executeWrite(context, callback);
+                if (start != null) {
+                    return start;
+                }
+            }
+        } finally {
+            context.setWikiId(oldWikiId);
+        }
+        throw new IllegalStateException("Unable to reserve item ids in the sequence [" + sequenceReference + "]");
+    }
+
+    /**
+     * @return the next minor version, so that every reservation changes the version of the document
+     */
+    private static String getNextVersion(String version)
+    {
+        if (version != null) {
+            int separator = version.lastIndexOf(VERSION_SEPARATOR);
+            try {
+                return version.substring(0, separator + 1) + (Integer.parseInt(version.substring(separator + 1)) + 1);
+            } catch (NumberFormatException e) {
+                // Replaced by a valid version
+            }
+        }
+        return "1.1";
+    }
+}
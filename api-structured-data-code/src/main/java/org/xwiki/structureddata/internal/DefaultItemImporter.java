@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.io.IOUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Default implementation of {@link ItemImporter}, running the imports with {@link ImportJob}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultItemImporter implements ItemImporter
+{
+    private static final String ERROR = "Error";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private JobExecutor jobExecutor;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Override
+    public String startImport(String wikiName, String appId, String format, InputStream input, int batchSize)
+        throws IOException, JobException
+    {
+        String importFormat = format != null ? format.toLowerCase() : "json";
+        if ("ndjson".equals(importFormat)) {
+            importFormat = "json";
+        }
+        if (!"json".equals(importFormat) && !ImportJob.FORMAT_CSV.equals(importFormat)) {
+            throw new IllegalArgumentException("Unsupported import format [" + format + "]");
+        }
+        XWikiContext context = this.xcontextProvider.get();
+        String wikiId = wikiName != null ? wikiName : context.getWikiId();
+
+        // The request body is only available during the request, so the data is kept in a temporary file until the
+        // job has imported it
+        File directory = new File(this.environment.getTemporaryDirectory(), "structureddata");
+        directory.mkdirs();
+        File file = File.createTempFile("import", ".tmp", directory);
+        try (OutputStream output = new FileOutputStream(file)) {
+            IOUtils.copy(input, output);
+        }
+
+        String importId = UUID.randomUUID().toString();
+        ImportRequest request = new ImportRequest(getJobId(wikiId, appId, importId));
+        request.setWiki(wikiId);
+        request.setAppId(appId);
+        request.setFormat(importFormat);
+        request.setFile(file);
+        request.setBatchSize(batchSize > 0 ? batchSize : ImportJob.DEFAULT_BATCH_SIZE);
+        request.setUserReference(context.getUserReference());
+        this.jobExecutor.execute(ImportJob.JOBTYPE, request);
+        return importId;
+    }
+
+    @Override
+    public Map<String, Object> getImportStatus(String wikiName, String appId, String importId)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        String wikiId = wikiName != null ? wikiName : context.getWikiId();
+        Map<String, Object> result = new HashMap<>();
+        Job job = this.jobExecutor.getJob(getJobId(wikiId, appId, importId));
+        if (job == null) {
+            result.put(ERROR, "Unknown import [" + importId + "]");
+            return result;
+        }
+        // Only the user who started the import (or an administrator) can see the imported ids and the errors
+        ImportRequest request = (ImportRequest) job.getRequest();
+        DocumentReference userReference = request.getUserReference();
+        if ((userReference == null || !userReference.equals(context.getUserReference()))
+            && !this.authorization.hasAccess(Right.ADMIN)) {
+            result.put(ERROR, "Access denied to import [" + importId + "]");
+            return result;
+        }
+        JobStatus status = job.getStatus();
+        result.put("Id", importId);
+        result.put("State", status.getState() != null ? status.getState().name() : null);
+        result.put("Progress", status.getProgress().getOffset());
+        if (job instanceof ImportJob) {
+            ImportJob importJob = (ImportJob) job;
+            result.put("Processed", importJob.getProcessedCount());
+            result.put("Imported", importJob.getImportedCount());
+            result.put("Failed", importJob.getFailedCount());
+            result.put("Errors", importJob.getErrors());
+        }
+        return result;
+    }
+
+    private List<String> getJobId(String wikiId, String appId, String importId)
+    {
+        return Arrays.asList("structureddata", "import", wikiId, appId, importId);
+    }
+}
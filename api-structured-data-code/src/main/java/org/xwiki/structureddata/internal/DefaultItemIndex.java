@@ -0,0 +1,808 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.BooleanClass;
+import com.xpn.xwiki.objects.classes.DateClass;
+import com.xpn.xwiki.objects.classes.ListClass;
+import com.xpn.xwiki.objects.classes.NumberClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Default implementation of {@link ItemIndex}. The index of a class is built the first time it is used in a wiki, by
+ * scanning the values of its indexed properties page by page, outside of the lock so that the document events are not
+ * blocked, then it is updated by {@link ItemIndexListener}. The strings are indexed without case and accents, so that
+ * the objects found are a superset of the ones matched by the collation of the database, which checks them again
+ * (see {@link IndexedApplication}).
+ * Like the snapshots (see {@link DefaultApplicationSnapshots}), the indexes are stored in the permanent directory and
+ * read back after a restart.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultItemIndex implements ItemIndex, Disposable
+{
+    private static final int MAGIC = 0x53444958;
+
+    /**
+     * The version of the file format, to increment when the format changes.
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String FILE_KIND = "indexes";
+
+    private static final String OBJECT_SEPARATOR = "|";
+
+    private static final String PROPERTY_SEPARATOR = "#";
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern TRAILING_SPACES = Pattern.compile("\\s+$");
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The loaded indexes, by class reference (with the wiki). Guarded by this.
+     */
+    private final Map<String, ClassIndex> indexes = new HashMap<>();
+
+    /**
+     * The indexes being loaded, by class reference (with the wiki). Guarded by this.
+     */
+    private final Map<String, PendingIndex> loading = new HashMap<>();
+
+    /**
+     * The documents saved or deleted while an index is loaded, applied to the index once it is loaded.
+     */
+    private static class PendingIndex
+    {
+        private final DocumentReference classReference;
+
+        private final Map<String, XWikiDocument> changed = new HashMap<>();
+
+        PendingIndex(DocumentReference classReference)
+        {
+            this.classReference = classReference;
+        }
+    }
+
+    /**
+     * The values of a property, sorted, with the objects holding each value.
+     */
+    private static class PropertyIndex
+    {
+        private final PropertyClass propertyClass;
+
+        private final boolean multiple;
+
+        private final TreeMap<Object, Set<String>> values = new TreeMap<>();
+
+        private final Map<String, List<Object>> objectValues = new HashMap<>();
+
+        PropertyIndex(PropertyClass propertyClass)
+        {
+            this.propertyClass = propertyClass;
+            this.multiple = propertyClass instanceof ListClass && ((ListClass) propertyClass).isMultiSelect();
+        }
+
+        private void add(String object, Object value)
+        {
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    add(object, element);
+                }
+                return;
+            }
+            Object key = toKey(this.propertyClass, value);
+            if (key != null) {
+                addKey(object, key);
+            }
+        }
+
+        private void addKey(String object, Object key)
+        {
+            Set<String> objects = this.values.get(key);
+            if (objects == null) {
+                objects = new HashSet<>();
+                this.values.put(key, objects);
+            }
+            objects.add(object);
+            List<Object> keys = this.objectValues.get(object);
+            if (keys == null) {
+                keys = new ArrayList<>(1);
+                this.objectValues.put(object, keys);
+            }
+            keys.add(key);
+        }
+
+        private void remove(String object)
+        {
+            List<Object> keys = this.objectValues.remove(object);
+            if (keys == null) {
+                return;
+            }
+            for (Object key : keys) {
+                Set<String> objects = this.values.get(key);
+                if (objects != null) {
+                    objects.remove(object);
+                    if (objects.isEmpty()) {
+                        this.values.remove(key);
+                    }
+                }
+            }
+        }
+
+        private Set<String> get(Map<Object, Set<String>> subMap)
+        {
+            Set<String> result = new HashSet<>();
+            for (Set<String> objects : subMap.values()) {
+                result.addAll(objects);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The indexed properties of a class in a wiki.
+     */
+    private static class ClassIndex
+    {
+        private final DocumentReference classReference;
+
+        private final Map<String, PropertyIndex> properties = new HashMap<>();
+
+        private final Map<String, Set<String>> documents = new HashMap<>();
+
+        private final Map<String, String> versions = new HashMap<>();
+
+        ClassIndex(DocumentReference classReference)
+        {
+            this.classReference = classReference;
+        }
+
+        private void addObject(String documentName, String object)
+        {
+            Set<String> objects = this.documents.get(documentName);
+            if (objects == null) {
+                objects = new HashSet<>();
+                this.documents.put(documentName, objects);
+            }
+            objects.add(object);
+        }
+
+        /**
+         * @return the indexed properties and their types, to check that a stored index matches the current class
+         */
+        private String getSignature()
+        {
+            Map<String, String> types = new TreeMap<>();
+            for (Map.Entry<String, PropertyIndex> property : this.properties.entrySet()) {
+                types.put(property.getKey(), property.getValue().propertyClass.getClass().getSimpleName()
+                    + (property.getValue().multiple ? "*" : ""));
+            }
+            return types.toString();
+        }
+
+        private Set<String> getObjects()
+        {
+            Set<String> objects = new HashSet<>();
+            for (Set<String> documentObjects : this.documents.values()) {
+                objects.addAll(documentObjects);
+            }
+            return objects;
+        }
+
+        private void removeDocument(String documentName)
+        {
+            this.versions.remove(documentName);
+            Set<String> objects = this.documents.remove(documentName);
+            if (objects == null) {
+                return;
+            }
+            for (String object : objects) {
+                for (PropertyIndex property : this.properties.values()) {
+                    property.remove(object);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Application wrap(Application application, DocumentReference classReference, String dataSpace)
+    {
+        if (getIndexedProperties(classReference).isEmpty()) {
+            return application;
+        }
+        int partitions = dataSpace != null ? DataSpacePartitions.getCount(this.configuration.getPartitions(),
+            this.localSerializer.serialize(classReference), this.serializer.serialize(classReference)) : 0;
+        return new IndexedApplication(application, this.localSerializer.serialize(classReference), classReference,
+            dataSpace, partitions, this, this.logger);
+    }
+
+    @Override
+    public Set<String> find(DocumentReference classReference, ItemFilter filter)
+    {
+        List<String> properties = getIndexedProperties(classReference);
+        if (!isIndexed(filter, properties)) {
+            return null;
+        }
+        String classId = this.serializer.serialize(classReference);
+        PendingIndex pending = new PendingIndex(classReference);
+        synchronized (this) {
+            ClassIndex index = this.indexes.get(classId);
+            if (index != null) {
+                return find(index, filter);
+            }
+            if (this.loading.containsKey(classId)) {
+                // Another request is loading the index, this one is resolved by the database meanwhile
+                return null;
+            }
+            this.loading.put(classId, pending);
+        }
+
+        ClassIndex index = null;
+        try {
+            index = loadIndex(classReference, properties);
+        } catch (Exception e) {
+            this.logger.warn("Unable to index the class [{}] : [{}]", classId, e.toString());
+        }
+        synchronized (this) {
+            // The load is dropped when it failed, or when the class has been invalidated meanwhile (another load
+            // may have started since)
+            if (this.loading.get(classId) != pending) {
+                return null;
+            }
+            this.loading.remove(classId);
+            if (index == null) {
+                return null;
+            }
+            for (Map.Entry<String, XWikiDocument> document : pending.changed.entrySet()) {
+                updateDocument(index, document.getKey(), document.getValue());
+            }
+            this.indexes.put(classId, index);
+            return find(index, filter);
+        }
+    }
+
+    @Override
+    public synchronized void update(XWikiDocument document)
+    {
+        // Translations don't have objects
+        if ((this.indexes.isEmpty() && this.loading.isEmpty()) || document.getTranslation() != 0) {
+            return;
+        }
+        DocumentReference documentReference = document.getDocumentReference();
+        String documentName = this.localSerializer.serialize(documentReference);
+        for (ClassIndex index : this.indexes.values()) {
+            if (!index.classReference.getWikiReference().equals(documentReference.getWikiReference())) {
+                continue;
+            }
+            updateDocument(index, documentName, document);
+        }
+        for (PendingIndex pending : this.loading.values()) {
+            // Updating a document replaces all its objects, so only its last version is kept
+            if (pending.classReference.getWikiReference().equals(documentReference.getWikiReference())
+                && (ObjectScans.hasObjects(document, pending.classReference)
+                || ObjectScans.hasObjects(document.getOriginalDocument(), pending.classReference))) {
+                pending.changed.put(documentName, document);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeWiki(String wikiId)
+    {
+        Iterator<ClassIndex> iterator = this.indexes.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().classReference.getWikiReference().getName().equals(wikiId)) {
+                iterator.remove();
+            }
+        }
+        Iterator<PendingIndex> loadingIterator = this.loading.values().iterator();
+        while (loadingIterator.hasNext()) {
+            if (loadingIterator.next().classReference.getWikiReference().getName().equals(wikiId)) {
+                loadingIterator.remove();
+            }
+        }
+        if (this.configuration.isPersistenceEnabled()) {
+            try {
+                SnapshotFiles.deleteWiki(this.environment, FILE_KIND, wikiId);
+            } catch (IOException e) {
+                this.logger.warn("Unable to delete the indexes of the wiki [{}] : [{}]", wikiId, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(Collection<String> classes)
+    {
+        // The stored index is read again, and the documents changed since are replayed from the database
+        for (String classId : classes) {
+            this.indexes.remove(classId);
+            this.loading.remove(classId);
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        for (ClassIndex index : this.indexes.values()) {
+            store(index);
+        }
+    }
+
+    /**
+     * Read the indexed properties of a class in the configuration. Each entry is "Space.Class#property", for the
+     * class in any wiki, or "wiki:Space.Class#property".
+     */
+    private List<String> getIndexedProperties(DocumentReference classReference)
+    {
+        List<String> properties = new ArrayList<>();
+        List<String> entries = this.configuration.getIndexedProperties();
+        if (entries.isEmpty()) {
+            return properties;
+        }
+        String className = this.localSerializer.serialize(classReference);
+        String fullClassName = this.serializer.serialize(classReference);
+        for (String entry : entries) {
+            int separator = entry.lastIndexOf(PROPERTY_SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            String entryClass = entry.substring(0, separator).trim();
+            if (entryClass.equals(className) || entryClass.equals(fullClassName)) {
+                properties.add(entry.substring(separator + 1).trim());
+            }
+        }
+        return properties;
+    }
+
+    private boolean isIndexed(ItemFilter filter, List<String> properties)
+    {
+        if (filter.getFilters() != null) {
+            for (ItemFilter subFilter : filter.getFilters()) {
+                if (!isIndexed(subFilter, properties)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return properties.contains(filter.getProperty());
+    }
+
+    private Set<String> find(ClassIndex index, ItemFilter filter)
+    {
+        try {
+            return findObjects(index, filter);
+        } catch (IllegalArgumentException e) {
+            // Invalid values are reported by the query of the application
+            return null;
+        }
+    }
+
+    private Set<String> findObjects(ClassIndex index, ItemFilter filter)
+    {
+        String op = filter.getOp();
+        if (ItemFilter.AND.equals(op) || ItemFilter.OR.equals(op)) {
+            Set<String> result = null;
+            for (ItemFilter subFilter : filter.getFilters()) {
+                Set<String> objects = findObjects(index, subFilter);
+                if (objects == null) {
+                    return null;
+                }
+                if (result == null) {
+                    result = objects;
+                } else if (ItemFilter.AND.equals(op)) {
+                    result.retainAll(objects);
+                } else {
+                    result.addAll(objects);
+                }
+            }
+            return result != null ? result : new HashSet<String>();
+        }
+
+        PropertyIndex property = index.properties.get(filter.getProperty());
+        if (property == null) {
+            return null;
+        }
+        switch (op) {
+            case ItemFilter.EQ:
+                return get(property, filter.getValue());
+            case ItemFilter.IN:
+                Set<String> result = new HashSet<>();
+                for (Object value : filter.getValues()) {
+                    Set<String> objects = get(property, value);
+                    if (objects == null) {
+                        return null;
+                    }
+                    result.addAll(objects);
+                }
+                return result;
+            case ItemFilter.RANGE:
+                // The order of the strings depends on the collation of the database
+                if (property.multiple || !isTyped(property.propertyClass)) {
+                    return null;
+                }
+                NavigableMap<Object, Set<String>> range = property.values;
+                Object min = filter.getMin() != null ? getKey(property, filter.getMin()) : null;
+                Object max = filter.getMax() != null ? getKey(property, filter.getMax()) : null;
+                if (min != null) {
+                    range = range.tailMap(min, true);
+                }
+                if (max != null) {
+                    range = range.headMap(max, true);
+                }
+                return property.get(range);
+            case ItemFilter.PREFIX:
+                String prefix = filter.getValue().toString();
+                if (property.multiple || isTyped(property.propertyClass) || prefix.contains("%")
+                    || prefix.contains("_")) {
+                    return null;
+                }
+                String prefixKey = fold(prefix);
+                return prefixKey.isEmpty() ? null
+                    : property.get(property.values.subMap(prefixKey, true, prefixKey + Character.MAX_VALUE, true));
+            default:
+                if (property.multiple) {
+                    return null;
+                }
+                // Empty values are not indexed
+                Set<String> objects = index.getObjects();
+                objects.removeAll(property.objectValues.keySet());
+                return objects;
+        }
+    }
+
+    private Set<String> get(PropertyIndex property, Object value)
+    {
+        Object key = getKey(property, value);
+        if (key == null) {
+            // Empty strings are not indexed
+            return null;
+        }
+        Set<String> objects = property.values.get(key);
+        return objects != null ? new HashSet<>(objects) : new HashSet<String>();
+    }
+
+    private Object getKey(PropertyIndex property, Object value)
+    {
+        return toKey(property.propertyClass, FilterCompiler.convert(property.propertyClass, value));
+    }
+
+    private ClassIndex loadIndex(DocumentReference classReference, List<String> properties)
+        throws XWikiException, QueryException
+    {
+        ClassIndex index = createIndex(classReference, properties);
+        if (this.configuration.isPersistenceEnabled() && readIndex(index)) {
+            return index;
+        }
+        // The stored index may have been partially read
+        index = createIndex(classReference, properties);
+        scanIndex(index);
+        store(index);
+        return index;
+    }
+
+    private ClassIndex createIndex(DocumentReference classReference, List<String> properties) throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        BaseClass xClass = context.getWiki().getXClass(classReference, context);
+        ClassIndex index = new ClassIndex(classReference);
+        for (String property : properties) {
+            Object propertyClass = xClass.get(property);
+            if (propertyClass instanceof PropertyClass) {
+                index.properties.put(property, new PropertyIndex((PropertyClass) propertyClass));
+            } else {
+                this.logger.warn("The indexed property [{}] doesn't exist in the class [{}]", property,
+                    classReference);
+            }
+        }
+        return index;
+    }
+
+    private void scanIndex(final ClassIndex index) throws XWikiException, QueryException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        BaseClass xClass = context.getWiki().getXClass(index.classReference, context);
+        String wikiId = index.classReference.getWikiReference().getName();
+        String className = this.localSerializer.serialize(index.classReference);
+        // The versions are read before the objects: a document saved during the scan keeps its previous version, so
+        // it is loaded again when the stored index is read
+        Map<String, String> versions = SnapshotFiles.getDocumentVersions(this.queryManager, wikiId, className);
+        ObjectScans.scanObjects(this.queryManager, wikiId, className, new ObjectScans.ObjectHandler()
+        {
+            @Override
+            public void object(long id, String documentName, int number, boolean hidden, String version)
+            {
+                index.addObject(documentName, documentName + OBJECT_SEPARATOR + number);
+            }
+        });
+        for (String documentName : index.documents.keySet()) {
+            index.versions.put(documentName, versions.get(documentName));
+        }
+        for (Map.Entry<String, PropertyIndex> property : index.properties.entrySet()) {
+            final PropertyIndex propertyIndex = property.getValue();
+            ObjectScans.scanValues(this.queryManager, wikiId, className, xClass, property.getKey(),
+                propertyIndex.propertyClass, context, new ObjectScans.ValueHandler()
+                {
+                    @Override
+                    public void value(long id, String documentName, int number, Object value)
+                    {
+                        propertyIndex.add(documentName + OBJECT_SEPARATOR + number, value);
+                    }
+                });
+        }
+    }
+
+    /**
+     * Read the stored index of a class, and update it with the documents changed since it was stored.
+     * @return true if the index has been read, false if it has to be built again
+     */
+    private boolean readIndex(ClassIndex index) throws XWikiException, QueryException
+    {
+        String wikiId = index.classReference.getWikiReference().getName();
+        String className = this.localSerializer.serialize(index.classReference);
+        try {
+            ByteBuffer content = SnapshotFiles.map(SnapshotFiles.getFile(this.environment, FILE_KIND, wikiId,
+                className));
+            if (content == null || !readIndex(index, content)) {
+                return false;
+            }
+        } catch (Exception e) {
+            this.logger.warn("Unable to read the stored index of the class [{}] : [{}]", className, e.toString());
+            return false;
+        }
+
+        Map<String, String> versions = SnapshotFiles.getDocumentVersions(this.queryManager, wikiId, className);
+        Set<String> changed = SnapshotFiles.getChangedDocuments(index.versions, versions);
+        if (!SnapshotFiles.isReplayable(changed.size(), versions.size())) {
+            this.logger.info("Rebuilding the index of the class [{}] : [{}] documents have changed", className,
+                changed.size());
+            return false;
+        }
+        XWikiContext context = this.xcontextProvider.get();
+        for (String documentName : changed) {
+            // Deleted documents are loaded as new documents, without objects
+            updateDocument(index, documentName, context.getWiki().getDocument(new DocumentReference(
+                this.resolver.resolve(documentName, EntityType.DOCUMENT, index.classReference.getWikiReference())),
+                context));
+        }
+        if (!changed.isEmpty()) {
+            store(index);
+        }
+        return true;
+    }
+
+    private boolean readIndex(ClassIndex index, ByteBuffer input)
+    {
+        if (input.getInt() != MAGIC || input.getInt() != FORMAT_VERSION
+            || !index.getSignature().equals(SnapshotFiles.readString(input))) {
+            return false;
+        }
+        int documentCount = input.getInt();
+        for (int i = 0; i < documentCount; i++) {
+            String documentName = SnapshotFiles.readString(input);
+            index.versions.put(documentName, SnapshotFiles.readString(input));
+            int objectCount = input.getInt();
+            for (int j = 0; j < objectCount; j++) {
+                index.addObject(documentName, SnapshotFiles.readString(input));
+            }
+        }
+        for (int i = 0; i < index.properties.size(); i++) {
+            PropertyIndex property = index.properties.get(SnapshotFiles.readString(input));
+            int keyCount = input.getInt();
+            for (int j = 0; j < keyCount; j++) {
+                boolean decimal = input.get() != 0;
+                String value = SnapshotFiles.readString(input);
+                Object key = decimal ? new BigDecimal(value) : value;
+                int objectCount = input.getInt();
+                for (int k = 0; k < objectCount; k++) {
+                    property.addKey(SnapshotFiles.readString(input), key);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void store(final ClassIndex index)
+    {
+        if (!this.configuration.isPersistenceEnabled()) {
+            return;
+        }
+        String className = this.localSerializer.serialize(index.classReference);
+        File file = SnapshotFiles.getFile(this.environment, FILE_KIND,
+            index.classReference.getWikiReference().getName(), className);
+        try {
+            SnapshotFiles.write(file, new SnapshotFiles.Content()
+            {
+                @Override
+                public void write(DataOutputStream output) throws IOException
+                {
+                    writeIndex(index, output);
+                }
+            });
+        } catch (IOException e) {
+            this.logger.warn("Unable to store the index of the class [{}] : [{}]", className, e.toString());
+        }
+    }
+
+    private void writeIndex(ClassIndex index, DataOutputStream output) throws IOException
+    {
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+        SnapshotFiles.writeString(output, index.getSignature());
+        output.writeInt(index.documents.size());
+        for (Map.Entry<String, Set<String>> document : index.documents.entrySet()) {
+            SnapshotFiles.writeString(output, document.getKey());
+            SnapshotFiles.writeString(output, index.versions.get(document.getKey()));
+            output.writeInt(document.getValue().size());
+            for (String object : document.getValue()) {
+                SnapshotFiles.writeString(output, object);
+            }
+        }
+        for (Map.Entry<String, PropertyIndex> property : index.properties.entrySet()) {
+            SnapshotFiles.writeString(output, property.getKey());
+            output.writeInt(property.getValue().values.size());
+            for (Map.Entry<Object, Set<String>> value : property.getValue().values.entrySet()) {
+                output.writeByte(value.getKey() instanceof BigDecimal ? 1 : 0);
+                SnapshotFiles.writeString(output, value.getKey().toString());
+                output.writeInt(value.getValue().size());
+                for (String object : value.getValue()) {
+                    SnapshotFiles.writeString(output, object);
+                }
+            }
+        }
+    }
+
+    private void updateDocument(ClassIndex index, String documentName, XWikiDocument document)
+    {
+        index.removeDocument(documentName);
+        // Deleted documents don't have objects anymore
+        List<BaseObject> objects = document.getXObjects(index.classReference);
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    addObject(index, documentName, object.getNumber(), object);
+                }
+            }
+        }
+        if (index.documents.containsKey(documentName)) {
+            index.versions.put(documentName, document.getVersion());
+        }
+    }
+
+    private void addObject(ClassIndex index, String documentName, int number, BaseObject object)
+    {
+        String objectId = documentName + OBJECT_SEPARATOR + number;
+        index.addObject(documentName, objectId);
+        for (Map.Entry<String, PropertyIndex> property : index.properties.entrySet()) {
+            Object field = object.safeget(property.getKey());
+            if (field instanceof BaseProperty) {
+                property.getValue().add(objectId, ((BaseProperty) field).getValue());
+            }
+        }
+    }
+
+    private static boolean isTyped(PropertyClass propertyClass)
+    {
+        return propertyClass instanceof NumberClass || propertyClass instanceof DateClass
+            || propertyClass instanceof BooleanClass;
+    }
+
+    /**
+     * Normalize a value so that the values of a property can be compared: numbers (and booleans) and dates are
+     * indexed as decimals, the other values as folded strings. Empty values are not indexed.
+     */
+    private static Object toKey(PropertyClass propertyClass, Object value)
+    {
+        if (value == null) {
+            return null;
+        }
+        if (isTyped(propertyClass)) {
+            try {
+                if (value instanceof Date) {
+                    return BigDecimal.valueOf(((Date) value).getTime());
+                }
+                return value instanceof Number ? new BigDecimal(value.toString()) : null;
+            } catch (NumberFormatException e) {
+                // NaN and infinite values can't be filtered
+                return null;
+            }
+        }
+        String key = fold(value.toString());
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * Remove the differences ignored by the usual collations of the databases: case, accents and trailing spaces.
+     */
+    private static String fold(String value)
+    {
+        String withoutAccents = ACCENTS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        return TRAILING_SPACES.matcher(withoutAccents.toLowerCase(Locale.ROOT)).replaceAll("");
+    }
+}
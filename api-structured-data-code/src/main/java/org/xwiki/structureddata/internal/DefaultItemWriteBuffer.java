@@ -0,0 +1,525 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Default implementation of {@link ItemWriteBuffer}. The updates are saved by a background thread, in a new context
+ * with the wiki and the user who made them: only the updates of the same user are merged, an update of another user
+ * first sends the pending ones to be saved. The buffered updates are all saved when the wiki stops, and a failed save
+ * is tried again after the delay (the updates are logged and counted when they are finally dropped).
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultItemWriteBuffer implements ItemWriteBuffer, Initializable, Disposable
+{
+    private static final String PROPERTY_SEPARATOR = "#";
+
+    private static final String KEY_SEPARATOR = "|";
+
+    /**
+     * Number of times the save of the updates of an item is tried before they are dropped.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    @Named("structureddata.cached")
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The updates waiting to be saved, by item key. Guarded by this.
+     */
+    private final Map<String, PendingWrite> pending = new HashMap<>();
+
+    private final AtomicLong buffered = new AtomicLong();
+
+    private final AtomicLong saved = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The merged updates of an item.
+     */
+    private static class PendingWrite
+    {
+        private final DocumentReference classReference;
+
+        private final DocumentReference documentReference;
+
+        private final int number;
+
+        private final DocumentReference userReference;
+
+        private final ItemMap values = new ItemMap();
+
+        private Callable<Boolean> task;
+
+        private int attempts;
+
+        /**
+         * True once a save of these updates has started, or once they have been removed: the other runs of the task
+         * (scheduled save, flush) then have nothing to do. Guarded by the buffer.
+         */
+        private boolean claimed;
+
+        PendingWrite(DocumentReference classReference, DocumentReference documentReference, int number,
+            DocumentReference userReference)
+        {
+            this.classReference = classReference;
+            this.documentReference = documentReference;
+            this.number = number;
+            this.userReference = userReference;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "XApp write-behind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void dispose()
+    {
+        flush();
+        this.scheduler.shutdown();
+    }
+
+    @Override
+    public Application wrap(Application application, DocumentReference classReference, String dataSpace)
+    {
+        Set<String> properties = getWriteBehindProperties(classReference);
+        if (properties.isEmpty()) {
+            return application;
+        }
+        int partitions = dataSpace != null ? DataSpacePartitions.getCount(this.configuration.getPartitions(),
+            this.localSerializer.serialize(classReference), this.serializer.serialize(classReference)) : 0;
+        return new WriteBehindApplication(application, classReference, dataSpace, partitions, properties, this,
+            this.authorization, this.resolver);
+    }
+
+    @Override
+    public List<String> flush()
+    {
+        List<String> keys = new ArrayList<>();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, PendingWrite> entry : this.pending.entrySet()) {
+                keys.add(entry.getKey());
+                tasks.add(entry.getValue().task);
+            }
+        }
+        List<String> failures = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            return failures;
+        }
+        try {
+            // The scheduled saves of these items then find nothing left to save
+            List<Future<Boolean>> results = this.scheduler.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                if (!isSaved(results.get(i))) {
+                    failures.add(keys.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.addAll(keys);
+        } catch (RejectedExecutionException e) {
+            this.logger.warn("Unable to save the buffered updates of [{}] items", tasks.size());
+            failures.addAll(keys);
+        }
+        return failures;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("Buffered", this.buffered.get());
+        statistics.put("Saved", this.saved.get());
+        statistics.put("Failed", this.failed.get());
+        statistics.put("Dropped", this.dropped.get());
+        synchronized (this) {
+            statistics.put("Pending", this.pending.size());
+        }
+        return statistics;
+    }
+
+    /**
+     * Get the document of an item of a partitioned AWM application: its partition, or the data space if the item
+     * hasn't been moved yet (see {@link DataSpacePartitions}).
+     * @param dataSpace the data space of the application
+     * @param partitions the number of partitions of the data space
+     * @param itemId the id of the item
+     * @param wikiReference the wiki of the application
+     * @return the reference of the document of the item
+     */
+    protected DocumentReference getItemReference(String dataSpace, int partitions, String itemId,
+        WikiReference wikiReference)
+    {
+        DocumentReference partitionReference = new DocumentReference(this.resolver.resolve(
+            DataSpacePartitions.getSpace(dataSpace, partitions, itemId) + '.' + itemId, EntityType.DOCUMENT,
+            wikiReference));
+        DocumentReference baseReference = new DocumentReference(
+            this.resolver.resolve(dataSpace + '.' + itemId, EntityType.DOCUMENT, wikiReference));
+        XWikiContext context = this.xcontextProvider.get();
+        XWiki xwiki = context.getWiki();
+        try {
+            if (!xwiki.exists(partitionReference, context) && xwiki.exists(baseReference, context)) {
+                return baseReference;
+            }
+        } catch (Exception e) {
+            this.logger.warn("Unable to find the document of the item [{}] : [{}]", itemId, e.toString());
+        }
+        return partitionReference;
+    }
+
+    /**
+     * @param classReference the reference of the class of the item
+     * @param documentReference the reference of the document of the item
+     * @param number the number of the object of the item
+     * @return the key of the buffered updates of the item
+     */
+    protected String getKey(DocumentReference classReference, DocumentReference documentReference, int number)
+    {
+        return this.serializer.serialize(classReference) + KEY_SEPARATOR
+            + this.serializer.serialize(documentReference) + KEY_SEPARATOR + number;
+    }
+
+    /**
+     * Add updates of the current user to the buffer. The first update of an item schedules the save of all its
+     * updates; the pending updates of another user are sent to be saved first, with their own author.
+     * @param classReference the reference of the class of the item
+     * @param documentReference the reference of the document of the item
+     * @param number the number of the object of the item
+     * @param values the updated values of the write-behind properties, already converted with the schema
+     */
+    protected void add(DocumentReference classReference, DocumentReference documentReference, int number,
+            ItemMap values)
+    {
+        final String key = getKey(classReference, documentReference, number);
+        DocumentReference userReference = this.xcontextProvider.get().getUserReference();
+        PendingWrite previous = null;
+        final PendingWrite write;
+        synchronized (this) {
+            PendingWrite current = this.pending.get(key);
+            if (current != null && Objects.equals(current.userReference, userReference)) {
+                current.values.putAll(values);
+                this.buffered.incrementAndGet();
+                return;
+            }
+            if (current != null) {
+                // The scheduler has a single thread, the previous updates are saved before the new ones
+                previous = this.pending.remove(key);
+            }
+            write = new PendingWrite(classReference, documentReference, number, userReference);
+            write.values.putAll(values);
+            // Only the wiki and the user are kept, the context of the request is not kept until the save
+            write.task = new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call()
+                {
+                    return run(key, write);
+                }
+            };
+            this.pending.put(key, write);
+            this.buffered.incrementAndGet();
+        }
+        if (previous != null) {
+            submit(previous);
+        }
+        schedule(write);
+    }
+
+    /**
+     * @param key the key of an item
+     * @return a copy of the buffered values of the item, or null if there is none
+     */
+    protected synchronized ItemMap getPendingValues(String key)
+    {
+        PendingWrite write = this.pending.get(key);
+        if (write == null) {
+            return null;
+        }
+        ItemMap values = new ItemMap();
+        values.putAll(write.values);
+        return values;
+    }
+
+    /**
+     * Remove the buffered values of an item, which are then saved by the caller or dropped.
+     * @param key the key of an item
+     * @return the buffered values of the item, or null if there is none
+     */
+    protected synchronized ItemMap remove(String key)
+    {
+        PendingWrite write = this.pending.remove(key);
+        if (write == null) {
+            return null;
+        }
+        write.claimed = true;
+        return write.values;
+    }
+
+    private void schedule(PendingWrite write)
+    {
+        try {
+            this.scheduler.schedule(write.task, Math.max(0, this.configuration.getWriteBehindDelay()),
+                TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The wiki is stopping, the pending updates are saved by dispose()
+        }
+    }
+
+    private void submit(PendingWrite write)
+    {
+        try {
+            this.scheduler.submit(write.task);
+        } catch (RejectedExecutionException e) {
+            this.dropped.incrementAndGet();
+            this.logger.error("Unable to save the updates of the item [{}], the updates [{}] are dropped",
+                write.documentReference, write.values);
+        }
+    }
+
+    private boolean isSaved(Future<Boolean> result)
+    {
+        try {
+            return Boolean.TRUE.equals(result.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            this.logger.warn("Unable to save buffered updates : [{}]", e.getCause().toString());
+        }
+        return false;
+    }
+
+    /**
+     * Save the updates of an item in a new context, with the wiki and the user who made them.
+     * @return false if the save failed
+     */
+    private boolean run(String key, PendingWrite write)
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        this.execution.setContext(executionContext);
+        try {
+            this.executionContextManager.initialize(executionContext);
+            XWikiContext context = this.xcontextProvider.get();
+            context.setWikiId(write.documentReference.getWikiReference().getName());
+            context.setUserReference(write.userReference);
+            return save(key, write);
+        } catch (Exception e) {
+            this.logger.warn("Unable to save the updates of the item [{}] : [{}]", key, e.toString());
+            return false;
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * @return true if the updates are saved, or if there was nothing left to save
+     */
+    private boolean save(String key, final PendingWrite write)
+    {
+        synchronized (this) {
+            if (write.claimed) {
+                return true;
+            }
+            write.claimed = true;
+            if (this.pending.get(key) == write) {
+                this.pending.remove(key);
+            }
+        }
+        final XWikiContext context = this.xcontextProvider.get();
+        final boolean[] deleted = new boolean[1];
+        try {
+            // Like the direct updates, the buffered ones are applied on a copy of the document and saved with the
+            // concurrent changes of the same document
+            DocumentWriteCombiner.write(write.documentReference, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument xDoc) throws Exception
+                {
+                    BaseObject xObj = xDoc.getXObject(write.classReference, write.number);
+                    if (xObj == null) {
+                        deleted[0] = true;
+                        return false;
+                    }
+                    new ApplicationItem(localSerializer.serialize(write.documentReference), write.number, xDoc,
+                        xObj, context.getWiki().getXClass(write.classReference, context), context, resolver,
+                        localSerializer).apply(write.values);
+                    return true;
+                }
+            }, "Properties updated", context);
+            if (deleted[0]) {
+                this.dropped.incrementAndGet();
+                this.logger.warn("The item [{}] has been deleted, its updates [{}] are dropped", key, write.values);
+                return true;
+            }
+            this.saved.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            this.failed.incrementAndGet();
+            if (++write.attempts < MAX_ATTEMPTS) {
+                this.logger.warn("Unable to save the updates of the item [{}], they are saved again later : [{}]",
+                    key, e.toString());
+                retry(key, write);
+            } else {
+                this.dropped.incrementAndGet();
+                this.logger.error("Unable to save the updates of the item [{}], the updates [{}] are dropped : [{}]",
+                    key, write.values, e.toString());
+            }
+            return false;
+        }
+    }
+
+    private void retry(String key, PendingWrite write)
+    {
+        synchronized (this) {
+            PendingWrite newer = this.pending.get(key);
+            if (newer != null && !Objects.equals(newer.userReference, write.userReference)) {
+                // The failed updates can't be saved with the updates of another user
+                this.dropped.incrementAndGet();
+                this.logger.error("Unable to save the updates of the item [{}], the updates [{}] are dropped",
+                    key, write.values);
+                return;
+            }
+            if (newer != null) {
+                // The newer updates replace the failed ones, and are already scheduled
+                ItemMap values = new ItemMap();
+                values.putAll(write.values);
+                values.putAll(newer.values);
+                newer.values.clear();
+                newer.values.putAll(values);
+                return;
+            }
+            write.claimed = false;
+            this.pending.put(key, write);
+        }
+        schedule(write);
+    }
+
+    /**
+     * Read the write-behind properties of a class in the configuration. Each entry is "Space.Class#property", for the
+     * class in any wiki, or "wiki:Space.Class#property".
+     */
+    private Set<String> getWriteBehindProperties(DocumentReference classReference)
+    {
+        Set<String> properties = new HashSet<>();
+        List<String> entries = this.configuration.getWriteBehindProperties();
+        if (entries.isEmpty()) {
+            return properties;
+        }
+        String className = this.localSerializer.serialize(classReference);
+        String fullClassName = this.serializer.serialize(classReference);
+        for (String entry : entries) {
+            int separator = entry.lastIndexOf(PROPERTY_SEPARATOR);
+            if (separator < 0) {
+                continue;
+            }
+            String entryClass = entry.substring(0, separator).trim();
+            if (entryClass.equals(className) || entryClass.equals(fullClassName)) {
+                properties.add(entry.substring(separator + 1).trim());
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Default implementation of {@link ItemsCache}. The key of a result contains the version stamps of the class and of
+ * the rights, so a change makes all the previous results of the class unreachable at once; they are then evicted by
+ * the size limit or the time to live of the cache. Identical queries running at the same time share a single
+ * computation, even when the cache itself is disabled.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultItemsCache implements ItemsCache, Initializable, Disposable
+{
+    private static final String FILTER_OPTION = "filter";
+
+    private static final String PROPERTIES_OPTION = "properties";
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private StructuredDataConfiguration configuration;
+
+    @Inject
+    private ApplicationVersions versions;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<ItemList> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final ConcurrentMap<String, FutureTask<ItemList>> inFlight = new ConcurrentHashMap<>();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configuration.getCacheSize();
+        if (size <= 0) {
+            return;
+        }
+        CacheConfiguration cacheConfiguration = new CacheConfiguration();
+        cacheConfiguration.setConfigurationId("structureddata.items");
+        LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+        lru.setMaxEntries(size);
+        lru.setTimeToLive(this.configuration.getCacheTimeToLive());
+        cacheConfiguration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+        try {
+            this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the items cache", e);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    @Override
+    public Application wrap(Application application, DocumentReference classReference, String dataSpace)
+    {
+        return new CachedApplication(application, classReference, dataSpace, this, this.logger);
+    }
+
+    @Override
+    public Map<String, Object> getStatistics()
+    {
+        Map<String, Object> statistics = new HashMap<>();
+        statistics.put("Hits", this.hits.get());
+        statistics.put("Misses", this.misses.get());
+        statistics.put("Coalesced", this.coalesced.get());
+        return statistics;
+    }
+
+    /**
+     * @param key the key of a result
+     * @return a copy of the cached result, or null if the result is not in the cache
+     */
+    protected ItemList get(String key)
+    {
+        if (this.cache == null) {
+            return null;
+        }
+        ItemList items = this.cache.get(key);
+        if (items == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+        this.hits.incrementAndGet();
+        // The items are modifiable maps, the callers must not change the cached ones
+        return copy(items);
+    }
+
+    /**
+     * @param key the key of a result
+     * @param items the result of the query
+     */
+    protected void put(String key, ItemList items)
+    {
+        if (this.cache != null) {
+            this.cache.set(key, copy(items));
+        }
+    }
+
+    /**
+     * Run a query which is not in the cache and cache its result. When the same query is already running, wait for
+     * its result instead of running it again, but not longer than a rest request would wait.
+     * @param key the key of the query
+     * @param query the query
+     * @return a copy of the result of the query
+     * @throws TimeoutException if the same query, run by another caller, takes too long
+     * @throws Exception if the query fails
+     */
+    protected ItemList load(String key, Callable<ItemList> query) throws Exception
+    {
+        FutureTask<ItemList> task = new FutureTask<>(query);
+        FutureTask<ItemList> running = this.inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            this.coalesced.incrementAndGet();
+            task = running;
+        } else {
+            try {
+                task.run();
+                if (!task.isCancelled()) {
+                    // Failed queries throw an exception, so they are not cached. The task has run in this thread, its
+                    // result is available without waiting.
+                    try {
+                        put(key, task.get(0, TimeUnit.MILLISECONDS));
+                    } catch (ExecutionException e) {
+                        // Reported to all the callers below
+                    }
+                }
+            } finally {
+                this.inFlight.remove(key, task);
+            }
+        }
+        try {
+            // The result is shared by all the callers, each of them gets its own copy
+            return copy(task.get(this.configuration.getRestTimeout(), TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Build the key of a query, from the application, the user running it and the query options. An AppWithinMinutes
+     * application and an application of the same class don't return the same items, so the kind of the application,
+     * its data space and its id are part of the key.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space containing the items of an AppWithinMinutes application, null for a class
+     * @param options the query options
+     * @return the key, or null if the query should not be cached
+     */
+    protected String getKey(Application application, DocumentReference classReference, String dataSpace,
+        Map<String, Object> options)
+    {
+        // The version stamps are read before the query runs, so a change made during the query gives a new key
+        StringBuilder key = new StringBuilder();
+        key.append(dataSpace != null ? "AWM[" + dataSpace + ']' : "Class").append('|');
+        // The decorators forward toString to the application they wrap, which gives the id of the application
+        key.append(application).append('|');
+        key.append(this.serializer.serialize(classReference)).append('|');
+        key.append(this.versions.getVersion(classReference)).append('|');
+        key.append(this.versions.getRightsVersion()).append('|');
+        DocumentReference userReference = this.xcontextProvider.get().getUserReference();
+        key.append(userReference != null ? this.serializer.serialize(userReference) : "XWikiGuest").append('|');
+
+        Map<String, String> normalizedOptions = new TreeMap<>();
+        for (Map.Entry<String, Object> option : options.entrySet()) {
+            Object value = option.getValue();
+            if (value == null) {
+                continue;
+            }
+            if (FILTER_OPTION.equals(option.getKey())) {
+                try {
+                    value = ItemFilter.from(value).toMap();
+                } catch (IllegalArgumentException e) {
+                    // The query will fail, there is nothing to cache
+                    return null;
+                }
+            } else if (PROPERTIES_OPTION.equals(option.getKey()) && value instanceof List) {
+                List<String> properties = new ArrayList<>();
+                for (Object property : (List<?>) value) {
+                    properties.add(String.valueOf(property));
+                }
+                Collections.sort(properties);
+                value = properties;
+            }
+            normalizedOptions.put(option.getKey(), String.valueOf(value));
+        }
+        return key.append(normalizedOptions).toString();
+    }
+
+    private static ItemList copy(ItemList items)
+    {
+        ItemList copy = new ItemList(items.getRowCount());
+        for (ItemMap item : items) {
+            copy.add(item.copy());
+        }
+        return copy;
+    }
+}
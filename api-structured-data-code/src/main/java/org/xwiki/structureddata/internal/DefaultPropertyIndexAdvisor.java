@@ -0,0 +1,281 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Default implementation of {@link PropertyIndexAdvisor}. The indexes are read and created with the connection of the
+ * store of the wiki of the application. When the items are queried on the dedicated table of the class (see
+ * {@link DedicatedTables}), the mapped properties are checked on the columns of this table.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultPropertyIndexAdvisor implements PropertyIndexAdvisor
+{
+    private static final String PROPERTY = "Property";
+
+    private static final String INDEXED = "Indexed";
+
+    private static final String STATEMENT = "Statement";
+
+    /**
+     * The number of items of the query measuring the cost of the order on a property, as a page of a listing.
+     */
+    private static final int COST_LIMIT = 20;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("structureddata.cached")
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * A property whose index is checked, with its entry of the report.
+     */
+    private static class PropertyCheck
+    {
+        private final String property;
+
+        private final boolean dedicated;
+
+        private final Map<String, Object> result;
+
+        private PropertyIndexes.Table table;
+
+        PropertyCheck(String property, PropertyIndexes.Table table, boolean dedicated, Map<String, Object> result)
+        {
+            this.property = property;
+            this.table = table;
+            this.dedicated = dedicated;
+            this.result = result;
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> analyze(DocumentReference classReference, List<String> properties)
+        throws Exception
+    {
+        this.authorization.checkAccess(Right.ADMIN, classReference.getWikiReference());
+        return inspect(classReference, properties, false);
+    }
+
+    @Override
+    public List<Map<String, Object>> createIndexes(DocumentReference classReference, List<String> properties)
+        throws Exception
+    {
+        this.authorization.checkAccess(Right.PROGRAM);
+        return inspect(classReference, properties, true);
+    }
+
+    private List<Map<String, Object>> inspect(DocumentReference classReference, List<String> properties,
+        final boolean create) throws XWikiException
+    {
+        final XWikiContext context = this.xcontextProvider.get();
+        BaseClass xClass = context.getWiki().getXClass(classReference, context);
+        final String className = this.serializer.serialize(classReference);
+        // The values of the mapped properties are only queried on the dedicated table once it is active
+        List<String> mapped = DedicatedTables.isActive(xClass, context)
+            ? DedicatedTables.getMappedProperties(xClass, context)
+            : Collections.<String>emptyList();
+        List<String> names = properties != null && !properties.isEmpty() ? properties
+            : new ArrayList<String>(xClass.getPropertyList());
+
+        final List<Map<String, Object>> report = new ArrayList<>();
+        final List<PropertyCheck> checks = new ArrayList<>();
+        for (String name : names) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put(PROPERTY, name);
+            report.add(entry);
+            Object propertyClass = xClass.get(name);
+            if (!(propertyClass instanceof PropertyClass)) {
+                entry.put("Error", "Unknown property");
+                continue;
+            }
+            PropertyIndexes.Table table = PropertyIndexes.getTable(
+                ((PropertyClass) propertyClass).newProperty().getClass().getSimpleName());
+            if (table == null) {
+                entry.put("Error", "The values of this property can't be indexed");
+                continue;
+            }
+            checks.add(new PropertyCheck(name, table, mapped.contains(name), entry));
+        }
+
+        // The tables are in the database of the wiki of the application
+        String oldWikiId = context.getWikiId();
+        context.setWikiId(classReference.getWikiReference().getName());
+        try {
+            XWikiHibernateStore store = context.getWiki().getHibernateStore();
+            HibernateCallback<Void> callback = new HibernateCallback<Void>()
+            {
+                @Override
+                public Void doInHibernate(Session session) throws HibernateException, XWikiException
+                {
+                    for (PropertyCheck check : checks) {
+                        if (check.dedicated) {
+                            check.table = getDedicatedTable(session, className, check);
+                        }
+                        check.result.put("Table", check.table.getName());
+                    }
+                    // The connection is only borrowed from the session for the work
+                    session.doWork(new Work()
+                    {
+                        @Override
+                        public void execute(Connection connection) throws SQLException
+                        {
+                            checkIndexes(connection, checks, create);
+                        }
+                    });
+                    return null;
+                }
+            };
+            if (create) {
+                store.executeWrite(context, callback);
+            } else {
+                store.executeRead(context, callback);
+            }
+        } finally {
+            context.setWikiId(oldWikiId);
+        }
+
+        for (PropertyCheck check : checks) {
+            check.result.put("Cost", measure(classReference, className, check.property, check.dedicated));
+        }
+        return report;
+    }
+
+    /**
+     * @return the column of a property in the dedicated table of its class, as mapped by the store
+     */
+    private static PropertyIndexes.Table getDedicatedTable(Session session, String className, PropertyCheck check)
+    {
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(className);
+        if (!(metadata instanceof AbstractEntityPersister)) {
+            throw new HibernateException("The dedicated table of the class [" + className + "] is not mapped");
+        }
+        AbstractEntityPersister persister = (AbstractEntityPersister) metadata;
+        return PropertyIndexes.getDedicatedTable(check.table, persister.getTableName(),
+            persister.getPropertyColumnNames(check.property)[0]);
+    }
+
+    private void checkIndexes(Connection connection, List<PropertyCheck> checks, boolean create) throws SQLException
+    {
+        String product = connection.getMetaData().getDatabaseProductName();
+        // A composite index covers all the properties of its table: the created indexes are known by their name,
+        // which is made of the table and of the indexed columns
+        Set<String> created = new HashSet<>();
+        for (PropertyCheck check : checks) {
+            Map<String, Object> result = check.result;
+            String property = check.property;
+            boolean indexed = PropertyIndexes.isIndexed(connection, check.table, property);
+            String statement = PropertyIndexes.getCreateStatement(product, check.table, property);
+            if (!indexed && create) {
+                if (created.add(PropertyIndexes.getIndexName(check.table, property,
+                    PropertyIndexes.supportsPartialIndexes(product)))) {
+                    try (Statement sqlStatement = connection.createStatement()) {
+                        sqlStatement.execute(statement);
+                    }
+                    this.logger.info("Created the index of the property [{}] : [{}]", property, statement);
+                    result.put("Created", true);
+                }
+                indexed = true;
+            }
+            result.put(INDEXED, indexed);
+            if (!indexed) {
+                result.put(STATEMENT, statement);
+            }
+        }
+    }
+
+    /**
+     * @return the time in milliseconds of a page of items ordered by the property, or null if it can't be measured
+     */
+    private Long measure(DocumentReference classReference, String className, String property, boolean dedicated)
+    {
+        // The same kind of query as the items queries (see QueryItems)
+        String queryString;
+        if (dedicated) {
+            queryString = "select obj.name from BaseObject obj, " + className + " as item where obj.className = '"
+                + className + "' and obj.id = item.id order by item." + property;
+        } else {
+            queryString = "select doc.fullName from Document doc, doc.object('" + className + "') as item order by "
+                + "item." + property;
+        }
+        try {
+            Query query = this.queryManager.createQuery(queryString, dedicated ? Query.HQL : Query.XWQL)
+                .setWiki(classReference.getWikiReference().getName()).setLimit(COST_LIMIT);
+            long start = System.nanoTime();
+            query.execute();
+            return (System.nanoTime() - start) / 1000000;
+        } catch (Exception e) {
+            this.logger.warn("Unable to measure the cost of the order on the property [{}] : [{}]", property,
+                e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Default implementation of {@link StructuredDataConfiguration}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultStructuredDataConfiguration implements StructuredDataConfiguration
+{
+    private static final String PREFIX = "structureddata.";
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    public String getRestExecutionMode()
+    {
+        return this.configuration.getProperty(PREFIX + "rest.executionMode", "direct");
+    }
+
+    @Override
+    public int getRestPoolSize()
+    {
+        return this.configuration.getProperty(PREFIX + "rest.poolSize", 32);
+    }
+
+    @Override
+    public int getWritePoolSize()
+    {
+        return this.configuration.getProperty(PREFIX + "rest.writePoolSize", 8);
+    }
+
+    @Override
+    public int getMaxConcurrentRequestsPerWiki()
+    {
+        return this.configuration.getProperty(PREFIX + "rest.maxConcurrentRequestsPerWiki", 0);
+    }
+
+    @Override
+    public long getRestTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "rest.timeout", 30000L);
+    }
+
+    @Override
+    public int getFederationMaxParallelWikis()
+    {
+        return this.configuration.getProperty(PREFIX + "federation.maxParallelWikis", 8);
+    }
+
+    @Override
+    public int getCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "cache.size", 1000);
+    }
+
+    @Override
+    public int getCacheTimeToLive()
+    {
+        return this.configuration.getProperty(PREFIX + "cache.timeToLive", 300);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getIndexedProperties()
+    {
+        List<String> properties = this.configuration.getProperty(PREFIX + "index.properties", List.class);
+        return properties != null ? properties : Collections.<String>emptyList();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getSnapshotClasses()
+    {
+        List<String> classes = this.configuration.getProperty(PREFIX + "snapshot.classes", List.class);
+        return classes != null ? classes : Collections.<String>emptyList();
+    }
+
+    @Override
+    public boolean isPersistenceEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "persistence.enabled", true);
+    }
+
+    @Override
+    public int getRightsCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "rights.cacheSize", 100);
+    }
+
+    @Override
+    public int getInvalidationBatchDelay()
+    {
+        return this.configuration.getProperty(PREFIX + "cluster.batchDelay", 100);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getWriteBehindProperties()
+    {
+        List<String> properties = this.configuration.getProperty(PREFIX + "writeBehind.properties", List.class);
+        return properties != null ? properties : Collections.<String>emptyList();
+    }
+
+    @Override
+    public int getWriteBehindDelay()
+    {
+        return this.configuration.getProperty(PREFIX + "writeBehind.delay", 1000);
+    }
+
+    @Override
+    public int getIdBlockSize()
+    {
+        return this.configuration.getProperty(PREFIX + "ids.blockSize", 100);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getPartitions()
+    {
+        List<String> partitions = this.configuration.getProperty(PREFIX + "partitions", List.class);
+        return partitions != null ? partitions : Collections.<String>emptyList();
+    }
+}
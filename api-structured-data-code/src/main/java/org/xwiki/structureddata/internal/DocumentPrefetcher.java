@@ -0,0 +1,327 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.ListClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Load the documents of a page of items before the items are built one by one.
+ *
+ * @version $Id$
+ */
+public class DocumentPrefetcher
+{
+    /**
+     * The maximum number of documents loaded by a query.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    private static final String NAMES = "names";
+
+    /**
+     * The collaborators used to load the documents.
+     */
+    public static class Loader
+    {
+        private final XWikiContext context;
+
+        private final ContextualAuthorizationManager authorization;
+
+        private final QueryManager queryManager;
+
+        private final EntityReferenceResolver<String> resolver;
+
+        private final EntityReferenceSerializer<String> serializer;
+
+        private final Logger logger;
+
+        /**
+         * @param context the wiki context
+         * @param authorization the authorization checker
+         * @param queryManager the query manager
+         * @param resolver the resolver of the document names
+         * @param serializer the local serializer of the document references
+         * @param logger the console logger
+         */
+        public Loader(XWikiContext context, ContextualAuthorizationManager authorization, QueryManager queryManager,
+            EntityReferenceResolver<String> resolver, EntityReferenceSerializer<String> serializer, Logger logger)
+        {
+            this.context = context;
+            this.authorization = authorization;
+            this.queryManager = queryManager;
+            this.resolver = resolver;
+            this.serializer = serializer;
+            this.logger = logger;
+        }
+    }
+
+    /**
+     * The values of a prefetched document which are needed to build its items: the document fields and the objects of
+     * the class of the application. They can only be read: the items which are changed are loaded again from the wiki
+     * by the writers.
+     */
+    public static final class PrefetchedDocument
+    {
+        private final DocumentMap documentFields;
+
+        private final SortedMap<Integer, BaseObject> objects = new TreeMap<>();
+
+        private PrefetchedDocument(DocumentMap documentFields)
+        {
+            this.documentFields = documentFields;
+        }
+
+        /**
+         * @param number the number of the object
+         * @return the object of the class with the given number, or null if there is none
+         */
+        public BaseObject getXObject(int number)
+        {
+            return this.objects.get(number);
+        }
+
+        /**
+         * @return the first object of the class, or null if there is none
+         */
+        public BaseObject getXObject()
+        {
+            return this.objects.isEmpty() ? null : this.objects.get(this.objects.firstKey());
+        }
+
+        /**
+         * @return the document fields, see {@link ItemMap#getDocumentFields()}
+         */
+        public DocumentMap getDocumentFields()
+        {
+            return this.documentFields;
+        }
+    }
+
+    /**
+     * Load the documents of a page of items, with the objects of the class of the application. The rights are checked
+     * here once: the documents which can't be viewed are mapped to null, so that the listing skips them without
+     * checking again. The documents which are not in the result (missing documents, or if the prefetch failed) have to
+     * be loaded and checked by the caller.
+     * <p>
+     * The documents, the objects and their properties are read with a few queries for the whole page, instead of a
+     * load for each document. The documents built from these queries are incomplete, so they never leave this class:
+     * only their values are returned, and they are never given to an item, to the request memo or to the writers. The
+     * classes whose values are not all in the generic property tables (custom mappings, relational lists) are loaded
+     * document by document, inside a single store session.
+     * @param loader the collaborators used to load the documents
+     * @param xClass the class of the application
+     * @param references the references of the documents to load, in the wiki of the class
+     * @return the values of the loaded documents, indexed by reference, with null for the documents which can't be
+     *         viewed
+     */
+    protected static Map<DocumentReference, PrefetchedDocument> prefetch(Loader loader, BaseClass xClass,
+        List<DocumentReference> references)
+    {
+        Map<DocumentReference, PrefetchedDocument> documents = new HashMap<>();
+        // Documents which can't be viewed will be skipped by the listing anyway
+        Map<String, DocumentReference> toLoad = new LinkedHashMap<>();
+        for (DocumentReference reference : references) {
+            if (loader.authorization.hasAccess(Right.VIEW, reference)) {
+                toLoad.put(loader.serializer.serialize(reference), reference);
+            } else {
+                documents.put(reference, null);
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return documents;
+        }
+
+        try {
+            if (isBatchable(xClass)) {
+                List<String> names = new ArrayList<>(toLoad.keySet());
+                for (int start = 0; start < names.size(); start += BATCH_SIZE) {
+                    List<String> batch = names.subList(start, Math.min(names.size(), start + BATCH_SIZE));
+                    documents.putAll(load(loader, xClass, batch, toLoad));
+                }
+            } else {
+                documents.putAll(loadInSession(loader, xClass, toLoad.values()));
+            }
+        } catch (Exception e) {
+            loader.logger.warn("Unable to prefetch the documents of the items : [{}]", e.toString());
+            // The documents which are not prefetched are loaded by the listing
+            for (DocumentReference reference : toLoad.values()) {
+                documents.remove(reference);
+            }
+        }
+        return documents;
+    }
+
+    private static boolean isBatchable(BaseClass xClass)
+    {
+        if (xClass.hasCustomMapping()) {
+            return false;
+        }
+        for (Object property : xClass.getProperties()) {
+            // The values of relational lists are a collection which is only loaded with the document
+            if (property instanceof ListClass && ((ListClass) property).isRelationalStorage()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<DocumentReference, PrefetchedDocument> load(Loader loader, BaseClass xClass,
+        List<String> names, Map<String, DocumentReference> references) throws QueryException
+    {
+        String wikiId = xClass.getDocumentReference().getWikiReference().getName();
+        Map<DocumentReference, PrefetchedDocument> documents = new HashMap<>();
+        List<Object[]> rows = loader.queryManager.createQuery("select doc.fullName, doc.author, doc.creator, "
+            + "doc.creationDate, doc.contentUpdateDate, doc.parent, doc.hidden, doc.title, doc.content "
+            + "from XWikiDocument doc where doc.fullName in (:names) and doc.language = ''", Query.HQL)
+            .bindValue(NAMES, names).setWiki(wikiId).execute();
+        for (Object[] row : rows) {
+            DocumentReference reference = references.get(row[0]);
+            if (reference != null) {
+                documents.put(reference, new PrefetchedDocument(getDocumentFields(loader, reference, row)));
+            }
+        }
+
+        Map<Long, BaseObject> objects = new HashMap<>();
+        List<Object[]> objectRows = loader.queryManager.createQuery("select obj.id, obj.name, obj.number "
+            + "from BaseObject obj where obj.name in (:names) and obj.className = :className", Query.HQL)
+            .bindValue(NAMES, names).bindValue("className", loader.serializer.serialize(xClass.getDocumentReference()))
+            .setWiki(wikiId).execute();
+        for (Object[] row : objectRows) {
+            PrefetchedDocument document = documents.get(references.get(row[1]));
+            if (document != null) {
+                // The object is not attached to a document
+                BaseObject object = new BaseObject();
+                object.setXClassReference(xClass.getDocumentReference());
+                object.setNumber((Integer) row[2]);
+                document.objects.put(object.getNumber(), object);
+                objects.put((Long) row[0], object);
+            }
+        }
+        if (!objects.isEmpty()) {
+            List<BaseProperty> properties = loader.queryManager
+                .createQuery("select prop from BaseProperty prop where prop.id.id in (:ids)", Query.HQL)
+                .bindValue("ids", new ArrayList<>(objects.keySet())).setWiki(wikiId).execute();
+            for (BaseProperty property : properties) {
+                BaseObject object = objects.get(property.getId());
+                if (object != null && xClass.get(property.getName()) instanceof PropertyClass) {
+                    object.safeput(property.getName(), property);
+                }
+            }
+        }
+        return documents;
+    }
+
+    private static DocumentMap getDocumentFields(Loader loader, DocumentReference reference, Object[] row)
+    {
+        // The document is only used to read the fields the same way as for a loaded document, it is dropped afterwards
+        XWikiDocument document = new XWikiDocument(reference);
+        document.setAuthorReference(resolveUser(loader, reference, (String) row[1]));
+        document.setCreatorReference(resolveUser(loader, reference, (String) row[2]));
+        document.setCreationDate((Date) row[3]);
+        document.setContentUpdateDate((Date) row[4]);
+        if (StringUtils.isNotEmpty((String) row[5])) {
+            document.setParentReference(
+                loader.resolver.resolve((String) row[5], EntityType.DOCUMENT, reference.getWikiReference()));
+        }
+        document.setHidden(Boolean.TRUE.equals(row[6]));
+        document.setTitle((String) row[7]);
+        document.setContent((String) row[8]);
+        return ItemMap.toDocumentMap(document, loader.serializer);
+    }
+
+    private static DocumentReference resolveUser(Loader loader, DocumentReference reference, String user)
+    {
+        if (StringUtils.isEmpty(user)) {
+            return null;
+        }
+        return new DocumentReference(loader.resolver.resolve(user, EntityType.DOCUMENT, reference.getWikiReference()));
+    }
+
+    /**
+     * Load the documents from the wiki (which puts them in the document cache) inside a single store session, instead
+     * of opening a new session for each cache miss.
+     */
+    private static Map<DocumentReference, PrefetchedDocument> loadInSession(Loader loader, BaseClass xClass,
+        Iterable<DocumentReference> references) throws Exception
+    {
+        Map<DocumentReference, PrefetchedDocument> documents = new HashMap<>();
+        XWikiContext context = loader.context;
+        XWiki xwiki = context.getWiki();
+        XWikiHibernateStore store = xwiki.getHibernateStore();
+        DocumentReference first = references.iterator().next();
+        // The store session is bound to the wiki database, so it has to be opened in the wiki of the application
+        String oldWikiId = context.getWikiId();
+        context.setWikiId(first.getWikiReference().getName());
+        boolean transaction = false;
+        try {
+            if (store != null) {
+                transaction = store.beginTransaction(context);
+            }
+            for (DocumentReference reference : references) {
+                XWikiDocument document = xwiki.getDocument(reference, context);
+                if (!document.isNew()) {
+                    PrefetchedDocument prefetched =
+                        new PrefetchedDocument(ItemMap.toDocumentMap(document, loader.serializer));
+                    for (BaseObject object : document.getXObjects(xClass.getDocumentReference())) {
+                        if (object != null) {
+                            prefetched.objects.put(object.getNumber(), object);
+                        }
+                    }
+                    documents.put(reference, prefetched);
+                }
+            }
+        } finally {
+            if (transaction) {
+                store.endTransaction(context, false);
+            }
+            context.setWikiId(oldWikiId);
+        }
+        return documents;
+    }
+}
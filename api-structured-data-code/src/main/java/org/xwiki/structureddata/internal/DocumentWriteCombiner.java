@@ -0,0 +1,242 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Serialize the changes of the items of a document made by concurrent requests. The changes are queued by document,
+ * and the first thread which gets the lock of the document applies all the queued changes of the same user with the
+ * same comment on the current version of the document and saves it once, for all the waiting threads. Each change is
+ * applied on a copy of the document, so a failed change leaves nothing behind. The operations which save or delete
+ * the document themselves (e.g. a rename) are run alone, between the batches. Each document has its own lock, kept
+ * while threads are writing it.
+ *
+ * @version $Id$
+ */
+public final class DocumentWriteCombiner
+{
+    /**
+     * The documents being written. Guarded by itself.
+     */
+    private static final Map<DocumentReference, DocumentQueue> QUEUES = new HashMap<>();
+
+    /**
+     * A change of a document.
+     */
+    public interface Change
+    {
+        /**
+         * Apply the change on the current version of the document, without saving it.
+         * @param document the document
+         * @return true if the document has been modified
+         * @throws Exception if the change can't be applied, the document is then saved with the other changes only
+         */
+        boolean apply(XWikiDocument document) throws Exception;
+    }
+
+    /**
+     * The queued changes of a document.
+     */
+    private static class DocumentQueue
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * The number of threads writing the document. Guarded by {@link #QUEUES}.
+         */
+        private int writers;
+
+        /**
+         * The queued changes, by user and comment. Guarded by {@link #QUEUES}.
+         */
+        private final Map<List<Object>, List<QueuedChange>> batches = new HashMap<>();
+    }
+
+    private static class QueuedChange
+    {
+        private final Change change;
+
+        private boolean done;
+
+        private Exception error;
+
+        QueuedChange(Change change)
+        {
+            this.change = change;
+        }
+    }
+
+    private DocumentWriteCombiner()
+    {
+    }
+
+    /**
+     * Apply a change on a document and save it, possibly together with the changes of other threads made by the same
+     * user with the same comment.
+     * @param reference the reference of the document
+     * @param change the change
+     * @param comment the comment of the save, or null for the default comment
+     * @param context the wiki context
+     * @throws Exception if the change can't be applied or the document can't be saved
+     */
+    public static void write(DocumentReference reference, Change change, String comment, XWikiContext context)
+        throws Exception
+    {
+        // The author of the saved document is the user of the context, only the changes of this user are combined
+        List<Object> batchKey = Arrays.<Object>asList(context.getUserReference(), comment);
+        QueuedChange queued = new QueuedChange(change);
+        DocumentQueue queue;
+        synchronized (QUEUES) {
+            queue = getQueue(reference);
+            List<QueuedChange> batch = queue.batches.get(batchKey);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                queue.batches.put(batchKey, batch);
+            }
+            batch.add(queued);
+        }
+        queue.lock.lock();
+        try {
+            // The change may have been saved by the thread which had the lock
+            if (!queued.done) {
+                List<QueuedChange> batch;
+                synchronized (QUEUES) {
+                    batch = queue.batches.remove(batchKey);
+                }
+                apply(reference, batch, comment, context);
+            }
+        } finally {
+            queue.lock.unlock();
+            release(reference, queue);
+        }
+        if (queued.error != null) {
+            throw queued.error;
+        }
+    }
+
+    /**
+     * Run an operation on a document with the lock of the document, alone: it is never combined with the changes of
+     * the other threads. The changes queued meanwhile are applied after it, on the document it has left.
+     * @param reference the reference of the document
+     * @param operation the operation, which saves the document itself
+     * @param <T> the type of the result of the operation
+     * @return the result of the operation
+     * @throws Exception if the operation fails
+     */
+    public static <T> T execute(DocumentReference reference, Callable<T> operation) throws Exception
+    {
+        DocumentQueue queue;
+        synchronized (QUEUES) {
+            queue = getQueue(reference);
+        }
+        queue.lock.lock();
+        try {
+            return operation.call();
+        } finally {
+            queue.lock.unlock();
+            release(reference, queue);
+        }
+    }
+
+    /**
+     * @param reference the reference of a document
+     * @return the number of threads writing the document, including the one holding its lock
+     */
+    static int getWriters(DocumentReference reference)
+    {
+        synchronized (QUEUES) {
+            DocumentQueue queue = QUEUES.get(reference);
+            return queue != null ? queue.writers : 0;
+        }
+    }
+
+    /**
+     * Get the queue of a document, for a new writer. Called with the lock of {@link #QUEUES}.
+     */
+    private static DocumentQueue getQueue(DocumentReference reference)
+    {
+        DocumentQueue queue = QUEUES.get(reference);
+        if (queue == null) {
+            queue = new DocumentQueue();
+            QUEUES.put(reference, queue);
+        }
+        queue.writers++;
+        return queue;
+    }
+
+    private static void release(DocumentReference reference, DocumentQueue queue)
+    {
+        synchronized (QUEUES) {
+            if (--queue.writers == 0) {
+                QUEUES.remove(reference);
+            }
+        }
+    }
+
+    private static void apply(DocumentReference reference, List<QueuedChange> batch, String comment,
+            XWikiContext context)
+    {
+        try {
+            XWiki xwiki = context.getWiki();
+            XWikiDocument document = xwiki.getDocument(reference, context);
+            boolean modified = false;
+            for (QueuedChange queued : batch) {
+                // The cached document is never modified, and a failed change is dropped with its copy
+                XWikiDocument copy = document.clone();
+                try {
+                    if (queued.change.apply(copy)) {
+                        document = copy;
+                        modified = true;
+                    }
+                } catch (Exception e) {
+                    queued.error = e;
+                }
+            }
+            if (modified && comment != null) {
+                xwiki.saveDocument(document, comment, context);
+            } else if (modified) {
+                xwiki.saveDocument(document, context);
+            }
+        } catch (Exception e) {
+            for (QueuedChange queued : batch) {
+                if (queued.error == null) {
+                    queued.error = e;
+                }
+            }
+        } finally {
+            for (QueuedChange queued : batch) {
+                queued.done = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.BooleanClass;
+import com.xpn.xwiki.objects.classes.DateClass;
+import com.xpn.xwiki.objects.classes.ListClass;
+import com.xpn.xwiki.objects.classes.NumberClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compile an {@link ItemFilter} into a parameterized XWQL condition on the object of the items query (alias
+ * "item"). The filter is validated against the class of the application and the values are converted to the types
+ * of the properties. The condition only depends on the shape of the filter, the values are bound as parameters.
+ *
+ * @version $Id$
+ */
+public class FilterCompiler
+{
+    private static final String PARAMETER_PREFIX = "filter";
+
+    private static final String ITEM_PREFIX = "item.";
+
+    private static final String SEPARATOR = "|";
+
+    private static final String LIKE_ESCAPE = " escape '!'";
+
+    private final BaseClass xClass;
+
+    private final Map<String, Object> parameters = new LinkedHashMap<>();
+
+    private final Set<String> properties = new LinkedHashSet<>();
+
+    private final String whereClause;
+
+    /**
+     * Compile a filter.
+     * @param filter the filter to compile
+     * @param xClass the class of the application
+     * @throws IllegalArgumentException if the filter doesn't match the class
+     */
+    public FilterCompiler(ItemFilter filter, BaseClass xClass)
+    {
+        this.xClass = xClass;
+        this.whereClause = compile(filter);
+    }
+
+    /**
+     * @return the XWQL condition
+     */
+    public String getWhereClause()
+    {
+        return this.whereClause;
+    }
+
+    /**
+     * @return the values to bind to the parameters of the condition, indexed by parameter name
+     */
+    public Map<String, Object> getParameters()
+    {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    /**
+     * @return the properties used by the condition
+     */
+    public Set<String> getProperties()
+    {
+        return Collections.unmodifiableSet(this.properties);
+    }
+
+    private String compile(ItemFilter filter)
+    {
+        String op = filter.getOp();
+        if (ItemFilter.AND.equals(op) || ItemFilter.OR.equals(op)) {
+            List<String> conditions = new ArrayList<>();
+            for (ItemFilter subFilter : filter.getFilters()) {
+                conditions.add(compile(subFilter));
+            }
+            return "(" + join(conditions, " " + op + " ") + ")";
+        }
+
+        PropertyClass propertyClass = getPropertyClass(filter.getProperty());
+        String field = ITEM_PREFIX + filter.getProperty();
+        boolean multipleList = propertyClass instanceof ListClass && ((ListClass) propertyClass).isMultiSelect();
+        switch (op) {
+            case ItemFilter.EQ:
+                return getEquality(field, propertyClass, filter.getValue(), multipleList);
+            case ItemFilter.IN:
+                List<String> conditions = new ArrayList<>();
+                if (multipleList) {
+                    for (Object value : filter.getValues()) {
+                        conditions.add(getEquality(field, propertyClass, value, true));
+                    }
+                    return "(" + join(conditions, " or ") + ")";
+                }
+                for (Object value : filter.getValues()) {
+                    conditions.add(":" + addParameter(convert(propertyClass, value)));
+                }
+                return field + " in (" + join(conditions, ", ") + ")";
+            case ItemFilter.RANGE:
+                checkSingleValue(op, propertyClass, multipleList);
+                List<String> bounds = new ArrayList<>();
+                if (filter.getMin() != null) {
+                    bounds.add(field + " >= :" + addParameter(convert(propertyClass, filter.getMin())));
+                }
+                if (filter.getMax() != null) {
+                    bounds.add(field + " <= :" + addParameter(convert(propertyClass, filter.getMax())));
+                }
+                return "(" + join(bounds, " and ") + ")";
+            case ItemFilter.PREFIX:
+                checkSingleValue(op, propertyClass, multipleList);
+                if (propertyClass instanceof NumberClass || propertyClass instanceof DateClass
+                    || propertyClass instanceof BooleanClass) {
+                    throw new IllegalArgumentException("The [prefix] filter can't be used on property ["
+                        + filter.getProperty() + "]");
+                }
+                String prefix = filter.getValue().toString();
+                // Wildcards would make the condition depend on the value
+                if (prefix.contains("%") || prefix.contains("_")) {
+                    throw new IllegalArgumentException("The [prefix] filter doesn't accept wildcards");
+                }
+                return field + " like :" + addParameter(prefix + "%");
+            default:
+                checkSingleValue(op, propertyClass, multipleList);
+                if (propertyClass instanceof NumberClass || propertyClass instanceof DateClass
+                    || propertyClass instanceof BooleanClass) {
+                    return field + " is null";
+                }
+                // Empty strings are stored as null on some databases and as empty strings on the others
+                return "(" + field + " is null or " + field + " = '')";
+        }
+    }
+
+    private String getEquality(String field, PropertyClass propertyClass, Object value, boolean multipleList)
+    {
+        Object converted = convert(propertyClass, value);
+        if (multipleList && ((ListClass) propertyClass).isRelationalStorage()) {
+            return ":" + addParameter(converted) + " member of " + field;
+        }
+        if (multipleList) {
+            // The other multiple lists are stored in a single string, with the values separated by "|"
+            String element = escapeLike(converted.toString());
+            return "(" + field + " = :" + addParameter(converted) + " or " + field + " like :"
+                + addParameter(element + SEPARATOR + "%") + LIKE_ESCAPE + " or " + field + " like :"
+                + addParameter("%" + SEPARATOR + element) + LIKE_ESCAPE + " or " + field + " like :"
+                + addParameter("%" + SEPARATOR + element + SEPARATOR + "%") + LIKE_ESCAPE + ")";
+        }
+        return field + " = :" + addParameter(converted);
+    }
+
+    private String escapeLike(String value)
+    {
+        return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private PropertyClass getPropertyClass(String property)
+    {
+        Object propertyClass = this.xClass.get(property);
+        if (!(propertyClass instanceof PropertyClass) || ((PropertyClass) propertyClass).isDisabled()) {
+            throw new IllegalArgumentException("Unknown property [" + property + "]");
+        }
+        this.properties.add(property);
+        return (PropertyClass) propertyClass;
+    }
+
+    private void checkSingleValue(String op, PropertyClass propertyClass, boolean multipleList)
+    {
+        if (multipleList) {
+            throw new IllegalArgumentException("The [" + op + "] filter can't be used on the multiple values property ["
+                + propertyClass.getName() + "]");
+        }
+    }
+
+    /**
+     * Convert a value to the type stored in the database for the property.
+     * @param propertyClass the property
+     * @param value the raw value of the filter
+     * @return the converted value
+     * @throws IllegalArgumentException if the value doesn't match the type of the property
+     */
+    protected static Object convert(PropertyClass propertyClass, Object value)
+    {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value for property [" + propertyClass.getName() + "]");
+        }
+        String name = propertyClass.getName();
+        if (propertyClass instanceof NumberClass) {
+            BaseProperty property = propertyClass.fromString(value.toString().trim());
+            if (property == null || property.getValue() == null) {
+                throw new IllegalArgumentException("[" + value + "] is not a number for property [" + name + "]");
+            }
+            return property.getValue();
+        }
+        if (propertyClass instanceof BooleanClass) {
+            try {
+                return SchemaValueConverter.convert("Boolean", value);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(e.getMessage() + " for property [" + name + "]");
+            }
+        }
+        if (propertyClass instanceof DateClass) {
+            Object date = SchemaValueConverter.convert("Date", value);
+            if (!(date instanceof Date)) {
+                BaseProperty property = propertyClass.fromString(date.toString());
+                date = property != null ? property.getValue() : null;
+            }
+            if (!(date instanceof Date)) {
+                throw new IllegalArgumentException("[" + value + "] is not a date for property [" + name + "]");
+            }
+            return date;
+        }
+        return value.toString();
+    }
+
+    private String addParameter(Object value)
+    {
+        String name = PARAMETER_PREFIX + this.parameters.size();
+        this.parameters.put(name, value);
+        return name;
+    }
+
+    private String join(List<String> conditions, String separator)
+    {
+        StringBuilder result = new StringBuilder();
+        for (String condition : conditions) {
+            if (result.length() > 0) {
+                result.append(separator);
+            }
+            result.append(condition);
+        }
+        return result.toString();
+    }
+}
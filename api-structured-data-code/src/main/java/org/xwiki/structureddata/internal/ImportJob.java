@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Import a data set (CSV or JSON) in an Application. The data is read item by item and the items are stored by
+ * batches, so that the documents containing several items are saved only once per batch.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(ImportJob.JOBTYPE)
+public class ImportJob extends AbstractJob<ImportRequest, DefaultJobStatus<ImportRequest>>
+{
+    /**
+     * The type of the job.
+     */
+    public static final String JOBTYPE = "structureddata.import";
+
+    /**
+     * The number of items stored together when no batch size is specified.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * The format of CSV data.
+     */
+    public static final String FORMAT_CSV = "csv";
+
+    private static final int MAX_ERRORS = 1000;
+
+    private static final int PROGRESS_STEPS = 100;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private ApplicationFactory applicationFactory;
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private final AtomicInteger imported = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final List<Map<String, Object>> errors = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        // The items are stored with the rights of the user who started the import
+        XWikiContext context = this.xcontextProvider.get();
+        context.setWikiId(this.request.getWiki());
+        context.setUserReference(this.request.getUserReference());
+
+        File file = this.request.getFile();
+        try {
+            Application app = this.applicationFactory.getApplication(this.request.getWiki(), this.request.getAppId());
+            Map<String, Object> schema = app.getSchema();
+            CountingInputStream input = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try (ItemReader reader = createReader(input)) {
+                importItems(app, schema, reader, input, file.length());
+            }
+        } finally {
+            if (!file.delete()) {
+                this.logger.warn("Unable to delete the temporary import file [{}]", file);
+            }
+        }
+    }
+
+    private ItemReader createReader(InputStream input) throws IOException
+    {
+        if (FORMAT_CSV.equals(this.request.getFormat())) {
+            return new CsvItemReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        }
+        return new JsonItemReader(JsonTools.MAPPER, input);
+    }
+
+    private void importItems(Application app, Map<String, Object> schema, ItemReader reader,
+            CountingInputStream input, long size) throws Exception
+    {
+        int batchSize = Math.max(1, this.request.getBatchSize());
+        List<ItemMap> batch = new ArrayList<>(batchSize);
+        List<Integer> batchRows = new ArrayList<>(batchSize);
+        int step = 0;
+        this.progressManager.pushLevelProgress(PROGRESS_STEPS, this);
+        try {
+            for (int row = 1;; row++) {
+                Map<String, Object> values;
+                try {
+                    values = reader.next();
+                } catch (IllegalArgumentException e) {
+                    this.processed.incrementAndGet();
+                    fail(row, null, e.getMessage());
+                    continue;
+                }
+                if (values == null) {
+                    break;
+                }
+                this.processed.incrementAndGet();
+                Object itemId = values.remove(ItemReader.ID_FIELD);
+                if (itemId == null || itemId.toString().isEmpty()) {
+                    fail(row, null, "Missing item id");
+                    continue;
+                }
+                try {
+                    ItemMap item = SchemaValueConverter.convert(schema, values);
+                    item.setId(itemId.toString());
+                    batch.add(item);
+                    batchRows.add(row);
+                } catch (IllegalArgumentException e) {
+                    fail(row, itemId.toString(), e.getMessage());
+                }
+                if (batch.size() >= batchSize) {
+                    store(app, batch, batchRows);
+                }
+                step = progress(step, size > 0 ? (int) (input.getByteCount() * PROGRESS_STEPS / size) : 0);
+            }
+            store(app, batch, batchRows);
+            progress(step, PROGRESS_STEPS);
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private void store(Application app, List<ItemMap> batch, List<Integer> batchRows) throws Exception
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Object> results = app.storeItems(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            String itemId = batch.get(i).getId();
+            Object result = results.get(itemId);
+            if (result instanceof Map && ((Map<?, ?>) result).containsKey("Error")) {
+                fail(batchRows.get(i), itemId, String.valueOf(((Map<?, ?>) result).get("Error")));
+            } else {
+                this.imported.incrementAndGet();
+            }
+        }
+        batch.clear();
+        batchRows.clear();
+    }
+
+    private int progress(int currentStep, int targetStep)
+    {
+        int step = currentStep;
+        while (step < Math.min(targetStep, PROGRESS_STEPS)) {
+            this.progressManager.stepPropress(this);
+            step++;
+        }
+        return step;
+    }
+
+    private void fail(int row, String itemId, String message)
+    {
+        // Only the first errors are kept, a large data set with a wrong structure could fail on every row
+        if (this.failed.incrementAndGet() <= MAX_ERRORS) {
+            this.logger.error("Failed to import row [{}] (item [{}]) : [{}]", row, itemId, message);
+            Map<String, Object> error = new HashMap<>();
+            error.put("Row", row);
+            error.put("Item", itemId);
+            error.put("Message", message);
+            this.errors.add(error);
+        }
+    }
+
+    /**
+     * @return the number of items read from the data
+     */
+    public int getProcessedCount()
+    {
+        return this.processed.get();
+    }
+
+    /**
+     * @return the number of items stored in the application
+     */
+    public int getImportedCount()
+    {
+        return this.imported.get();
+    }
+
+    /**
+     * @return the number of items which couldn't be imported
+     */
+    public int getFailedCount()
+    {
+        return this.failed.get();
+    }
+
+    /**
+     * @return the first errors of the import (row, item id and message)
+     */
+    public List<Map<String, Object>> getErrors()
+    {
+        synchronized (this.errors) {
+            return new ArrayList<>(this.errors);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.File;
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request of an {@link ImportJob}.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class ImportRequest extends AbstractRequest
+{
+    private static final String PROPERTY_WIKI = "wiki";
+
+    private static final String PROPERTY_APP = "appId";
+
+    private static final String PROPERTY_FORMAT = "format";
+
+    private static final String PROPERTY_FILE = "file";
+
+    private static final String PROPERTY_BATCH_SIZE = "batchSize";
+
+    private static final String PROPERTY_USER = "user.reference";
+
+    /**
+     * @param id the id of the job
+     */
+    public ImportRequest(List<String> id)
+    {
+        setId(id);
+    }
+
+    /**
+     * @return the wiki of the application
+     */
+    public String getWiki()
+    {
+        return getProperty(PROPERTY_WIKI);
+    }
+
+    /**
+     * @param wiki the wiki of the application
+     */
+    public void setWiki(String wiki)
+    {
+        setProperty(PROPERTY_WIKI, wiki);
+    }
+
+    /**
+     * @return the id of the application (AWM id or class full name)
+     */
+    public String getAppId()
+    {
+        return getProperty(PROPERTY_APP);
+    }
+
+    /**
+     * @param appId the id of the application (AWM id or class full name)
+     */
+    public void setAppId(String appId)
+    {
+        setProperty(PROPERTY_APP, appId);
+    }
+
+    /**
+     * @return the format of the data (csv or json)
+     */
+    public String getFormat()
+    {
+        return getProperty(PROPERTY_FORMAT);
+    }
+
+    /**
+     * @param format the format of the data (csv or json)
+     */
+    public void setFormat(String format)
+    {
+        setProperty(PROPERTY_FORMAT, format);
+    }
+
+    /**
+     * @return the temporary file containing the data to import
+     */
+    public File getFile()
+    {
+        return getProperty(PROPERTY_FILE);
+    }
+
+    /**
+     * @param file the temporary file containing the data to import
+     */
+    public void setFile(File file)
+    {
+        setProperty(PROPERTY_FILE, file);
+    }
+
+    /**
+     * @return the number of items stored together
+     */
+    public int getBatchSize()
+    {
+        return getProperty(PROPERTY_BATCH_SIZE, ImportJob.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the number of items stored together
+     */
+    public void setBatchSize(int batchSize)
+    {
+        setProperty(PROPERTY_BATCH_SIZE, batchSize);
+    }
+
+    /**
+     * @return the user who started the import
+     */
+    public DocumentReference getUserReference()
+    {
+        return getProperty(PROPERTY_USER);
+    }
+
+    /**
+     * @param userReference the user who started the import
+     */
+    public void setUserReference(DocumentReference userReference)
+    {
+        setProperty(PROPERTY_USER, userReference);
+    }
+}
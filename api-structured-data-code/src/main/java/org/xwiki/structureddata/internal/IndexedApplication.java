@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.structureddata.Application;
+
+/**
+ * An application whose "filter" queries are narrowed with the {@link ItemIndex} when the filter only uses indexed
+ * properties: the query of the application is restricted to the documents of the matching objects, and the items are
+ * then loaded, checked and ordered by the application like for any other query.
+ *
+ * @version $Id$
+ */
+public class IndexedApplication extends AbstractForwardingApplication
+{
+    /**
+     * Above this number of matching objects, restricting the query of the application to their documents is slower
+     * than running it on the whole class.
+     */
+    private static final int MAX_INDEXED_RESULTS = 1000;
+
+    private static final String FILTER_OPTION = "filter";
+
+    private static final String QUERY_OPTION = "query";
+
+    private static final String OBJECT_SEPARATOR = "|";
+
+    private final DocumentReference classReference;
+
+    private final Set<String> templates;
+
+    private final String dataSpace;
+
+    private final int partitions;
+
+    private final ItemIndex index;
+
+    private final Logger logger;
+
+    /**
+     * @param application the application
+     * @param classFullName the full name of the class of the application, without the wiki
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @param partitions the number of partitions of the data space (see {@link DataSpacePartitions}), or 0
+     * @param index the index of the properties
+     * @param logger the console logger
+     */
+    public IndexedApplication(Application application, String classFullName, DocumentReference classReference,
+            String dataSpace, int partitions, ItemIndex index, Logger logger)
+    {
+        super(application);
+        this.classReference = classReference;
+        this.dataSpace = dataSpace;
+        this.partitions = partitions;
+        this.index = index;
+        this.logger = logger;
+        this.templates = QueryItems.getTemplates(classFullName);
+    }
+
+    @Override
+    public Map<String, Object> getItems() throws Exception
+    {
+        Map<String, Object> options = new HashMap<>();
+        return this.getItems(options);
+    }
+
+    @Override
+    public Map<String, Object> getItems(Map<String, Object> options) throws Exception
+    {
+        Map<String, Object> value = new HashMap<>();
+        try {
+            for (ItemMap map : this.getItemList(options)) {
+                value.put(map.getId(), map);
+            }
+        } catch (QueryException e) {
+            logger.error("Unable to get the list of items", e);
+        }
+        return value;
+    }
+
+    @Override
+    public ItemList getItemList(Map<String, Object> options) throws Exception
+    {
+        if (options.get(FILTER_OPTION) == null || options.containsKey(QUERY_OPTION)) {
+            return this.application.getItemList(options);
+        }
+        Set<String> objects;
+        try {
+            objects = this.index.find(this.classReference, ItemFilter.from(options.get(FILTER_OPTION)));
+        } catch (IllegalArgumentException e) {
+            // Let the application report the invalid filter
+            objects = null;
+        }
+        if (objects == null || objects.size() > MAX_INDEXED_RESULTS) {
+            return this.application.getItemList(options);
+        }
+        Set<String> documents = getDocuments(objects);
+        if (documents.isEmpty()) {
+            return new ItemList(0);
+        }
+        // The query of the application still evaluates the filter, with the collation of the database, and checks
+        // the order, the hidden documents, the rights and the paging: the index only restricts it to the candidate
+        // documents, so that the results are the same whether the index is used or not
+        Map<String, Object> indexedOptions = new HashMap<>(options);
+        indexedOptions.put(QueryItems.DOCUMENTS_OPTION, new ArrayList<>(documents));
+        return this.application.getItemList(indexedOptions);
+    }
+
+    /**
+     * Get the documents of the objects found in the index ("document full name|object number"), without the
+     * templates and the documents outside of the data space of an AWM application.
+     */
+    private Set<String> getDocuments(Set<String> objects)
+    {
+        Set<String> documents = new HashSet<>();
+        for (String object : objects) {
+            String documentName = object.substring(0, object.lastIndexOf(OBJECT_SEPARATOR));
+            if (this.templates.contains(documentName)) {
+                continue;
+            }
+            // The items of an AWM application are the documents of its data space or of one of its partitions
+            if (this.dataSpace == null || DataSpacePartitions.getItemId(this.dataSpace, this.partitions, documentName) != null) {
+                documents.add(documentName);
+            }
+        }
+        return documents;
+    }
+}
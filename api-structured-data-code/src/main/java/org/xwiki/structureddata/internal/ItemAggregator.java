@@ -0,0 +1,305 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.xwiki.structureddata.Application;
+
+/**
+ * Compute an aggregate (count, sum, avg, min or max) of a property of the items, optionally grouped by the values of
+ * another property. Dates are aggregated as timestamps. The options are:
+ * <ul>
+ * <li>function: the aggregate function, "count" by default</li>
+ * <li>property: the aggregated property, required except for "count"</li>
+ * <li>groupBy: the property whose values define the groups</li>
+ * <li>filter, query and hidden: the items to aggregate, like for getItems</li>
+ * </ul>
+ *
+ * @version $Id$
+ */
+public class ItemAggregator
+{
+    /**
+     * The number of items.
+     */
+    public static final String COUNT = "count";
+
+    /**
+     * The sum of the values.
+     */
+    public static final String SUM = "sum";
+
+    /**
+     * The average of the values.
+     */
+    public static final String AVG = "avg";
+
+    /**
+     * The smallest value.
+     */
+    public static final String MIN = "min";
+
+    /**
+     * The largest value.
+     */
+    public static final String MAX = "max";
+
+    private static final List<String> FUNCTIONS = Arrays.asList(COUNT, SUM, AVG, MIN, MAX);
+
+    private final String function;
+
+    private final String property;
+
+    private final String groupBy;
+
+    private final Map<String, Accumulator> groups = new TreeMap<>();
+
+    private long count;
+
+    /**
+     * The aggregate of one group.
+     */
+    private static class Accumulator
+    {
+        private long rows;
+
+        private long values;
+
+        private double sum;
+
+        private double min = Double.POSITIVE_INFINITY;
+
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private void add(double value)
+        {
+            this.rows++;
+            if (!Double.isNaN(value)) {
+                this.values++;
+                this.sum += value;
+                this.min = Math.min(this.min, value);
+                this.max = Math.max(this.max, value);
+            }
+        }
+
+        private Object get(String function)
+        {
+            if (COUNT.equals(function)) {
+                return this.rows;
+            }
+            if (this.values == 0) {
+                return null;
+            }
+            switch (function) {
+                case SUM:
+                    return this.sum;
+                case AVG:
+                    return this.sum / this.values;
+                case MIN:
+                    return this.min;
+                default:
+                    return this.max;
+            }
+        }
+    }
+
+    /**
+     * @param options the aggregate options (function, property and groupBy)
+     * @throws IllegalArgumentException if the options are not valid
+     */
+    public ItemAggregator(Map<String, Object> options)
+    {
+        Object functionOption = options.get("function");
+        this.function = functionOption != null ? functionOption.toString().trim().toLowerCase() : COUNT;
+        if (!FUNCTIONS.contains(this.function)) {
+            throw new IllegalArgumentException("Unknown aggregate function [" + this.function + "]");
+        }
+        this.property = getString(options.get("property"));
+        if (this.property == null && !COUNT.equals(this.function)) {
+            throw new IllegalArgumentException("The [" + this.function + "] function requires a [property]");
+        }
+        this.groupBy = getString(options.get("groupBy"));
+    }
+
+    /**
+     * Aggregate the items of an application, read with {@link Application#getItemsIterator(Map)}.
+     * @param application the application
+     * @param options the aggregate options and the options selecting the items (filter, query, hidden)
+     * @return the aggregate (see {@link #getResult()})
+     * @throws Exception if the items can't be read
+     */
+    public static Map<String, Object> aggregate(Application application, Map<String, Object> options)
+        throws Exception
+    {
+        ItemAggregator aggregator = new ItemAggregator(options);
+        Map<String, Object> itemOptions = new HashMap<>(options);
+        if (!aggregator.getProperties().isEmpty()) {
+            itemOptions.put("properties", aggregator.getProperties());
+        }
+        Iterator<ItemMap> items = application.getItemsIterator(itemOptions);
+        while (items.hasNext()) {
+            ItemMap item = items.next();
+            aggregator.add(aggregator.groupBy != null ? item.get(aggregator.groupBy) : null,
+                aggregator.property != null ? toNumber(item.get(aggregator.property)) : Double.NaN);
+        }
+        return aggregator.getResult();
+    }
+
+    /**
+     * @return the aggregated property, or null when the items are only counted
+     */
+    public String getProperty()
+    {
+        return this.property;
+    }
+
+    /**
+     * @return the property defining the groups, or null
+     */
+    public String getGroupBy()
+    {
+        return this.groupBy;
+    }
+
+    /**
+     * @return the properties which have to be read from the items
+     */
+    public List<String> getProperties()
+    {
+        List<String> properties = new ArrayList<>();
+        if (this.property != null) {
+            properties.add(this.property);
+        }
+        if (this.groupBy != null && !this.groupBy.equals(this.property)) {
+            properties.add(this.groupBy);
+        }
+        return properties;
+    }
+
+    /**
+     * Add an item to the aggregate.
+     * @param groupValue the value of the groupBy property of the item (an item with several values is added to each
+     *     of their groups)
+     * @param value the value of the aggregated property, NaN if the item has no numeric value
+     */
+    public void add(Object groupValue, double value)
+    {
+        this.count++;
+        if (this.groupBy == null) {
+            getAccumulator("").add(value);
+        } else if (groupValue instanceof Collection) {
+            for (Object element : (Collection<?>) groupValue) {
+                getAccumulator(getGroupKey(element)).add(value);
+            }
+        } else {
+            getAccumulator(getGroupKey(groupValue)).add(value);
+        }
+    }
+
+    /**
+     * @return the aggregate: "Count" (the number of items) and "Value", or "Groups" (the value of each group) when
+     *         the items are grouped
+     */
+    public Map<String, Object> getResult()
+    {
+        Map<String, Object> result = new HashMap<>();
+        result.put("Function", this.function);
+        result.put("Count", this.count);
+        if (this.groupBy == null) {
+            Accumulator accumulator = this.groups.get("");
+            result.put("Value", accumulator != null ? accumulator.get(this.function)
+                : (COUNT.equals(this.function) ? 0L : null));
+        } else {
+            Map<String, Object> values = new TreeMap<>();
+            for (Map.Entry<String, Accumulator> group : this.groups.entrySet()) {
+                values.put(group.getKey(), group.getValue().get(this.function));
+            }
+            result.put("Groups", values);
+        }
+        return result;
+    }
+
+    /**
+     * @param value a property value
+     * @return the numeric value used by the aggregate, NaN if the value is not numeric
+     */
+    public static double toNumber(Object value)
+    {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    private Accumulator getAccumulator(String key)
+    {
+        Accumulator accumulator = this.groups.get(key);
+        if (accumulator == null) {
+            accumulator = new Accumulator();
+            this.groups.put(key, accumulator);
+        }
+        return accumulator;
+    }
+
+    /**
+     * The groups have the same keys whether the values are read from the items or from a snapshot.
+     */
+    private static String getGroupKey(Object value)
+    {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Date) {
+            return String.valueOf(((Date) value).getTime());
+        }
+        if (value instanceof Number) {
+            try {
+                return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) {
+                return value.toString();
+            }
+        }
+        return value.toString();
+    }
+
+    private static String getString(Object value)
+    {
+        if (value == null || value.toString().trim().isEmpty()) {
+            return null;
+        }
+        return value.toString().trim();
+    }
+}
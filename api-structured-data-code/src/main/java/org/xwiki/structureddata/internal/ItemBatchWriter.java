@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+/**
+ * Store a batch of items, grouped by document so that each document is loaded and saved only once. The applications
+ * tell where the items are stored and how an item is applied to its document.
+ *
+ * @version $Id$
+ */
+public abstract class ItemBatchWriter
+{
+    /**
+     * The comment of the saves of the updated items.
+     */
+    protected static final String COMMENT = "Properties updated";
+
+    /**
+     * @param state the state of an operation ("Success" or "Error")
+     * @param value the value of the state
+     * @return the result map of the operation
+     */
+    public static Map<String, Object> getStateMap(String state, Object value)
+    {
+        Map<String, Object> stateMap = new HashMap<>();
+        stateMap.put(state, value);
+        return stateMap;
+    }
+
+    /**
+     * @param item an item of the batch
+     * @return the full name of the document of the item
+     */
+    protected abstract String getDocumentName(ItemMap item);
+
+    /**
+     * @param documentName the full name of the document of an item
+     * @return the reference of the document
+     */
+    protected abstract DocumentReference getDocumentReference(String documentName);
+
+    /**
+     * Apply an item to its document, without saving it. An item which can't be applied must leave the document
+     * unchanged, since the document is saved with the other items (see {@link ApplicationItem#apply(ItemMap)}).
+     * @param documentName the full name of the document
+     * @param item the item to apply
+     * @param document the document
+     * @throws Exception if the item can't be applied
+     */
+    protected abstract void apply(String documentName, ItemMap item, XWikiDocument document) throws Exception;
+
+    /**
+     * Called when the document of a group has been saved (or failed), to release the per-request state of the
+     * document.
+     * @param reference the reference of the document
+     */
+    protected void done(DocumentReference reference)
+    {
+    }
+
+    /**
+     * Store the items. An item which can't be applied is dropped: it doesn't prevent the other items of its document
+     * from being saved.
+     * @param items the items to store
+     * @param authorization the authorization checker
+     * @param context the wiki context
+     * @return the state of each item, by item id
+     */
+    public Map<String, Object> storeItems(List<ItemMap> items, ContextualAuthorizationManager authorization,
+        XWikiContext context)
+    {
+        final Map<String, Object> results = new LinkedHashMap<>();
+        Map<String, List<ItemMap>> itemsByDoc = new LinkedHashMap<>();
+        for (ItemMap itemData : items) {
+            String documentName = getDocumentName(itemData);
+            if (!itemsByDoc.containsKey(documentName)) {
+                itemsByDoc.put(documentName, new ArrayList<ItemMap>());
+            }
+            itemsByDoc.get(documentName).add(itemData);
+        }
+        for (Map.Entry<String, List<ItemMap>> entry : itemsByDoc.entrySet()) {
+            final String documentName = entry.getKey();
+            final List<ItemMap> docItems = entry.getValue();
+            DocumentReference reference = getDocumentReference(documentName);
+            try {
+                authorization.checkAccess(Right.EDIT, reference);
+                DocumentWriteCombiner.write(reference, new DocumentWriteCombiner.Change()
+                {
+                    @Override
+                    public boolean apply(XWikiDocument document)
+                    {
+                        boolean changed = false;
+                        for (ItemMap itemData : docItems) {
+                            try {
+                                ItemBatchWriter.this.apply(documentName, itemData, document);
+                                results.put(itemData.getId(), getStateMap("Success", 1));
+                                changed = true;
+                            } catch (Exception e) {
+                                results.put(itemData.getId(), getStateMap("Error", e.getMessage()));
+                            }
+                        }
+                        return changed;
+                    }
+                }, COMMENT, context);
+            } catch (Exception e) {
+                for (ItemMap itemData : docItems) {
+                    results.put(itemData.getId(), getStateMap("Error", e.getMessage()));
+                }
+            } finally {
+                done(reference);
+            }
+        }
+        return results;
+    }
+}
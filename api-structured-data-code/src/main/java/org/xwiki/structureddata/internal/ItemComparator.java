@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compare items in the order given by the "order" option of an items query, so that the items returned by several
+ * queries can be merged. The order can contain item properties ("item.prop1 desc, item.prop2"), the other fields
+ * (document name, object number, etc.) are compared using the item id.
+ *
+ * @version $Id$
+ */
+public class ItemComparator implements Comparator<ItemMap>
+{
+    private static final String ITEM_PREFIX = "item.";
+
+    private static final String DESC = "desc";
+
+    private static final String ID_SEPARATOR = "|";
+
+    /**
+     * The order on the document name, whatever the alias used in the query.
+     */
+    private static final String NAME_FIELD = "#name";
+
+    /**
+     * The order on the object number, whatever the alias used in the query.
+     */
+    private static final String NUMBER_FIELD = "#number";
+
+    /**
+     * The order on another document field, which is not loaded in the items.
+     */
+    private static final String ID_FIELD = "#id";
+
+    private final List<String> properties = new ArrayList<>();
+
+    private final List<Boolean> descending = new ArrayList<>();
+
+    /**
+     * @param order the "order" option of the query, or null to order the items by id
+     */
+    public ItemComparator(String order)
+    {
+        if (order == null) {
+            return;
+        }
+        for (String orderItem : order.split(",")) {
+            String[] parts = orderItem.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            this.properties.add(getField(parts[0]));
+            this.descending.add(parts.length > 1 && DESC.equalsIgnoreCase(parts[1]));
+        }
+    }
+
+    /**
+     * @return the item properties used by the order, which have to be loaded in the items
+     */
+    public List<String> getProperties()
+    {
+        List<String> names = new ArrayList<>();
+        for (String property : this.properties) {
+            if (!property.startsWith("#")) {
+                names.add(property);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public int compare(ItemMap item1, ItemMap item2)
+    {
+        for (int i = 0; i < this.properties.size(); i++) {
+            String property = this.properties.get(i);
+            int result;
+            if (NAME_FIELD.equals(property)) {
+                result = getName(item1.getId()).compareTo(getName(item2.getId()));
+            } else if (NUMBER_FIELD.equals(property)) {
+                result = Integer.compare(getNumber(item1.getId()), getNumber(item2.getId()));
+            } else if (ID_FIELD.equals(property)) {
+                result = compareIds(item1.getId(), item2.getId());
+            } else {
+                result = compareValues(item1.get(property), item2.get(property));
+            }
+            if (result != 0) {
+                return this.descending.get(i) ? -result : result;
+            }
+        }
+        return compareIds(item1.getId(), item2.getId());
+    }
+
+    /**
+     * The document name and the object number are the parts of the item id.
+     */
+    private static String getField(String orderField)
+    {
+        String field = orderField;
+        if (field.startsWith(ITEM_PREFIX)) {
+            field = field.substring(ITEM_PREFIX.length());
+        }
+        if ("name".equals(field) || "doc.fullName".equals(field) || "doc.name".equals(field)
+            || "obj.name".equals(field)) {
+            return NAME_FIELD;
+        }
+        if ("number".equals(field) || "obj.number".equals(field)) {
+            return NUMBER_FIELD;
+        }
+        return field.contains(".") ? ID_FIELD : field;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareValues(Object value1, Object value2)
+    {
+        if (value1 == null || value2 == null) {
+            // Null values come first, like in the database
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        }
+        if (value1 instanceof Comparable && value1.getClass().equals(value2.getClass())) {
+            return ((Comparable<Object>) value1).compareTo(value2);
+        }
+        if (value1 instanceof Number && value2 instanceof Number) {
+            return Double.compare(((Number) value1).doubleValue(), ((Number) value2).doubleValue());
+        }
+        return value1.toString().compareTo(value2.toString());
+    }
+
+    /**
+     * Compare the ids of two items by document name, then by object number.
+     */
+    private int compareIds(String id1, String id2)
+    {
+        String name1 = getName(id1);
+        String name2 = getName(id2);
+        int result = name1.compareTo(name2);
+        if (result != 0) {
+            return result;
+        }
+        return Integer.compare(getNumber(id1), getNumber(id2));
+    }
+
+    private String getName(String id)
+    {
+        if (id == null) {
+            return "";
+        }
+        int separator = id.lastIndexOf(ID_SEPARATOR);
+        return separator < 0 ? id : id.substring(0, separator);
+    }
+
+    private int getNumber(String id)
+    {
+        if (id == null) {
+            return 0;
+        }
+        int separator = id.lastIndexOf(ID_SEPARATOR);
+        try {
+            return separator < 0 ? 0 : Integer.parseInt(id.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
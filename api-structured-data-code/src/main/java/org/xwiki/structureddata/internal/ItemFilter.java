@@ -0,0 +1,381 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A structured filter on the properties of the items, used with the "filter" option of the items queries instead of
+ * a raw "where" clause. A filter is either a predicate on a property (eq, in, range, prefix, isNull) or a combination
+ * of filters (and, or).
+ * <p>
+ * The map (or JSON) representation of a filter is {@code {"op": "eq", "property": "prop1", "value": "x"}},
+ * {@code {"op": "in", "property": "prop1", "values": ["x", "y"]}},
+ * {@code {"op": "range", "property": "prop1", "min": 1, "max": 10}} (both bounds are inclusive and optional),
+ * {@code {"op": "prefix", "property": "prop1", "value": "ab"}}, {@code {"op": "isNull", "property": "prop1"}} and
+ * {@code {"op": "and", "filters": [...]}} or {@code {"op": "or", "filters": [...]}}.
+ *
+ * @version $Id$
+ */
+public class ItemFilter
+{
+    /**
+     * Equality of a property with a value.
+     */
+    public static final String EQ = "eq";
+
+    /**
+     * Equality of a property with one of several values.
+     */
+    public static final String IN = "in";
+
+    /**
+     * Property between two values.
+     */
+    public static final String RANGE = "range";
+
+    /**
+     * Property starting with a value.
+     */
+    public static final String PREFIX = "prefix";
+
+    /**
+     * Property without value.
+     */
+    public static final String IS_NULL = "isNull";
+
+    /**
+     * All the filters match.
+     */
+    public static final String AND = "and";
+
+    /**
+     * One of the filters matches.
+     */
+    public static final String OR = "or";
+
+    private static final String OP_KEY = "op";
+
+    private static final String PROPERTY_KEY = "property";
+
+    private static final String VALUE_KEY = "value";
+
+    private static final String VALUES_KEY = "values";
+
+    private static final String MIN_KEY = "min";
+
+    private static final String MAX_KEY = "max";
+
+    private static final String FILTERS_KEY = "filters";
+
+    private static final List<String> OPERATORS = Arrays.asList(EQ, IN, RANGE, PREFIX, IS_NULL, AND, OR);
+
+    private final String op;
+
+    private String property;
+
+    private Object value;
+
+    private List<Object> values;
+
+    private Object min;
+
+    private Object max;
+
+    private List<ItemFilter> filters;
+
+    private ItemFilter(String op)
+    {
+        this.op = op;
+    }
+
+    /**
+     * @param property the name of the property
+     * @param value the value
+     * @return a filter matching the items whose property is equal to the value
+     * @throws IllegalArgumentException if the value is null
+     */
+    public static ItemFilter eq(String property, Object value)
+    {
+        ItemFilter filter = new ItemFilter(EQ);
+        filter.property = property;
+        filter.value = value;
+        return filter.check();
+    }
+
+    /**
+     * @param property the name of the property
+     * @param values the possible values
+     * @return a filter matching the items whose property is equal to one of the values
+     * @throws IllegalArgumentException if there is no value
+     */
+    public static ItemFilter in(String property, Collection<?> values)
+    {
+        ItemFilter filter = new ItemFilter(IN);
+        filter.property = property;
+        filter.values = values != null ? new ArrayList<Object>(values) : null;
+        return filter.check();
+    }
+
+    /**
+     * @param property the name of the property
+     * @param min the minimum value (inclusive), or null
+     * @param max the maximum value (inclusive), or null
+     * @return a filter matching the items whose property is between the two values
+     * @throws IllegalArgumentException if both values are null
+     */
+    public static ItemFilter range(String property, Object min, Object max)
+    {
+        ItemFilter filter = new ItemFilter(RANGE);
+        filter.property = property;
+        filter.min = min;
+        filter.max = max;
+        return filter.check();
+    }
+
+    /**
+     * @param property the name of the property
+     * @param prefix the beginning of the value
+     * @return a filter matching the items whose property starts with the prefix
+     * @throws IllegalArgumentException if the prefix is null
+     */
+    public static ItemFilter prefix(String property, String prefix)
+    {
+        ItemFilter filter = new ItemFilter(PREFIX);
+        filter.property = property;
+        filter.value = prefix;
+        return filter.check();
+    }
+
+    /**
+     * @param property the name of the property
+     * @return a filter matching the items whose property has no value
+     */
+    public static ItemFilter isNull(String property)
+    {
+        ItemFilter filter = new ItemFilter(IS_NULL);
+        filter.property = property;
+        return filter.check();
+    }
+
+    /**
+     * @param filters the filters to combine
+     * @return a filter matching the items matched by all the filters
+     * @throws IllegalArgumentException if there is no filter
+     */
+    public static ItemFilter and(List<ItemFilter> filters)
+    {
+        ItemFilter filter = new ItemFilter(AND);
+        filter.filters = filters != null ? new ArrayList<>(filters) : null;
+        return filter.check();
+    }
+
+    /**
+     * @param filters the filters to combine
+     * @return a filter matching the items matched by one of the filters
+     * @throws IllegalArgumentException if there is no filter
+     */
+    public static ItemFilter or(List<ItemFilter> filters)
+    {
+        ItemFilter filter = new ItemFilter(OR);
+        filter.filters = filters != null ? new ArrayList<>(filters) : null;
+        return filter.check();
+    }
+
+    /**
+     * Read a filter from the "filter" option of a query.
+     * @param definition an ItemFilter, its map representation or its JSON representation
+     * @return the filter
+     * @throws IllegalArgumentException if the definition is not a valid filter
+     */
+    public static ItemFilter from(Object definition)
+    {
+        if (definition instanceof ItemFilter) {
+            return (ItemFilter) definition;
+        }
+        if (definition instanceof Map) {
+            return fromMap((Map<?, ?>) definition);
+        }
+        if (definition instanceof String) {
+            try {
+                return fromMap(JsonTools.MAPPER.readValue((String) definition, Map.class));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid JSON filter : " + e.getMessage());
+            }
+        }
+        throw new IllegalArgumentException("Invalid filter [" + definition + "]");
+    }
+
+    private static ItemFilter fromMap(Map<?, ?> definition)
+    {
+        Object op = definition.get(OP_KEY);
+        if (!OPERATORS.contains(op)) {
+            throw new IllegalArgumentException("Unknown filter operator [" + op + "]");
+        }
+        ItemFilter filter = new ItemFilter((String) op);
+        if (AND.equals(op) || OR.equals(op)) {
+            Object subFilters = definition.get(FILTERS_KEY);
+            if (subFilters instanceof List) {
+                filter.filters = new ArrayList<>();
+                for (Object subFilter : (List<?>) subFilters) {
+                    filter.filters.add(from(subFilter));
+                }
+            }
+            return filter.check();
+        }
+        Object property = definition.get(PROPERTY_KEY);
+        if (property instanceof String) {
+            filter.property = (String) property;
+        }
+        filter.value = definition.get(VALUE_KEY);
+        filter.min = definition.get(MIN_KEY);
+        filter.max = definition.get(MAX_KEY);
+        Object values = definition.get(VALUES_KEY);
+        if (IN.equals(op) && values instanceof Collection) {
+            filter.values = new ArrayList<Object>((Collection<?>) values);
+        }
+        return filter.check();
+    }
+
+    /**
+     * Reject the filters which can't be compiled into a valid condition, whether they are built with the factory
+     * methods or read from a definition.
+     */
+    private ItemFilter check()
+    {
+        if (AND.equals(this.op) || OR.equals(this.op)) {
+            if (this.filters == null || this.filters.isEmpty()) {
+                throw new IllegalArgumentException("The [" + this.op + "] filter needs a non empty list of filters");
+            }
+            return this;
+        }
+        if (this.property == null) {
+            throw new IllegalArgumentException("The [" + this.op + "] filter needs a property");
+        }
+        if (IN.equals(this.op) && (this.values == null || this.values.isEmpty())) {
+            throw new IllegalArgumentException("The [in] filter needs a non empty list of values");
+        } else if ((EQ.equals(this.op) || PREFIX.equals(this.op)) && this.value == null) {
+            throw new IllegalArgumentException("The [" + this.op + "] filter needs a value");
+        } else if (RANGE.equals(this.op) && this.min == null && this.max == null) {
+            throw new IllegalArgumentException("The [range] filter needs a min or a max value");
+        }
+        return this;
+    }
+
+    /**
+     * @return the map representation of the filter
+     */
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(OP_KEY, this.op);
+        if (this.filters != null) {
+            List<Map<String, Object>> subFilters = new ArrayList<>();
+            for (ItemFilter filter : this.filters) {
+                subFilters.add(filter.toMap());
+            }
+            map.put(FILTERS_KEY, subFilters);
+            return map;
+        }
+        map.put(PROPERTY_KEY, this.property);
+        if (this.value != null) {
+            map.put(VALUE_KEY, this.value);
+        }
+        if (this.values != null) {
+            map.put(VALUES_KEY, this.values);
+        }
+        if (this.min != null) {
+            map.put(MIN_KEY, this.min);
+        }
+        if (this.max != null) {
+            map.put(MAX_KEY, this.max);
+        }
+        return map;
+    }
+
+    /**
+     * @return the operator of the filter
+     */
+    public String getOp()
+    {
+        return this.op;
+    }
+
+    /**
+     * @return the property filtered by a predicate, null for "and" and "or" filters
+     */
+    public String getProperty()
+    {
+        return this.property;
+    }
+
+    /**
+     * @return the value of an "eq" or "prefix" filter
+     */
+    public Object getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * @return the values of an "in" filter
+     */
+    public List<Object> getValues()
+    {
+        return this.values != null ? Collections.unmodifiableList(this.values) : null;
+    }
+
+    /**
+     * @return the minimum value of a "range" filter
+     */
+    public Object getMin()
+    {
+        return this.min;
+    }
+
+    /**
+     * @return the maximum value of a "range" filter
+     */
+    public Object getMax()
+    {
+        return this.max;
+    }
+
+    /**
+     * @return the filters combined by an "and" or "or" filter
+     */
+    public List<ItemFilter> getFilters()
+    {
+        return this.filters != null ? Collections.unmodifiableList(this.filters) : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toMap().toString();
+    }
+}
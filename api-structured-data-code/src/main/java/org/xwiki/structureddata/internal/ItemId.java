@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * The id of an item : the name of its document, followed by "|" and the number of its object when it isn't the first
+ * object of the document (e.g. "Space.Page|2"). Parsed ids are immutable and cached, with the reference of their
+ * document once it has been resolved.
+ *
+ * @version $Id$
+ */
+public final class ItemId
+{
+    private static final char SEPARATOR = '|';
+
+    private static final int CACHE_SIZE = 10000;
+
+    // Larger numbers are not object numbers, the id is then the name of the document
+    private static final int MAX_NUMBER_DIGITS = 9;
+
+    private static final Map<String, ItemId> CACHE = new LinkedHashMap<String, ItemId>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ItemId> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String id;
+
+    private final String documentName;
+
+    private final int objectNumber;
+
+    private volatile DocumentReference reference;
+
+    private ItemId(String id, String documentName, int objectNumber)
+    {
+        this.id = id;
+        this.documentName = documentName;
+        this.objectNumber = objectNumber;
+    }
+
+    /**
+     * @param id the string id of an item
+     * @return the parsed id
+     */
+    public static ItemId parse(String id)
+    {
+        synchronized (CACHE) {
+            ItemId itemId = CACHE.get(id);
+            if (itemId == null) {
+                itemId = doParse(id);
+                CACHE.put(id, itemId);
+            }
+            return itemId;
+        }
+    }
+
+    private static ItemId doParse(String id)
+    {
+        int separator = id.lastIndexOf(SEPARATOR);
+        int digits = id.length() - separator - 1;
+        if (separator < 0 || digits == 0 || digits > MAX_NUMBER_DIGITS) {
+            return new ItemId(id, id, 0);
+        }
+        int number = 0;
+        for (int i = separator + 1; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return new ItemId(id, id, 0);
+            }
+            number = number * 10 + (c - '0');
+        }
+        return new ItemId(id, id.substring(0, separator), number);
+    }
+
+    /**
+     * @return the full name of the document of the item
+     */
+    public String getDocumentName()
+    {
+        return this.documentName;
+    }
+
+    /**
+     * @return the number of the object of the item in its document
+     */
+    public int getObjectNumber()
+    {
+        return this.objectNumber;
+    }
+
+    /**
+     * Get the reference of the document of the item. The reference is resolved once, and resolved again only when it
+     * is asked for another wiki.
+     * @param resolver the document reference resolver
+     * @param wikiRef the wiki of the application
+     * @return the reference of the document
+     */
+    public DocumentReference getDocumentReference(EntityReferenceResolver<String> resolver, WikiReference wikiRef)
+    {
+        DocumentReference docRef = this.reference;
+        if (docRef == null || !docRef.getWikiReference().equals(wikiRef)) {
+            docRef = new DocumentReference(resolver.resolve(this.documentName, EntityType.DOCUMENT, wikiRef));
+            this.reference = docRef;
+        }
+        return docRef;
+    }
+
+    @Override
+    public boolean equals(Object object)
+    {
+        return object instanceof ItemId && ((ItemId) object).id.equals(this.id);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.id.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.id;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Allocator of the ids of the items created through the API. The ids of an application come from a sequence
+ * persisted in a hidden document: a block of ids is reserved at once in the document (see
+ * {@link StructuredDataConfiguration#getIdBlockSize()}), and then the ids are handed out from memory.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ItemIdAllocator
+{
+    /**
+     * Get the next id of a sequence. The ids of a sequence are never handed out twice, but ids can be skipped (when
+     * the wiki is restarted, or when several nodes of a cluster reserve blocks of the same sequence).
+     * @param sequenceReference the reference of the document holding the sequence
+     * @return the next id of the sequence
+     * @throws Exception if a new block of ids can't be reserved
+     */
+    long next(DocumentReference sequenceReference) throws Exception;
+}
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.job.JobException;
+
+/**
+ * Start the imports of data sets in Applications and follow their progress.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ItemImporter
+{
+    /**
+     * Start the import of a data set in the background.
+     * @param wikiName the wiki of the application, or null for the current wiki
+     * @param appId the id of the application (AWM id or class full name)
+     * @param format the format of the data (csv, json or ndjson)
+     * @param input the data to import
+     * @param batchSize the number of items stored together
+     * @return the id of the import
+     * @throws IOException if the data can't be read
+     * @throws JobException if the import can't be started
+     */
+    String startImport(String wikiName, String appId, String format, InputStream input, int batchSize)
+        throws IOException, JobException;
+
+    /**
+     * Get the status of an import started by the current user.
+     * @param wikiName the wiki of the application, or null for the current wiki
+     * @param appId the id of the application (AWM id or class full name)
+     * @param importId the id of the import
+     * @return a map with the state, the progress, the counters and the errors of the import
+     */
+    Map<String, Object> getImportStatus(String wikiName, String appId, String importId);
+}
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+
+/**
+ * In-memory index of the values of some properties of the applications, declared with the
+ * "structureddata.index.properties" configuration. The equality and range filters on the indexed properties are
+ * resolved without querying the database.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ItemIndex
+{
+    /**
+     * Resolve the filters of the items queries of an application with the index, when its class has indexed
+     * properties.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @return the indexed application, or the application itself if its class has no indexed property
+     */
+    Application wrap(Application application, DocumentReference classReference, String dataSpace);
+
+    /**
+     * Find the objects matching a filter.
+     * @param classReference the reference of the class of the objects
+     * @param filter the filter
+     * @return the objects matching the filter, as "document full name|object number", or null if the filter can't be
+     *         resolved with the index (not indexed property, operator not supported for the property, etc.)
+     */
+    Set<String> find(DocumentReference classReference, ItemFilter filter);
+
+    /**
+     * Update the indexes after a document has been saved or deleted.
+     * @param document the new version of the document
+     */
+    void update(XWikiDocument document);
+
+    /**
+     * Forget the indexes of a wiki.
+     * @param wikiId the id of the wiki
+     */
+    void removeWiki(String wikiId);
+
+    /**
+     * Forget the indexes of classes changed on another node of the cluster. They are loaded again on next use.
+     * @param classes the references of the classes, with their wiki
+     */
+    void invalidate(Collection<String> classes);
+}
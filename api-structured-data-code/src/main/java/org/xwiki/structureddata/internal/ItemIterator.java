@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterate over the items of an Application, loading them page by page so that only one page of items is kept in
+ * memory at a time.
+ *
+ * @version $Id$
+ */
+public abstract class ItemIterator implements Iterator<ItemMap>
+{
+    /**
+     * The number of items loaded by each query.
+     */
+    public static final int PAGE_SIZE = 500;
+
+    private final Deque<ItemMap> buffer = new ArrayDeque<>();
+
+    private boolean lastPage;
+
+    /**
+     * Load the next page of items.
+     * @param items the list where to put the items of the page which can be viewed by the current user
+     * @return the number of rows returned by the query, the page is the last one if it is lower than the page size
+     * @throws Exception if the page can't be loaded
+     */
+    protected abstract int loadPage(List<ItemMap> items) throws Exception;
+
+    @Override
+    public boolean hasNext()
+    {
+        // A page can be empty if the user can't view any of its items
+        while (this.buffer.isEmpty() && !this.lastPage) {
+            List<ItemMap> items = new ArrayList<>();
+            try {
+                this.lastPage = loadPage(items) < PAGE_SIZE;
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to load the next items", e);
+            }
+            this.buffer.addAll(items);
+        }
+        return !this.buffer.isEmpty();
+    }
+
+    @Override
+    public ItemMap next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.buffer.poll();
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+}
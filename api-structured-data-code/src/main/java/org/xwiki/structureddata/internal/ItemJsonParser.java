@@ -0,0 +1,203 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read the values of an item (or of its document) from a JSON parser, one token at a time. Each value is converted
+ * with the type of its property in the schema of the application, and the invalid values are reported field by field
+ * instead of failing the whole item.
+ *
+ * @version $Id$
+ */
+public class ItemJsonParser
+{
+    private static final String TYPE_KEY = "Type";
+
+    private static final String STRING = "String";
+
+    private static final String DATE = "Date";
+
+    /**
+     * The types of the document fields, as they would appear in a schema.
+     */
+    private static final Map<String, String> DOCUMENT_TYPES = new HashMap<>();
+
+    static {
+        DOCUMENT_TYPES.put(ItemMap.AUTHOR, STRING);
+        DOCUMENT_TYPES.put(ItemMap.CREATOR, STRING);
+        DOCUMENT_TYPES.put(ItemMap.CREATION, DATE);
+        DOCUMENT_TYPES.put(ItemMap.UPDATE, DATE);
+        DOCUMENT_TYPES.put(ItemMap.PARENT, STRING);
+        DOCUMENT_TYPES.put(ItemMap.HIDDEN, "Boolean");
+        DOCUMENT_TYPES.put(ItemMap.TITLE, STRING);
+        DOCUMENT_TYPES.put(ItemMap.CONTENT, STRING);
+    }
+
+    private final Map<String, Object> schema;
+
+    /**
+     * @param schema the schema of the application (see {@link ApplicationSchema})
+     */
+    public ItemJsonParser(Map<String, Object> schema)
+    {
+        this.schema = schema;
+    }
+
+    /**
+     * Read an item. The field {@link ItemReader#ID_FIELD} is read as the id of the item.
+     * @param parser the parser, on the start of the object of the item
+     * @param errors the errors of the invalid fields, by field name
+     * @return the valid values of the item
+     * @throws IOException if the JSON data is malformed
+     */
+    public ItemMap readItem(JsonParser parser, Map<String, String> errors) throws IOException
+    {
+        ItemMap item = new ItemMap();
+        checkObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            if (ItemReader.ID_FIELD.equals(key)) {
+                Object id = readValue(parser, key, errors);
+                item.setId(id != null ? id.toString() : null);
+                continue;
+            }
+            Object propertySchema = this.schema.get(key);
+            if (!(propertySchema instanceof Map)) {
+                parser.skipChildren();
+                errors.put(key, "Unknown property");
+                continue;
+            }
+            Object type = ((Map<?, ?>) propertySchema).get(TYPE_KEY);
+            convert(item, key, type != null ? type.toString() : "", readValue(parser, key, errors), errors);
+        }
+        return item;
+    }
+
+    /**
+     * Read the fields of the document of an item.
+     * @param parser the parser, on the start of the object of the document
+     * @param errors the errors of the invalid fields, by field name
+     * @return the valid fields of the document
+     * @throws IOException if the JSON data is malformed
+     */
+    public DocumentMap readDocument(JsonParser parser, Map<String, String> errors) throws IOException
+    {
+        DocumentMap document = new DocumentMap();
+        checkObject(parser);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            parser.nextToken();
+            String type = DOCUMENT_TYPES.get(key);
+            if (type == null) {
+                parser.skipChildren();
+                errors.put(key, "Unknown document field");
+                continue;
+            }
+            Map<String, Object> values = new HashMap<>();
+            convert(values, key, type, readValue(parser, key, errors), errors);
+            if (!values.containsKey(key)) {
+                continue;
+            }
+            Object value = values.get(key);
+            if (DATE.equals(type) && value instanceof String) {
+                // The document dates don't have a format
+                errors.put(key, "[" + value + "] is not a timestamp");
+            } else {
+                // The document stores booleans, while the properties store them as numbers
+                document.put(key, value instanceof Integer ? Boolean.valueOf((Integer) value != 0) : value);
+            }
+        }
+        return document;
+    }
+
+    private void convert(Map<String, Object> values, String key, String type, Object value,
+        Map<String, String> errors)
+    {
+        if (errors.containsKey(key)) {
+            return;
+        }
+        try {
+            values.put(key, SchemaValueConverter.convert(type, value));
+        } catch (IllegalArgumentException e) {
+            errors.put(key, e.getMessage());
+        }
+    }
+
+    private void checkObject(JsonParser parser) throws IOException
+    {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object but found [" + parser.getCurrentToken() + "]");
+        }
+    }
+
+    /**
+     * Read a scalar value, or an array of scalar values. Objects and nested arrays are skipped and reported.
+     */
+    private Object readValue(JsonParser parser, String key, Map<String, String> errors) throws IOException
+    {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_ARRAY) {
+            List<Object> values = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.getCurrentToken().isStructStart()) {
+                    parser.skipChildren();
+                    errors.put(key, "Nested values are not supported");
+                } else {
+                    values.add(readScalar(parser));
+                }
+            }
+            return values;
+        }
+        if (token == JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            errors.put(key, "Objects are not supported");
+            return null;
+        }
+        return readScalar(parser);
+    }
+
+    private Object readScalar(JsonParser parser) throws IOException
+    {
+        switch (parser.getCurrentToken()) {
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                return parser.getText();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+
+/**
+ * The items returned by a query, in the order of the query. Items which can't be viewed by the current user are not
+ * in the list, but they are counted in the number of rows of the query.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class ItemList extends ArrayList<ItemMap>
+{
+    private final int rowCount;
+
+    /**
+     * @param rowCount the number of rows returned by the query
+     */
+    public ItemList(int rowCount)
+    {
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return the number of rows returned by the query, including the items which can't be viewed
+     */
+    public int getRowCount()
+    {
+        return this.rowCount;
+    }
+}
@@ -24,6 +24,7 @@ import com.xpn.xwiki.doc.XWikiDocument;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.structureddata.DataMap;
@@ -67,6 +68,27 @@ public class ItemMap extends HashMap<String, Object> implements DataMap {
     }
 
     protected void setXDoc(XWikiDocument xDoc, EntityReferenceSerializer<String> serializer) {
+        this.docMap = toDocumentMap(xDoc, serializer);
+    }
+
+    /**
+     * Set the document fields of the item, for an item which is read without its document. The fields are copied, so
+     * that the items of the same document don't share them.
+     * @param documentFields the document fields
+     */
+    protected void setDocumentFields(DocumentMap documentFields) {
+        DocumentMap docMapTmp = new DocumentMap();
+        docMapTmp.putAll(documentFields);
+        this.docMap = docMapTmp;
+    }
+
+    /**
+     * Read the document fields of a document.
+     * @param xDoc the document
+     * @param serializer the document reference serializer
+     * @return the document fields
+     */
+    protected static DocumentMap toDocumentMap(XWikiDocument xDoc, EntityReferenceSerializer<String> serializer) {
         DocumentMap docMapTmp = new DocumentMap();
         String xwikiId;
         try {
@@ -82,7 +104,25 @@ public class ItemMap extends HashMap<String, Object> implements DataMap {
         docMapTmp.put(HIDDEN, xDoc.isHidden());
         docMapTmp.put(TITLE, xDoc.getTitle());
         docMapTmp.put(CONTENT, xDoc.getContent());
-        this.docMap = docMapTmp;
+        return docMapTmp;
+    }
+
+    /**
+     * Copy the item, so that the copy can be changed without changing the item. List values are copied too.
+     * @return the copy of the item
+     */
+    protected ItemMap copy() {
+        ItemMap copy = new ItemMap();
+        for (Map.Entry<String, Object> entry : this.entrySet()) {
+            Object value = entry.getValue();
+            copy.put(entry.getKey(), value instanceof List ? new ArrayList<Object>((List<?>) value) : value);
+        }
+        copy.setId(this.apiId);
+        if (this.docMap != null) {
+            copy.docMap = new DocumentMap();
+            copy.docMap.putAll(this.docMap);
+        }
+        return copy;
     }
 
     /**
@@ -0,0 +1,45 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Read the items of a data set one by one, without loading the whole data set in memory.
+ *
+ * @version $Id$
+ */
+public interface ItemReader extends Closeable
+{
+    /**
+     * Name of the field containing the id of the item.
+     */
+    String ID_FIELD = "id";
+
+    /**
+     * Read the next item.
+     * @return the raw values of the item (including its id), or null if there is no more item
+     * @throws IOException if the data can't be read or is malformed
+     * @throws IllegalArgumentException if the item is invalid, the next items can still be read
+     */
+    Map<String, Object> next() throws IOException;
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Buffer of the updates of the properties declared with the "structureddata.writeBehind.properties" configuration.
+ * The updates of an item made during the write-behind delay are merged in memory and saved together, in a single
+ * revision of its document.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ItemWriteBuffer
+{
+    /**
+     * Buffer the updates of the write-behind properties of an application.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @return the application buffering the updates, or the application itself if its class has no write-behind
+     *         property
+     */
+    Application wrap(Application application, DocumentReference classReference, String dataSpace);
+
+    /**
+     * Save all the buffered updates now, and wait until they are saved.
+     * @return the keys of the items whose updates couldn't be saved (they are tried again after the delay, until they
+     *         are dropped)
+     */
+    List<String> flush();
+
+    /**
+     * @return the number of updates kept in memory ("Buffered"), of documents saved with them ("Saved"), of failed
+     *         saves ("Failed"), of items whose updates have been dropped ("Dropped") and of items waiting to be saved
+     *         ("Pending")
+     */
+    Map<String, Object> getStatistics();
+}
@@ -0,0 +1,38 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Write the items of an Application one by one in a stream. Each item is flushed as soon as it is written.
+ *
+ * @version $Id$
+ */
+public interface ItemWriter extends Flushable
+{
+    /**
+     * Write an item.
+     * @param item the item to write, its id is written in the {@link ItemReader#ID_FIELD} field
+     * @throws IOException if the item can't be written
+     */
+    void write(ItemMap item) throws IOException;
+}
@@ -0,0 +1,51 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+
+/**
+ * Cache of the results of the items queries. A result is reused as long as the version stamp of the class of the
+ * application (see {@link ApplicationVersions}) doesn't change, and only for the same user.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ItemsCache
+{
+    /**
+     * Add the cache in front of the items queries of an application.
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space containing the items of an AppWithinMinutes application, null for a class
+     * @return the cached application
+     */
+    Application wrap(Application application, DocumentReference classReference, String dataSpace);
+
+    /**
+     * @return the number of queries answered from the cache ("Hits") and from the database ("Misses"), and the
+     *         number of queries which waited for the result of the same query run by another request ("Coalesced")
+     */
+    Map<String, Object> getStatistics();
+}
@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read items from JSON data. The data can either be an array of objects or a sequence of objects (one per line for
+ * NDJSON). Only one item is parsed at a time.
+ *
+ * @version $Id$
+ */
+public class JsonItemReader implements ItemReader
+{
+    private ObjectMapper mapper;
+
+    private JsonParser parser;
+
+    private boolean started;
+
+    /**
+     * @param mapper the object mapper used to parse the items
+     * @param input the stream providing the JSON data
+     * @throws IOException if the parser can't be created
+     */
+    public JsonItemReader(ObjectMapper mapper, InputStream input) throws IOException
+    {
+        this.mapper = mapper;
+        this.parser = mapper.getFactory().createParser(input);
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException
+    {
+        JsonToken token = this.parser.nextToken();
+        if (!this.started) {
+            this.started = true;
+            if (token == JsonToken.START_ARRAY) {
+                token = this.parser.nextToken();
+            }
+        }
+        if (token == null || token == JsonToken.END_ARRAY) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object but found [" + token + "]");
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        while (this.parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = this.parser.getCurrentName();
+            this.parser.nextToken();
+            values.put(key, this.mapper.readValue(this.parser, Object.class));
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.parser.close();
+    }
+}
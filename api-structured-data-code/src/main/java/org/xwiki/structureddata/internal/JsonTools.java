@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The JSON mapper shared by the rest resources, the imports and the exports. A mapper is thread safe once it is
+ * configured, and it caches its serializers and deserializers, so it is created only once.
+ *
+ * @version $Id$
+ */
+public final class JsonTools
+{
+    /**
+     * The shared mapper. It must not be reconfigured.
+     */
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JsonTools()
+    {
+    }
+
+    /**
+     * @param input a stream of JSON data
+     * @return a parser reading the data token by token, without buffering the whole stream
+     * @throws IOException if the parser can't be created
+     */
+    public static JsonParser createParser(InputStream input) throws IOException
+    {
+        return MAPPER.getFactory().createParser(input);
+    }
+}
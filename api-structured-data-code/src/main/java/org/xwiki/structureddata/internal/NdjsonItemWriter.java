@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write items as NDJSON: one JSON object per line, dates being written as timestamps.
+ *
+ * @version $Id$
+ */
+public class NdjsonItemWriter implements ItemWriter
+{
+    private static final int NEW_LINE = '\n';
+
+    private ObjectMapper mapper;
+
+    private OutputStream output;
+
+    /**
+     * @param mapper the object mapper used to serialize the items
+     * @param output the stream where the items are written
+     */
+    public NdjsonItemWriter(ObjectMapper mapper, OutputStream output)
+    {
+        this.mapper = mapper;
+        this.output = output;
+    }
+
+    @Override
+    public void write(ItemMap item) throws IOException
+    {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(ItemReader.ID_FIELD, item.getId());
+        row.putAll(item);
+        this.output.write(this.mapper.writeValueAsBytes(row));
+        this.output.write(NEW_LINE);
+        this.output.flush();
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        this.output.flush();
+    }
+}
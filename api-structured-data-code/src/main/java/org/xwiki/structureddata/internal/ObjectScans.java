@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.ListClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Read all the objects of a class, or all the values of one of its properties, page by page: the pages are ordered by
+ * object id so that a scan doesn't keep a large result in memory, nor skip rows when the objects are modified. Used to
+ * build the in-memory copies of the application data (see {@link DefaultItemIndex} and
+ * {@link DefaultApplicationSnapshots}).
+ *
+ * @version $Id$
+ */
+public class ObjectScans
+{
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String CLASS_NAME = "className";
+
+    private static final String PROPERTY = "property";
+
+    private static final String LAST_ID = "lastId";
+
+    private static final String LAST_VALUE = "lastValue";
+
+    /**
+     * Receive the objects of a scan.
+     */
+    public interface ObjectHandler
+    {
+        /**
+         * @param id the id of the object
+         * @param documentName the full name of the document of the object
+         * @param number the number of the object in its document
+         * @param hidden true if the document is hidden
+         * @param version the version of the document
+         */
+        void object(long id, String documentName, int number, boolean hidden, String version);
+    }
+
+    /**
+     * Receive the values of a scan.
+     */
+    public interface ValueHandler
+    {
+        /**
+         * @param id the id of the object
+         * @param documentName the full name of the document of the object
+         * @param number the number of the object in its document
+         * @param value the value of the property, or one of the values for the relational lists
+         */
+        void value(long id, String documentName, int number, Object value);
+    }
+
+    /**
+     * Read the objects of a class, in the default translation of their documents.
+     * @param queryManager the query manager
+     * @param wikiId the wiki of the class
+     * @param className the full name of the class, without the wiki
+     * @param handler receive the objects, ordered by id
+     * @throws QueryException if the objects can't be read
+     */
+    protected static void scanObjects(QueryManager queryManager, String wikiId, String className,
+        ObjectHandler handler) throws QueryException
+    {
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            List<Object[]> rows = queryManager.createQuery("select obj.id, obj.name, obj.number, doc.hidden, "
+                + "doc.version from BaseObject obj, XWikiDocument doc where doc.fullName = obj.name "
+                + "and doc.translation = 0 and obj.className = :className and obj.id > :lastId order by obj.id",
+                Query.HQL).bindValue(CLASS_NAME, className).bindValue(LAST_ID, lastId).setLimit(PAGE_SIZE)
+                .setWiki(wikiId).execute();
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                handler.object(lastId, (String) row[1], (Integer) row[2], Boolean.TRUE.equals(row[3]),
+                    (String) row[4]);
+            }
+            if (rows.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Read the values of a property of a class. The values of a property mapped to the dedicated table of the class
+     * (see {@link DedicatedTables}) are read from this table; while the objects are migrated, the values of the
+     * objects which are not in this table yet are read from the generic tables.
+     * @param queryManager the query manager
+     * @param wikiId the wiki of the class
+     * @param className the full name of the class, without the wiki
+     * @param xClass the class
+     * @param propertyName the name of the property
+     * @param propertyClass the definition of the property
+     * @param context the wiki context
+     * @param handler receive the values, ordered by object id in each table
+     * @throws QueryException if the values can't be read
+     */
+    protected static void scanValues(QueryManager queryManager, String wikiId, String className, BaseClass xClass,
+        String propertyName, PropertyClass propertyClass, XWikiContext context, final ValueHandler handler)
+        throws QueryException
+    {
+        if (!DedicatedTables.getMappedProperties(xClass, context).contains(propertyName)) {
+            scanGenericValues(queryManager, wikiId, className, propertyName, propertyClass, handler,
+                Collections.<Long>emptySet());
+            return;
+        }
+        final Set<Long> migrated = new HashSet<>();
+        final boolean generic = DedicatedTables.hasGenericValues(xClass, propertyName, context);
+        // The property is only a column of the row of the object, the null values are the missing properties
+        String statement = "select obj.id, obj.name, obj.number, item." + propertyName + " from BaseObject obj, "
+            + className + " as item where obj.className = :className and obj.id = item.id and item." + propertyName
+            + " is not null and obj.id > :lastId order by obj.id";
+        scanDedicatedValues(queryManager, wikiId, statement, className, new ValueHandler()
+        {
+            @Override
+            public void value(long id, String documentName, int number, Object value)
+            {
+                if (generic) {
+                    migrated.add(id);
+                }
+                handler.value(id, documentName, number, value);
+            }
+        });
+        if (generic) {
+            // The dedicated values are the current ones: the generic values of the migrated objects are left over
+            scanGenericValues(queryManager, wikiId, className, propertyName, propertyClass, handler, migrated);
+        }
+    }
+
+    private static void scanGenericValues(QueryManager queryManager, String wikiId, String className,
+        String propertyName, PropertyClass propertyClass, ValueHandler handler, Set<Long> skipped)
+        throws QueryException
+    {
+        boolean relational = propertyClass instanceof ListClass
+            && ((ListClass) propertyClass).isRelationalStorage();
+        String statement;
+        if (relational) {
+            // The values of relational lists are stored in a collection, which can't be read outside of the query.
+            // There is a row for each value, so the rows are paged by object and value.
+            statement = "select obj.id, obj.name, obj.number, value from BaseObject obj, DBStringListProperty prop "
+                + "join prop.list as value where obj.className = :className and prop.id.id = obj.id "
+                + "and prop.id.name = :property and (obj.id > :lastId or (obj.id = :lastId and value > :lastValue)) "
+                + "order by obj.id, value";
+        } else {
+            statement = "select obj.id, obj.name, obj.number, prop from BaseObject obj, BaseProperty prop "
+                + "where obj.className = :className and prop.id.id = obj.id and prop.id.name = :property "
+                + "and obj.id > :lastId order by obj.id";
+        }
+        long lastId = Long.MIN_VALUE;
+        String lastValue = "";
+        while (true) {
+            Query query = queryManager.createQuery(statement, Query.HQL).bindValue(CLASS_NAME, className)
+                .bindValue(PROPERTY, propertyName).bindValue(LAST_ID, lastId);
+            if (relational) {
+                query = query.bindValue(LAST_VALUE, lastValue);
+            }
+            List<Object[]> rows = query.setLimit(PAGE_SIZE).setWiki(wikiId).execute();
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                lastValue = relational ? String.valueOf(row[3]) : lastValue;
+                if (!skipped.contains(lastId)) {
+                    handler.value(lastId, (String) row[1], (Integer) row[2],
+                        row[3] instanceof BaseProperty ? ((BaseProperty) row[3]).getValue() : row[3]);
+                }
+            }
+            if (rows.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+    }
+
+    private static void scanDedicatedValues(QueryManager queryManager, String wikiId, String statement,
+        String className, ValueHandler handler) throws QueryException
+    {
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            List<Object[]> rows = queryManager.createQuery(statement, Query.HQL).bindValue(CLASS_NAME, className)
+                .bindValue(LAST_ID, lastId).setLimit(PAGE_SIZE).setWiki(wikiId).execute();
+            for (Object[] row : rows) {
+                lastId = (Long) row[0];
+                handler.value(lastId, (String) row[1], (Integer) row[2], row[3]);
+            }
+            if (rows.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param document a document, or null
+     * @param classReference the reference of a class
+     * @return true if the document holds objects of the class
+     */
+    protected static boolean hasObjects(XWikiDocument document, DocumentReference classReference)
+    {
+        if (document == null) {
+            return false;
+        }
+        List<BaseObject> objects = document.getXObjects(classReference);
+        return objects != null && !objects.isEmpty();
+    }
+}
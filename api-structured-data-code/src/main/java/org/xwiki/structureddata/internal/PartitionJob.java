@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Move the items of a partitioned AWM application from its data space to their partition (see
+ * {@link DataSpacePartitions}). The items can be used during the migration: they are found in the data space until
+ * they are moved.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(PartitionJob.JOBTYPE)
+public class PartitionJob extends AbstractJob<PartitionRequest, DefaultJobStatus<PartitionRequest>>
+{
+    /**
+     * The type of the job.
+     */
+    public static final String JOBTYPE = "structureddata.partition";
+
+    private static final int BATCH_SIZE = 100;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private AWMRegistry registry;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private EntityReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    private final AtomicInteger moved = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    @Override
+    public String getType()
+    {
+        return JOBTYPE;
+    }
+
+    @Override
+    protected void runInternal() throws Exception
+    {
+        // The documents are moved with the rights of the user who started the migration
+        final XWikiContext context = this.xcontextProvider.get();
+        String wikiId = this.request.getWiki();
+        context.setWikiId(wikiId);
+        context.setUserReference(this.request.getUserReference());
+
+        AWMDescriptor descriptor =
+            this.registry.getApplication(new DocumentReference(wikiId, this.request.getAppId(), "WebHome"));
+        if (descriptor == null || descriptor.getPartitions() <= 0) {
+            throw new IllegalArgumentException("The application [" + this.request.getAppId()
+                + "] is not a partitioned AppWithinMinutes application");
+        }
+        String dataSpace = descriptor.getDataSpace();
+        String queryString = "from Document doc, doc.object('"
+            + this.serializer.serialize(descriptor.getClassReference()) + "') as item where doc.space = :space";
+        List<Long> counts = this.queryManager.createQuery("select count(doc.name) " + queryString, Query.XWQL)
+            .bindValue("space", dataSpace).setWiki(wikiId).execute();
+        int total = counts.isEmpty() ? 0 : counts.get(0).intValue();
+
+        this.progressManager.pushLevelProgress(Math.max(1, total), this);
+        try {
+            // The items are read by name, after the last one of the previous batch: the moved items leave the data
+            // space and the items which can't be moved stay behind it
+            String last = "";
+            while (true) {
+                List<String> names = this.queryManager
+                    .createQuery("select doc.name " + queryString + " and doc.name > :last order by doc.name",
+                        Query.XWQL)
+                    .bindValue("space", dataSpace).bindValue("last", last).setWiki(wikiId).setLimit(BATCH_SIZE)
+                    .execute();
+                if (names.isEmpty()) {
+                    break;
+                }
+                for (String name : names) {
+                    move(context, descriptor, name);
+                    this.progressManager.stepPropress(this);
+                }
+                last = names.get(names.size() - 1);
+            }
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private void move(final XWikiContext context, AWMDescriptor descriptor, String itemId)
+    {
+        WikiReference wikiRef = descriptor.getWebHomeReference().getWikiReference();
+        String dataSpace = descriptor.getDataSpace();
+        final DocumentReference sourceRef = new DocumentReference(
+            this.resolver.resolve(dataSpace + '.' + itemId, EntityType.DOCUMENT, wikiRef));
+        final DocumentReference targetRef = new DocumentReference(this.resolver.resolve(
+            DataSpacePartitions.getSpace(dataSpace, descriptor.getPartitions(), itemId) + '.' + itemId,
+            EntityType.DOCUMENT, wikiRef));
+        try {
+            // The move is serialized with the updates of the item, but never combined with them: the updates
+            // queued meanwhile find a new document and are rejected (see AWMApplication), instead of saving the
+            // item again in the data space
+            DocumentWriteCombiner.execute(sourceRef, new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    XWiki xwiki = context.getWiki();
+                    XWikiDocument document = xwiki.getDocument(sourceRef, context);
+                    if (document.isNew()) {
+                        return null;
+                    }
+                    if (xwiki.exists(targetRef, context)) {
+                        throw new IllegalStateException("The document [" + targetRef + "] already exists");
+                    }
+                    // The links to the items are not updated, the items are found by their id
+                    document.clone().rename(targetRef, Collections.<DocumentReference>emptyList(),
+                        Collections.<DocumentReference>emptyList(), context);
+                    return null;
+                }
+            });
+            this.moved.incrementAndGet();
+        } catch (Exception e) {
+            this.failed.incrementAndGet();
+            this.logger.error("Failed to move the item [{}] to [{}] : [{}]", itemId, targetRef, e.toString());
+        }
+    }
+
+    /**
+     * @return the number of items moved to their partition
+     */
+    public int getMovedCount()
+    {
+        return this.moved.get();
+    }
+
+    /**
+     * @return the number of items which couldn't be moved
+     */
+    public int getFailedCount()
+    {
+        return this.failed.get();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Request of a {@link PartitionJob}.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("serial")
+public class PartitionRequest extends AbstractRequest
+{
+    private static final String PROPERTY_WIKI = "wiki";
+
+    private static final String PROPERTY_APP = "appId";
+
+    private static final String PROPERTY_USER = "user.reference";
+
+    /**
+     * @param id the id of the job
+     */
+    public PartitionRequest(List<String> id)
+    {
+        setId(id);
+    }
+
+    /**
+     * @return the wiki of the application
+     */
+    public String getWiki()
+    {
+        return getProperty(PROPERTY_WIKI);
+    }
+
+    /**
+     * @param wiki the wiki of the application
+     */
+    public void setWiki(String wiki)
+    {
+        setProperty(PROPERTY_WIKI, wiki);
+    }
+
+    /**
+     * @return the id of the AWM application
+     */
+    public String getAppId()
+    {
+        return getProperty(PROPERTY_APP);
+    }
+
+    /**
+     * @param appId the id of the AWM application
+     */
+    public void setAppId(String appId)
+    {
+        setProperty(PROPERTY_APP, appId);
+    }
+
+    /**
+     * @return the user who started the migration
+     */
+    public DocumentReference getUserReference()
+    {
+        return getProperty(PROPERTY_USER);
+    }
+
+    /**
+     * @param userReference the user who started the migration
+     */
+    public void setUserReference(DocumentReference userReference)
+    {
+        setProperty(PROPERTY_USER, userReference);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Report the properties of an application which are filtered and ordered without a database index, and create the
+ * missing indexes (see {@link PropertyIndexes}).
+ *
+ * @version $Id$
+ */
+@Role
+public interface PropertyIndexAdvisor
+{
+    /**
+     * Inspect the indexes of the properties of an application. Requires the admin right on the wiki of the class.
+     * @param classReference the reference of the class of the application
+     * @param properties the properties to inspect, or null for all the properties of the class
+     * @return for each property, its table ("Table"), whether it is indexed ("Indexed"), the time in milliseconds of a
+     *         page of items ordered by the property ("Cost") and the statement creating the missing index
+     *         ("Statement")
+     * @throws Exception if the current user isn't an administrator, or if the indexes can't be read
+     */
+    List<Map<String, Object>> analyze(DocumentReference classReference, List<String> properties) throws Exception;
+
+    /**
+     * Create the missing indexes of the properties of an application. Requires the programming right.
+     * @param classReference the reference of the class of the application
+     * @param properties the properties to index, or null for all the properties of the class
+     * @return the report of {@link #analyze(DocumentReference, List)}, with the created indexes ("Created")
+     * @throws Exception if the current user doesn't have the programming right, or if the indexes can't be created
+     */
+    List<Map<String, Object>> createIndexes(DocumentReference classReference, List<String> properties)
+        throws Exception;
+}
@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The database indexes of the property tables used to filter and order the items of an application. A property is
+ * indexed by a composite index on the name and the value of its table, or by a partial index on the value of this
+ * property only (on the databases supporting partial indexes). A property stored in the dedicated table of its class
+ * (see {@link DedicatedTables}) is indexed by an index on its column.
+ *
+ * @version $Id$
+ */
+public final class PropertyIndexes
+{
+    private static final String INDEX_PREFIX = "sdx_";
+
+    private static final int MYSQL_PREFIX_LENGTH = 191;
+
+    private static final Map<String, Table> TABLES = new HashMap<>();
+
+    static {
+        TABLES.put("StringProperty", new Table("xwikistrings", "XWS_NAME", "XWS_VALUE", true));
+        TABLES.put("IntegerProperty", new Table("xwikiintegers", "XWI_NAME", "XWI_VALUE", false));
+        TABLES.put("LongProperty", new Table("xwikilongs", "XWL_NAME", "XWL_VALUE", false));
+        TABLES.put("FloatProperty", new Table("xwikifloats", "XWF_NAME", "XWF_VALUE", false));
+        TABLES.put("DoubleProperty", new Table("xwikidoubles", "XWD_NAME", "XWD_VALUE", false));
+        TABLES.put("DateProperty", new Table("xwikidates", "XWS_NAME", "XWS_VALUE", false));
+        TABLES.put("DBStringListProperty", new Table("xwikilistitems", "XWL_NAME", "XWL_VALUE", true));
+    }
+
+    /**
+     * A property table, with its name and value columns. The dedicated tables have no name column: each property has
+     * its own value column.
+     */
+    public static class Table
+    {
+        private final String name;
+
+        private final String nameColumn;
+
+        private final String valueColumn;
+
+        private final boolean text;
+
+        /**
+         * @param name the name of the table
+         * @param nameColumn the column of the names of the properties, or null for a dedicated table
+         * @param valueColumn the column of the values of the properties
+         * @param text true if the values are strings, which may need a prefix to be indexed
+         */
+        public Table(String name, String nameColumn, String valueColumn, boolean text)
+        {
+            this.name = name;
+            this.nameColumn = nameColumn;
+            this.valueColumn = valueColumn;
+            this.text = text;
+        }
+
+        /**
+         * @return the name of the table
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+    }
+
+    private PropertyIndexes()
+    {
+    }
+
+    /**
+     * @param propertyType the simple name of the class of the stored property (e.g. "StringProperty")
+     * @return the table of the property, or null if its values can't be indexed (large strings, stored lists)
+     */
+    public static Table getTable(String propertyType)
+    {
+        return TABLES.get(propertyType);
+    }
+
+    /**
+     * @param genericTable the generic table of the type of a property
+     * @param tableName the name of the dedicated table of the class of the property
+     * @param column the column of the property in the dedicated table
+     * @return the dedicated table of the property
+     */
+    public static Table getDedicatedTable(Table genericTable, String tableName, String column)
+    {
+        return new Table(tableName, null, column, genericTable.text);
+    }
+
+    /**
+     * @param product the name of the database product
+     * @return true if the database supports indexes on a subset of the rows of a table
+     */
+    public static boolean supportsPartialIndexes(String product)
+    {
+        String lowerProduct = product.toLowerCase(Locale.ROOT);
+        return lowerProduct.contains("postgresql") || lowerProduct.contains("microsoft sql server");
+    }
+
+    /**
+     * @param table the table of the property
+     * @param property the name of the property
+     * @param partial true for the partial index of the property, false for the composite index of the table (ignored
+     *            for a dedicated table)
+     * @return the name of the index created for the property
+     */
+    public static String getIndexName(Table table, String property, boolean partial)
+    {
+        // The names are kept short for the databases limiting them to 30 characters
+        if (partial || table.nameColumn == null) {
+            return INDEX_PREFIX + Integer.toHexString((table.name + '.' + property).hashCode());
+        }
+        return INDEX_PREFIX + table.name + "_nv";
+    }
+
+    /**
+     * Check if a property can be looked up with an index: a composite index starting with the name and value columns
+     * of its table, or its partial index, or an index starting with its column in a dedicated table.
+     * @param connection the database connection
+     * @param table the table of the property
+     * @param property the name of the property
+     * @return true if the property is indexed
+     * @throws SQLException if the indexes can't be read
+     */
+    public static boolean isIndexed(Connection connection, Table table, String property) throws SQLException
+    {
+        String partialName = getIndexName(table, property, true);
+        for (Map.Entry<String, List<String>> index : getIndexes(connection, table).entrySet()) {
+            List<String> columns = index.getValue();
+            if (table.nameColumn == null) {
+                if (columns.get(0).equalsIgnoreCase(unquote(table.valueColumn))) {
+                    return true;
+                }
+            } else if (index.getKey().equalsIgnoreCase(partialName)
+                || (columns.size() >= 2 && columns.get(0).equalsIgnoreCase(table.nameColumn)
+                    && columns.get(1).equalsIgnoreCase(table.valueColumn))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the statement creating the index of a property: the index of its column in a dedicated table, a partial
+     * index on the databases supporting them, or the composite index of the table of the property (shared by all the
+     * properties of the table).
+     * @param product the name of the database product
+     * @param table the table of the property
+     * @param property the name of the property
+     * @return the statement creating the index
+     */
+    public static String getCreateStatement(String product, Table table, String property)
+    {
+        if (table.nameColumn != null && supportsPartialIndexes(product)) {
+            return "create index " + getIndexName(table, property, true) + " on " + table.name + " ("
+                + table.valueColumn + ") where " + table.nameColumn + " = '" + property.replace("'", "''") + "'";
+        }
+        String valueColumn = table.valueColumn;
+        String lowerProduct = product.toLowerCase(Locale.ROOT);
+        if (table.text && (lowerProduct.contains("mysql") || lowerProduct.contains("mariadb"))) {
+            // The string values are too long to be fully indexed
+            valueColumn += "(" + MYSQL_PREFIX_LENGTH + ")";
+        }
+        if (table.nameColumn == null) {
+            return "create index " + getIndexName(table, property, false) + " on " + table.name + " (" + valueColumn
+                + ")";
+        }
+        return "create index " + getIndexName(table, property, false) + " on " + table.name + " ("
+            + table.nameColumn + ", " + valueColumn + ")";
+    }
+
+    /**
+     * @return the columns of the indexes of a table, by index name
+     */
+    private static Map<String, List<String>> getIndexes(Connection connection, Table table) throws SQLException
+    {
+        DatabaseMetaData metaData = connection.getMetaData();
+        // The names of the dedicated tables are quoted in the statements
+        String tableName = unquote(table.name);
+        if (metaData.storesUpperCaseIdentifiers()) {
+            tableName = tableName.toUpperCase(Locale.ROOT);
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            tableName = tableName.toLowerCase(Locale.ROOT);
+        }
+        Map<String, List<String>> indexes = new HashMap<>();
+        // Each wiki has its own database or schema
+        try (ResultSet result =
+            metaData.getIndexInfo(connection.getCatalog(), getSchema(connection), tableName, false, true)) {
+            while (result.next()) {
+                String indexName = result.getString("INDEX_NAME");
+                String column = result.getString("COLUMN_NAME");
+                if (indexName == null || column == null) {
+                    continue;
+                }
+                List<String> columns = indexes.get(indexName);
+                if (columns == null) {
+                    columns = new ArrayList<>();
+                    indexes.put(indexName, columns);
+                }
+                // The columns are returned in the order of the index
+                columns.add(column);
+            }
+        }
+        return indexes;
+    }
+
+    private static String unquote(String identifier)
+    {
+        return identifier.replaceAll("^[`\"\\[]|[`\"\\]]$", "");
+    }
+
+    private static String getSchema(Connection connection)
+    {
+        try {
+            return connection.getSchema();
+        } catch (SQLException | AbstractMethodError e) {
+            // Drivers older than JDBC 4.1
+            return null;
+        }
+    }
+}
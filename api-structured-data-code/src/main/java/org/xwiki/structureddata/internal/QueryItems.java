@@ -5,13 +5,18 @@
  */
 package org.xwiki.structureddata.internal;
 
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.ObjectPropertyReference;
 import org.xwiki.model.reference.ObjectReference;
@@ -25,37 +30,114 @@ import org.xwiki.query.QueryManager;
  * @version $Id$
  */
 public class QueryItems {
+    /**
+     * Internal option restricting the items to a list of documents (full names without the wiki), used with the
+     * "filter" option when the candidate documents are known from the {@link ItemIndex}.
+     */
+    protected static final String DOCUMENTS_OPTION = "documents";
+
+    private static final String STABLE_ORDER = "doc.fullName, item.number";
+
+    private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\"(?:[^\"]|\"\")*\"");
+
+    private static final Pattern PARENTHESES = Pattern.compile("\\([^()]*\\)");
+
+    private static final Pattern ORDER_BY = Pattern.compile("(?is).*\\border\\s+by\\b.*");
+
     protected static Query getQuery(XWikiContext context, QueryManager queryManager, String xClassFullName, Map<String, Object> options, String appWhereClause, String appSelectClause) throws QueryException, XWikiException {
+        return getQuery(context, queryManager, xClassFullName, null, options, appWhereClause, appSelectClause);
+    }
+
+    /**
+     * Get the items query. The "filter" option (see {@link ItemFilter}) is compiled with the class of the
+     * application and added to the standard conditions (hidden documents, templates, etc.).
+     * <p>
+     * The "query" option is a where clause (with an optional order by clause) which replaces the standard conditions.
+     * It is added to a query where the alias of the document is "doc" and the alias of the object of the class is
+     * "item", so it has to use these aliases: the results are ordered by "doc.fullName, item.number" after the order
+     * of the query, to be paged.
+     */
+    protected static Query getQuery(XWikiContext context, QueryManager queryManager, String xClassFullName, BaseClass xClass, Map<String, Object> options, String appWhereClause, String appSelectClause) throws QueryException, XWikiException {
         String queryOpt = "query";
+        String filterOpt = "filter";
         String hiddenOpt = "hidden";
         String limitOpt = "limit";
         String offsetOpt = "offset";
         String orderOpt = "order";
 
-        // Main search query
-        String queryString = "select " + appSelectClause
-                + " from Document doc, doc.object( '" + xClassFullName + "' ) as item ";
+        // Main search query. When the class has an active dedicated table, the values of the items are the columns
+        // of a single row: the query is written in HQL, with the alias "item" on this row and "obj" on the object.
+        boolean dedicated = xClass != null && !options.containsKey(queryOpt) && DedicatedTables.isActive(xClass, context);
+        String queryString;
+        String where = "where ";
+        if (dedicated) {
+            appSelectClause = DedicatedTables.toObjectFields(appSelectClause);
+            appWhereClause = DedicatedTables.toObjectFields(appWhereClause);
+            queryString = "select " + appSelectClause
+                    + " from XWikiDocument doc, BaseObject obj, " + xClassFullName + " as item ";
+            where += "doc.fullName = obj.name and doc.translation = 0 and obj.className = '" + xClassFullName
+                    + "' and obj.id = item.id and ";
+        } else {
+            queryString = "select " + appSelectClause
+                    + " from Document doc, doc.object( '" + xClassFullName + "' ) as item ";
+        }
 
         // If a "query" is passed in the options, it should be used to complete the query, and the others options
         // should be ignored. If there is no "query" options, we should use the standard query structure with the
         // selected options.
+        FilterCompiler filter = null;
+        if (options.get(filterOpt) != null) {
+            if (options.containsKey(queryOpt)) {
+                throw new IllegalArgumentException("The [query] and [filter] options can't be used together");
+            }
+            if (xClass == null) {
+                throw new IllegalArgumentException("The [filter] option is not supported by this application");
+            }
+            filter = new FilterCompiler(ItemFilter.from(options.get(filterOpt)), xClass);
+            if (dedicated) {
+                // The dedicated table has no column for the properties added to the class after the migration
+                List<String> mapped = DedicatedTables.getMappedProperties(xClass, context);
+                for (String property : filter.getProperties()) {
+                    if (!mapped.contains(property)) {
+                        throw new IllegalArgumentException("The property [" + property
+                            + "] is not in the dedicated table of the class, it can't be filtered");
+                    }
+                }
+            }
+        }
         if (options.containsKey(queryOpt)) {
             String whereClause = options.get(queryOpt).toString().trim();
             if(whereClause.substring(0,6).toLowerCase().equals("where ")) {
                 whereClause = whereClause.substring(6).trim();
             }
             queryString += "where " + whereClause;
+            // The results are paged with an offset, so they need a total order: the documents and object numbers
+            // break the ties of the order of the query or of the "order" option
+            if (hasOrderBy(whereClause)) {
+                queryString += ", " + STABLE_ORDER;
+            } else if (options.containsKey(orderOpt)) {
+                queryString += " order by " + options.get(orderOpt) + ", " + STABLE_ORDER;
+            } else {
+                queryString += " order by " + STABLE_ORDER;
+            }
         }
         else {
             // Create a filter to remove class templates from the results
-            // /!\ Templates can be named ApplicationClassTemplate or ApplicationTemplate
-            String templateFilter = " and item.name <> '" + xClassFullName + "Template' ";
-            if (xClassFullName.length() > 5 && xClassFullName.endsWith("Class")) {
-                String shortClassName = xClassFullName.substring(0, xClassFullName.length() - 5);
-                templateFilter += " and item.name <> '" + shortClassName + "Template' ";
+            String templateFilter = "";
+            for (String template : getTemplates(xClassFullName)) {
+                templateFilter += " and item.name <> '" + template + "' ";
+            }
+            if (dedicated) {
+                templateFilter = DedicatedTables.toObjectFields(templateFilter);
             }
             // Add the application filter (i.e. "Data" space for AWM app) and the template filters
-            queryString += "where " + appWhereClause + templateFilter;
+            queryString += where + appWhereClause + templateFilter;
+            if (filter != null) {
+                queryString += " and " + filter.getWhereClause();
+            }
+            if (options.get(DOCUMENTS_OPTION) != null) {
+                queryString += " and doc.fullName in (:" + DOCUMENTS_OPTION + ")";
+            }
             // Hide the hidden documents except if it is explicitly requested to display them or if the user has
             // chosen to display them in his profile
             Boolean viewHidden = getViewHiddenDocuments(context); // Get the value in the user's profile
@@ -72,13 +154,22 @@ public class QueryItems {
             // Order the results by the name of the document (and object number if applicable) or by the specified
             // property
             if (options.containsKey(orderOpt)) {
-                queryString += " order by " + options.get(orderOpt);
+                String order = options.get(orderOpt).toString();
+                queryString += " order by " + (dedicated ? DedicatedTables.toObjectFields(order) : order);
             } else {
                 queryString += " order by " + appSelectClause;
             }
         }
         // Execute the query
-        Query query = queryManager.createQuery(queryString, Query.XWQL);
+        Query query = queryManager.createQuery(queryString, dedicated ? Query.HQL : Query.XWQL);
+        if (filter != null) {
+            for (Map.Entry<String, Object> parameter : filter.getParameters().entrySet()) {
+                query = query.bindValue(parameter.getKey(), parameter.getValue());
+            }
+        }
+        if (!options.containsKey(queryOpt) && options.get(DOCUMENTS_OPTION) != null) {
+            query = query.bindValue(DOCUMENTS_OPTION, options.get(DOCUMENTS_OPTION));
+        }
         // Filter the results depending on optional parameters
         if (options.containsKey(limitOpt)) {
             query = query.setLimit((Integer) options.get(limitOpt));
@@ -90,7 +181,43 @@ public class QueryItems {
         return query;
     }
 
+    /**
+     * The class templates have an object of the class but they are not items.
+     * @param xClassFullName the full name of the class, without the wiki
+     * @return the full names of the template documents of the class
+     */
+    protected static Set<String> getTemplates(String xClassFullName) {
+        Set<String> templates = new LinkedHashSet<>();
+        // /!\ Templates can be named ApplicationClassTemplate or ApplicationTemplate
+        templates.add(xClassFullName + "Template");
+        if (xClassFullName.length() > 5 && xClassFullName.endsWith("Class")) {
+            templates.add(xClassFullName.substring(0, xClassFullName.length() - 5) + "Template");
+        }
+        return templates;
+    }
+
+    /**
+     * Check if a custom query ends with an order by clause. The order by of the quoted literals and of the
+     * subqueries is not the order of the query.
+     * @param whereClause the where clause of the custom query
+     * @return true if the query has its own order
+     */
+    private static boolean hasOrderBy(String whereClause) {
+        String clause = LITERAL.matcher(whereClause).replaceAll("''");
+        String withoutSubqueries = PARENTHESES.matcher(clause).replaceAll("");
+        while (!withoutSubqueries.equals(clause)) {
+            clause = withoutSubqueries;
+            withoutSubqueries = PARENTHESES.matcher(clause).replaceAll("");
+        }
+        return ORDER_BY.matcher(clause).matches();
+    }
+
     protected static Boolean getViewHiddenDocuments(XWikiContext context) {
+        // The user profile is read once per request
+        return RequestMemo.get(context).getViewHiddenDocuments(context);
+    }
+
+    static boolean loadViewHiddenDocuments(XWikiContext context) {
         try {
             DocumentReference userRef = context.getUserReference();
             XWiki xwiki = context.getWiki();
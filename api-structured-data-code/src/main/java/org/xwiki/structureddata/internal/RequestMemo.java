@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * Values computed several times while handling a single request: the preferences of the current user, the resolved
+ * document references and the loaded documents, which are read-only. The memo is stored in the wiki context, so it is dropped with the
+ * request. The context is shared (shallow cloned) with the tasks of the request executor, so the memo is thread-safe.
+ *
+ * @version $Id$
+ */
+public class RequestMemo
+{
+    private static final String CONTEXT_KEY = "structureddata.requestMemo";
+
+    private static final String GUEST = "XWikiGuest";
+
+    private final Map<String, Boolean> viewHiddenDocuments = new ConcurrentHashMap<>();
+
+    private final Map<String, DocumentReference> references = new ConcurrentHashMap<>();
+
+    private final Map<DocumentReference, XWikiDocument> documents = new ConcurrentHashMap<>();
+
+    /**
+     * @param context the wiki context of the request
+     * @return the memo of the request, created on first use
+     */
+    public static RequestMemo get(XWikiContext context)
+    {
+        // The context is a synchronized hashtable
+        synchronized (context) {
+            Object memo = context.get(CONTEXT_KEY);
+            if (!(memo instanceof RequestMemo)) {
+                memo = new RequestMemo();
+                context.put(CONTEXT_KEY, memo);
+            }
+            return (RequestMemo) memo;
+        }
+    }
+
+    /**
+     * @param context the wiki context of the request
+     * @return the "displayHiddenDocuments" preference of the current user
+     */
+    public boolean getViewHiddenDocuments(XWikiContext context)
+    {
+        DocumentReference userRef = context.getUserReference();
+        String key = userRef != null ? userRef.toString() : GUEST;
+        Boolean value = this.viewHiddenDocuments.get(key);
+        if (value == null) {
+            value = QueryItems.loadViewHiddenDocuments(context);
+            this.viewHiddenDocuments.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @param resolver the document reference resolver
+     * @param name the name of the document
+     * @param wikiRef the wiki used to resolve relative names
+     * @return the reference of the document
+     */
+    public DocumentReference resolve(EntityReferenceResolver<String> resolver, String name, WikiReference wikiRef)
+    {
+        String key = wikiRef.getName() + ':' + name;
+        DocumentReference reference = this.references.get(key);
+        if (reference == null) {
+            reference = new DocumentReference(resolver.resolve(name, EntityType.DOCUMENT, wikiRef));
+            this.references.put(key, reference);
+        }
+        return reference;
+    }
+
+    /**
+     * Load a document once per request. The same instance is returned to all the callers of the request, including
+     * the tasks run for it by the request executor, and it is also the instance of the document cache of the wiki: the
+     * document must only be read. The changes are made with {@link DocumentWriteCombiner}, on a copy of the document.
+     * @param reference the reference of the document
+     * @param context the wiki context of the request
+     * @return the document
+     * @throws XWikiException if the document can't be loaded
+     */
+    public XWikiDocument getDocument(DocumentReference reference, XWikiContext context) throws XWikiException
+    {
+        XWikiDocument document = this.documents.get(reference);
+        if (document == null) {
+            document = context.getWiki().getDocument(reference, context);
+            if (document != null) {
+                this.documents.put(reference, document);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Forget a document after it has been saved or deleted, so that it is loaded again by the next caller.
+     * @param reference the reference of the document
+     */
+    public void forgetDocument(DocumentReference reference)
+    {
+        this.documents.remove(reference);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convert raw values (from CSV or JSON data) into values which can be stored in the properties of an Application,
+ * using the types of the application schema.
+ *
+ * @version $Id$
+ */
+public class SchemaValueConverter
+{
+    private static final String TYPE_KEY = "Type";
+
+    /**
+     * Convert the values of an item, and check that all of them are properties of the application.
+     * @param schema the schema of the application (see {@link ApplicationSchema})
+     * @param values the raw values of the item
+     * @return the item with the converted values
+     * @throws IllegalArgumentException if a value doesn't match the type of its property
+     */
+    public static ItemMap convert(Map<String, Object> schema, Map<String, Object> values)
+    {
+        ItemMap item = new ItemMap();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            String key = entry.getKey();
+            Object propertySchema = schema.get(key);
+            if (!(propertySchema instanceof Map)) {
+                throw new IllegalArgumentException("Unknown property [" + key + "]");
+            }
+            Object type = ((Map<?, ?>) propertySchema).get(TYPE_KEY);
+            try {
+                item.put(key, convert(type != null ? type.toString() : "", entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid value for property [" + key + "] : " + e.getMessage());
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Convert a raw value for a property of the given type. String values are kept as they are for the types which
+     * are able to parse them (lists, dates with the format of the property, etc.).
+     * @param type the type of the property, as displayed in the schema
+     * @param value the raw value
+     * @return the converted value
+     * @throws IllegalArgumentException if the value doesn't match the type
+     */
+    public static Object convert(String type, Object value)
+    {
+        if (value == null) {
+            return null;
+        }
+        boolean isEmpty = value.toString().trim().isEmpty();
+        switch (type) {
+            case "Number":
+                if (isEmpty) {
+                    return null;
+                }
+                try {
+                    // The number type of the property (integer, long, etc.) is applied when the value is stored.
+                    // Decimals parsed from JSON are written without exponent.
+                    BigDecimal number = new BigDecimal(value.toString().trim());
+                    return value instanceof BigDecimal ? number.toPlainString() : value.toString().trim();
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("[" + value + "] is not a number");
+                }
+            case "Boolean":
+                if (isEmpty) {
+                    return null;
+                }
+                return toBoolean(value) ? 1 : 0;
+            case "Date":
+                if (isEmpty) {
+                    return null;
+                }
+                // Dates are represented as timestamps in JSON, other values are parsed with the date format of the
+                // property
+                if (value instanceof Number) {
+                    return new Date(((Number) value).longValue());
+                }
+                if (value instanceof Date) {
+                    return value;
+                }
+                String dateValue = value.toString().trim();
+                if (dateValue.matches("-?[0-9]+")) {
+                    return new Date(Long.parseLong(dateValue));
+                }
+                return dateValue;
+            default:
+                if (value instanceof List || value instanceof String) {
+                    return value;
+                }
+                if (value instanceof Map) {
+                    throw new IllegalArgumentException("objects are not supported");
+                }
+                return value.toString();
+        }
+    }
+
+    private static boolean toBoolean(Object value)
+    {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        String stringValue = value.toString().trim().toLowerCase();
+        switch (stringValue) {
+            case "true":
+            case "yes":
+            case "1":
+                return true;
+            case "false":
+            case "no":
+            case "0":
+                return false;
+            default:
+                throw new IllegalArgumentException("[" + value + "] is not a boolean");
+        }
+    }
+}
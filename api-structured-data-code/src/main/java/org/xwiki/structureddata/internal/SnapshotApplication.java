@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.structureddata.Application;
+
+/**
+ * An application whose aggregates are computed with the {@link ColumnarSnapshot} of its class, without loading the
+ * items. The aggregates which can't be computed with the snapshot ("query" option, property not in the snapshot,
+ * etc.) and the other operations are sent to the application.
+ *
+ * @version $Id$
+ */
+public class SnapshotApplication extends AbstractForwardingApplication
+{
+    private final DocumentReference classReference;
+
+    private final String dataSpace;
+
+    private final int partitions;
+
+    private final ApplicationSnapshots snapshots;
+
+    private final ContextualAuthorizationManager authorization;
+
+    private final EntityReferenceResolver<String> resolver;
+
+    private final Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @param partitions the number of partitions of the data space (see {@link DataSpacePartitions}), or 0
+     * @param snapshots the snapshots of the classes
+     * @param authorization the authorization checker
+     * @param resolver the document reference resolver
+     * @param xcontextProvider the wiki context provider
+     */
+    public SnapshotApplication(Application application, DocumentReference classReference, String dataSpace,
+            int partitions, ApplicationSnapshots snapshots, ContextualAuthorizationManager authorization,
+            EntityReferenceResolver<String> resolver, Provider<XWikiContext> xcontextProvider)
+    {
+        super(application);
+        this.classReference = classReference;
+        this.dataSpace = dataSpace;
+        this.partitions = partitions;
+        this.snapshots = snapshots;
+        this.authorization = authorization;
+        this.resolver = resolver;
+        this.xcontextProvider = xcontextProvider;
+    }
+
+    @Override
+    public Map<String, Object> aggregate(Map<String, Object> options) throws Exception
+    {
+        if (options.containsKey("query")) {
+            return this.application.aggregate(options);
+        }
+        ItemAggregator aggregator = new ItemAggregator(options);
+        ColumnarSnapshot snapshot = this.snapshots.getSnapshot(this.classReference);
+        if (snapshot == null || !hasColumns(snapshot, aggregator)) {
+            return this.application.aggregate(options);
+        }
+        ItemFilter filter = options.get("filter") != null ? ItemFilter.from(options.get("filter")) : null;
+        Object hidden = options.get("hidden");
+        boolean viewHidden = (hidden != null && ("true".equals(hidden.toString()) || "1".equals(hidden.toString())))
+            || QueryItems.getViewHiddenDocuments(this.xcontextProvider.get());
+        final WikiReference wikiReference = this.classReference.getWikiReference();
+        ColumnarSnapshot.DocumentFilter documentFilter = new ColumnarSnapshot.DocumentFilter()
+        {
+            @Override
+            public boolean accept(String documentName)
+            {
+                if (dataSpace != null && DataSpacePartitions.getItemId(dataSpace, partitions, documentName) == null) {
+                    return false;
+                }
+                DocumentReference documentReference =
+                    new DocumentReference(resolver.resolve(documentName, EntityType.DOCUMENT, wikiReference));
+                return authorization.hasAccess(Right.VIEW, documentReference);
+            }
+        };
+        if (!snapshot.aggregate(filter, viewHidden, documentFilter, aggregator)) {
+            return this.application.aggregate(options);
+        }
+        return aggregator.getResult();
+    }
+
+    private boolean hasColumns(ColumnarSnapshot snapshot, ItemAggregator aggregator)
+    {
+        for (String property : aggregator.getProperties()) {
+            if (!snapshot.hasColumn(property)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.xwiki.environment.Environment;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Store the in-memory copies of the application data (indexes, snapshots) in the permanent directory, so that they
+ * don't have to be rebuilt from the whole database after a restart. A stored copy is read through a private memory
+ * mapping of its file, then validated against the current versions of the documents: only the documents saved or
+ * deleted since the copy was written have to be loaded again.
+ *
+ * @version $Id$
+ */
+public class SnapshotFiles
+{
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String DIRECTORY = "structureddata";
+
+    /**
+     * Write the content of a file.
+     */
+    public interface Content
+    {
+        /**
+         * @param output the output stream of the file
+         * @throws IOException if the content can't be written
+         */
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    /**
+     * @param environment the environment, giving the permanent directory
+     * @param kind the kind of data stored in the file ("index", "snapshot", etc.)
+     * @param wikiId the wiki of the class
+     * @param className the full name of the class, without the wiki
+     * @return the file storing the data of the class
+     */
+    protected static File getFile(Environment environment, String kind, String wikiId, String className)
+    {
+        try {
+            return new File(getDirectory(environment, kind, wikiId),
+                URLEncoder.encode(className, StandardCharsets.UTF_8.name()) + ".bin");
+        } catch (IOException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a file atomically: the content is written in a temporary file which then replaces the file, so that a
+     * crash never leaves a partial file, and the mappings of the previous file remain valid.
+     * @param file the file
+     * @param content the content of the file
+     * @throws IOException if the file can't be written
+     */
+    protected static void write(File file, Content content) throws IOException
+    {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory [" + directory + "]");
+        }
+        File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporaryFile)))) {
+                content.write(output);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                temporaryFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Map a file in memory. The mapping is private: the buffer can be modified without changing the file.
+     * @param file the file
+     * @return the content of the file, or null if the file doesn't exist
+     * @throws IOException if the file can't be read
+     */
+    protected static ByteBuffer map(File file) throws IOException
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        // A private mapping needs a writable channel, even though the file is never modified. The mapping remains
+        // valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+        }
+    }
+
+    /**
+     * Delete the files of a wiki.
+     * @param environment the environment, giving the permanent directory
+     * @param kind the kind of data stored in the files
+     * @param wikiId the deleted wiki
+     * @throws IOException if the files can't be deleted
+     */
+    protected static void deleteWiki(Environment environment, String kind, String wikiId) throws IOException
+    {
+        FileUtils.deleteDirectory(getDirectory(environment, kind, wikiId));
+    }
+
+    /**
+     * Write a string, which can be null.
+     * @param output the output stream
+     * @param value the string
+     * @throws IOException if the string can't be written
+     */
+    protected static void writeString(DataOutputStream output, String value) throws IOException
+    {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     * @param input the content of the file, at the position of the string
+     * @return the string
+     */
+    protected static String readString(ByteBuffer input)
+    {
+        int length = input.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a part of a buffer.
+     * @param output the output stream
+     * @param buffer the buffer
+     * @param length the number of bytes to write, from the beginning of the buffer
+     * @throws IOException if the bytes can't be written
+     */
+    protected static void writeBytes(DataOutputStream output, ByteBuffer buffer, int length) throws IOException
+    {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.clear();
+        bytes.limit(length);
+        byte[] chunk = new byte[Math.min(length, 65536)];
+        while (bytes.hasRemaining()) {
+            int chunkLength = Math.min(chunk.length, bytes.remaining());
+            bytes.get(chunk, 0, chunkLength);
+            output.write(chunk, 0, chunkLength);
+        }
+    }
+
+    /**
+     * Read a part of a file without copying it.
+     * @param input the content of the file, at the position of the bytes
+     * @param length the number of bytes
+     * @return a buffer sharing the content of the file, whose capacity is the given length
+     */
+    protected static ByteBuffer readBytes(ByteBuffer input, int length)
+    {
+        ByteBuffer bytes = input.duplicate();
+        bytes.limit(bytes.position() + length);
+        input.position(input.position() + length);
+        return bytes.slice();
+    }
+
+    /**
+     * Read the current version of the documents which hold objects of a class.
+     * @param queryManager the query manager
+     * @param wikiId the wiki of the class
+     * @param className the full name of the class, without the wiki
+     * @return the version of each document, by full name
+     * @throws QueryException if the versions can't be read
+     */
+    protected static Map<String, String> getDocumentVersions(QueryManager queryManager, String wikiId,
+        String className) throws QueryException
+    {
+        Map<String, String> versions = new HashMap<>();
+        // The documents are read page by page, so that the scan doesn't keep a large result in memory
+        String lastName = "";
+        while (true) {
+            List<Object[]> documents = queryManager.createQuery("select distinct doc.fullName, doc.version "
+                + "from XWikiDocument doc, BaseObject obj where doc.fullName = obj.name and doc.translation = 0 "
+                + "and obj.className = :className and doc.fullName > :lastName order by doc.fullName", Query.HQL)
+                .bindValue("className", className).bindValue("lastName", lastName).setLimit(PAGE_SIZE)
+                .setWiki(wikiId).execute();
+            for (Object[] document : documents) {
+                lastName = (String) document[0];
+                versions.put(lastName, (String) document[1]);
+            }
+            if (documents.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * @param storedVersions the versions of the documents in a stored copy
+     * @param currentVersions the current versions of the documents
+     * @return the documents which have been created, saved or deleted since the copy was written
+     */
+    protected static Set<String> getChangedDocuments(Map<String, String> storedVersions,
+        Map<String, String> currentVersions)
+    {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, String> document : currentVersions.entrySet()) {
+            String storedVersion = storedVersions.get(document.getKey());
+            if (storedVersion == null || !storedVersion.equals(document.getValue())) {
+                changed.add(document.getKey());
+            }
+        }
+        for (String document : storedVersions.keySet()) {
+            if (!currentVersions.containsKey(document)) {
+                changed.add(document);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Loading the changed documents one by one is slower than scanning the class page by page when many documents
+     * have changed.
+     * @param changed the number of changed documents
+     * @param total the number of documents holding objects of the class
+     * @return true if the changed documents should be loaded, false if the copy should be rebuilt
+     */
+    protected static boolean isReplayable(int changed, int total)
+    {
+        return changed <= Math.max(PAGE_SIZE, total / 10);
+    }
+
+    private static File getDirectory(Environment environment, String kind, String wikiId)
+    {
+        return new File(new File(new File(environment.getPermanentDirectory(), DIRECTORY), kind), wikiId);
+    }
+}
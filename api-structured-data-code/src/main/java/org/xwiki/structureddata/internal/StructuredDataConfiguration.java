@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Configuration of the structured data API, read from the "structureddata.*" properties of xwiki.properties.
+ *
+ * @version $Id$
+ */
+@Role
+public interface StructuredDataConfiguration
+{
+    /**
+     * @return "pool" if the rest resources run their queries and document loads in a dedicated thread pool, "direct"
+     *         if they run them in the servlet container thread
+     */
+    String getRestExecutionMode();
+
+    /**
+     * @return the number of threads of the pool used by the rest resources
+     */
+    int getRestPoolSize();
+
+    /**
+     * @return the number of threads of the pool running the asynchronous writes
+     */
+    int getWritePoolSize();
+
+    /**
+     * @return the maximum number of rest requests running at the same time for a wiki, 0 for no limit
+     */
+    int getMaxConcurrentRequestsPerWiki();
+
+    /**
+     * @return the time (in milliseconds) a rest request can wait for a free slot or for its result
+     */
+    long getRestTimeout();
+
+    /**
+     * @return the maximum number of wikis queried at the same time by a federated query
+     */
+    int getFederationMaxParallelWikis();
+
+    /**
+     * @return the maximum number of items query results kept in the cache, 0 to disable the cache
+     */
+    int getCacheSize();
+
+    /**
+     * @return the time (in seconds) a result is kept in the cache, 0 for no limit
+     */
+    int getCacheTimeToLive();
+
+    /**
+     * @return the properties indexed in memory, as "Space.Class#property" (for the class in any wiki) or
+     *         "wiki:Space.Class#property"
+     */
+    List<String> getIndexedProperties();
+
+    /**
+     * @return the classes whose objects are copied in a columnar snapshot for the aggregates, as "Space.Class" (for
+     *         the class in any wiki) or "wiki:Space.Class"
+     */
+    List<String> getSnapshotClasses();
+
+    /**
+     * @return true if the in-memory indexes and snapshots are stored in the permanent directory, so that they are not
+     *         rebuilt from the whole database after a restart
+     */
+    boolean isPersistenceEnabled();
+
+    /**
+     * @return the maximum number of group sets whose view rights are kept for each wiki, 0 to disable the cache of
+     *         the view rights
+     */
+    int getRightsCacheSize();
+
+    /**
+     * @return the time (in milliseconds) during which the changes of the classes are collected before they are sent to
+     *         the other nodes of the cluster
+     */
+    int getInvalidationBatchDelay();
+
+    /**
+     * @return the properties whose updates are kept in memory and saved together after a delay, as
+     *         "Space.Class#property" (for the class in any wiki) or "wiki:Space.Class#property"
+     */
+    List<String> getWriteBehindProperties();
+
+    /**
+     * @return the time (in milliseconds) during which the updates of an item are merged before they are saved
+     */
+    int getWriteBehindDelay();
+
+    /**
+     * @return the number of item ids reserved at once in the persisted sequence of an application, and then handed
+     *         out from memory
+     */
+    int getIdBlockSize();
+
+    /**
+     * @return the AWM applications whose items are spread in several spaces, with their number of partitions, as
+     *         "Space.Class=count" (for the class in any wiki) or "wiki:Space.Class=count"
+     */
+    List<String> getPartitions();
+}
@@ -0,0 +1,283 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.structureddata.Application;
+
+/**
+ * An application whose updates of the write-behind properties are kept in the {@link ItemWriteBuffer} and saved
+ * later, all the updates of an item together. An update is buffered only when the item exists and only write-behind
+ * properties are changed, and its values are checked with the schema before it is accepted; the other updates are
+ * saved right away, with the buffered values of the item. The items
+ * read one by one include the buffered values, the lists of items only include them once they are saved.
+ *
+ * @version $Id$
+ */
+public class WriteBehindApplication extends AbstractForwardingApplication
+{
+    private final DocumentReference classReference;
+
+    private final String dataSpace;
+
+    private final int partitions;
+
+    private final Set<String> properties;
+
+    private final DefaultItemWriteBuffer buffer;
+
+    private final ContextualAuthorizationManager authorization;
+
+    private final EntityReferenceResolver<String> resolver;
+
+    /**
+     * @param application the application
+     * @param classReference the reference of the class of the application
+     * @param dataSpace the space of the items of an AWM application, or null if the items can be in any space
+     * @param partitions the number of partitions of the data space (see {@link DataSpacePartitions}), or 0
+     * @param properties the write-behind properties of the class
+     * @param buffer the buffer of the updates
+     * @param authorization the authorization checker
+     * @param resolver the document reference resolver
+     */
+    public WriteBehindApplication(Application application, DocumentReference classReference, String dataSpace,
+            int partitions, Set<String> properties, DefaultItemWriteBuffer buffer,
+            ContextualAuthorizationManager authorization, EntityReferenceResolver<String> resolver)
+    {
+        super(application);
+        this.classReference = classReference;
+        this.dataSpace = dataSpace;
+        this.partitions = partitions;
+        this.properties = properties;
+        this.buffer = buffer;
+        this.authorization = authorization;
+        this.resolver = resolver;
+    }
+
+    @Override
+    public ItemMap getItem(String itemId) throws Exception
+    {
+        return withPendingValues(itemId, this.application.getItem(itemId));
+    }
+
+    @Override
+    public ItemMap getItem(String itemId, List<String> properties) throws Exception
+    {
+        return withPendingValues(itemId, this.application.getItem(itemId, properties));
+    }
+
+    @Override
+    public ItemMap getItem(ItemId itemId, List<String> properties) throws Exception
+    {
+        return withPendingValues(itemId.toString(), this.application.getItem(itemId, properties));
+    }
+
+    @Override
+    public Map<String, Object> storeItem(ItemMap itemData) throws Exception
+    {
+        return storeItem(itemData, null);
+    }
+
+    @Override
+    public Map<String, Object> storeItem(ItemMap itemData, DocumentMap itemDocData) throws Exception
+    {
+        if (itemData.getId() == null) {
+            return this.application.storeItem(itemData, itemDocData);
+        }
+        // The document fields are always saved right away
+        if (itemDocData == null) {
+            Map<String, Object> result = buffer(itemData);
+            if (result != null) {
+                return result;
+            }
+        }
+        return this.application.storeItem(withPendingUpdates(itemData), itemDocData);
+    }
+
+    @Override
+    public Map<String, Object> storeItems(List<ItemMap> items) throws Exception
+    {
+        List<ItemMap> itemsToStore = new ArrayList<>();
+        for (ItemMap itemData : items) {
+            itemsToStore.add(itemData.getId() != null ? withPendingUpdates(itemData) : itemData);
+        }
+        return this.application.storeItems(itemsToStore);
+    }
+
+    @Override
+    public Map<String, Object> createItem(ItemMap itemData) throws Exception
+    {
+        // A new item has no buffered update
+        return this.application.createItem(itemData);
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(String itemId) throws Exception
+    {
+        // The buffered updates of a deleted item are dropped
+        this.buffer.remove(getKey(itemId));
+        return this.application.deleteItem(itemId);
+    }
+
+    @Override
+    public Map<String, Object> deleteItem(ItemId itemId) throws Exception
+    {
+        this.buffer.remove(getKey(itemId.toString()));
+        return this.application.deleteItem(itemId);
+    }
+
+    /**
+     * Buffer the update of an item if it only changes write-behind properties.
+     * @return the result of the update if it has been buffered or rejected, null if it has to be saved right away
+     */
+    private Map<String, Object> buffer(ItemMap itemData) throws Exception
+    {
+        String itemId = itemData.getId();
+        DocumentReference documentReference = getDocumentReference(itemId);
+        // The access errors are reported by the application
+        if (!this.authorization.hasAccess(Right.EDIT, documentReference)) {
+            return null;
+        }
+        // New items are created right away
+        ItemMap current = getItem(itemId);
+        if (current.isEmpty()) {
+            return null;
+        }
+        ItemMap changes = new ItemMap();
+        for (Map.Entry<String, Object> entry : itemData.entrySet()) {
+            if (String.valueOf(entry.getValue()).equals(String.valueOf(current.get(entry.getKey())))) {
+                continue;
+            }
+            if (!this.properties.contains(entry.getKey())) {
+                return null;
+            }
+            changes.put(entry.getKey(), entry.getValue());
+        }
+        Map<String, Object> result = new HashMap<>();
+        if (!changes.isEmpty()) {
+            // The save happens later, an invalid value has to be reported now
+            try {
+                changes = SchemaValueConverter.convert(getSchema(), changes);
+            } catch (IllegalArgumentException e) {
+                result.put("Error", e.getMessage());
+                return result;
+            }
+            this.buffer.add(this.classReference, documentReference, getObjectNumber(itemId), changes);
+        }
+        result.put("Success", "1");
+        return result;
+    }
+
+    /**
+     * Add the buffered values of an item which is saved right away, so that they are not saved again later over its
+     * new values. The item of the caller is left unchanged.
+     * @return a copy of the item with the buffered values it doesn't update, or the item if nothing is buffered
+     */
+    private ItemMap withPendingUpdates(ItemMap itemData)
+    {
+        ItemMap values = this.buffer.remove(getKey(itemData.getId()));
+        if (values == null) {
+            return itemData;
+        }
+        ItemMap itemToStore = itemData.copy();
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (!itemToStore.containsKey(value.getKey())) {
+                itemToStore.put(value.getKey(), value.getValue());
+            }
+        }
+        return itemToStore;
+    }
+
+    private ItemMap withPendingValues(String itemId, ItemMap item)
+    {
+        if (item == null || item.isEmpty()) {
+            return item;
+        }
+        ItemMap values = this.buffer.getPendingValues(getKey(itemId));
+        if (values != null) {
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                if (item.containsKey(value.getKey())) {
+                    item.put(value.getKey(), convertLike(value.getValue(), item.get(value.getKey())));
+                }
+            }
+        }
+        return item;
+    }
+
+    /**
+     * The buffered values have been checked with the schema, but the numbers are kept as strings until they are stored
+     * with the number type of their property: they are displayed with the type of the stored values.
+     */
+    private static Object convertLike(Object value, Object storedValue)
+    {
+        if (value == null || !(storedValue instanceof Number) || value instanceof Number) {
+            return value;
+        }
+        try {
+            String stringValue = value.toString().trim();
+            if (storedValue instanceof Integer) {
+                return Integer.valueOf(stringValue);
+            } else if (storedValue instanceof Long) {
+                return Long.valueOf(stringValue);
+            } else if (storedValue instanceof Float) {
+                return Float.valueOf(stringValue);
+            } else if (storedValue instanceof Double) {
+                return Double.valueOf(stringValue);
+            }
+        } catch (NumberFormatException e) {
+            // Displayed as it has been sent
+        }
+        return value;
+    }
+
+    private String getKey(String itemId)
+    {
+        return this.buffer.getKey(this.classReference, getDocumentReference(itemId), getObjectNumber(itemId));
+    }
+
+    private DocumentReference getDocumentReference(String itemId)
+    {
+        WikiReference wikiReference = this.classReference.getWikiReference();
+        if (this.dataSpace != null && this.partitions > 0) {
+            return this.buffer.getItemReference(this.dataSpace, this.partitions, itemId, wikiReference);
+        } else if (this.dataSpace != null) {
+            // The items of an AWM application are the pages of its data space
+            return new DocumentReference(
+                this.resolver.resolve(this.dataSpace + "." + itemId, EntityType.DOCUMENT, wikiReference));
+        }
+        return ItemId.parse(itemId).getDocumentReference(this.resolver, wikiReference);
+    }
+
+    private int getObjectNumber(String itemId)
+    {
+        return this.dataSpace != null ? 0 : ItemId.parse(itemId).getObjectNumber();
+    }
+}
@@ -19,15 +19,36 @@
  */
 package org.xwiki.structureddata.internal.resources;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.commons.lang3.StringUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
-import org.xwiki.structureddata.DataMap;
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.internal.AWMDescriptor;
+import org.xwiki.structureddata.internal.AWMRegistry;
+import org.xwiki.structureddata.internal.ApplicationExecutor;
+import org.xwiki.structureddata.internal.DocumentMap;
+import org.xwiki.structureddata.internal.ItemJsonParser;
+import org.xwiki.structureddata.internal.ItemMap;
+import org.xwiki.structureddata.internal.ItemReader;
+import org.xwiki.structureddata.internal.JsonTools;
 
 /**
  * Tools used by Application rest resources.
@@ -35,6 +56,10 @@ import org.xwiki.structureddata.DataMap;
  * @version $Id$
  */
 public class ApplicationRestTools {
+    private static final String ERROR = "Error";
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
     protected static DocumentReference getAWMRef(XWikiContext context, String wikiName, String appId)
     {
         if(wikiName != null) {
@@ -52,6 +77,19 @@ public class ApplicationRestTools {
         return new DocumentReference(resolver.resolve(appId, EntityType.DOCUMENT));
     }
 
+    /**
+     * @return the class of the AWM application with the given id, or else the class with the given name
+     */
+    protected static DocumentReference getClassRef(XWikiContext context, AWMRegistry awmRegistry, String wikiName,
+        String appId, EntityReferenceResolver<String> resolver) throws XWikiException
+    {
+        AWMDescriptor awmDescriptor = awmRegistry.getApplication(getAWMRef(context, wikiName, appId));
+        if (awmDescriptor != null) {
+            return awmDescriptor.getClassReference();
+        }
+        return getClassRef(wikiName, appId, resolver);
+    }
+
     protected static List<String> getPropertiesList(String properties) {
         if(properties == null) {
             return new ArrayList<>();
@@ -59,44 +97,140 @@ public class ApplicationRestTools {
         return new ArrayList<String>(Arrays.asList(properties.split(",")));
     }
 
-    protected static void updateMapFromJson(Map<String, Object> json, DataMap oldMapToUpdate) {
-        for(Map.Entry<String, Object> e : json.entrySet()) {
-            String key = e.getKey();
-            try {
-                Object newVal;
-                Object oldVal = ((Map<String, Object>) oldMapToUpdate).get(key);
-                String className = "";
-                if(oldVal != null) {
-                    className = oldVal.getClass().getSimpleName();
+    /**
+     * Run a read request with the application executor. When the wiki has too many requests running or when the
+     * request takes too long, the client gets a 503 response instead of keeping a servlet thread busy.
+     */
+    protected static <T> T execute(ApplicationExecutor executor, String wikiName, Callable<T> task) throws Exception
+    {
+        try {
+            return executor.execute(wikiName, task);
+        } catch (RejectedExecutionException | TimeoutException e) {
+            throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Build a 400 response with the error message in the same format as the other errors of the resources.
+     */
+    protected static Response getBadRequest(String message)
+    {
+        Map<String, Object> error = new HashMap<>();
+        error.put(ERROR, message);
+        return Response.status(Response.Status.BAD_REQUEST).entity(error).type(MediaType.APPLICATION_JSON).build();
+    }
+
+    /**
+     * Read the values of an item sent in a request, with the types of the schema of the application.
+     * @throws WebApplicationException with a 400 response listing the invalid fields, if the item is invalid
+     */
+    protected static ItemMap readItem(Application app, InputStream input) throws Exception
+    {
+        Map<String, String> errors = new LinkedHashMap<>();
+        ItemMap item;
+        try (JsonParser parser = JsonTools.createParser(input)) {
+            parser.nextToken();
+            item = new ItemJsonParser(app.getSchema()).readItem(parser, errors);
+        } catch (IOException e) {
+            throw new WebApplicationException(getBadRequest(e.getMessage()));
+        }
+        checkErrors(errors);
+        return item;
+    }
+
+    /**
+     * Read the document fields of an item sent in a request.
+     * @throws WebApplicationException with a 400 response listing the invalid fields, if the fields are invalid
+     */
+    protected static DocumentMap readDocument(Application app, InputStream input) throws Exception
+    {
+        Map<String, String> errors = new LinkedHashMap<>();
+        DocumentMap document;
+        try (JsonParser parser = JsonTools.createParser(input)) {
+            parser.nextToken();
+            document = new ItemJsonParser(app.getSchema()).readDocument(parser, errors);
+        } catch (IOException e) {
+            throw new WebApplicationException(getBadRequest(e.getMessage()));
+        }
+        checkErrors(errors);
+        return document;
+    }
+
+    /**
+     * Store the items sent in a request, batch by batch, while they are read: the request body is never loaded as a
+     * whole. The body is a JSON array of items or a sequence of items (NDJSON), each item having an
+     * {@link ItemReader#ID_FIELD} field.
+     * @return the result of each item, by id (or by position for the items without id)
+     */
+    protected static Map<String, Object> storeItems(Application app, InputStream input, String batchSize)
+        throws Exception
+    {
+        int size;
+        try {
+            size = batchSize != null ? Integer.parseInt(batchSize) : DEFAULT_BATCH_SIZE;
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(getBadRequest("Invalid batch size [" + batchSize + "]"));
+        }
+        ItemJsonParser itemParser = new ItemJsonParser(app.getSchema());
+        Map<String, Object> results = new LinkedHashMap<>();
+        List<ItemMap> batch = new ArrayList<>();
+        try (JsonParser parser = JsonTools.createParser(input)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            for (int row = 1; token != null && token != JsonToken.END_ARRAY; row++, token = parser.nextToken()) {
+                Map<String, String> errors = new LinkedHashMap<>();
+                ItemMap item = itemParser.readItem(parser, errors);
+                if (StringUtils.isEmpty(item.getId())) {
+                    errors.put(ItemReader.ID_FIELD, "Missing item id");
                 }
-                // Dates from JSON are represented as an Integer or a Long value, they have to be converted to a Date
-                switch (className) {
-                    case "Date":
-                        String jsonType = json.get(key).getClass().getSimpleName();
-                        if(jsonType.equals("Long")) {
-                            newVal = new Date((Long) json.get(key));
-                        }
-                        else {
-                            newVal = new Date(((Integer) json.get(key)).longValue());
-                        }   break;
-                    case "Float":
-                        newVal = Float.parseFloat(json.get(key).toString());
-                        break;
-                    case "Double":
-                        newVal = Double.parseDouble(json.get(key).toString());
-                        break;
-                    case "Long":
-                        newVal = Long.parseLong(json.get(key).toString());
-                        break;
-                    default:
-                        newVal = json.get(key);
-                        break;
+                if (!errors.isEmpty()) {
+                    results.put(item.getId() != null ? item.getId() : "#" + row, getErrors(errors));
+                    continue;
                 }
-                if(!newVal.equals(oldVal)) {
-                    oldMapToUpdate.set(key, newVal);
+                batch.add(item);
+                if (batch.size() >= Math.max(1, size)) {
+                    results.putAll(app.storeItems(batch));
+                    batch.clear();
                 }
-            } catch (Exception f) {
             }
+        } catch (IOException e) {
+            // The items of the previous batches have already been stored
+            results.put(ERROR, e.getMessage());
+        }
+        if (!batch.isEmpty()) {
+            results.putAll(app.storeItems(batch));
         }
+        return results;
+    }
+
+    /**
+     * Update the document fields of an item with the fields sent in a request. Only the changed fields are marked
+     * as changed, and saved.
+     */
+    protected static void updateDocumentFields(DocumentMap fields, DocumentMap document)
+    {
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (!Objects.equals(field.getValue(), document.get(field.getKey()))) {
+                document.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    private static void checkErrors(Map<String, String> errors)
+    {
+        if (!errors.isEmpty()) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(getErrors(errors))
+                .type(MediaType.APPLICATION_JSON).build());
+        }
+    }
+
+    private static Map<String, Object> getErrors(Map<String, String> errors)
+    {
+        Map<String, Object> error = new HashMap<>();
+        error.put(ERROR, "Invalid values");
+        error.put("Errors", errors);
+        return error;
     }
 }
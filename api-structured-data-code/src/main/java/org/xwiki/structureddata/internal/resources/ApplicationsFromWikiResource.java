@@ -19,38 +19,37 @@
  */
 package org.xwiki.structureddata.internal.resources;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import java.util.HashMap;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import org.slf4j.Logger;
+import javax.ws.rs.core.Response;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
 import org.xwiki.rest.XWikiResource;
-import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.structureddata.Application;
-import org.xwiki.structureddata.internal.AWMApplication;
-import org.xwiki.structureddata.internal.DefaultApplication;
+import org.xwiki.structureddata.internal.AWMRegistry;
+import org.xwiki.structureddata.internal.ApplicationFactory;
+import org.xwiki.structureddata.internal.ApplicationCatalog;
+import org.xwiki.structureddata.internal.ApplicationExecutor;
 import org.xwiki.structureddata.internal.DocumentMap;
+import org.xwiki.structureddata.internal.ItemImporter;
 import org.xwiki.structureddata.internal.ItemMap;
+import org.xwiki.structureddata.internal.PropertyIndexAdvisor;
 
 /**
  * Rest ressource for Application in the selected wiki.
@@ -66,44 +65,39 @@ public class ApplicationsFromWikiResource extends XWikiResource
     private EntityReferenceResolver<String> resolver;
 
     @Inject
-    private Logger appLogger;
+    private ItemImporter itemImporter;
 
     @Inject
-    @Named("local")
-    protected EntityReferenceSerializer<String> serializer;
+    private ApplicationExecutor executor;
 
     @Inject
-    ContextualAuthorizationManager authorization;
+    private AWMRegistry awmRegistry;
+
+    @Inject
+    private PropertyIndexAdvisor indexAdvisor;
+
+    @Inject
+    private ApplicationFactory applicationFactory;
+
+    @Inject
+    private ApplicationCatalog catalog;
 
     /**
      * Get a list of the classes/applications in the wiki.
      * @param wikiName the name of the selected wiki
+     * @param filter a text which must be contained in the name of the listed applications
+     * @param offset the offset for the results to display
+     * @param limit the maximum number of results to display
      * @return a map containing the list of classes
-     * @throws XWikiException
+     * @throws XWikiException if the AWM applications of the wiki can't be indexed
      */
     @GET
-    public Map<String, Object> getAppList(@PathParam("wikiName") String wikiName) throws Exception
-    {
-        XWikiContext context = xcontextProvider.get();
-        Map<String, Object> result = new HashMap<>();
-        String oldWikiId = context.getWikiId();
-        context.setWikiId(wikiName);
-        XWiki xwiki = context.getWiki();
-        List<String> classList = xwiki.getClassList(context);
-        String queryString = "select doc.space"
-                + " from Document doc, doc.object(AppWithinMinutes.LiveTableClass) as item"
-                + " where doc.fullName <> 'AppWithinMinutes.LiveTableTemplate'"
-                + " order by doc.space";
-        try {
-            Query query = queryManager.createQuery(queryString, Query.XWQL);
-            List<String> awmList = query.setWiki(wikiName).execute();
-            result.put("AWM Applications", awmList);
-        } catch(QueryException e) {
-            result.put("Error while searching AWM applications list", "Error: "+e);
-        }
-        result.put("XWiki Classes", classList);
-        context.setWikiId(oldWikiId);
-        return result;
+    public Map<String, Object> getAppList(@PathParam("wikiName") String wikiName,
+                                          @QueryParam("filter") String filter,
+                                          @QueryParam("offset") String offset,
+                                          @QueryParam("limit") String limit) throws XWikiException
+    {
+        return CatalogResource.getResource(catalog, wikiName, filter, offset, limit);
     }
 
     @Path("{appName}")
@@ -126,30 +120,84 @@ public class ApplicationsFromWikiResource extends XWikiResource
 
     @Path("{appName}/items")
     @GET
-    public Map<String, Object> getItems(@PathParam("wikiName") String wikiName,
-                                        @PathParam("appName") String appId,
-                                        @QueryParam("limit") String limit,
-                                        @QueryParam("offset") String offset,
-                                        @QueryParam("query") String query,
-                                        @QueryParam("hidden") String hidden,
-                                        @QueryParam("order") String order,
-                                        @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItems(@PathParam("wikiName") final String wikiName,
+                                        @PathParam("appName") final String appId,
+                                        @QueryParam("limit") final String limit,
+                                        @QueryParam("offset") final String offset,
+                                        @QueryParam("query") final String query,
+                                        @QueryParam("filter") final String filter,
+                                        @QueryParam("hidden") final String hidden,
+                                        @QueryParam("order") final String order,
+                                        @QueryParam("properties") final String properties) throws Exception
+    {
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        return ApplicationRestTools.execute(executor, wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(wikiName, appId);
+                return ItemsResource.getResource(app, limit, offset, query, filter, hidden, order, propertiesList);
+            }
+        });
+    }
+
+    @Path("{appName}/export")
+    @GET
+    @Produces({ "application/x-ndjson", "text/csv" })
+    public Response export(@PathParam("wikiName") String wikiName,
+                           @PathParam("appName") String appId,
+                           @QueryParam("format") String format,
+                           @QueryParam("query") String query,
+                           @QueryParam("filter") String filter,
+                           @QueryParam("hidden") String hidden,
+                           @QueryParam("properties") String properties,
+                           @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception
     {
         List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
         Application app = getApplication(wikiName, appId);
-        return ItemsResource.getResource(app, limit, offset, query, hidden, order, propertiesList);
+        return ExportResource.getResource(app, format, query, filter, hidden, propertiesList, acceptEncoding);
+    }
+
+    @Path("{appName}/aggregate")
+    @GET
+    public Map<String, Object> aggregate(@PathParam("wikiName") final String wikiName,
+                                         @PathParam("appName") final String appId,
+                                         @QueryParam("function") final String function,
+                                         @QueryParam("property") final String property,
+                                         @QueryParam("groupBy") final String groupBy,
+                                         @QueryParam("query") final String query,
+                                         @QueryParam("filter") final String filter,
+                                         @QueryParam("hidden") final String hidden) throws Exception
+    {
+        return ApplicationRestTools.execute(executor, wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(wikiName, appId);
+                return ItemsResource.getAggregateResource(app, function, property, groupBy, query, filter, hidden);
+            }
+        });
     }
 
     @Path("{appName}/items/{itemId}")
     @GET
-    public Map<String, Object> getItem(@PathParam("wikiName") String wikiName,
-                                       @PathParam("appName") String appId,
-                                       @PathParam("itemId") String itemId,
-                                       @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItem(@PathParam("wikiName") final String wikiName,
+                                       @PathParam("appName") final String appId,
+                                       @PathParam("itemId") final String itemId,
+                                       @QueryParam("properties") final String properties) throws Exception
     {
-        List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
-        Application app = getApplication(wikiName, appId);
-        return app.getItem(itemId, propertiesList);
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        return ApplicationRestTools.execute(executor, wikiName, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(wikiName, appId);
+                return app.getItem(itemId, propertiesList);
+            }
+        });
     }
 
     @Path("{appName}/items/{itemId}")
@@ -158,15 +206,43 @@ public class ApplicationsFromWikiResource extends XWikiResource
     public Map<String, Object> storeItem(@PathParam("wikiName") String wikiName,
             @PathParam("appName") String appId,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(wikiName, appId);
+        ItemMap newItemData = ApplicationRestTools.readItem(app, input);
         ItemMap item = app.getItem(itemId);
-        ItemMap newItemData = new ObjectMapper().readValue(jsonRequest, ItemMap.class);
-        ApplicationRestTools.updateMapFromJson(newItemData, item);
+        item.putAll(newItemData);
         return app.storeItem(item);
     }
 
+    @Path("{appName}/items")
+    @PUT
+    @Consumes({ MediaType.APPLICATION_JSON, "application/x-ndjson" })
+    public Map<String, Object> storeItems(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            @QueryParam("batchSize") String batchSize,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(wikiName, appId);
+        return ApplicationRestTools.storeItems(app, input, batchSize);
+    }
+
+    /**
+     * Create an item with an id allocated by the server: a new document named from the sequence of the application
+     * for AWM applications, or a new object in the document given by the "id" field for the other applications.
+     * @return the state of the save and the id of the new item ("Id")
+     */
+    @Path("{appName}/items")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    public Map<String, Object> createItem(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(wikiName, appId);
+        return app.createItem(ApplicationRestTools.readItem(app, input));
+    }
+
     @Path("{appName}/items/{itemId}")
     @DELETE
     public Map<String, Object> deleteItem(@PathParam("wikiName") String wikiName,
@@ -195,28 +271,69 @@ public class ApplicationsFromWikiResource extends XWikiResource
     public Map<String, Object> storeItemDocument(@PathParam("wikiName") String wikiName,
             @PathParam("appName") String appId,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(wikiName, appId);
-        DocumentMap docData = new ObjectMapper().readValue(jsonRequest, DocumentMap.class);
+        DocumentMap docData = ApplicationRestTools.readDocument(app, input);
         ItemMap item = app.getItem(itemId);
         DocumentMap oldDocData = item.getDocumentFields();
-        ApplicationRestTools.updateMapFromJson(docData, oldDocData);
+        ApplicationRestTools.updateDocumentFields(docData, oldDocData);
         return app.storeItem(item, oldDocData);
     }
 
+    @Path("{appName}/import")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN, "text/csv", "application/x-ndjson" })
+    public Map<String, Object> importItems(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            @QueryParam("format") String format,
+            @QueryParam("batchSize") String batchSize,
+            InputStream input) throws Exception
+    {
+        return ImportRestTools.startImport(itemImporter, wikiName, appId, format, batchSize, input);
+    }
+
+    @Path("{appName}/import/{importId}")
+    @GET
+    public Map<String, Object> getImportStatus(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            @PathParam("importId") String importId) throws Exception
+    {
+        return itemImporter.getImportStatus(wikiName, appId, importId);
+    }
+
+    /**
+     * Report the properties of the application which have no database index, with the cost of ordering by them.
+     * @param properties the properties to inspect, all the properties of the class by default
+     */
+    @Path("{appName}/indexes")
+    @GET
+    public List<Map<String, Object>> getIndexes(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            @QueryParam("properties") String properties) throws Exception
+    {
+        DocumentReference classRef =
+            ApplicationRestTools.getClassRef(xcontextProvider.get(), awmRegistry, wikiName, appId, resolver);
+        return indexAdvisor.analyze(classRef, ApplicationRestTools.getPropertiesList(properties));
+    }
+
+    /**
+     * Create the missing database indexes of the properties of the application (requires the programming right).
+     * @param properties the properties to index, all the properties of the class by default
+     */
+    @Path("{appName}/indexes")
+    @POST
+    public List<Map<String, Object>> createIndexes(@PathParam("wikiName") String wikiName,
+            @PathParam("appName") String appId,
+            @QueryParam("properties") String properties) throws Exception
+    {
+        DocumentReference classRef =
+            ApplicationRestTools.getClassRef(xcontextProvider.get(), awmRegistry, wikiName, appId, resolver);
+        return indexAdvisor.createIndexes(classRef, ApplicationRestTools.getPropertiesList(properties));
+    }
+
     private Application getApplication(String wikiName, String appId) throws Exception
     {
-        XWikiContext context = xcontextProvider.get();
-        Application newApp;
-        DocumentReference awmWebHomeRef = ApplicationRestTools.getAWMRef(context, wikiName, appId);
-        if(AWMApplication.isAWM(context, awmWebHomeRef) != null) {
-            newApp = new AWMApplication(context, authorization, resolver, serializer, queryManager, appLogger, awmWebHomeRef);
-        }
-        else {
-            DocumentReference classRef = ApplicationRestTools.getClassRef(wikiName, appId, resolver);
-            newApp = new DefaultApplication(context, authorization, resolver, serializer, queryManager, appLogger, classRef);
-        }
-        return newApp;
+        return applicationFactory.getApplication(wikiName, appId);
     }
 }
@@ -19,40 +19,40 @@
  */
 package org.xwiki.structureddata.internal.resources;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import java.util.HashMap;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import org.slf4j.Logger;
+import javax.ws.rs.core.Response;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.query.Query;
-import org.xwiki.query.QueryException;
 import org.xwiki.rest.XWikiResource;
-import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.structureddata.Application;
-import org.xwiki.structureddata.internal.AWMApplication;
-import org.xwiki.structureddata.internal.DefaultApplication;
+import org.xwiki.structureddata.internal.AWMRegistry;
+import org.xwiki.structureddata.internal.ApplicationCatalog;
+import org.xwiki.structureddata.internal.ApplicationExecutor;
+import org.xwiki.structureddata.internal.ApplicationFactory;
 import org.xwiki.structureddata.internal.DocumentMap;
+import org.xwiki.structureddata.internal.ItemImporter;
 import org.xwiki.structureddata.internal.ItemMap;
+import org.xwiki.structureddata.internal.PropertyIndexAdvisor;
 
 /**
  * Rest resource for Application in the current wiki.
@@ -68,42 +68,38 @@ public class ApplicationsResource extends XWikiResource
     private EntityReferenceResolver<String> resolver;
 
     @Inject
-    private Logger appLogger;
+    private ItemImporter itemImporter;
 
     @Inject
-    @Named("local")
-    protected EntityReferenceSerializer<String> serializer;
+    private ApplicationExecutor executor;
 
     @Inject
-    ContextualAuthorizationManager authorization;
+    private AWMRegistry awmRegistry;
+
+    @Inject
+    private PropertyIndexAdvisor indexAdvisor;
+
+    @Inject
+    private ApplicationCatalog catalog;
+
+    @Inject
+    private ApplicationFactory applicationFactory;
 
     /**
      * Get a list of the classes/applications in the wiki.
+     * @param filter a text which must be contained in the name of the listed applications
+     * @param offset the offset for the results to display
+     * @param limit the maximum number of results to display
      * @return a map containing the list of classes
-     * @throws XWikiException
-     * @throws QueryException
+     * @throws XWikiException if the AWM applications of the wiki can't be indexed
      */
     @GET
-    public Map<String, Object> getAppList() throws XWikiException, QueryException
+    public Map<String, Object> getAppList(@QueryParam("filter") String filter,
+                                          @QueryParam("offset") String offset,
+                                          @QueryParam("limit") String limit) throws XWikiException
     {
         XWikiContext context = xcontextProvider.get();
-        Map<String, Object> result = new HashMap<>();
-        XWiki xwiki = context.getWiki();
-        List<String> classList = xwiki.getClassList(context);
-        String queryString = "select doc.space"
-                + " from Document doc, doc.object(AppWithinMinutes.LiveTableClass) as item"
-                + " where doc.fullName <> 'AppWithinMinutes.LiveTableTemplate'"
-                + " order by doc.space";
-        try {
-            Query query = queryManager.createQuery(queryString, Query.XWQL);
-            List<String> awmList = query.execute();
-            result.put("AWM Applications", awmList);
-        } catch(QueryException e) {
-            result.put("Error while searching AWM applications list", "Error: "+e);
-            e.printStackTrace();
-        }
-        result.put("XWiki Classes", classList);
-        return result;
+        return CatalogResource.getResource(catalog, context.getWikiId(), filter, offset, limit);
     }
 
     @Path("{appName}")
@@ -124,28 +120,88 @@ public class ApplicationsResource extends XWikiResource
 
     @Path("{appName}/items")
     @GET
-    public Map<String, Object> getItems(@PathParam("appName") String appId,
-                                        @QueryParam("limit") String limit,
-                                        @QueryParam("offset") String offset,
-                                        @QueryParam("query") String query,
-                                        @QueryParam("hidden") String hidden,
-                                        @QueryParam("order") String order,
-                                        @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItems(@PathParam("appName") final String appId,
+                                        @QueryParam("limit") final String limit,
+                                        @QueryParam("offset") final String offset,
+                                        @QueryParam("query") final String query,
+                                        @QueryParam("filter") final String filter,
+                                        @QueryParam("hidden") final String hidden,
+                                        @QueryParam("order") final String order,
+                                        @QueryParam("properties") final String properties,
+                                        @QueryParam("wikis") final String wikis,
+                                        @QueryParam("cursor") final String cursor) throws Exception
+    {
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        if (wikis != null) {
+            // The query of each wiki is run by the executor, with the permits of its wiki: the federated request
+            // itself must not hold a thread of the pool nor a permit while it waits for them
+            return ItemsResource.getFederatedResource(applicationFactory, appId, wikis, limit, cursor, query, filter,
+                hidden, order, propertiesList);
+        }
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(null, appId);
+                return ItemsResource.getResource(app, limit, offset, query, filter, hidden, order, propertiesList);
+            }
+        });
+    }
+
+    @Path("{appName}/export")
+    @GET
+    @Produces({ "application/x-ndjson", "text/csv" })
+    public Response export(@PathParam("appName") String appId,
+                           @QueryParam("format") String format,
+                           @QueryParam("query") String query,
+                           @QueryParam("filter") String filter,
+                           @QueryParam("hidden") String hidden,
+                           @QueryParam("properties") String properties,
+                           @HeaderParam("Accept-Encoding") String acceptEncoding) throws Exception
     {
         List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
         Application app = getApplication(null, appId);
-        return ItemsResource.getResource(app, limit, offset, query, hidden, order, propertiesList);
+        return ExportResource.getResource(app, format, query, filter, hidden, propertiesList, acceptEncoding);
+    }
+
+    @Path("{appName}/aggregate")
+    @GET
+    public Map<String, Object> aggregate(@PathParam("appName") final String appId,
+                                         @QueryParam("function") final String function,
+                                         @QueryParam("property") final String property,
+                                         @QueryParam("groupBy") final String groupBy,
+                                         @QueryParam("query") final String query,
+                                         @QueryParam("filter") final String filter,
+                                         @QueryParam("hidden") final String hidden) throws Exception
+    {
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(null, appId);
+                return ItemsResource.getAggregateResource(app, function, property, groupBy, query, filter, hidden);
+            }
+        });
     }
 
     @Path("{appName}/items/{itemId}")
     @GET
-    public Map<String, Object> getItem(@PathParam("appName") String appId,
-                                       @PathParam("itemId") String itemId,
-                                       @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItem(@PathParam("appName") final String appId,
+                                       @PathParam("itemId") final String itemId,
+                                       @QueryParam("properties") final String properties) throws Exception
     {
-        List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
-        Application app = getApplication(null, appId);
-        return app.getItem(itemId, propertiesList);
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(null, appId);
+                return app.getItem(itemId, propertiesList);
+            }
+        });
     }
 
     @Path("{appName}/items/{itemId}")
@@ -153,15 +209,41 @@ public class ApplicationsResource extends XWikiResource
     @Consumes({ MediaType.APPLICATION_JSON })
     public Map<String, Object> storeItem(@PathParam("appName") String appId,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(null, appId);
+        ItemMap newItemData = ApplicationRestTools.readItem(app, input);
         ItemMap item = app.getItem(itemId);
-        ItemMap newItemData = new ObjectMapper().readValue(jsonRequest, ItemMap.class);
-        ApplicationRestTools.updateMapFromJson(newItemData, item);
+        item.putAll(newItemData);
         return app.storeItem(item);
     }
 
+    @Path("{appName}/items")
+    @PUT
+    @Consumes({ MediaType.APPLICATION_JSON, "application/x-ndjson" })
+    public Map<String, Object> storeItems(@PathParam("appName") String appId,
+            @QueryParam("batchSize") String batchSize,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(null, appId);
+        return ApplicationRestTools.storeItems(app, input, batchSize);
+    }
+
+    /**
+     * Create an item with an id allocated by the server: a new document named from the sequence of the application
+     * for AWM applications, or a new object in the document given by the "id" field for the other applications.
+     * @return the state of the save and the id of the new item ("Id")
+     */
+    @Path("{appName}/items")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    public Map<String, Object> createItem(@PathParam("appName") String appId,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(null, appId);
+        return app.createItem(ApplicationRestTools.readItem(app, input));
+    }
+
     @Path("{appName}/items/{itemId}")
     @DELETE
     public Map<String, Object> deleteItem(@PathParam("appName") String appId,
@@ -187,28 +269,65 @@ public class ApplicationsResource extends XWikiResource
     @Consumes({ MediaType.APPLICATION_JSON })
     public Map<String, Object> storeItemDocument(@PathParam("appName") String appId,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(null, appId);
-        DocumentMap docData = new ObjectMapper().readValue(jsonRequest, DocumentMap.class);
+        DocumentMap docData = ApplicationRestTools.readDocument(app, input);
         ItemMap item = app.getItem(itemId);
         DocumentMap oldDocData = item.getDocumentFields();
-        ApplicationRestTools.updateMapFromJson(docData, oldDocData);
+        ApplicationRestTools.updateDocumentFields(docData, oldDocData);
         return app.storeItem(item, oldDocData);
     }
 
+    @Path("{appName}/import")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN, "text/csv", "application/x-ndjson" })
+    public Map<String, Object> importItems(@PathParam("appName") String appId,
+            @QueryParam("format") String format,
+            @QueryParam("batchSize") String batchSize,
+            InputStream input) throws Exception
+    {
+        return ImportRestTools.startImport(itemImporter, null, appId, format, batchSize, input);
+    }
+
+    @Path("{appName}/import/{importId}")
+    @GET
+    public Map<String, Object> getImportStatus(@PathParam("appName") String appId,
+            @PathParam("importId") String importId) throws Exception
+    {
+        return itemImporter.getImportStatus(null, appId, importId);
+    }
+
+    /**
+     * Report the properties of the application which have no database index, with the cost of ordering by them.
+     * @param properties the properties to inspect, all the properties of the class by default
+     */
+    @Path("{appName}/indexes")
+    @GET
+    public List<Map<String, Object>> getIndexes(@PathParam("appName") String appId,
+            @QueryParam("properties") String properties) throws Exception
+    {
+        DocumentReference classRef =
+            ApplicationRestTools.getClassRef(xcontextProvider.get(), awmRegistry, null, appId, resolver);
+        return indexAdvisor.analyze(classRef, ApplicationRestTools.getPropertiesList(properties));
+    }
+
+    /**
+     * Create the missing database indexes of the properties of the application (requires the programming right).
+     * @param properties the properties to index, all the properties of the class by default
+     */
+    @Path("{appName}/indexes")
+    @POST
+    public List<Map<String, Object>> createIndexes(@PathParam("appName") String appId,
+            @QueryParam("properties") String properties) throws Exception
+    {
+        DocumentReference classRef =
+            ApplicationRestTools.getClassRef(xcontextProvider.get(), awmRegistry, null, appId, resolver);
+        return indexAdvisor.createIndexes(classRef, ApplicationRestTools.getPropertiesList(properties));
+    }
+
     private Application getApplication(String wikiName, String appId) throws XWikiException
     {
-        XWikiContext context = xcontextProvider.get();
-        Application newApp;
-        DocumentReference awmWebHomeRef = ApplicationRestTools.getAWMRef(context, wikiName, appId);
-        if(AWMApplication.isAWM(context, awmWebHomeRef) != null) {
-            newApp = new AWMApplication(context, authorization, resolver, serializer, queryManager, appLogger, awmWebHomeRef);
-        }
-        else {
-            DocumentReference classRef = ApplicationRestTools.getClassRef(wikiName, appId, resolver);
-            newApp = new DefaultApplication(context, authorization, resolver, serializer, queryManager, appLogger, classRef);
-        }
-        return newApp;
+        return applicationFactory.getApplication(wikiName, appId);
     }
 }
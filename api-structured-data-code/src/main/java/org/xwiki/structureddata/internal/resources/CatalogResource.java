@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal.resources;
+
+import com.xpn.xwiki.XWikiException;
+
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.xwiki.structureddata.internal.ApplicationCatalog;
+
+/**
+ * Rest resource for the list of applications in a wiki.
+ *
+ * @version $Id$
+ */
+public class CatalogResource
+{
+    /**
+     * Get the list of applications of a wiki from the catalog.
+     * @param catalog the application catalog
+     * @param wikiId the id of the wiki
+     * @param filter a text which must be contained in the name of the applications
+     * @param offset the offset for the results to display
+     * @param limit the maximum number of results to display
+     * @return a map with the applications
+     * @throws XWikiException if the AWM applications of the wiki can't be indexed
+     * @throws WebApplicationException with a 400 response if the offset or the limit is not a number
+     */
+    protected static Map<String, Object> getResource(ApplicationCatalog catalog,
+                                                     String wikiId,
+                                                     String filter,
+                                                     String offset,
+                                                     String limit) throws XWikiException
+    {
+        int offsetValue;
+        int limitValue;
+        try {
+            offsetValue = offset != null ? Integer.parseInt(offset) : 0;
+            limitValue = limit != null ? Integer.parseInt(limit) : -1;
+        } catch (NumberFormatException e) {
+            throw new WebApplicationException(ApplicationRestTools.getBadRequest("Invalid offset or limit"));
+        }
+        return catalog.getApplications(wikiId, filter, offsetValue, limitValue);
+    }
+}
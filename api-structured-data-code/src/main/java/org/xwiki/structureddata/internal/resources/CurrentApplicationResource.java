@@ -19,36 +19,35 @@
  */
 package org.xwiki.structureddata.internal.resources;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import org.slf4j.Logger;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.rest.XWikiResource;
-import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.structureddata.Application;
-import org.xwiki.structureddata.internal.AWMApplication;
+import org.xwiki.structureddata.internal.AWMDescriptor;
+import org.xwiki.structureddata.internal.AWMRegistry;
+import org.xwiki.structureddata.internal.ApplicationFactory;
+import org.xwiki.structureddata.internal.ApplicationExecutor;
 import org.xwiki.structureddata.internal.DocumentMap;
 import org.xwiki.structureddata.internal.ItemMap;
 
@@ -66,14 +65,13 @@ public class CurrentApplicationResource extends XWikiResource
     private EntityReferenceResolver<String> resolver;
 
     @Inject
-    private Logger appLogger;
+    private ApplicationExecutor executor;
 
     @Inject
-    @Named("local")
-    protected EntityReferenceSerializer<String> serializer;
+    private AWMRegistry awmRegistry;
 
     @Inject
-    ContextualAuthorizationManager authorization;
+    private ApplicationFactory applicationFactory;
 
     @GET
     public Map<String, Object> getCurrent(@PathParam("pageFullName") String pageFullName) throws Exception
@@ -96,32 +94,70 @@ public class CurrentApplicationResource extends XWikiResource
 
     @Path("/items")
     @GET
-    public Map<String, Object> getItems(@PathParam("pageFullName") String pageFullName,
-                                        @QueryParam("limit") String limit,
-                                        @QueryParam("offset") String offset,
-                                        @QueryParam("query") String query,
-                                        @QueryParam("hidden") String hidden,
-                                        @QueryParam("order") String order,
-                                        @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItems(@PathParam("pageFullName") final String pageFullName,
+                                        @QueryParam("limit") final String limit,
+                                        @QueryParam("offset") final String offset,
+                                        @QueryParam("query") final String query,
+                                        @QueryParam("filter") final String filter,
+                                        @QueryParam("hidden") final String hidden,
+                                        @QueryParam("order") final String order,
+                                        @QueryParam("properties") final String properties) throws Exception
     {
-        List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
-        Application app = getApplication(pageFullName);
-        if(app == null)
-            return new HashMap<>();
-        return ItemsResource.getResource(app, limit, offset, query, hidden, order, propertiesList);
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(pageFullName);
+                if(app == null)
+                    return new HashMap<>();
+                return ItemsResource.getResource(app, limit, offset, query, filter, hidden, order, propertiesList);
+            }
+        });
+    }
+
+    @Path("/aggregate")
+    @GET
+    public Map<String, Object> aggregate(@PathParam("pageFullName") final String pageFullName,
+                                         @QueryParam("function") final String function,
+                                         @QueryParam("property") final String property,
+                                         @QueryParam("groupBy") final String groupBy,
+                                         @QueryParam("query") final String query,
+                                         @QueryParam("filter") final String filter,
+                                         @QueryParam("hidden") final String hidden) throws Exception
+    {
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(pageFullName);
+                if(app == null)
+                    return new HashMap<>();
+                return ItemsResource.getAggregateResource(app, function, property, groupBy, query, filter, hidden);
+            }
+        });
     }
 
     @Path("/items/{itemId}")
     @GET
-    public Map<String, Object> getItem(@PathParam("pageFullName") String pageFullName,
-                                       @PathParam("itemId") String itemId,
-                                       @QueryParam("properties") String properties) throws Exception
+    public Map<String, Object> getItem(@PathParam("pageFullName") final String pageFullName,
+                                       @PathParam("itemId") final String itemId,
+                                       @QueryParam("properties") final String properties) throws Exception
     {
-        List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
-        Application app = getApplication(pageFullName);
-        if(app == null)
-            return new HashMap<>();
-        return app.getItem(itemId, propertiesList);
+        final List<String> propertiesList = ApplicationRestTools.getPropertiesList(properties);
+        return ApplicationRestTools.execute(executor, null, new Callable<Map<String, Object>>()
+        {
+            @Override
+            public Map<String, Object> call() throws Exception
+            {
+                Application app = getApplication(pageFullName);
+                if(app == null)
+                    return new HashMap<>();
+                return app.getItem(itemId, propertiesList);
+            }
+        });
     }
 
     @Path("/items/{itemId}")
@@ -129,17 +165,47 @@ public class CurrentApplicationResource extends XWikiResource
     @Consumes({ MediaType.APPLICATION_JSON })
     public Map<String, Object> storeItem(@PathParam("pageFullName") String pageFullName,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(pageFullName);
         if(app == null)
             return new HashMap<>();
+        ItemMap newItemData = ApplicationRestTools.readItem(app, input);
         ItemMap item = app.getItem(itemId);
-        ItemMap newItemData = new ObjectMapper().readValue(jsonRequest, ItemMap.class);
-        ApplicationRestTools.updateMapFromJson(newItemData, item);
+        item.putAll(newItemData);
         return app.storeItem(item);
     }
 
+    @Path("/items")
+    @PUT
+    @Consumes({ MediaType.APPLICATION_JSON, "application/x-ndjson" })
+    public Map<String, Object> storeItems(@PathParam("pageFullName") String pageFullName,
+            @QueryParam("batchSize") String batchSize,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(pageFullName);
+        if(app == null)
+            return new HashMap<>();
+        return ApplicationRestTools.storeItems(app, input, batchSize);
+    }
+
+    /**
+     * Create an item with an id allocated by the server: a new document named from the sequence of the application
+     * for AWM applications, or a new object in the document given by the "id" field for the other applications.
+     * @return the state of the save and the id of the new item ("Id")
+     */
+    @Path("/items")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON })
+    public Map<String, Object> createItem(@PathParam("pageFullName") String pageFullName,
+            InputStream input) throws Exception
+    {
+        Application app = getApplication(pageFullName);
+        if(app == null)
+            return new HashMap<>();
+        return app.createItem(ApplicationRestTools.readItem(app, input));
+    }
+
     @Path("/items/{itemId}")
     @DELETE
     public Map<String, Object> deleteItem(@PathParam("pageFullName") String pageFullName,
@@ -167,27 +233,24 @@ public class CurrentApplicationResource extends XWikiResource
     @Consumes({ MediaType.APPLICATION_JSON })
     public Map<String, Object> storeItemDocument(@PathParam("pageFullName") String pageFullName,
             @PathParam("itemId") String itemId,
-            String jsonRequest) throws Exception
+            InputStream input) throws Exception
     {
         Application app = getApplication(pageFullName);
         if(app == null)
             return new HashMap<>();
-        DocumentMap docData = new ObjectMapper().readValue(jsonRequest, DocumentMap.class);
+        DocumentMap docData = ApplicationRestTools.readDocument(app, input);
         ItemMap item = app.getItem(itemId);
         DocumentMap oldDocData = item.getDocumentFields();
-        ApplicationRestTools.updateMapFromJson(docData, oldDocData);
+        ApplicationRestTools.updateDocumentFields(docData, oldDocData);
         return app.storeItem(item, oldDocData);
     }
 
     private Application getApplication(String pageFullName) throws XWikiException
     {
-        XWikiContext context = xcontextProvider.get();
         DocumentReference pageRef = new DocumentReference(resolver.resolve(pageFullName, EntityType.DOCUMENT));
-        XWikiDocument xDoc = context.getWiki().getDocument(pageRef, context);
-        context.setDoc(xDoc);
-        DocumentReference awmWebHomeRef = AWMApplication.isAWM(context, serializer);
-        if(awmWebHomeRef != null) {
-            return new AWMApplication(context, authorization, resolver, serializer, queryManager, appLogger, awmWebHomeRef);
+        AWMDescriptor awmDescriptor = awmRegistry.getApplicationOf(pageRef);
+        if(awmDescriptor != null) {
+            return applicationFactory.getAWMApplication(awmDescriptor);
         }
         return null;
     }
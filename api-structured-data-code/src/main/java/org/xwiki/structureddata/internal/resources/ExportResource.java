@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal.resources;
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.internal.CsvItemWriter;
+import org.xwiki.structureddata.internal.ItemMap;
+import org.xwiki.structureddata.internal.ItemWriter;
+import org.xwiki.structureddata.internal.JsonTools;
+import org.xwiki.structureddata.internal.NdjsonItemWriter;
+
+/**
+ * Rest ressource streaming all the items of an Application.
+ * 
+ * @version $Id$
+ */
+public class ExportResource
+{
+    private static final String FORMAT_CSV = "csv";
+
+    private static final String FORMAT_NDJSON = "ndjson";
+
+    private static final String GZIP = "gzip";
+
+    private static final String TYPE_CSV = "text/csv";
+
+    private static final String TYPE_NDJSON = "application/x-ndjson";
+
+    private static final String ERROR = "Error";
+
+    /**
+     * Stream the items of an application, one item per line.
+     * @param app the application object
+     * @param format the format of the export (ndjson or csv)
+     * @param query a query filter for the result (HQL "where" clause)
+     * @param filter a structured filter for the result (JSON, see ItemFilter)
+     * @param hidden true if the hidden documents should be exported
+     * @param properties the list of properties to export (all properties if it is empty)
+     * @param acceptEncoding the encodings accepted by the client, the export is compressed if gzip is accepted
+     * @return the response streaming the items
+     * @throws Exception 
+     */
+    protected static Response getResource(Application app,
+                                          String format,
+                                          String query,
+                                          String filter,
+                                          String hidden,
+                                          List<String> properties,
+                                          String acceptEncoding) throws Exception
+    {
+        final boolean csv = FORMAT_CSV.equals(format);
+        if (format != null && !csv && !FORMAT_NDJSON.equals(format)) {
+            return getBadRequest(false, "Unsupported export format [" + format + "]");
+        }
+        Map<String, Object> options = new HashMap<>();
+        if (query != null) {
+            options.put("query", query);
+        }
+        if (filter != null) {
+            options.put("filter", filter);
+        }
+        if (hidden != null) {
+            options.put("hidden", hidden);
+        }
+        final List<String> columns = new ArrayList<>(properties);
+        if (properties.size() > 0) {
+            options.put("properties", properties);
+        } else if (csv) {
+            columns.addAll(app.getSchema().keySet());
+            Collections.sort(columns);
+        }
+        final Iterator<ItemMap> items = app.getItemsIterator(options);
+        try {
+            // Load the first page before the response is committed, so that an invalid filter gets an error status
+            items.hasNext();
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                return getBadRequest(csv, e.getCause().getMessage());
+            }
+            throw e;
+        }
+        final boolean gzip = acceptEncoding != null && acceptEncoding.contains(GZIP);
+
+        StreamingOutput output = new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                GZIPOutputStream gzipOutput = gzip ? new GZIPOutputStream(out, true) : null;
+                OutputStream stream = gzip ? gzipOutput : out;
+                ItemWriter writer = csv ? new CsvItemWriter(stream, columns)
+                    : new NdjsonItemWriter(JsonTools.MAPPER, stream);
+                while (items.hasNext()) {
+                    writer.write(items.next());
+                }
+                writer.flush();
+                if (gzipOutput != null) {
+                    gzipOutput.finish();
+                }
+            }
+        };
+        Response.ResponseBuilder response = Response.ok(output, csv ? TYPE_CSV : TYPE_NDJSON);
+        if (gzip) {
+            response.header("Content-Encoding", GZIP);
+        }
+        return response.build();
+    }
+
+    /**
+     * The errors are written in the format of the export, which is the only format produced by the export endpoints:
+     * a CSV line with an "Error" column, or a JSON line with an "Error" field.
+     */
+    private static Response getBadRequest(boolean csv, String message) throws IOException
+    {
+        String entity;
+        if (csv) {
+            entity = ERROR + "\r\n\"" + String.valueOf(message).replace("\"", "\"\"") + "\"\r\n";
+        } else {
+            entity = JsonTools.MAPPER.writeValueAsString(Collections.singletonMap(ERROR, message)) + "\n";
+        }
+        return Response.status(Response.Status.BAD_REQUEST).entity(entity).type(csv ? TYPE_CSV : TYPE_NDJSON)
+            .build();
+    }
+}
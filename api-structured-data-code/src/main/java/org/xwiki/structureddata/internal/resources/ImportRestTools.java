@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal.resources;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.structureddata.internal.ItemImporter;
+
+/**
+ * Tools for the REST endpoints importing data sets in an Application.
+ * 
+ * @version $Id$
+ */
+public class ImportRestTools
+{
+    /**
+     * Start the import of a data set.
+     * @param importer the importer running the imports
+     * @param wikiName the wiki of the application, or null for the current wiki
+     * @param appId the id of the application
+     * @param format the format of the data (csv, json or ndjson)
+     * @param batchSize the number of items stored together
+     * @param input the data to import
+     * @return a map with the id of the import
+     * @throws Exception
+     */
+    protected static Map<String, Object> startImport(ItemImporter importer,
+                                                     String wikiName,
+                                                     String appId,
+                                                     String format,
+                                                     String batchSize,
+                                                     InputStream input) throws Exception
+    {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            int size = batchSize != null ? Integer.parseInt(batchSize) : 0;
+            result.put("Id", importer.startImport(wikiName, appId, format, input, size));
+        } catch (IllegalArgumentException e) {
+            result.put("Error", e.getMessage());
+        }
+        return result;
+    }
+}
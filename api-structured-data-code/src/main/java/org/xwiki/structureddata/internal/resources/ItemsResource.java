@@ -19,11 +19,16 @@
  */
 package org.xwiki.structureddata.internal.resources;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.ws.rs.WebApplicationException;
+
 import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.FederatedApplication;
+import org.xwiki.structureddata.internal.ApplicationFactory;
 
 /**
  * Rest ressource for the list of items in an Application.
@@ -38,6 +43,7 @@ public class ItemsResource
      * @param limit the maximum number of results to display
      * @param offset the offset for the results to display
      * @param query a query filter for the result (HQL "where" clause)
+     * @param filter a structured filter for the result (JSON, see ItemFilter)
      * @return a map with the items
      * @throws Exception 
      */
@@ -45,6 +51,7 @@ public class ItemsResource
                                                      String limit,
                                                      String offset,
                                                      String query,
+                                                     String filter,
                                                      String hidden,
                                                      String order,
                                                      List<String> properties) throws Exception
@@ -59,6 +66,62 @@ public class ItemsResource
         if (query != null) {
             options.put("query", query);
         }
+        if (filter != null) {
+            options.put("filter", filter);
+        }
+        if (hidden != null) {
+            options.put("hidden", hidden);
+        }
+        if (order != null) {
+            options.put("order", order);
+        }
+        if (properties != null && properties.size() > 0) {
+            options.put("properties", properties);
+        }
+        try {
+            return app.getItems(options);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(ApplicationRestTools.getBadRequest(e.getMessage()));
+        }
+    }
+
+    /**
+     * Get a page of the items of an application in several wikis.
+     * @param factory the application factory
+     * @param appId the id of the application
+     * @param wikis the comma-separated list of wikis, or "*" for all the wikis
+     * @param limit the maximum number of results to display
+     * @param cursor the cursor returned with the previous page
+     * @param query a query filter for the result (HQL "where" clause)
+     * @param filter a structured filter for the result (JSON, see ItemFilter)
+     * @return a map with the items, the cursor of the next page and the errors
+     * @throws Exception
+     */
+    protected static Map<String, Object> getFederatedResource(ApplicationFactory factory,
+                                                              String appId,
+                                                              String wikis,
+                                                              String limit,
+                                                              String cursor,
+                                                              String query,
+                                                              String filter,
+                                                              String hidden,
+                                                              String order,
+                                                              List<String> properties) throws Exception
+    {
+        FederatedApplication app = factory.getFederatedApplication(Arrays.asList(wikis.split(",")), appId);
+        Map<String, Object> options = new HashMap<>();
+        if (limit != null) {
+            options.put("limit", Integer.parseInt(limit));
+        }
+        if (cursor != null) {
+            options.put("cursor", cursor);
+        }
+        if (query != null) {
+            options.put("query", query);
+        }
+        if (filter != null) {
+            options.put("filter", filter);
+        }
         if (hidden != null) {
             options.put("hidden", hidden);
         }
@@ -68,6 +131,56 @@ public class ItemsResource
         if (properties != null && properties.size() > 0) {
             options.put("properties", properties);
         }
-        return app.getItems(options);
+        try {
+            return app.getItems(options);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(ApplicationRestTools.getBadRequest(e.getMessage()));
+        }
+    }
+
+    /**
+     * Get an aggregate of the items of an application.
+     * @param app the application object
+     * @param function the aggregate function (count, sum, avg, min or max)
+     * @param property the aggregated property
+     * @param groupBy the property whose values define the groups
+     * @param query a query filter for the result (HQL "where" clause)
+     * @param filter a structured filter for the result (JSON, see ItemFilter)
+     * @param hidden "true" to aggregate the items of the hidden documents
+     * @return a map with the aggregate
+     * @throws Exception
+     */
+    protected static Map<String, Object> getAggregateResource(Application app,
+                                                              String function,
+                                                              String property,
+                                                              String groupBy,
+                                                              String query,
+                                                              String filter,
+                                                              String hidden) throws Exception
+    {
+        Map<String, Object> options = new HashMap<>();
+        if (function != null) {
+            options.put("function", function);
+        }
+        if (property != null) {
+            options.put("property", property);
+        }
+        if (groupBy != null) {
+            options.put("groupBy", groupBy);
+        }
+        if (query != null) {
+            options.put("query", query);
+        }
+        if (filter != null) {
+            options.put("filter", filter);
+        }
+        if (hidden != null) {
+            options.put("hidden", hidden);
+        }
+        try {
+            return app.aggregate(options);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(ApplicationRestTools.getBadRequest(e.getMessage()));
+        }
     }
 }
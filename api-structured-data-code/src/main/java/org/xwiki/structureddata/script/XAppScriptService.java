@@ -19,27 +19,55 @@
  */
 package org.xwiki.structureddata.script;
 
-import org.slf4j.Logger;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.script.service.ScriptService;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.model.EntityType;
-import org.xwiki.structureddata.internal.DefaultApplication;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.WikiReference;
-import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AccessDeniedException;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
-import org.xwiki.structureddata.internal.AWMApplication;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.structureddata.internal.AWMDescriptor;
+import org.xwiki.structureddata.internal.AWMRegistry;
+import org.xwiki.structureddata.internal.ApplicationExecutor;
+import org.xwiki.structureddata.internal.ApplicationFactory;
+import org.xwiki.structureddata.internal.DedicatedTableJob;
+import org.xwiki.structureddata.internal.DedicatedTableRequest;
+import org.xwiki.structureddata.internal.DefaultAsyncApplication;
+import org.xwiki.structureddata.internal.ImportJob;
+import org.xwiki.structureddata.internal.ItemFilter;
+import org.xwiki.structureddata.internal.ItemImporter;
+import org.xwiki.structureddata.internal.ItemWriteBuffer;
+import org.xwiki.structureddata.internal.ItemsCache;
+import org.xwiki.structureddata.internal.PartitionJob;
+import org.xwiki.structureddata.internal.PartitionRequest;
+import org.xwiki.structureddata.internal.PropertyIndexAdvisor;
 import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.AsyncApplication;
+import org.xwiki.structureddata.FederatedApplication;
+import org.xwiki.wiki.manager.WikiManagerException;
 
 /**
  * Make the Application API available to scripting.
@@ -55,20 +83,35 @@ public class XAppScriptService implements ScriptService
     protected Provider<XWikiContext> xcontextProvider;
 
     @Inject
+    @Named("structureddata.cached")
     protected ContextualAuthorizationManager authorizationManager;
 
     @Inject
-    protected QueryManager queryManager;
+    protected EntityReferenceResolver<String> resolver;
 
     @Inject
-    protected EntityReferenceResolver<String> resolver;
+    protected ItemImporter itemImporter;
+
+    @Inject
+    protected ApplicationFactory applicationFactory;
+
+    @Inject
+    protected ApplicationExecutor applicationExecutor;
 
     @Inject
-    @Named("local")
-    protected EntityReferenceSerializer<String> serializer;
+    protected AWMRegistry awmRegistry;
 
     @Inject
-    private Logger logger;
+    protected ItemsCache itemsCache;
+
+    @Inject
+    protected ItemWriteBuffer writeBuffer;
+
+    @Inject
+    protected JobExecutor jobExecutor;
+
+    @Inject
+    protected PropertyIndexAdvisor indexAdvisor;
 
     /**
      * Get an Application with the name of its class.
@@ -78,26 +121,7 @@ public class XAppScriptService implements ScriptService
      */
     public Application getApp(String appId) throws XWikiException
     {
-        XWikiContext context = this.xcontextProvider.get();
-        
-        Application newApp;
-        DocumentReference awmWebHomeRef = new DocumentReference(context.getWikiId(), appId, "WebHome");
-        if(AWMApplication.isAWM(context, awmWebHomeRef) != null) {
-            newApp = new AWMApplication(context, authorizationManager, resolver, serializer, queryManager, logger, awmWebHomeRef);
-        }
-        else {
-            // Check if the wiki name is specified in the string. If not, get the wiki of the current document
-            if(appId.matches("(.+):(.+)[^\\\\]?\\.(.+)")) {
-                DocumentReference classRef = new DocumentReference(resolver.resolve(appId, EntityType.DOCUMENT));
-                newApp = new DefaultApplication(context, authorizationManager, resolver, serializer, queryManager, logger, classRef);
-            }
-            else {
-                WikiReference wikiRef = context.getDoc().getDocumentReference().getWikiReference();
-                DocumentReference classRef = new DocumentReference(resolver.resolve(appId, EntityType.DOCUMENT, wikiRef));
-                newApp = new DefaultApplication(context, authorizationManager, resolver, serializer, queryManager, logger, classRef);
-            }
-        }
-        return newApp;
+        return applicationFactory.getApplication(null, appId);
     }
 
     /**
@@ -108,10 +132,7 @@ public class XAppScriptService implements ScriptService
      */
     public Application getApp(DocumentReference classReference) throws XWikiException
     {
-        XWikiContext context = this.xcontextProvider.get();
-        
-        Application newApp = new DefaultApplication(context, authorizationManager, resolver, serializer, queryManager, logger, classReference);
-        return newApp;
+        return applicationFactory.getClassApplication(classReference);
     }
 
     /**
@@ -122,14 +143,275 @@ public class XAppScriptService implements ScriptService
     public Application getCurrent() throws XWikiException
     {
         XWikiContext context = this.xcontextProvider.get();
-        
-        Application newApp = null;
-        DocumentReference awmWebHomeRef = AWMApplication.isAWM(context, serializer);
-        if(awmWebHomeRef != null) {
-            newApp = new AWMApplication(context, authorizationManager, resolver, serializer, queryManager, logger, awmWebHomeRef);
+        AWMDescriptor awmDescriptor = awmRegistry.getApplicationOf(context.getDoc().getDocumentReference());
+        if(awmDescriptor != null) {
+            return applicationFactory.getAWMApplication(awmDescriptor);
         }
+        return null;
+    }
 
-        return newApp;
+    /**
+     * Get an asynchronous view of an Application of the current wiki. Its operations run in background threads and
+     * return a Future, so that several applications can be read at the same time.
+     * @param appId the id of the application (AWM id or class full name)
+     * @return the AsyncApplication
+     */
+    public AsyncApplication getAsyncApp(String appId)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        return new DefaultAsyncApplication(applicationFactory, applicationExecutor, context.getWikiId(), appId);
     }
 
+    /**
+     * Read a structured filter, to use as the "filter" option of getItems instead of a raw "query".
+     * @param definition the map (or JSON) representation of the filter, for example
+     *     {"op": "and", "filters": [{"op": "eq", "property": "city", "value": "Paris"},
+     *     {"op": "range", "property": "age", "min": 18}]}
+     * @return the filter
+     * @throws IllegalArgumentException if the definition is not a valid filter
+     */
+    public ItemFilter getFilter(Object definition)
+    {
+        return ItemFilter.from(definition);
+    }
+
+    /**
+     * Get an Application queried in several wikis at once. Its items are queried in parallel in each wiki and merged
+     * in the requested order.
+     * @param appId the id of the application in each wiki (AWM id or class full name)
+     * @param wikis the wikis in which the application is queried, "*" for all the wikis of the farm
+     * @return the FederatedApplication
+     * @throws WikiManagerException
+     */
+    public FederatedApplication getFederatedApp(String appId, List<String> wikis) throws WikiManagerException
+    {
+        return this.applicationFactory.getFederatedApplication(wikis, appId);
+    }
+
+    /**
+     * Get the statistics of the cache of the items queries.
+     * @return the number of queries answered from the cache ("Hits"), from the database ("Misses") and from the
+     *         same query run at the same time by another request ("Coalesced")
+     */
+    public Map<String, Object> getCacheStatistics()
+    {
+        return this.itemsCache.getStatistics();
+    }
+
+    /**
+     * Get the statistics of the buffer of the write-behind properties.
+     * @return the number of updates kept in memory ("Buffered"), of documents saved with them ("Saved"), of failed
+     *         saves ("Failed"), of items whose updates have been dropped ("Dropped") and of items waiting to be saved
+     *         ("Pending")
+     */
+    public Map<String, Object> getWriteBufferStatistics()
+    {
+        return this.writeBuffer.getStatistics();
+    }
+
+    /**
+     * Save the buffered updates of the write-behind properties now, e.g. before a backup.
+     * @return the keys of the items whose updates couldn't be saved
+     * @throws AccessDeniedException if the current user isn't an administrator of the wiki
+     */
+    public List<String> flushWrites() throws AccessDeniedException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        this.authorizationManager.checkAccess(Right.ADMIN, new WikiReference(context.getWikiId()));
+        return this.writeBuffer.flush();
+    }
+
+    /**
+     * Import a data set in an application of the current wiki, in the background.
+     * @param appId the id of the application (AWM id or class full name)
+     * @param format the format of the data (csv, json or ndjson)
+     * @param data the data to import
+     * @return the id of the import, used to get its status
+     * @throws IOException
+     * @throws JobException
+     */
+    public String importItems(String appId, String format, String data) throws IOException, JobException
+    {
+        InputStream input = new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+        return importItems(appId, format, input, ImportJob.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Import a data set in an application of the current wiki, in the background.
+     * @param appId the id of the application (AWM id or class full name)
+     * @param format the format of the data (csv, json or ndjson)
+     * @param input the data to import
+     * @param batchSize the number of items stored together
+     * @return the id of the import, used to get its status
+     * @throws IOException
+     * @throws JobException
+     */
+    public String importItems(String appId, String format, InputStream input, int batchSize)
+        throws IOException, JobException
+    {
+        return this.itemImporter.startImport(null, appId, format, input, batchSize);
+    }
+
+    /**
+     * Get the status of an import started by the current user.
+     * @param appId the id of the application (AWM id or class full name)
+     * @param importId the id of the import
+     * @return a map with the state, the progress, the counters and the errors of the import
+     */
+    public Map<String, Object> getImportStatus(String appId, String importId)
+    {
+        return this.itemImporter.getImportStatus(null, appId, importId);
+    }
+
+    /**
+     * Move the items of a partitioned AWM application of the current wiki to their partition, in the background. The
+     * number of partitions of an application is set with the "structureddata.partitions" configuration.
+     * @param appId the id of the AWM application
+     * @throws AccessDeniedException if the current user isn't an administrator of the wiki
+     * @throws JobException if the migration can't be started
+     */
+    public void startPartitioning(String appId) throws AccessDeniedException, JobException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        this.authorizationManager.checkAccess(Right.ADMIN, new WikiReference(context.getWikiId()));
+        PartitionRequest request = new PartitionRequest(getPartitionJobId(context.getWikiId(), appId));
+        request.setWiki(context.getWikiId());
+        request.setAppId(appId);
+        request.setUserReference(context.getUserReference());
+        this.jobExecutor.execute(PartitionJob.JOBTYPE, request);
+    }
+
+    /**
+     * Get the status of the migration of an AWM application of the current wiki to its partitions.
+     * @param appId the id of the AWM application
+     * @return a map with the state, the progress and the counters of the migration, or an empty map if the migration
+     *         hasn't been started
+     */
+    public Map<String, Object> getPartitioningStatus(String appId)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        Map<String, Object> result = new HashMap<>();
+        Job job = this.jobExecutor.getJob(getPartitionJobId(context.getWikiId(), appId));
+        if (job == null) {
+            return result;
+        }
+        JobStatus status = job.getStatus();
+        result.put("State", status.getState() != null ? status.getState().name() : null);
+        result.put("Progress", status.getProgress().getOffset());
+        if (job instanceof PartitionJob) {
+            result.put("Moved", ((PartitionJob) job).getMovedCount());
+            result.put("Failed", ((PartitionJob) job).getFailedCount());
+        }
+        return result;
+    }
+
+    /**
+     * Report the properties of an application of the current wiki which have no database index. Requires the admin
+     * right on the wiki.
+     * @param appId the id of the application (AWM id or class full name)
+     * @return for each property, its table, whether it is indexed, the time in milliseconds of a page of items
+     *         ordered by the property and the statement creating the missing index
+     * @throws Exception if the current user isn't an administrator, or if the indexes can't be read
+     */
+    public List<Map<String, Object>> getIndexAdvice(String appId) throws Exception
+    {
+        return this.indexAdvisor.analyze(getClassReference(appId), null);
+    }
+
+    /**
+     * Create the missing database indexes of the properties of an application of the current wiki. Requires the
+     * programming right.
+     * @param appId the id of the application (AWM id or class full name)
+     * @return the report of {@link #getIndexAdvice(String)}, with the created indexes
+     * @throws Exception if the current user doesn't have the programming right, or if the indexes can't be created
+     */
+    public List<Map<String, Object>> createIndexes(String appId) throws Exception
+    {
+        return this.indexAdvisor.createIndexes(getClassReference(appId), null);
+    }
+
+    /**
+     * Store the items of an application of the current wiki in a dedicated table, in the background: the existing
+     * objects are migrated, then the items are queried on this table only. The values of the items are left in the
+     * generic tables until {@link #cleanupDedicatedTable(String)} is called. Requires the programming right, since the
+     * database schema is changed, and the dynamic custom mappings of the store.
+     * @param appId the id of the application (AWM id or class full name)
+     * @throws AccessDeniedException if the current user doesn't have the programming right
+     * @throws JobException if the migration can't be started
+     */
+    public void startDedicatedTable(String appId) throws AccessDeniedException, JobException, XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        this.authorizationManager.checkAccess(Right.PROGRAM);
+        DedicatedTableRequest request = new DedicatedTableRequest(getDedicatedTableJobId(context.getWikiId(), appId));
+        request.setClassReference(getClassReference(appId));
+        request.setUserReference(context.getUserReference());
+        this.jobExecutor.execute(DedicatedTableJob.JOBTYPE, request);
+    }
+
+    /**
+     * Remove the values left in the generic tables by the migration of an application of the current wiki to its
+     * dedicated table, in the background. The migration has to be completed first. The removed values can't be
+     * restored, the cleanup should only be started once the items read from the dedicated table have been checked.
+     * Requires the programming right.
+     * @param appId the id of the application (AWM id or class full name)
+     * @throws AccessDeniedException if the current user doesn't have the programming right
+     * @throws JobException if the cleanup can't be started
+     */
+    public void cleanupDedicatedTable(String appId) throws AccessDeniedException, JobException, XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        this.authorizationManager.checkAccess(Right.PROGRAM);
+        DedicatedTableRequest request = new DedicatedTableRequest(getDedicatedTableJobId(context.getWikiId(), appId));
+        request.setClassReference(getClassReference(appId));
+        request.setUserReference(context.getUserReference());
+        request.setCleanup(true);
+        this.jobExecutor.execute(DedicatedTableJob.JOBTYPE, request);
+    }
+
+    /**
+     * Get the status of the migration of an application of the current wiki to its dedicated table, or of its cleanup.
+     * @param appId the id of the application (AWM id or class full name)
+     * @return a map with the state, the progress and the counters of the migration, or an empty map if the migration
+     *         hasn't been started
+     */
+    public Map<String, Object> getDedicatedTableStatus(String appId)
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        Map<String, Object> result = new HashMap<>();
+        Job job = this.jobExecutor.getJob(getDedicatedTableJobId(context.getWikiId(), appId));
+        if (job == null) {
+            return result;
+        }
+        JobStatus status = job.getStatus();
+        result.put("State", status.getState() != null ? status.getState().name() : null);
+        result.put("Progress", status.getProgress().getOffset());
+        if (job instanceof DedicatedTableJob) {
+            result.put("Migrated", ((DedicatedTableJob) job).getMigratedCount());
+            result.put("Failed", ((DedicatedTableJob) job).getFailedCount());
+        }
+        return result;
+    }
+
+    private List<String> getDedicatedTableJobId(String wikiId, String appId)
+    {
+        return Arrays.asList("structureddata", "dedicatedtable", wikiId, appId);
+    }
+
+    private DocumentReference getClassReference(String appId) throws XWikiException
+    {
+        XWikiContext context = this.xcontextProvider.get();
+        AWMDescriptor awmDescriptor =
+            awmRegistry.getApplication(new DocumentReference(context.getWikiId(), appId, "WebHome"));
+        if (awmDescriptor != null) {
+            return awmDescriptor.getClassReference();
+        }
+        return new DocumentReference(resolver.resolve(appId, EntityType.DOCUMENT,
+            context.getDoc().getDocumentReference().getWikiReference()));
+    }
+
+    private List<String> getPartitionJobId(String wikiId, String appId)
+    {
+        return Arrays.asList("structureddata", "partition", wikiId, appId);
+    }
 }
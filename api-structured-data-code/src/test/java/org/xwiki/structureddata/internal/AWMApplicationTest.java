@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the creation of the items of an AWM application.
+ */
+public class AWMApplicationTest
+{
+    private static final WikiReference WIKI_REFERENCE = new WikiReference("xwiki");
+
+    private static final SpaceReference DATA_SPACE_REFERENCE = new SpaceReference("Data", WIKI_REFERENCE);
+
+    private static final String ERROR = "Error";
+
+    private XWiki xwiki;
+
+    private ContextualAuthorizationManager authorization;
+
+    private ItemIdAllocator idAllocator;
+
+    private AWMApplication application;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        this.xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(this.xwiki);
+        this.authorization = mock(ContextualAuthorizationManager.class);
+        EntityReferenceResolver<String> resolver = mock(EntityReferenceResolver.class);
+        when(resolver.resolve("Data", EntityType.SPACE, WIKI_REFERENCE)).thenReturn(DATA_SPACE_REFERENCE);
+        when(resolver.resolve(anyString(), eq(EntityType.DOCUMENT), eq(WIKI_REFERENCE))).thenAnswer(
+            new Answer<EntityReference>()
+            {
+                @Override
+                public EntityReference answer(InvocationOnMock invocation)
+                {
+                    String name = (String) invocation.getArguments()[0];
+                    return new DocumentReference(name.substring(name.indexOf('.') + 1), DATA_SPACE_REFERENCE);
+                }
+            });
+        this.idAllocator = mock(ItemIdAllocator.class);
+        AWMDescriptor descriptor = new AWMDescriptor(new DocumentReference("xwiki", "App", "WebHome"),
+            new DocumentReference("xwiki", "App", "AppClass"), "App", "Data");
+        this.application = new AWMApplication(context, this.authorization, resolver,
+            mock(EntityReferenceSerializer.class), mock(QueryManager.class), mock(Logger.class), descriptor,
+            this.idAllocator);
+    }
+
+    @Test
+    public void testCreateItemNeedsEditOnTheDataSpace() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.EDIT, DATA_SPACE_REFERENCE)).thenReturn(false);
+
+        Map<String, Object> result = this.application.createItem(new ItemMap());
+
+        Assert.assertNotNull(result.get(ERROR));
+        verify(this.idAllocator, never()).next(any(DocumentReference.class));
+    }
+
+    @Test
+    public void testExistingDocumentsAreNeverOverwritten() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.EDIT, DATA_SPACE_REFERENCE)).thenReturn(true);
+        when(this.idAllocator.next(any(DocumentReference.class))).thenAnswer(new Answer<Long>()
+        {
+            private long next = 1;
+
+            @Override
+            public Long answer(InvocationOnMock invocation)
+            {
+                return this.next++;
+            }
+        });
+        XWikiDocument existing = mock(XWikiDocument.class);
+        when(existing.isNew()).thenReturn(false);
+        when(existing.clone()).thenReturn(existing);
+        when(this.xwiki.getDocument(any(DocumentReference.class), any(XWikiContext.class))).thenReturn(existing);
+
+        Map<String, Object> result = this.application.createItem(new ItemMap());
+
+        // Every allocated id is already used by a page: the ids are skipped until the creation gives up
+        Assert.assertEquals("Unable to allocate a free item id", result.get(ERROR));
+        verify(this.idAllocator, times(100)).next(new DocumentReference("ItemIdSequence", DATA_SPACE_REFERENCE));
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), any(XWikiContext.class));
+    }
+}
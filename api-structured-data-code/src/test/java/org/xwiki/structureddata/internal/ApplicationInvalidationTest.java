@@ -0,0 +1,278 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the invalidation of the caches between two nodes of a cluster, simulated in the same JVM.
+ */
+public class ApplicationInvalidationTest
+{
+    private static final DocumentReference ITEM_CLASS = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference OTHER_CLASS = new DocumentReference("xwiki", "Data", "OtherClass");
+
+    private static final DocumentReference ITEM1 = new DocumentReference("xwiki", "Data", "Item1");
+
+    private static final DocumentReference ITEM2 = new DocumentReference("xwiki", "Data", "Item2");
+
+    private Node first;
+
+    private Node second;
+
+    /**
+     * The components of one node. The events notified by a node are received by the other one as remote events.
+     */
+    private static class Node
+    {
+        private final DefaultApplicationVersions versions = new DefaultApplicationVersions();
+
+        private final DefaultApplicationInvalidationBus bus = new DefaultApplicationInvalidationBus();
+
+        private final ApplicationInvalidationListener listener = new ApplicationInvalidationListener();
+
+        private final ObservationManager observationManager = mock(ObservationManager.class);
+
+        private final ApplicationSnapshots snapshots = mock(ApplicationSnapshots.class);
+
+        private final ApplicationCatalog catalog = mock(ApplicationCatalog.class);
+
+        private final AWMRegistry registry = mock(AWMRegistry.class);
+
+        private final ItemIndex index = mock(ItemIndex.class);
+
+        /**
+         * The documents loaded by the node, by reference.
+         */
+        private final Map<DocumentReference, XWikiDocument> loadedDocuments = new HashMap<>();
+
+        @SuppressWarnings("unchecked")
+        Node() throws Exception
+        {
+            EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+            when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+            {
+                @Override
+                public String answer(InvocationOnMock invocation)
+                {
+                    EntityReference reference = (EntityReference) invocation.getArguments()[0];
+                    return reference.getParent().getParent().getName() + ':' + reference.getParent().getName()
+                        + '.' + reference.getName();
+                }
+            });
+            ReflectionUtils.setFieldValue(this.versions, "serializer", serializer);
+            ReflectionUtils.setFieldValue(this.versions, "invalidationBus", this.bus);
+
+            StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+            // The events are sent by the tests
+            when(configuration.getInvalidationBatchDelay()).thenReturn(60000);
+            ReflectionUtils.setFieldValue(this.bus, "configuration", configuration);
+            ReflectionUtils.setFieldValue(this.bus, "observationManager", this.observationManager);
+            ReflectionUtils.setFieldValue(this.bus, "execution", mock(Execution.class));
+            ReflectionUtils.setFieldValue(this.bus, "executionContextManager", mock(ExecutionContextManager.class));
+            ReflectionUtils.setFieldValue(this.bus, "logger", mock(Logger.class));
+            this.bus.initialize();
+
+            RemoteObservationManagerContext remoteContext = mock(RemoteObservationManagerContext.class);
+            when(remoteContext.isRemoteState()).thenReturn(true);
+            ReflectionUtils.setFieldValue(this.listener, "remoteContext", remoteContext);
+            ReflectionUtils.setFieldValue(this.listener, "versions", this.versions);
+            ReflectionUtils.setFieldValue(this.listener, "snapshots", this.snapshots);
+            ReflectionUtils.setFieldValue(this.listener, "index", this.index);
+            ReflectionUtils.setFieldValue(this.listener, "catalog", this.catalog);
+            ReflectionUtils.setFieldValue(this.listener, "registry", this.registry);
+            ReflectionUtils.setFieldValue(this.listener, "logger", mock(Logger.class));
+
+            XWikiContext context = mock(XWikiContext.class);
+            XWiki xwiki = mock(XWiki.class);
+            when(context.getWiki()).thenReturn(xwiki);
+            when(xwiki.getDocument(any(DocumentReference.class), eq(context))).thenAnswer(new Answer<XWikiDocument>()
+            {
+                @Override
+                public XWikiDocument answer(InvocationOnMock invocation)
+                {
+                    DocumentReference reference = (DocumentReference) invocation.getArguments()[0];
+                    XWikiDocument document = mock(XWikiDocument.class);
+                    when(document.getDocumentReference()).thenReturn(reference);
+                    Node.this.loadedDocuments.put(reference, document);
+                    return document;
+                }
+            });
+            Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+            when(xcontextProvider.get()).thenReturn(context);
+            ReflectionUtils.setFieldValue(this.listener, "xcontextProvider", xcontextProvider);
+            EntityReferenceResolver<String> resolver = mock(EntityReferenceResolver.class);
+            when(resolver.resolve(anyString(), eq(EntityType.DOCUMENT))).thenAnswer(new Answer<EntityReference>()
+            {
+                @Override
+                public EntityReference answer(InvocationOnMock invocation)
+                {
+                    String[] parts = ((String) invocation.getArguments()[0]).split("[:.]");
+                    return new DocumentReference(parts[0], parts[1], parts[2]);
+                }
+            });
+            ReflectionUtils.setFieldValue(this.listener, "resolver", resolver);
+        }
+
+        void sendTo(final Node node)
+        {
+            doAnswer(new Answer<Object>()
+            {
+                @Override
+                public Object answer(InvocationOnMock invocation)
+                {
+                    Object[] arguments = invocation.getArguments();
+                    node.listener.onEvent((Event) arguments[0], arguments[1], arguments[2]);
+                    return null;
+                }
+            }).when(this.observationManager).notify(any(Event.class), any(), any());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.first = new Node();
+        this.second = new Node();
+        this.first.sendTo(this.second);
+        this.second.sendTo(this.first);
+    }
+
+    @Test
+    public void testChangeIsSentToTheOtherNode()
+    {
+        this.first.versions.update(getDocument(ITEM1, ITEM_CLASS));
+        Assert.assertEquals(1, this.first.versions.getVersion(ITEM_CLASS));
+        // The change is sent with the next batch
+        Assert.assertEquals(0, this.second.versions.getVersion(ITEM_CLASS));
+
+        this.first.bus.flush();
+        Assert.assertEquals(1, this.second.versions.getVersion(ITEM_CLASS));
+        Assert.assertEquals(0, this.second.versions.getVersion(OTHER_CLASS));
+        // The other node loads the changed document instead of reloading the whole class
+        XWikiDocument loadedDocument = this.second.loadedDocuments.get(ITEM1);
+        verify(this.second.snapshots).update(loadedDocument);
+        verify(this.second.index).update(loadedDocument);
+        verify(this.second.snapshots, never()).invalidate(any(Collection.class));
+        verify(this.second.catalog).removeWiki("xwiki");
+        verify(this.second.registry, never()).removeWiki("xwiki");
+        // The received change is not sent back
+        Assert.assertEquals(1, this.first.versions.getVersion(ITEM_CLASS));
+        this.second.bus.flush();
+        verify(this.second.observationManager, never()).notify(any(Event.class), any(), any());
+    }
+
+    @Test
+    public void testChangesAreBatched()
+    {
+        this.first.versions.update(getDocument(ITEM1, ITEM_CLASS));
+        this.first.versions.update(getDocument(ITEM1, ITEM_CLASS));
+        this.first.versions.update(getDocument(ITEM2, OTHER_CLASS));
+        this.first.bus.flush();
+        this.first.bus.flush();
+
+        verify(this.first.observationManager, times(1)).notify(any(Event.class), any(), any());
+        // Each changed document is loaded once
+        Assert.assertEquals(new HashSet<>(Arrays.asList(ITEM1, ITEM2)), this.second.loadedDocuments.keySet());
+        verify(this.second.snapshots, times(2)).update(any(XWikiDocument.class));
+        Assert.assertEquals(1, this.second.versions.getVersion(ITEM_CLASS));
+        Assert.assertEquals(1, this.second.versions.getVersion(OTHER_CLASS));
+    }
+
+    @Test
+    public void testClassChangeReloadsTheClass()
+    {
+        XWikiDocument classDocument = getDocument(ITEM_CLASS, ITEM_CLASS);
+        when(classDocument.getXClassXML()).thenReturn("<class/>");
+        this.first.versions.update(classDocument);
+        this.first.bus.flush();
+
+        verify(this.second.snapshots).invalidate(Collections.singleton("xwiki:Data.ItemClass"));
+        verify(this.second.index).invalidate(Collections.singleton("xwiki:Data.ItemClass"));
+        verify(this.second.snapshots, never()).update(any(XWikiDocument.class));
+    }
+
+    @Test
+    public void testManyChangesReloadTheClass()
+    {
+        for (int i = 0; i <= 1000; i++) {
+            this.first.versions.update(getDocument(new DocumentReference("xwiki", "Data", "Item" + i), ITEM_CLASS));
+        }
+        this.first.versions.update(getDocument(ITEM1, OTHER_CLASS));
+        this.first.bus.flush();
+
+        verify(this.second.snapshots).invalidate(Collections.singleton("xwiki:Data.ItemClass"));
+        // The documents of the other class are still sent
+        Assert.assertEquals(Collections.singleton(ITEM1), this.second.loadedDocuments.keySet());
+    }
+
+    private static XWikiDocument getDocument(DocumentReference documentReference, DocumentReference classReference)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(documentReference);
+        when(document.getXClassXML()).thenReturn("");
+        Map<DocumentReference, List<BaseObject>> objects = new HashMap<>();
+        objects.put(classReference, Arrays.asList(mock(BaseObject.class)));
+        when(document.getXObjects()).thenReturn(objects);
+        return document;
+    }
+}
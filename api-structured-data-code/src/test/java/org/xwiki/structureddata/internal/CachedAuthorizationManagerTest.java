@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.user.api.XWikiGroupService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the view rights shared by the users having the same groups.
+ */
+public class CachedAuthorizationManagerTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final DocumentReference ITEM1 = new DocumentReference(WIKI, "Data", "Item1");
+
+    private static final DocumentReference ALICE = new DocumentReference(WIKI, "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference(WIKI, "XWiki", "Bob");
+
+    private CachedAuthorizationManager manager;
+
+    private AuthorizationManager authorizationManager;
+
+    private DocumentReference user;
+
+    /**
+     * The users whose view right has been checked by the default authorization manager.
+     */
+    private final List<DocumentReference> checkedUsers = new ArrayList<>();
+
+    /**
+     * The users who can view the documents.
+     */
+    private final Set<DocumentReference> viewers = new HashSet<>();
+
+    private final List<Object[]> globalRights = new ArrayList<>();
+
+    private final List<Object[]> documentRights = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(context.getWikiId()).thenReturn(WIKI);
+        when(context.getMainXWiki()).thenReturn(WIKI);
+        when(context.getUserReference()).thenAnswer(new Answer<DocumentReference>()
+        {
+            @Override
+            public DocumentReference answer(InvocationOnMock invocation)
+            {
+                return CachedAuthorizationManagerTest.this.user;
+            }
+        });
+        when(xwiki.getWikiOwner(WIKI, context)).thenReturn("xwiki:XWiki.Owner");
+        XWikiGroupService groupService = mock(XWikiGroupService.class);
+        when(xwiki.getGroupService(context)).thenReturn(groupService);
+        when(groupService.getAllGroupsReferencesForMember(any(DocumentReference.class), anyInt(), anyInt(),
+            eq(context))).thenReturn(Collections.<DocumentReference>emptyList());
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(context);
+
+        ContextualAuthorizationManager authorization = mock(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(eq(Right.VIEW), any(EntityReference.class))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation)
+            {
+                checkedUsers.add(user);
+                return viewers.contains(user);
+            }
+        });
+        this.authorizationManager = mock(AuthorizationManager.class);
+
+        ApplicationVersions versions = mock(ApplicationVersions.class);
+        when(versions.getRightsVersion()).thenReturn(1L);
+        StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+        when(configuration.getRightsCacheSize()).thenReturn(10);
+
+        QueryManager queryManager = mock(QueryManager.class);
+        when(queryManager.createQuery(anyString(), eq(Query.XWQL))).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation) throws Exception
+            {
+                String statement = (String) invocation.getArguments()[0];
+                Query query = mock(Query.class);
+                when(query.setWiki(anyString())).thenReturn(query);
+                when(query.execute()).thenReturn((List) (statement.contains("XWikiGlobalRights") ? globalRights
+                    : documentRights));
+                return query;
+            }
+        });
+
+        this.manager = new CachedAuthorizationManager();
+        ReflectionUtils.setFieldValue(this.manager, "authorization", authorization);
+        ReflectionUtils.setFieldValue(this.manager, "authorizationManager", this.authorizationManager);
+        ReflectionUtils.setFieldValue(this.manager, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.manager, "versions", versions);
+        ReflectionUtils.setFieldValue(this.manager, "queryManager", queryManager);
+        ReflectionUtils.setFieldValue(this.manager, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.manager, "serializer", mockSerializer(true));
+        ReflectionUtils.setFieldValue(this.manager, "localSerializer", mockSerializer(false));
+        ReflectionUtils.setFieldValue(this.manager, "logger", mock(Logger.class));
+
+        // Each user can edit its profile
+        this.documentRights.add(new Object[] {"XWiki.Alice", "XWiki.Alice", "edit" });
+        this.documentRights.add(new Object[] {"XWiki.Bob", "XWiki.Bob", "edit" });
+    }
+
+    @Test
+    public void testUsersOfTheSameGroupsShareTheRights()
+    {
+        Assert.assertFalse(hasAccess(ALICE));
+        this.viewers.add(BOB);
+
+        // The rights objects of the profiles don't change the view rights
+        Assert.assertFalse(hasAccess(BOB));
+        Assert.assertEquals(Arrays.asList(ALICE), this.checkedUsers);
+    }
+
+    @Test
+    public void testSuperadminIsNotShared()
+    {
+        DocumentReference superadmin = new DocumentReference(WIKI, "XWiki", "superadmin");
+        this.viewers.add(superadmin);
+
+        Assert.assertFalse(hasAccess(ALICE));
+        Assert.assertTrue(hasAccess(superadmin));
+    }
+
+    @Test
+    public void testWikiOwnerIsNotShared()
+    {
+        DocumentReference owner = new DocumentReference(WIKI, "XWiki", "Owner");
+        this.viewers.add(owner);
+
+        Assert.assertFalse(hasAccess(ALICE));
+        Assert.assertTrue(hasAccess(owner));
+    }
+
+    @Test
+    public void testAdministratorIsNotShared()
+    {
+        when(this.authorizationManager.hasAccess(Right.ADMIN, BOB, new WikiReference(WIKI))).thenReturn(true);
+        this.viewers.add(BOB);
+
+        Assert.assertFalse(hasAccess(ALICE));
+        Assert.assertTrue(hasAccess(BOB));
+    }
+
+    @Test
+    public void testNamedUsers()
+    {
+        DocumentReference carol = new DocumentReference(WIKI, "XWiki", "Carol");
+        DocumentReference dave = new DocumentReference(WIKI, "XWiki", "Dave");
+        this.globalRights.add(new Object[] {"XWiki.Carol", "view,edit" });
+        this.documentRights.add(new Object[] {"Data.Item1", "xwiki:XWiki.Dave,XWiki.Erin", "view" });
+        this.viewers.addAll(Arrays.asList(carol, dave));
+
+        Assert.assertFalse(hasAccess(ALICE));
+        // Named in a global rights object
+        Assert.assertTrue(hasAccess(carol));
+        Assert.assertTrue(hasAccess(carol));
+        // Named in the rights object of the document, which is checked each time
+        Assert.assertTrue(hasAccess(dave));
+        Assert.assertTrue(hasAccess(dave));
+        Assert.assertFalse(hasAccess(BOB));
+
+        Assert.assertEquals(Arrays.asList(ALICE, carol, dave, dave), this.checkedUsers);
+    }
+
+    private boolean hasAccess(DocumentReference userReference)
+    {
+        this.user = userReference;
+        return this.manager.hasAccess(Right.VIEW, ITEM1);
+    }
+
+    private EntityReferenceSerializer<String> mockSerializer(final boolean withWiki)
+    {
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                EntityReference reference = (EntityReference) invocation.getArguments()[0];
+                String name = reference.getParent().getName() + '.' + reference.getName();
+                return withWiki ? reference.getParent().getParent().getName() + ':' + name : name;
+            }
+        });
+        return serializer;
+    }
+}
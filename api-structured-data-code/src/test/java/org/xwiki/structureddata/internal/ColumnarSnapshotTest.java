@@ -0,0 +1,285 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.NumberClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+import com.xpn.xwiki.objects.classes.StringClass;
+import com.xpn.xwiki.objects.classes.TextAreaClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the columnar copy of the objects of a class.
+ */
+public class ColumnarSnapshotTest
+{
+    private static final String CITY = "city";
+
+    private static final String PRICE = "price";
+
+    private static final String DESCRIPTION = "description";
+
+    private static final String PARIS = "Paris";
+
+    private static final ColumnarSnapshot.DocumentFilter ALL = new ColumnarSnapshot.DocumentFilter()
+    {
+        @Override
+        public boolean accept(String documentName)
+        {
+            return true;
+        }
+    };
+
+    private BaseClass xClass;
+
+    private ColumnarSnapshot snapshot;
+
+    @Before
+    public void setUp()
+    {
+        this.xClass = mockClass(mockProperty(StringClass.class, CITY), mockProperty(NumberClass.class, PRICE),
+            mockProperty(TextAreaClass.class, DESCRIPTION));
+        this.snapshot = new ColumnarSnapshot(this.xClass);
+        addRow("Data.Item1", false, PARIS, 2);
+        addRow("Data.Item2", false, "Iasi", 3);
+        addRow("Data.Item3", true, PARIS, 4);
+    }
+
+    @Test
+    public void testColumns()
+    {
+        Assert.assertTrue(this.snapshot.hasColumn(CITY));
+        Assert.assertTrue(this.snapshot.hasColumn(PRICE));
+        // Long texts are not stored
+        Assert.assertFalse(this.snapshot.hasColumn(DESCRIPTION));
+    }
+
+    @Test
+    public void testAggregateMatchingRows()
+    {
+        Assert.assertEquals(2.0, sum(ItemFilter.eq(CITY, PARIS), false, ALL), 0);
+        Assert.assertEquals(6.0, sum(ItemFilter.eq(CITY, PARIS), true, ALL), 0);
+        Assert.assertEquals(5.0, sum(null, false, ALL), 0);
+        // A value which is not in the dictionary doesn't match
+        Assert.assertEquals(0.0, count(ItemFilter.eq(CITY, "Rome"), true, ALL), 0);
+    }
+
+    @Test
+    public void testUnsupportedFilter()
+    {
+        ItemAggregator aggregator = new ItemAggregator(new HashMap<String, Object>());
+
+        Assert.assertFalse(this.snapshot.aggregate(ItemFilter.eq(DESCRIPTION, "text"), true, ALL, aggregator));
+    }
+
+    @Test
+    public void testRejectedDocumentsAreLeftOut()
+    {
+        ColumnarSnapshot.DocumentFilter filter = new ColumnarSnapshot.DocumentFilter()
+        {
+            @Override
+            public boolean accept(String documentName)
+            {
+                return !"Data.Item2".equals(documentName);
+            }
+        };
+
+        Assert.assertEquals(6.0, sum(null, true, filter), 0);
+    }
+
+    @Test
+    public void testUpdateDocumentReplacesRows()
+    {
+        this.snapshot.updateDocument("Data.Item1", "2.1", false, Arrays.asList(mockObject("Iasi", 5)));
+
+        Assert.assertEquals(0.0, count(ItemFilter.eq(CITY, PARIS), false, ALL), 0);
+        Assert.assertEquals(8.0, sum(ItemFilter.eq(CITY, "Iasi"), false, ALL), 0);
+        Assert.assertEquals("2.1", this.snapshot.getDocumentVersions().get("Data.Item1"));
+
+        // Deleted documents don't have objects anymore
+        this.snapshot.updateDocument("Data.Item2", "2.1", false, null);
+
+        Assert.assertEquals(5.0, sum(null, false, ALL), 0);
+        Assert.assertFalse(this.snapshot.getDocumentVersions().containsKey("Data.Item2"));
+    }
+
+    @Test
+    public void testRemovedRowsAreCompacted()
+    {
+        for (int i = 0; i < 2000; i++) {
+            addRow("Data.Other" + i, false, "Rome", 1);
+        }
+        for (int i = 0; i < 1500; i++) {
+            this.snapshot.updateDocument("Data.Other" + i, "2.1", false, null);
+        }
+
+        Assert.assertEquals(500.0, sum(ItemFilter.eq(CITY, "Rome"), false, ALL), 0);
+        Assert.assertEquals(9.0, sum(ItemFilter.in(CITY, Arrays.<Object>asList(PARIS, "Iasi")), true, ALL), 0);
+    }
+
+    @Test
+    public void testDocumentFilterIsCalledWithoutTheLock()
+    {
+        final Thread[] updates = new Thread[1];
+        ColumnarSnapshot.DocumentFilter filter = new ColumnarSnapshot.DocumentFilter()
+        {
+            @Override
+            public boolean accept(String documentName)
+            {
+                if (updates[0] == null) {
+                    updates[0] = new Thread()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            ColumnarSnapshotTest.this.snapshot.updateDocument("Data.Item4", "1.1", false,
+                                Arrays.asList(mockObject(PARIS, 8)));
+                        }
+                    };
+                    updates[0].start();
+                    try {
+                        updates[0].join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return true;
+            }
+        };
+
+        double sum = sum(ItemFilter.eq(CITY, PARIS), true, filter);
+
+        Assert.assertFalse(updates[0].isAlive());
+        // The document saved during the rights checks is left out
+        Assert.assertEquals(6.0, sum, 0);
+        Assert.assertEquals(14.0, sum(ItemFilter.eq(CITY, PARIS), true, ALL), 0);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception
+    {
+        this.snapshot.updateDocument("Data.Item2", "2.1", false, null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            this.snapshot.write(output);
+        }
+
+        ColumnarSnapshot copy = ColumnarSnapshot.read(this.xClass, ByteBuffer.wrap(bytes.toByteArray()));
+
+        Assert.assertEquals(this.snapshot.getDocumentVersions(), copy.getDocumentVersions());
+        Assert.assertEquals(2.0, sum(copy, ItemFilter.eq(CITY, PARIS), false), 0);
+        Assert.assertEquals(6.0, sum(copy, null, true), 0);
+        // The columns read from the file grow when rows are added
+        copy.updateDocument("Data.Item5", "1.1", false, Arrays.asList(mockObject(PARIS, 1)));
+        Assert.assertEquals(3.0, sum(copy, ItemFilter.eq(CITY, PARIS), false), 0);
+    }
+
+    @Test
+    public void testClassChange() throws Exception
+    {
+        BaseClass newClass = mockClass(mockProperty(StringClass.class, CITY), mockProperty(StringClass.class, PRICE));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            this.snapshot.write(output);
+        }
+
+        Assert.assertTrue(this.snapshot.matches(this.xClass));
+        Assert.assertFalse(this.snapshot.matches(newClass));
+        Assert.assertNull(ColumnarSnapshot.read(newClass, ByteBuffer.wrap(bytes.toByteArray())));
+    }
+
+    private double sum(ItemFilter filter, boolean viewHidden, ColumnarSnapshot.DocumentFilter documentFilter)
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put("function", ItemAggregator.SUM);
+        options.put("property", PRICE);
+        ItemAggregator aggregator = new ItemAggregator(options);
+        Assert.assertTrue(this.snapshot.aggregate(filter, viewHidden, documentFilter, aggregator));
+        Object value = aggregator.getResult().get("Value");
+        return value != null ? ((Number) value).doubleValue() : 0;
+    }
+
+    private double sum(ColumnarSnapshot target, ItemFilter filter, boolean viewHidden)
+    {
+        ColumnarSnapshot current = this.snapshot;
+        this.snapshot = target;
+        try {
+            return sum(filter, viewHidden, ALL);
+        } finally {
+            this.snapshot = current;
+        }
+    }
+
+    private double count(ItemFilter filter, boolean viewHidden, ColumnarSnapshot.DocumentFilter documentFilter)
+    {
+        ItemAggregator aggregator = new ItemAggregator(new HashMap<String, Object>());
+        Assert.assertTrue(this.snapshot.aggregate(filter, viewHidden, documentFilter, aggregator));
+        return ((Number) aggregator.getResult().get("Value")).doubleValue();
+    }
+
+    private void addRow(String documentName, boolean hidden, String city, int price)
+    {
+        int row = this.snapshot.addRow(documentName, "1.1", hidden);
+        this.snapshot.setValue(row, CITY, city);
+        this.snapshot.setValue(row, PRICE, price);
+    }
+
+    private static BaseObject mockObject(String city, int price)
+    {
+        BaseObject object = mock(BaseObject.class);
+        BaseProperty cityProperty = mock(BaseProperty.class);
+        when(cityProperty.getValue()).thenReturn(city);
+        when(object.safeget(CITY)).thenReturn(cityProperty);
+        BaseProperty priceProperty = mock(BaseProperty.class);
+        when(priceProperty.getValue()).thenReturn(price);
+        when(object.safeget(PRICE)).thenReturn(priceProperty);
+        return object;
+    }
+
+    private static <T extends PropertyClass> T mockProperty(Class<T> type, String name)
+    {
+        T property = mock(type);
+        when(property.getName()).thenReturn(name);
+        return property;
+    }
+
+    private static BaseClass mockClass(Object... properties)
+    {
+        BaseClass xClass = mock(BaseClass.class);
+        when(xClass.getProperties()).thenReturn(properties);
+        return xClass;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.StringReader;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the CSV reader used by the imports.
+ */
+public class CsvItemReaderTest
+{
+    @Test
+    public void testReadItems() throws Exception
+    {
+        String data = "id,prop1,prop2\r\nItem1,Value1,Paris\r\n\r\nItem2,\"Value, \"\"quoted\"\"\non two lines\",Iasi";
+        CsvItemReader reader = new CsvItemReader(new StringReader(data));
+
+        Map<String, Object> item1 = reader.next();
+        Assert.assertEquals("Item1", item1.get("id"));
+        Assert.assertEquals("Value1", item1.get("prop1"));
+        Assert.assertEquals("Paris", item1.get("prop2"));
+
+        Map<String, Object> item2 = reader.next();
+        Assert.assertEquals("Item2", item2.get("id"));
+        Assert.assertEquals("Value, \"quoted\"\non two lines", item2.get("prop1"));
+        Assert.assertEquals("Iasi", item2.get("prop2"));
+
+        Assert.assertNull(reader.next());
+    }
+
+    @Test
+    public void testLineWithTooManyValues() throws Exception
+    {
+        CsvItemReader reader = new CsvItemReader(new StringReader("id,prop1\nItem1,a,b\nItem2,c\n"));
+        try {
+            reader.next();
+            Assert.fail("The line should be rejected");
+        } catch (IllegalArgumentException e) {
+            // The next lines can still be read
+        }
+        Assert.assertEquals("c", reader.next().get("prop1"));
+        Assert.assertNull(reader.next());
+    }
+
+    @Test
+    public void testBlankCellsAreSkipped() throws Exception
+    {
+        CsvItemReader reader = new CsvItemReader(new StringReader("id,prop1,prop2\nItem1,,Paris\nItem2,\"\",\n"));
+
+        Map<String, Object> item1 = reader.next();
+        Assert.assertFalse(item1.containsKey("prop1"));
+        Assert.assertEquals("Paris", item1.get("prop2"));
+        Map<String, Object> item2 = reader.next();
+        Assert.assertEquals(1, item2.size());
+        Assert.assertEquals("Item2", item2.get("id"));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the partitions of the data spaces of the AWM applications.
+ */
+public class DataSpacePartitionsTest
+{
+    @Test
+    public void testGetCount()
+    {
+        List<String> entries = Arrays.asList("BigCode.BigClass=16", "wiki2:OtherCode.OtherClass = 4", "Bad=x");
+        Assert.assertEquals(16, DataSpacePartitions.getCount(entries, "BigCode.BigClass", "wiki1:BigCode.BigClass"));
+        Assert.assertEquals(4,
+            DataSpacePartitions.getCount(entries, "OtherCode.OtherClass", "wiki2:OtherCode.OtherClass"));
+        Assert.assertEquals(0,
+            DataSpacePartitions.getCount(entries, "OtherCode.OtherClass", "wiki1:OtherCode.OtherClass"));
+        Assert.assertEquals(0, DataSpacePartitions.getCount(entries, "Bad", "wiki1:Bad"));
+        Assert.assertEquals(0, DataSpacePartitions.getCount(null, "Bad", "wiki1:Bad"));
+    }
+
+    @Test
+    public void testGetSpace()
+    {
+        Assert.assertEquals("BigData", DataSpacePartitions.getSpace("BigData", 0, "Item"));
+        String space = DataSpacePartitions.getSpace("BigData", 16, "Item");
+        Assert.assertTrue(DataSpacePartitions.getSpaces("BigData", 16).contains(space));
+        Assert.assertEquals(space, DataSpacePartitions.getSpace("BigData", 16, "Item"));
+        Assert.assertEquals(17, DataSpacePartitions.getSpaces("BigData", 16).size());
+    }
+
+    @Test
+    public void testGetItemId()
+    {
+        Assert.assertEquals("Item", DataSpacePartitions.getItemId("BigData", 16, "BigData.Item"));
+        Assert.assertEquals("Item", DataSpacePartitions.getItemId("BigData", 16, "BigData_12.Item"));
+        Assert.assertEquals("A.B", DataSpacePartitions.getItemId("BigData", 16, "BigData_3.A.B"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "BigDataOld.Item"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "BigData_x.Item"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "BigData_.Item"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "Other.Item"));
+        // Only the partitions of the application are part of it
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "BigData_2024.Item"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 16, "BigData_03.Item"));
+        Assert.assertNull(DataSpacePartitions.getItemId("BigData", 0, "BigData_3.Item"));
+        Assert.assertEquals("Item", DataSpacePartitions.getItemId("BigData", 0, "BigData.Item"));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.IntegerProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.PropertyClass;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the single table queries of the applications stored in a dedicated table.
+ */
+public class DedicatedTablesTest
+{
+    @Test
+    public void testToObjectFields()
+    {
+        Assert.assertEquals("obj.name, obj.number", DedicatedTables.toObjectFields("item.name, item.number"));
+        Assert.assertEquals("(obj.name > :lastName or (obj.name = :lastName and obj.number > :lastNumber))",
+            DedicatedTables.toObjectFields(
+                "(item.name > :lastName or (item.name = :lastName and item.number > :lastNumber))"));
+        Assert.assertEquals("item.title desc, obj.number",
+            DedicatedTables.toObjectFields("item.title desc, item.number"));
+        Assert.assertEquals("item.names", DedicatedTables.toObjectFields("item.names"));
+    }
+
+    @Test
+    public void testCustomMapping()
+    {
+        BaseClass xClass = mock(BaseClass.class);
+        PropertyClass views = mock(PropertyClass.class);
+        when(views.getName()).thenReturn("views");
+        when(views.newProperty()).thenReturn(new IntegerProperty());
+        when(xClass.getEnabledProperties()).thenReturn(Arrays.asList(views));
+
+        Assert.assertEquals("<property name=\"views\" type=\"integer\"><column name=\"`views`\"/></property>\n",
+            ApplicationSchema.getCustomMapping(xClass));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCustomMappingRejectsInvalidNames()
+    {
+        BaseClass xClass = mock(BaseClass.class);
+        PropertyClass property = mock(PropertyClass.class);
+        when(property.getName()).thenReturn("views\"/><property name=\"other");
+        when(property.newProperty()).thenReturn(new IntegerProperty());
+        when(xClass.getEnabledProperties()).thenReturn(Arrays.asList(property));
+
+        ApplicationSchema.getCustomMapping(xClass);
+    }
+
+    @Test
+    public void testMappedPropertiesAreParsedOnce()
+    {
+        XWikiContext context = getContext();
+        BaseClass xClass = getXClass(DedicatedTables.ACTIVE + "<property name=\"views\" type=\"integer\">"
+            + "<column name=\"`views`\"/></property>\n", context);
+
+        Assert.assertTrue(DedicatedTables.isActive(xClass, context));
+        Assert.assertEquals(Arrays.asList("title", "views"), DedicatedTables.getMappedProperties(xClass, context));
+        Assert.assertEquals(Arrays.asList("title", "views"), DedicatedTables.getMappedProperties(xClass, context));
+        verify(xClass, times(1)).getCustomMappingPropertyList(context);
+    }
+
+    @Test
+    public void testGenericValuesDuringTheMigration()
+    {
+        XWikiContext context = getContext();
+        BaseClass migrating = getXClass(DedicatedTables.MIGRATING + "<property name=\"title\"/>", context);
+        Assert.assertFalse(DedicatedTables.isActive(migrating, context));
+        Assert.assertTrue(DedicatedTables.hasGenericValues(migrating, "title", context));
+
+        BaseClass active = getXClass(DedicatedTables.ACTIVE + "<property name=\"title\"/>", context);
+        Assert.assertFalse(DedicatedTables.hasGenericValues(active, "title", context));
+        // A property added after the migration is stored in the generic tables
+        Assert.assertTrue(DedicatedTables.hasGenericValues(active, "status", context));
+    }
+
+    @Test
+    public void testClassWithoutDedicatedTable()
+    {
+        XWikiContext context = getContext();
+        BaseClass xClass = getXClass(null, context);
+
+        Assert.assertFalse(DedicatedTables.isActive(xClass, context));
+        Assert.assertEquals(Collections.emptyList(), DedicatedTables.getMappedProperties(xClass, context));
+        Assert.assertTrue(DedicatedTables.hasGenericValues(xClass, "title", context));
+    }
+
+    private XWikiContext getContext()
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(xwiki.hasCustomMappings()).thenReturn(true);
+        return context;
+    }
+
+    private BaseClass getXClass(String mapping, XWikiContext context)
+    {
+        BaseClass xClass = mock(BaseClass.class);
+        when(xClass.getCustomMapping()).thenReturn(mapping);
+        when(xClass.getCustomMappingPropertyList(context)).thenReturn(Arrays.asList("title", "views"));
+        return xClass;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the index of the AppWithinMinutes applications.
+ */
+public class DefaultAWMRegistryTest
+{
+    private static final String WIKI = "xwiki";
+
+    private DefaultAWMRegistry registry;
+
+    private QueryManager queryManager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.queryManager = mock(QueryManager.class);
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(mock(XWikiContext.class));
+
+        this.registry = new DefaultAWMRegistry();
+        ReflectionUtils.setFieldValue(this.registry, "queryManager", this.queryManager);
+        ReflectionUtils.setFieldValue(this.registry, "xcontextProvider", xcontextProvider);
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception
+    {
+        Query query = mock(Query.class);
+        when(query.setWiki(WIKI)).thenReturn(query);
+        doReturn(Collections.emptyList()).when(query).execute();
+        when(this.queryManager.createQuery(anyString(), anyString())).thenThrow(new QueryException("down", null, null))
+            .thenReturn(query);
+
+        try {
+            this.registry.getApplications(WIKI);
+            Assert.fail("The failure of the load should be reported");
+        } catch (XWikiException e) {
+            Assert.assertTrue(e.getCause() instanceof QueryException);
+        }
+
+        // The next call loads the index again instead of using an empty one
+        Assert.assertTrue(this.registry.getApplications(WIKI).isEmpty());
+        this.registry.getApplications(WIKI);
+        verify(this.queryManager, times(2)).createQuery(anyString(), anyString());
+    }
+}
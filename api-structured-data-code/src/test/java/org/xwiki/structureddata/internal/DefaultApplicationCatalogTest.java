@@ -0,0 +1,210 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the in-memory catalog of the applications of a wiki.
+ */
+public class DefaultApplicationCatalogTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final DocumentReference VISIBLE = new DocumentReference(WIKI, "Data", "VisibleClass");
+
+    private static final DocumentReference HIDDEN = new DocumentReference(WIKI, "Data", "HiddenClass");
+
+    private static final Date DATE = new Date(1000L);
+
+    private DefaultApplicationCatalog catalog;
+
+    private QueryManager queryManager;
+
+    private ContextualAuthorizationManager authorization;
+
+    private Query classesQuery;
+
+    private Query objectsQuery;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.queryManager = mock(QueryManager.class);
+        this.authorization = mock(ContextualAuthorizationManager.class);
+        AWMRegistry awmRegistry = mock(AWMRegistry.class);
+        when(awmRegistry.getApplications(WIKI)).thenReturn(Collections.<AWMDescriptor>emptyList());
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                EntityReference reference = (EntityReference) invocation.getArguments()[0];
+                return reference.getParent().getName() + '.' + reference.getName();
+            }
+        });
+        EntityReferenceResolver<String> resolver = mock(EntityReferenceResolver.class);
+        when(resolver.resolve(anyString(), eq(EntityType.DOCUMENT), any(WikiReference.class))).thenAnswer(
+            new Answer<EntityReference>()
+            {
+                @Override
+                public EntityReference answer(InvocationOnMock invocation)
+                {
+                    String[] name = ((String) invocation.getArguments()[0]).split("\\.");
+                    return new DocumentReference(WIKI, name[0], name[1]);
+                }
+            });
+
+        this.classesQuery = mockQuery(Arrays.asList(new Object[] {"Data.VisibleClass", DATE },
+            new Object[] {"Data.HiddenClass", DATE }));
+        this.objectsQuery = mockQuery(Collections.singletonList(new Object[] {"Data.VisibleClass", 3L, DATE }));
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.classesQuery,
+            this.objectsQuery, this.classesQuery, this.objectsQuery);
+        when(this.authorization.hasAccess(Right.VIEW, VISIBLE)).thenReturn(true);
+
+        this.catalog = new DefaultApplicationCatalog();
+        ReflectionUtils.setFieldValue(this.catalog, "queryManager", this.queryManager);
+        ReflectionUtils.setFieldValue(this.catalog, "awmRegistry", awmRegistry);
+        ReflectionUtils.setFieldValue(this.catalog, "serializer", serializer);
+        ReflectionUtils.setFieldValue(this.catalog, "resolver", resolver);
+        ReflectionUtils.setFieldValue(this.catalog, "authorization", this.authorization);
+    }
+
+    @Test
+    public void testAdministratorsGetTheCounts() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.ADMIN, new WikiReference(WIKI))).thenReturn(true);
+
+        Map<String, Object> result = this.catalog.getApplications(WIKI, null, 0, -1);
+
+        Assert.assertEquals(1, result.get("Total"));
+        Assert.assertEquals(Collections.singletonList("Data.VisibleClass"), result.get("XWiki Classes"));
+        Map<String, Object> application = getApplication(result, 0);
+        Assert.assertEquals(3L, application.get("Count"));
+        Assert.assertEquals(DATE, application.get("Last Modified"));
+    }
+
+    @Test
+    public void testCountsAreHiddenFromTheUsers() throws Exception
+    {
+        Map<String, Object> result = this.catalog.getApplications(WIKI, null, 0, -1);
+
+        Assert.assertEquals(1, result.get("Total"));
+        Map<String, Object> application = getApplication(result, 0);
+        Assert.assertEquals("Data.VisibleClass", application.get("Id"));
+        Assert.assertNull(application.get("Count"));
+        Assert.assertNull(application.get("Last Modified"));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception
+    {
+        doThrow(new QueryException("down", null, null))
+            .doReturn(Collections.singletonList(new Object[] {"Data.VisibleClass", 3L, DATE }))
+            .when(this.objectsQuery).execute();
+        try {
+            this.catalog.getApplications(WIKI, null, 0, -1);
+            Assert.fail("The failure of the load should be reported");
+        } catch (XWikiException e) {
+            Assert.assertTrue(e.getCause() instanceof QueryException);
+        }
+
+        Assert.assertEquals(1, this.catalog.getApplications(WIKI, null, 0, -1).get("Total"));
+    }
+
+    @Test
+    public void testLoadOverlappingAnUpdateIsNotKept() throws Exception
+    {
+        final XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(HIDDEN);
+        when(document.getXClassXML()).thenReturn("");
+        when(document.getXObjects()).thenReturn(Collections.<DocumentReference, List<BaseObject>>emptyMap());
+        doAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                // The class is deleted while the wiki is loaded
+                DefaultApplicationCatalogTest.this.catalog.update(document);
+                return Collections.singletonList(new Object[] {"Data.VisibleClass", 3L, DATE });
+            }
+        }).doReturn(Collections.singletonList(new Object[] {"Data.VisibleClass", 3L, DATE }))
+            .when(this.objectsQuery).execute();
+
+        this.catalog.getApplications(WIKI, null, 0, -1);
+        this.catalog.getApplications(WIKI, null, 0, -1);
+        this.catalog.getApplications(WIKI, null, 0, -1);
+
+        // The first load is not kept, the second one is
+        verify(this.classesQuery, times(2)).execute();
+    }
+
+    private Query mockQuery(List<Object[]> rows) throws Exception
+    {
+        Query query = mock(Query.class);
+        when(query.setWiki(WIKI)).thenReturn(query);
+        doReturn(rows).when(query).execute();
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getApplication(Map<String, Object> result, int index)
+    {
+        return ((List<Map<String, Object>>) result.get("Applications")).get(index);
+    }
+}
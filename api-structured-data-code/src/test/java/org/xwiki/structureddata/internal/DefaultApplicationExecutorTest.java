@@ -0,0 +1,170 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Provider;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.structureddata.Application;
+
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the execution of the rest tasks in the thread pool.
+ */
+public class DefaultApplicationExecutorTest
+{
+    private static final String WIKI = "xwiki";
+
+    private DefaultApplicationExecutor executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+        when(configuration.getRestExecutionMode()).thenReturn("pool");
+        when(configuration.getRestPoolSize()).thenReturn(1);
+        when(configuration.getWritePoolSize()).thenReturn(1);
+        when(configuration.getRestTimeout()).thenReturn(200L);
+        when(configuration.getMaxConcurrentRequestsPerWiki()).thenReturn(1);
+
+        this.executor = new DefaultApplicationExecutor();
+        ReflectionUtils.setFieldValue(this.executor, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.executor, "execution", mock(Execution.class));
+        ReflectionUtils.setFieldValue(this.executor, "executionContextManager", mock(ExecutionContextManager.class));
+        ReflectionUtils.setFieldValue(this.executor, "xcontextProvider", mock(Provider.class));
+        this.executor.initialize();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.executor.dispose();
+    }
+
+    @Test
+    public void testTaskIsCancelledOnTimeout() throws Exception
+    {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            this.executor.execute(WIKI, new Callable<Object>()
+            {
+                @Override
+                public Object call()
+                {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                }
+            });
+            Assert.fail("The task should time out");
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+        // The permit of the wiki has been released
+        Assert.assertEquals("done", this.executor.execute(WIKI, new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "done";
+            }
+        }));
+    }
+
+    @Test
+    public void testWritesDontWaitForTheReads() throws Exception
+    {
+        final CountDownLatch readStarted = new CountDownLatch(1);
+        final CountDownLatch readEnd = new CountDownLatch(1);
+        Future<Object> read = this.executor.submit(WIKI, new Callable<Object>()
+        {
+            @Override
+            public Object call() throws Exception
+            {
+                readStarted.countDown();
+                readEnd.await();
+                return null;
+            }
+        });
+        Assert.assertTrue(readStarted.await(5, TimeUnit.SECONDS));
+
+        // The only read thread and the only read permit of the wiki are taken
+        Future<String> write = this.executor.submitWrite(WIKI, new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "written";
+            }
+        });
+        Assert.assertEquals("written", write.get(5, TimeUnit.SECONDS));
+
+        readEnd.countDown();
+        read.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFederatedQueryWithOneThreadAndOnePermit() throws Exception
+    {
+        // The pool has a single thread and each wiki a single permit, the federated query must not take them
+        ApplicationFactory factory = mock(ApplicationFactory.class);
+        for (String wiki : Arrays.asList(WIKI, "other")) {
+            ItemMap item = new ItemMap();
+            item.setId("Data." + wiki + "|0");
+            ItemList items = new ItemList(1);
+            items.add(item);
+            Application application = mock(Application.class);
+            when(application.getItemList(anyMap())).thenReturn(items);
+            when(factory.getApplication(wiki, "Data.ItemClass")).thenReturn(application);
+        }
+        DefaultFederatedApplication federated = new DefaultFederatedApplication(factory, this.executor,
+            "Data.ItemClass", Arrays.asList(WIKI, "other"), 2, 5000);
+
+        Map<String, Object> page = federated.getItems(Collections.<String, Object>emptyMap());
+
+        Assert.assertEquals(Collections.emptyMap(), page.get("Errors"));
+        Assert.assertEquals(2, ((Map<?, ?>) page.get("Items")).size());
+    }
+}
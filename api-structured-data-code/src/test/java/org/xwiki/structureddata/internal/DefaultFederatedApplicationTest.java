@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.structureddata.Application;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the items queries merged across several wikis.
+ */
+public class DefaultFederatedApplicationTest
+{
+    private static final String APP_ID = "Data.ItemClass";
+
+    private ApplicationFactory factory;
+
+    private ApplicationExecutor executor;
+
+    private Map<String, Object> options = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.factory = mock(ApplicationFactory.class);
+        this.executor = mock(ApplicationExecutor.class);
+        // The queries of the wikis run in the calling thread
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                FutureTask<?> task = new FutureTask<>((Callable<?>) invocation.getArguments()[1]);
+                task.run();
+                return task;
+            }
+        }).when(this.executor).submit(anyString(), any(Callable.class));
+        this.options.put("order", "item.rank");
+    }
+
+    @Test
+    public void testItemsAreMergedInOrder() throws Exception
+    {
+        Application wikiA = mockApplication("a", getItem("Data.A1", 1), getItem("Data.A4", 4), getItem("Data.A5", 5));
+        Application wikiB = mockApplication("b", getItem("Data.B2", 2), getItem("Data.B3", 3));
+        this.options.put("limit", 3);
+
+        Map<String, Object> page = getApplication("a", "b").getItems(this.options);
+        Assert.assertEquals(Arrays.asList("a:Data.A1", "b:Data.B2", "b:Data.B3"), getIds(page));
+        // The wiki b has no more items
+        Assert.assertEquals("a:1:0", page.get("Cursor"));
+
+        this.options.put("cursor", page.get("Cursor"));
+        page = getApplication("a", "b").getItems(this.options);
+        Assert.assertEquals(Arrays.asList("a:Data.A4", "a:Data.A5"), getIds(page));
+        Assert.assertNull(page.get("Cursor"));
+        verify(wikiA, times(2)).getItemList(anyMap());
+        verify(wikiB, times(1)).getItemList(anyMap());
+    }
+
+    @Test
+    public void testItemsNotViewableAreSkipped() throws Exception
+    {
+        mockApplication("a", getItem("Data.A1", 1), null, getItem("Data.A4", 4));
+        mockApplication("b", getItem("Data.B2", 2), getItem("Data.B3", 3));
+        this.options.put("limit", 3);
+
+        Map<String, Object> page = getApplication("a", "b").getItems(this.options);
+        Assert.assertEquals(Arrays.asList("a:Data.A1", "b:Data.B2", "b:Data.B3"), getIds(page));
+        // The rows of the wiki a can't be counted from its items, the returned items are skipped by the next query
+        Assert.assertEquals("a:0:1", page.get("Cursor"));
+
+        this.options.put("cursor", page.get("Cursor"));
+        page = getApplication("a", "b").getItems(this.options);
+        Assert.assertEquals(Arrays.asList("a:Data.A4"), getIds(page));
+        Assert.assertNull(page.get("Cursor"));
+    }
+
+    @Test
+    public void testFailedWikiIsQueriedAgain() throws Exception
+    {
+        mockApplication("a", getItem("Data.A1", 1));
+        Application wikiB = mock(Application.class);
+        when(wikiB.getItemList(anyMap())).thenThrow(new IllegalStateException("down"));
+        when(this.factory.getApplication("b", APP_ID)).thenReturn(wikiB);
+
+        Map<String, Object> page = getApplication("a", "b").getItems(this.options);
+        Assert.assertEquals(Arrays.asList("a:Data.A1"), getIds(page));
+        Assert.assertTrue(((Map<?, ?>) page.get("Errors")).containsKey("b"));
+        Assert.assertEquals("b:0:0", page.get("Cursor"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() throws Exception
+    {
+        this.options.put("cursor", "a:1");
+
+        getApplication("a").getItems(this.options);
+    }
+
+    private DefaultFederatedApplication getApplication(String... wikis)
+    {
+        return new DefaultFederatedApplication(this.factory, this.executor, APP_ID, Arrays.asList(wikis), 1, 1000);
+    }
+
+    /**
+     * @param rows the rows of the query in the wiki, in the requested order, null for the items which are not
+     *            viewable
+     */
+    private Application mockApplication(String wiki, final ItemMap... rows) throws Exception
+    {
+        Application application = mock(Application.class);
+        when(application.getItemList(anyMap())).thenAnswer(new Answer<ItemList>()
+        {
+            @Override
+            public ItemList answer(InvocationOnMock invocation) throws Throwable
+            {
+                Map<?, ?> wikiOptions = (Map<?, ?>) invocation.getArguments()[0];
+                int offset = ((Number) wikiOptions.get("offset")).intValue();
+                int limit = ((Number) wikiOptions.get("limit")).intValue();
+                List<ItemMap> page = Arrays.asList(rows).subList(Math.min(offset, rows.length),
+                    Math.min(offset + limit, rows.length));
+                ItemList items = new ItemList(page.size());
+                for (ItemMap row : page) {
+                    if (row != null) {
+                        items.add(row);
+                    }
+                }
+                return items;
+            }
+        });
+        when(this.factory.getApplication(wiki, APP_ID)).thenReturn(application);
+        return application;
+    }
+
+    private ItemMap getItem(String id, int rank)
+    {
+        ItemMap item = new ItemMap();
+        item.setId(id);
+        item.put("rank", rank);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> getIds(Map<String, Object> page)
+    {
+        return new ArrayList<>(((Map<String, ?>) page.get("Items")).keySet());
+    }
+}
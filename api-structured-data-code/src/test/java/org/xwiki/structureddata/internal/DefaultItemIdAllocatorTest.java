@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiHibernateBaseStore.HibernateCallback;
+import com.xpn.xwiki.store.XWikiHibernateStore;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the reservation of the blocks of item ids.
+ */
+public class DefaultItemIdAllocatorTest
+{
+    private static final DocumentReference SEQUENCE_REFERENCE =
+        new DocumentReference("xwiki", "Data", "ItemIdSequence");
+
+    private DefaultItemIdAllocator allocator;
+
+    private XWikiHibernateStore store;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+        when(configuration.getIdBlockSize()).thenReturn(2);
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        this.store = mock(XWikiHibernateStore.class);
+        when(xwiki.getHibernateStore()).thenReturn(this.store);
+        // The sequence already exists
+        XWikiDocument sequence = mock(XWikiDocument.class);
+        when(sequence.clone()).thenReturn(sequence);
+        when(xwiki.getDocument(SEQUENCE_REFERENCE, context)).thenReturn(sequence);
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(context);
+
+        this.allocator = new DefaultItemIdAllocator();
+        ReflectionUtils.setFieldValue(this.allocator, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.allocator, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.allocator, "localSerializer", mock(EntityReferenceSerializer.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIdsAreHandedOutFromTheReservedBlock() throws Exception
+    {
+        when(this.store.executeWrite(any(XWikiContext.class), any(HibernateCallback.class))).thenReturn(1L, 3L);
+
+        Assert.assertEquals(1L, this.allocator.next(SEQUENCE_REFERENCE));
+        Assert.assertEquals(2L, this.allocator.next(SEQUENCE_REFERENCE));
+        Assert.assertEquals(3L, this.allocator.next(SEQUENCE_REFERENCE));
+        verify(this.store, times(2)).executeWrite(any(XWikiContext.class), any(HibernateCallback.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBlockReservedByAnotherNodeIsReadAgain() throws Exception
+    {
+        // The first block has been reserved by another node between the read and the update
+        when(this.store.executeWrite(any(XWikiContext.class), any(HibernateCallback.class))).thenReturn(null, 5L);
+
+        Assert.assertEquals(5L, this.allocator.next(SEQUENCE_REFERENCE));
+        verify(this.store, times(2)).executeWrite(any(XWikiContext.class), any(HibernateCallback.class));
+    }
+}
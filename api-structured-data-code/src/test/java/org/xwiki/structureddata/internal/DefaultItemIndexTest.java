@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.StringClass;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the in-memory index of the properties.
+ */
+public class DefaultItemIndexTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference ITEM2 = new DocumentReference("xwiki", "Data", "Item2");
+
+    private static final String CITY = "city";
+
+    private DefaultItemIndex index;
+
+    private QueryManager queryManager;
+
+    /**
+     * Run while the objects of the class are scanned.
+     */
+    private Runnable duringScan;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        BaseClass xClass = mock(BaseClass.class);
+        when(xwiki.getXClass(CLASS_REFERENCE, context)).thenReturn(xClass);
+        when(xClass.get(CITY)).thenReturn(mock(StringClass.class));
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(context);
+
+        StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+        when(configuration.getIndexedProperties()).thenReturn(Arrays.asList("Data.ItemClass#city"));
+
+        this.queryManager = mock(QueryManager.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation) throws Exception
+            {
+                return getQuery((String) invocation.getArguments()[0]);
+            }
+        });
+
+        this.index = new DefaultItemIndex();
+        ReflectionUtils.setFieldValue(this.index, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.index, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.index, "queryManager", this.queryManager);
+        ReflectionUtils.setFieldValue(this.index, "serializer", mockSerializer(true));
+        ReflectionUtils.setFieldValue(this.index, "localSerializer", mockSerializer(false));
+        ReflectionUtils.setFieldValue(this.index, "logger", mock(Logger.class));
+    }
+
+    @Test
+    public void testStringsAreFolded()
+    {
+        Set<String> objects = this.index.find(CLASS_REFERENCE, ItemFilter.eq(CITY, "PAR\u00cdS "));
+
+        Assert.assertEquals(Collections.singleton("Data.Item1|0"), objects);
+    }
+
+    @Test
+    public void testStringRangeIsLeftToTheDatabase()
+    {
+        Assert.assertNull(this.index.find(CLASS_REFERENCE, ItemFilter.range(CITY, "a", "z")));
+    }
+
+    @Test
+    public void testUpdateDuringLoadIsNotBlocked() throws Exception
+    {
+        final XWikiDocument document = mockDocument();
+        final AtomicReference<Set<String>> concurrentResult = new AtomicReference<>();
+        final AtomicReference<Boolean> updated = new AtomicReference<>(false);
+        this.duringScan = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Thread other = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        DefaultItemIndexTest.this.index.update(document);
+                        updated.set(true);
+                        concurrentResult.set(DefaultItemIndexTest.this.index.find(CLASS_REFERENCE,
+                            ItemFilter.eq(CITY, "paris")));
+                    }
+                };
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        Set<String> objects = this.index.find(CLASS_REFERENCE, ItemFilter.eq(CITY, "paris"));
+
+        Assert.assertTrue(updated.get());
+        // The concurrent request is resolved by the database while the index is loaded
+        Assert.assertNull(concurrentResult.get());
+        // The document saved during the load is in the index
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Data.Item1|0", "Data.Item2|0")), objects);
+    }
+
+    private Query getQuery(String statement) throws Exception
+    {
+        final List<Object[]> rows;
+        final boolean scan;
+        if (statement.startsWith("select distinct doc.fullName")) {
+            rows = Collections.singletonList(new Object[] {"Data.Item1", "1.1" });
+            scan = false;
+        } else if (statement.contains(", prop from")) {
+            BaseProperty property = mock(BaseProperty.class);
+            when(property.getValue()).thenReturn("Paris");
+            rows = Collections.singletonList(new Object[] {1L, "Data.Item1", 0, property });
+            scan = false;
+        } else {
+            rows = Collections.singletonList(new Object[] {1L, "Data.Item1", 0, false, "1.1" });
+            scan = true;
+        }
+        Query query = mock(Query.class);
+        when(query.bindValue(anyString(), any())).thenReturn(query);
+        when(query.setLimit(anyInt())).thenReturn(query);
+        when(query.setWiki(anyString())).thenReturn(query);
+        when(query.execute()).thenAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation)
+            {
+                if (scan && DefaultItemIndexTest.this.duringScan != null) {
+                    DefaultItemIndexTest.this.duringScan.run();
+                }
+                return rows;
+            }
+        });
+        return query;
+    }
+
+    private XWikiDocument mockDocument()
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(ITEM2);
+        when(document.getVersion()).thenReturn("1.1");
+        BaseObject object = mock(BaseObject.class);
+        BaseProperty property = mock(BaseProperty.class);
+        when(property.getValue()).thenReturn("PARIS");
+        when(object.safeget(CITY)).thenReturn(property);
+        when(document.getXObjects(CLASS_REFERENCE)).thenReturn(Collections.singletonList(object));
+        return document;
+    }
+
+    private EntityReferenceSerializer<String> mockSerializer(final boolean withWiki)
+    {
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                EntityReference reference = (EntityReference) invocation.getArguments()[0];
+                String name = reference.getParent().getName() + '.' + reference.getName();
+                return withWiki ? reference.getParent().getParent().getName() + ':' + name : name;
+            }
+        });
+        return serializer;
+    }
+}
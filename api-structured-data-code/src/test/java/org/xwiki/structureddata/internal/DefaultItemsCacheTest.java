@@ -0,0 +1,352 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.cache.Cache;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.structureddata.Application;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the cache of the items queries.
+ */
+public class DefaultItemsCacheTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference ALICE = new DocumentReference("xwiki", "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference("xwiki", "XWiki", "Bob");
+
+    private DefaultItemsCache cache;
+
+    private XWikiContext context;
+
+    private ApplicationVersions versions;
+
+    private Application application;
+
+    private StructuredDataConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(this.context);
+        this.versions = mock(ApplicationVersions.class);
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(
+            new Answer<String>()
+            {
+                @Override
+                public String answer(InvocationOnMock invocation)
+                {
+                    return invocation.getArguments()[0].toString();
+                }
+            });
+        this.application = mock(Application.class);
+
+        this.cache = new DefaultItemsCache();
+        ReflectionUtils.setFieldValue(this.cache, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.cache, "versions", this.versions);
+        ReflectionUtils.setFieldValue(this.cache, "serializer", serializer);
+        this.configuration = mock(StructuredDataConfiguration.class);
+        when(this.configuration.getRestTimeout()).thenReturn(5000L);
+        ReflectionUtils.setFieldValue(this.cache, "configuration", this.configuration);
+    }
+
+    @Test
+    public void testUsersDontShareResults()
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put("limit", 10);
+
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        String aliceKey = getKey(options);
+        when(this.context.getUserReference()).thenReturn(BOB);
+        String bobKey = getKey(options);
+        when(this.context.getUserReference()).thenReturn(null);
+        String guestKey = getKey(options);
+
+        Assert.assertNotEquals(aliceKey, bobKey);
+        Assert.assertNotEquals(aliceKey, guestKey);
+        Assert.assertNotEquals(bobKey, guestKey);
+    }
+
+    @Test
+    public void testApplicationsOfTheSameClassDontShareResults() throws Exception
+    {
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        final Map<String, ItemList> entries = new HashMap<>();
+        Cache<ItemList> storage = mock(Cache.class);
+        when(storage.get(any(String.class))).thenAnswer(new Answer<ItemList>()
+        {
+            @Override
+            public ItemList answer(InvocationOnMock invocation)
+            {
+                return entries.get(invocation.getArguments()[0]);
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                entries.put((String) invocation.getArguments()[0], (ItemList) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(storage).set(any(String.class), any(ItemList.class));
+        ReflectionUtils.setFieldValue(this.cache, "cache", storage);
+        Application awmApplication = mock(Application.class, "awm");
+        ItemList awmItems = new ItemList(1);
+        awmItems.add(new ItemMap());
+        when(awmApplication.getItemList(any(Map.class))).thenReturn(awmItems);
+        Application classApplication = mock(Application.class, "class");
+        when(classApplication.getItemList(any(Map.class))).thenReturn(new ItemList(0));
+
+        // Both kinds of applications are wrapped in the same way by the application factory
+        Application cachedAwm = this.cache.wrap(new AbstractForwardingApplication(awmApplication)
+        {
+        }, CLASS_REFERENCE, "ItemsData");
+        Application cachedClass = this.cache.wrap(new AbstractForwardingApplication(classApplication)
+        {
+        }, CLASS_REFERENCE, null);
+
+        Map<String, Object> options = new HashMap<>();
+        Assert.assertEquals(1, cachedAwm.getItemList(options).size());
+        Assert.assertEquals(0, cachedClass.getItemList(options).size());
+        Assert.assertEquals(1, cachedAwm.getItemList(options).size());
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(1L, this.cache.getStatistics().get("Hits"));
+    }
+
+    @Test
+    public void testRightsChangeGivesNewKey()
+    {
+        Map<String, Object> options = new HashMap<>();
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        when(this.versions.getRightsVersion()).thenReturn(1L);
+        String before = getKey(options);
+        when(this.versions.getRightsVersion()).thenReturn(2L);
+
+        Assert.assertNotEquals(before, getKey(options));
+    }
+
+    @Test
+    public void testDataChangeGivesNewKey()
+    {
+        Map<String, Object> options = new HashMap<>();
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        when(this.versions.getVersion(CLASS_REFERENCE)).thenReturn(1L);
+        String before = getKey(options);
+        when(this.versions.getVersion(CLASS_REFERENCE)).thenReturn(2L);
+
+        Assert.assertNotEquals(before, getKey(options));
+    }
+
+    @Test
+    public void testEquivalentOptionsShareKey()
+    {
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        Map<String, Object> options1 = new HashMap<>();
+        options1.put("properties", Arrays.asList("name", "city"));
+        options1.put("limit", 10);
+        options1.put("order", null);
+        Map<String, Object> options2 = new HashMap<>();
+        options2.put("limit", "10");
+        options2.put("properties", Arrays.asList("city", "name"));
+
+        Assert.assertEquals(getKey(options1), getKey(options2));
+    }
+
+    @Test
+    public void testInvalidFilterIsNotCached()
+    {
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        Map<String, Object> options = new HashMap<>();
+        options.put("filter", "{\"op\": \"and\", \"filters\": []}");
+
+        Assert.assertNull(getKey(options));
+    }
+
+    @Test
+    public void testIdenticalQueriesAreCoalesced() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final Callable<ItemList> query = new Callable<ItemList>()
+        {
+            @Override
+            public ItemList call() throws Exception
+            {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                ItemList items = new ItemList(1);
+                items.add(new ItemMap());
+                return items;
+            }
+        };
+        final AtomicReference<ItemList> firstResult = new AtomicReference<>();
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    firstResult.set(DefaultItemsCacheTest.this.cache.load("key", query));
+                } catch (Exception e) {
+                    // Checked below
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread releaser = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                // Released once the second caller waits for the first query
+                while (!Long.valueOf(1).equals(DefaultItemsCacheTest.this.cache.getStatistics().get("Coalesced"))) {
+                    Thread.yield();
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+
+        ItemList secondResult = this.cache.load("key", query);
+        first.join(5000);
+
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(1, secondResult.size());
+        Assert.assertEquals(1, firstResult.get().size());
+        // Each caller gets its own copy of the result
+        Assert.assertNotSame(firstResult.get().get(0), secondResult.get(0));
+    }
+
+    @Test
+    public void testWaitForAnotherQueryIsBounded() throws Exception
+    {
+        when(this.configuration.getRestTimeout()).thenReturn(50L);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    DefaultItemsCacheTest.this.cache.load("key", new Callable<ItemList>()
+                    {
+                        @Override
+                        public ItemList call() throws Exception
+                        {
+                            started.countDown();
+                            release.await(5, TimeUnit.SECONDS);
+                            return new ItemList(0);
+                        }
+                    });
+                } catch (Exception e) {
+                    // Not checked
+                }
+            }
+        };
+        first.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            this.cache.load("key", new Callable<ItemList>()
+            {
+                @Override
+                public ItemList call()
+                {
+                    return new ItemList(0);
+                }
+            });
+            Assert.fail("The second caller should stop waiting");
+        } catch (TimeoutException e) {
+            // Expected
+        } finally {
+            release.countDown();
+            first.join(5000);
+        }
+    }
+
+    @Test
+    public void testFailedQueryIsRunAgain() throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        Callable<ItemList> query = new Callable<ItemList>()
+        {
+            @Override
+            public ItemList call()
+            {
+                if (runs.incrementAndGet() == 1) {
+                    throw new IllegalStateException("Failed");
+                }
+                return new ItemList(0);
+            }
+        };
+
+        try {
+            this.cache.load("key", query);
+            Assert.fail("The failure should be reported");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        Assert.assertNotNull(this.cache.load("key", query));
+        Assert.assertEquals(2, runs.get());
+    }
+
+    private String getKey(Map<String, Object> options)
+    {
+        return this.cache.getKey(this.application, CLASS_REFERENCE, null, options);
+    }
+}
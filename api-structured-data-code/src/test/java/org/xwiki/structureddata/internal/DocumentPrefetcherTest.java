@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the batched load of the documents of a page of items.
+ */
+public class DocumentPrefetcherTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference ITEM1 = new DocumentReference("xwiki", "Data", "Item1");
+
+    private static final DocumentReference ITEM2 = new DocumentReference("xwiki", "Data", "Item2");
+
+    private static final DocumentReference ITEM3 = new DocumentReference("xwiki", "Data", "Item3");
+
+    private ContextualAuthorizationManager authorization;
+
+    private QueryManager queryManager;
+
+    private Query query;
+
+    private DocumentPrefetcher.Loader loader;
+
+    private BaseClass xClass;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        this.authorization = mock(ContextualAuthorizationManager.class);
+        when(this.authorization.hasAccess(any(Right.class), any(EntityReference.class))).thenReturn(true);
+        this.queryManager = mock(QueryManager.class);
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(this.query);
+        when(this.query.bindValue(anyString(), any())).thenReturn(this.query);
+        when(this.query.setWiki(anyString())).thenReturn(this.query);
+        doReturn(Collections.emptyList()).when(this.query).execute();
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                DocumentReference reference = (DocumentReference) invocation.getArguments()[0];
+                return reference.getLastSpaceReference().getName() + '.' + reference.getName();
+            }
+        });
+        this.loader = new DocumentPrefetcher.Loader(mock(XWikiContext.class), this.authorization,
+            this.queryManager, mock(EntityReferenceResolver.class), serializer, mock(Logger.class));
+        this.xClass = mock(BaseClass.class);
+        when(this.xClass.getDocumentReference()).thenReturn(CLASS_REFERENCE);
+        when(this.xClass.getProperties()).thenReturn(new Object[0]);
+    }
+
+    @Test
+    public void testPageIsLoadedWithBatchedQueries() throws Exception
+    {
+        DocumentPrefetcher.prefetch(this.loader, this.xClass, Arrays.asList(ITEM1, ITEM2, ITEM3));
+
+        // One query for the documents and one for the objects, whatever the size of the page
+        verify(this.queryManager, times(2)).createQuery(anyString(), eq(Query.HQL));
+        verify(this.query).bindValue("names", Arrays.asList("Data.Item1", "Data.Item2", "Data.Item3"));
+    }
+
+    @Test
+    public void testDeniedDocumentsAreCheckedOnce() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.VIEW, ITEM2)).thenReturn(false);
+
+        Map<DocumentReference, DocumentPrefetcher.PrefetchedDocument> documents =
+            DocumentPrefetcher.prefetch(this.loader, this.xClass, Arrays.asList(ITEM1, ITEM2));
+
+        // The listing skips the denied document without checking it again
+        Assert.assertTrue(documents.containsKey(ITEM2));
+        Assert.assertNull(documents.get(ITEM2));
+        // The missing document is left to the listing
+        Assert.assertFalse(documents.containsKey(ITEM1));
+        verify(this.query).bindValue("names", Arrays.asList("Data.Item1"));
+    }
+
+    @Test
+    public void testFailedPrefetchIsLeftToTheListing() throws Exception
+    {
+        when(this.query.execute()).thenThrow(new QueryException("Failed", this.query, null));
+
+        Map<DocumentReference, DocumentPrefetcher.PrefetchedDocument> documents =
+            DocumentPrefetcher.prefetch(this.loader, this.xClass, Arrays.asList(ITEM1, ITEM2));
+
+        Assert.assertTrue(documents.isEmpty());
+    }
+
+    @Test
+    public void testNoQueryWhenNothingCanBeViewed() throws Exception
+    {
+        when(this.authorization.hasAccess(any(Right.class), any(EntityReference.class))).thenReturn(false);
+
+        List<DocumentReference> references = Arrays.asList(ITEM1, ITEM2);
+        Map<DocumentReference, DocumentPrefetcher.PrefetchedDocument> documents =
+            DocumentPrefetcher.prefetch(this.loader, this.xClass, references);
+
+        Assert.assertEquals(2, documents.size());
+        verify(this.queryManager, never()).createQuery(anyString(), anyString());
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the combined saves of the changes of a document.
+ */
+public class DocumentWriteCombinerTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("xwiki", "Data", "Item");
+
+    private static final String COMMENT = "Properties updated";
+
+    private XWiki xwiki;
+
+    private XWikiDocument document;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.xwiki = mock(XWiki.class);
+        this.document = mock(XWikiDocument.class);
+        when(this.document.clone()).thenAnswer(new Answer<XWikiDocument>()
+        {
+            @Override
+            public XWikiDocument answer(InvocationOnMock invocation)
+            {
+                XWikiDocument copy = mock(XWikiDocument.class);
+                when(copy.clone()).thenAnswer(this);
+                return copy;
+            }
+        });
+        when(this.xwiki.getDocument(eq(DOCUMENT_REFERENCE), any(XWikiContext.class))).thenReturn(this.document);
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testWaitingChangesAreSavedTogether() throws Exception
+    {
+        XWikiContext context = createContext("Alice");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Void> first = submit(new BlockingChange(started, release), COMMENT, context);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<Future<Void>> waiting = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waiting.add(submit(new BlockingChange(null, null), COMMENT, context));
+        }
+        waitForQueuedChanges(3);
+        release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        for (Future<Void> change : waiting) {
+            change.get(5, TimeUnit.SECONDS);
+        }
+        // One save for the first change, one for the changes which were waiting for it
+        verify(this.xwiki, times(2)).saveDocument(any(XWikiDocument.class), eq(COMMENT), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testChangesOfOtherUsersAreSavedApart() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Void> first = submit(new BlockingChange(started, release), COMMENT, createContext("Alice"));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Void> second = submit(new BlockingChange(null, null), COMMENT, createContext("Bob"));
+        Future<Void> third = submit(new BlockingChange(null, null), "Other comment", createContext("Alice"));
+        waitForQueuedChanges(2);
+        release.countDown();
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        verify(this.xwiki, times(3)).saveDocument(any(XWikiDocument.class), anyString(), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testOperationIsNotCombined() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Void> operation = this.executor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                return DocumentWriteCombiner.execute(DOCUMENT_REFERENCE, new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        started.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                        return null;
+                    }
+                });
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Void> change = submit(new BlockingChange(null, null), COMMENT, createContext("Alice"));
+        waitForQueuedChanges(1);
+        // The change waits for the operation
+        verify(this.xwiki, never()).getDocument(eq(DOCUMENT_REFERENCE), any(XWikiContext.class));
+        release.countDown();
+
+        operation.get(5, TimeUnit.SECONDS);
+        change.get(5, TimeUnit.SECONDS);
+        verify(this.xwiki).saveDocument(any(XWikiDocument.class), eq(COMMENT), any(XWikiContext.class));
+        Assert.assertEquals(0, DocumentWriteCombiner.getWriters(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    public void testFailedChangeIsRolledBack() throws Exception
+    {
+        final List<XWikiDocument> changed = new ArrayList<>();
+        try {
+            DocumentWriteCombiner.write(DOCUMENT_REFERENCE, new DocumentWriteCombiner.Change()
+            {
+                @Override
+                public boolean apply(XWikiDocument document)
+                {
+                    changed.add(document);
+                    document.setContent("partial change");
+                    throw new IllegalStateException("failed");
+                }
+            }, COMMENT, createContext("Alice"));
+            Assert.fail("The error of the change should be reported");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("failed", e.getMessage());
+        }
+
+        // The change got a copy, the cached document is untouched and nothing is saved
+        Assert.assertNotSame(this.document, changed.get(0));
+        verify(this.document, never()).setContent(anyString());
+        verify(this.xwiki, never()).saveDocument(any(XWikiDocument.class), anyString(), any(XWikiContext.class));
+    }
+
+    private XWikiContext createContext(String user)
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        when(context.getWiki()).thenReturn(this.xwiki);
+        when(context.getUserReference()).thenReturn(new DocumentReference("xwiki", "XWiki", user));
+        return context;
+    }
+
+    private Future<Void> submit(final DocumentWriteCombiner.Change change, final String comment,
+        final XWikiContext context)
+    {
+        return this.executor.submit(new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                DocumentWriteCombiner.write(DOCUMENT_REFERENCE, change, comment, context);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait until the given number of threads are waiting for the thread holding the lock of the document.
+     */
+    private void waitForQueuedChanges(int count) throws Exception
+    {
+        for (int i = 0; i < 500 && DocumentWriteCombiner.getWriters(DOCUMENT_REFERENCE) < count + 1; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * A change which can wait until it is released, once it has started.
+     */
+    private static class BlockingChange implements DocumentWriteCombiner.Change
+    {
+        private final CountDownLatch started;
+
+        private final CountDownLatch release;
+
+        BlockingChange(CountDownLatch started, CountDownLatch release)
+        {
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public boolean apply(XWikiDocument document) throws Exception
+        {
+            if (this.started != null) {
+                this.started.countDown();
+                this.release.await(5, TimeUnit.SECONDS);
+            }
+            return true;
+        }
+    }
+}
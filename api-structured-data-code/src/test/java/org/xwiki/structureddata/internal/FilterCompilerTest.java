@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.objects.classes.StaticListClass;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the compilation of the item filters into XWQL conditions.
+ */
+public class FilterCompilerTest
+{
+    private BaseClass xClass;
+
+    private StaticListClass tags;
+
+    @Before
+    public void setUp()
+    {
+        this.xClass = mock(BaseClass.class);
+        this.tags = mock(StaticListClass.class);
+        when(this.tags.getName()).thenReturn("tags");
+        when(this.tags.isMultiSelect()).thenReturn(true);
+        when(this.xClass.get("tags")).thenReturn(this.tags);
+    }
+
+    @Test
+    public void testRelationalListUsesMemberOf()
+    {
+        when(this.tags.isRelationalStorage()).thenReturn(true);
+
+        FilterCompiler compiler = new FilterCompiler(ItemFilter.eq("tags", "red"), this.xClass);
+
+        Assert.assertEquals(":filter0 member of item.tags", compiler.getWhereClause());
+        Assert.assertEquals("red", compiler.getParameters().get("filter0"));
+    }
+
+    @Test
+    public void testStoredListUsesLike()
+    {
+        FilterCompiler compiler = new FilterCompiler(ItemFilter.eq("tags", "in_progress"), this.xClass);
+
+        Assert.assertEquals("(item.tags = :filter0 or item.tags like :filter1 escape '!'"
+            + " or item.tags like :filter2 escape '!' or item.tags like :filter3 escape '!')",
+            compiler.getWhereClause());
+        Map<String, Object> parameters = compiler.getParameters();
+        Assert.assertEquals("in_progress", parameters.get("filter0"));
+        Assert.assertEquals("in!_progress|%", parameters.get("filter1"));
+        Assert.assertEquals("%|in!_progress", parameters.get("filter2"));
+        Assert.assertEquals("%|in!_progress|%", parameters.get("filter3"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyAndIsRejected()
+    {
+        ItemFilter.and(Collections.<ItemFilter>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyOrIsRejected()
+    {
+        ItemFilter.or(Collections.<ItemFilter>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyInIsRejected()
+    {
+        ItemFilter.in("tags", Collections.emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnboundedRangeIsRejected()
+    {
+        ItemFilter.range("tags", null, null);
+    }
+
+    @Test
+    public void testInOnStoredList()
+    {
+        FilterCompiler compiler = new FilterCompiler(ItemFilter.in("tags", Arrays.asList("red", "blue")), this.xClass);
+
+        Assert.assertTrue(compiler.getWhereClause().startsWith("((item.tags = :filter0 or "));
+        Assert.assertTrue(compiler.getWhereClause().contains(") or (item.tags = :filter4 or "));
+        Assert.assertEquals(8, compiler.getParameters().size());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.structureddata.Application;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the items queries narrowed by the index.
+ */
+public class IndexedApplicationTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private Application application;
+
+    private ItemIndex index;
+
+    private Map<String, Object> options;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.application = mock(Application.class);
+        this.index = mock(ItemIndex.class);
+        when(this.application.getItemList(any(Map.class))).thenReturn(new ItemList(0));
+        this.options = new HashMap<>();
+        this.options.put("filter", ItemFilter.eq("city", "Paris"));
+        this.options.put("limit", 10);
+    }
+
+    @Test
+    public void testQueryIsRestrictedToTheCandidates() throws Exception
+    {
+        when(this.index.find(any(DocumentReference.class), any(ItemFilter.class))).thenReturn(
+            new HashSet<>(Arrays.asList("Data.Item1|0", "Data.Item1|1", "Data.ItemTemplate|0")));
+
+        getApplication(null).getItemList(this.options);
+
+        Map<String, Object> query = getQueryOptions();
+        Assert.assertEquals(Arrays.asList("Data.Item1"), query.get(QueryItems.DOCUMENTS_OPTION));
+        // The filter, the paging and the rights are still applied by the query of the application
+        Assert.assertSame(this.options.get("filter"), query.get("filter"));
+        Assert.assertEquals(10, query.get("limit"));
+    }
+
+    @Test
+    public void testCandidatesOutsideOfTheDataSpaceAreIgnored() throws Exception
+    {
+        when(this.index.find(any(DocumentReference.class), any(ItemFilter.class))).thenReturn(
+            new HashSet<>(Arrays.asList("Data.Item1|0", "Other.Item2|0")));
+
+        getApplication("Data").getItemList(this.options);
+
+        Assert.assertEquals(Arrays.asList("Data.Item1"), getQueryOptions().get(QueryItems.DOCUMENTS_OPTION));
+    }
+
+    @Test
+    public void testNoCandidate() throws Exception
+    {
+        when(this.index.find(any(DocumentReference.class), any(ItemFilter.class))).thenReturn(
+            new HashSet<String>());
+
+        ItemList items = getApplication(null).getItemList(this.options);
+
+        Assert.assertTrue(items.isEmpty());
+        Assert.assertEquals(0, items.getRowCount());
+        verify(this.application, never()).getItemList(any(Map.class));
+    }
+
+    @Test
+    public void testNotIndexedFilterIsSentAsIs() throws Exception
+    {
+        getApplication(null).getItemList(this.options);
+
+        Assert.assertFalse(getQueryOptions().containsKey(QueryItems.DOCUMENTS_OPTION));
+    }
+
+    private IndexedApplication getApplication(String dataSpace)
+    {
+        return new IndexedApplication(this.application, "Data.ItemClass", CLASS_REFERENCE, dataSpace, 0, this.index,
+            mock(Logger.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getQueryOptions() throws Exception
+    {
+        ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        verify(this.application).getItemList(captor.capture());
+        return captor.getValue();
+    }
+}
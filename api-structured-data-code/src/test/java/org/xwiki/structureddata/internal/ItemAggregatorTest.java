@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the aggregates of the items.
+ */
+public class ItemAggregatorTest
+{
+    @Test
+    public void testGroupedSum()
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put("function", "sum");
+        options.put("property", "price");
+        options.put("groupBy", "city");
+        ItemAggregator aggregator = new ItemAggregator(options);
+        aggregator.add("Paris", 2);
+        aggregator.add("Paris", 3.5);
+        aggregator.add("Iasi", Double.NaN);
+        aggregator.add(Arrays.asList("Iasi", "Paris"), 1);
+
+        Map<String, Object> result = aggregator.getResult();
+        Assert.assertEquals(4L, result.get("Count"));
+        Map<?, ?> groups = (Map<?, ?>) result.get("Groups");
+        Assert.assertEquals(6.5, groups.get("Paris"));
+        Assert.assertEquals(1.0, groups.get("Iasi"));
+    }
+
+    @Test
+    public void testCount()
+    {
+        ItemAggregator aggregator = new ItemAggregator(new HashMap<String, Object>());
+        Assert.assertEquals(0L, aggregator.getResult().get("Value"));
+        aggregator.add(null, Double.NaN);
+        Assert.assertEquals(1L, aggregator.getResult().get("Value"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingProperty()
+    {
+        Map<String, Object> options = new HashMap<>();
+        options.put("function", "avg");
+        new ItemAggregator(options);
+    }
+}
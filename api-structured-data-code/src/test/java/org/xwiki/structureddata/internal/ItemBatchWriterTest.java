@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the batch saves of the items.
+ */
+public class ItemBatchWriterTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("xwiki", "Data", "Item");
+
+    private static final String COUNTER = "counter";
+
+    @Test
+    public void testFailedItemIsDropped() throws Exception
+    {
+        final XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        XWikiDocument document = mock(XWikiDocument.class);
+        XWikiDocument copy = mock(XWikiDocument.class);
+        when(document.clone()).thenReturn(copy);
+        when(xwiki.getDocument(eq(DOCUMENT_REFERENCE), any(XWikiContext.class))).thenReturn(document);
+        BaseObject failing = mockObject(copy, 1);
+        BaseObject failingCopy = failing.clone();
+        doThrow(new IllegalArgumentException("Invalid value")).when(failingCopy).set(eq(COUNTER), any(), eq(context));
+        BaseObject updatedCopy = mockObject(copy, 2).clone();
+
+        ItemMap failingItem = new ItemMap();
+        failingItem.setId("1");
+        failingItem.put(COUNTER, "many");
+        ItemMap updatedItem = new ItemMap();
+        updatedItem.setId("2");
+        updatedItem.put(COUNTER, "2");
+        Map<String, Object> results = new ItemBatchWriter()
+        {
+            @Override
+            protected String getDocumentName(ItemMap item)
+            {
+                return "Data.Item";
+            }
+
+            @Override
+            protected DocumentReference getDocumentReference(String documentName)
+            {
+                return DOCUMENT_REFERENCE;
+            }
+
+            @Override
+            protected void apply(String documentName, ItemMap item, XWikiDocument xDoc) throws Exception
+            {
+                int number = Integer.parseInt(item.getId());
+                new ApplicationItem(documentName, number, xDoc, xDoc.getXObject(CLASS_REFERENCE, number), null,
+                    context, null, null).apply(item);
+            }
+        }.storeItems(Arrays.asList(failingItem, updatedItem), mock(ContextualAuthorizationManager.class), context);
+
+        Assert.assertEquals("Invalid value", ((Map<?, ?>) results.get("1")).get("Error"));
+        Assert.assertEquals(1, ((Map<?, ?>) results.get("2")).get("Success"));
+        // The failed item is left as it was in the saved document
+        verify(failing, never()).set(anyString(), any(), any(XWikiContext.class));
+        verify(copy, never()).setXObject(eq(1), any(BaseObject.class));
+        verify(copy).setXObject(2, updatedCopy);
+        verify(xwiki).saveDocument(copy, "Properties updated", context);
+    }
+
+    private BaseObject mockObject(XWikiDocument document, int number)
+    {
+        BaseObject object = mock(BaseObject.class);
+        when(object.getNumber()).thenReturn(number);
+        BaseObject objectCopy = mock(BaseObject.class);
+        when(object.clone()).thenReturn(objectCopy);
+        when(document.getXObject(CLASS_REFERENCE, number)).thenReturn(object);
+        return object;
+    }
+}
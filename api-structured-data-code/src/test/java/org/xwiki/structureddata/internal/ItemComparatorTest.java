@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the order used to merge the items of several queries.
+ */
+public class ItemComparatorTest
+{
+    @Test
+    public void testOrderByProperties()
+    {
+        ItemComparator comparator = new ItemComparator("item.status, item.rank desc");
+        Assert.assertEquals(Arrays.asList("status", "rank"), comparator.getProperties());
+
+        Assert.assertTrue(comparator.compare(getItem("Data.A|0", "closed", 1), getItem("Data.B|0", "open", 2)) < 0);
+        Assert.assertTrue(comparator.compare(getItem("Data.A|0", "open", 1), getItem("Data.B|0", "open", 2)) > 0);
+        // The ties are broken by the item ids
+        Assert.assertTrue(comparator.compare(getItem("Data.A|0", "open", 1), getItem("Data.B|0", "open", 1)) < 0);
+    }
+
+    @Test
+    public void testNullValuesComeFirst()
+    {
+        ItemComparator comparator = new ItemComparator("item.rank");
+
+        Assert.assertTrue(comparator.compare(getItem("Data.B|0", null, null), getItem("Data.A|0", null, 1)) < 0);
+        Assert.assertTrue(comparator.compare(getItem("Data.A|0", null, 1), getItem("Data.B|0", null, null)) > 0);
+    }
+
+    @Test
+    public void testNumbersOfDifferentTypes()
+    {
+        ItemComparator comparator = new ItemComparator("item.rank");
+        ItemMap longRank = getItem("Data.A|0", null, null);
+        longRank.put("rank", 10L);
+
+        Assert.assertTrue(comparator.compare(getItem("Data.B|0", null, 9), longRank) < 0);
+    }
+
+    @Test
+    public void testOrderByDocumentAndObjectNumber()
+    {
+        ItemComparator comparator = new ItemComparator("doc.fullName desc, item.number");
+        Assert.assertEquals(Collections.emptyList(), comparator.getProperties());
+
+        Assert.assertTrue(comparator.compare(getItem("Data.B|0", null, null), getItem("Data.A|0", null, null)) < 0);
+        // The object numbers are compared as numbers
+        Assert.assertTrue(comparator.compare(getItem("Data.A|2", null, null), getItem("Data.A|10", null, null)) < 0);
+        Assert.assertTrue(new ItemComparator(null).compare(getItem("Data.A|2", null, null),
+            getItem("Data.A|10", null, null)) < 0);
+    }
+
+    private ItemMap getItem(String id, String status, Integer rank)
+    {
+        ItemMap item = new ItemMap();
+        item.setId(id);
+        item.put("status", status);
+        item.put("rank", rank);
+        return item;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the parsing of the item ids.
+ */
+public class ItemIdTest
+{
+    @Test
+    public void testParse()
+    {
+        ItemId first = ItemId.parse("Data.Item");
+        Assert.assertEquals("Data.Item", first.getDocumentName());
+        Assert.assertEquals(0, first.getObjectNumber());
+
+        ItemId second = ItemId.parse("Data.Item|12");
+        Assert.assertEquals("Data.Item", second.getDocumentName());
+        Assert.assertEquals(12, second.getObjectNumber());
+        Assert.assertEquals("Data.Item|12", second.toString());
+        Assert.assertSame(second, ItemId.parse("Data.Item|12"));
+    }
+
+    @Test
+    public void testParseNames()
+    {
+        // Only a number after the last separator is an object number
+        Assert.assertEquals("Data.A|B", ItemId.parse("Data.A|B").getDocumentName());
+        Assert.assertEquals("Data.A|1", ItemId.parse("Data.A|1|3").getDocumentName());
+        Assert.assertEquals(3, ItemId.parse("Data.A|1|3").getObjectNumber());
+        Assert.assertEquals("Data.A|", ItemId.parse("Data.A|").getDocumentName());
+        Assert.assertEquals(0, ItemId.parse("Data.A|12345678901").getObjectNumber());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the streaming parser of the items sent to the rest resources.
+ */
+public class ItemJsonParserTest
+{
+    private static Map<String, Object> getSchema()
+    {
+        Map<String, Object> schema = new HashMap<>();
+        schema.put("price", getPropertySchema("Number"));
+        schema.put("city", getPropertySchema("StaticList"));
+        schema.put("date", getPropertySchema("Date"));
+        return schema;
+    }
+
+    private static Map<String, Object> getPropertySchema(String type)
+    {
+        Map<String, Object> propertySchema = new HashMap<>();
+        propertySchema.put("Type", type);
+        return propertySchema;
+    }
+
+    private static JsonParser createParser(String json) throws Exception
+    {
+        JsonParser parser = JsonTools.createParser(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        parser.nextToken();
+        return parser;
+    }
+
+    @Test
+    public void testReadItem() throws Exception
+    {
+        Map<String, String> errors = new LinkedHashMap<>();
+        ItemMap item = new ItemJsonParser(getSchema()).readItem(
+            createParser("{\"id\": \"Data.Item1\", \"price\": 1.5e2, \"city\": [\"Paris\", \"Iasi\"], \"date\": 1000}"),
+            errors);
+
+        Assert.assertEquals(new HashMap<String, String>(), errors);
+        Assert.assertEquals("Data.Item1", item.getId());
+        Assert.assertEquals("150", item.get("price"));
+        Assert.assertEquals(Arrays.asList("Paris", "Iasi"), item.get("city"));
+        Assert.assertEquals(new Date(1000), item.get("date"));
+    }
+
+    @Test
+    public void testFieldErrors() throws Exception
+    {
+        Map<String, String> errors = new LinkedHashMap<>();
+        ItemMap item = new ItemJsonParser(getSchema()).readItem(
+            createParser("{\"price\": \"cheap\", \"color\": {\"red\": 1}, \"city\": \"Paris\"}"), errors);
+
+        Assert.assertEquals(Arrays.asList("price", "color"), Arrays.asList(errors.keySet().toArray()));
+        Assert.assertEquals("Paris", item.get("city"));
+        Assert.assertEquals(1, item.size());
+    }
+
+    @Test
+    public void testReadDocument() throws Exception
+    {
+        Map<String, String> errors = new LinkedHashMap<>();
+        DocumentMap document = new ItemJsonParser(getSchema()).readDocument(
+            createParser("{\"hidden\": true, \"title\": \"Item\", \"creationDate\": \"yesterday\"}"), errors);
+
+        Assert.assertEquals(Boolean.TRUE, document.get(ItemMap.HIDDEN));
+        Assert.assertEquals("Item", document.get(ItemMap.TITLE));
+        Assert.assertEquals(Arrays.asList(ItemMap.CREATION), Arrays.asList(errors.keySet().toArray()));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the database indexes of the property tables, with an embedded database.
+ */
+public class PropertyIndexesTest
+{
+    private Connection connection;
+
+    private PropertyIndexes.Table table = PropertyIndexes.getTable("StringProperty");
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.connection = DriverManager.getConnection("jdbc:hsqldb:mem:propertyindexes", "SA", "");
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table xwikistrings (XWS_ID bigint not null, XWS_NAME varchar(255) not null, "
+                + "XWS_VALUE varchar(255), primary key (XWS_ID, XWS_NAME))");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("drop table xwikistrings");
+        }
+        this.connection.close();
+    }
+
+    @Test
+    public void testCreateIndex() throws Exception
+    {
+        Assert.assertFalse(PropertyIndexes.isIndexed(this.connection, this.table, "status"));
+
+        String product = this.connection.getMetaData().getDatabaseProductName();
+        String createStatement = PropertyIndexes.getCreateStatement(product, this.table, "status");
+        Assert.assertEquals("create index sdx_xwikistrings_nv on xwikistrings (XWS_NAME, XWS_VALUE)", createStatement);
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute(createStatement);
+        }
+
+        // The composite index is shared by all the properties of the table
+        Assert.assertTrue(PropertyIndexes.isIndexed(this.connection, this.table, "status"));
+        Assert.assertTrue(PropertyIndexes.isIndexed(this.connection, this.table, "title"));
+    }
+
+    @Test
+    public void testGetCreateStatement()
+    {
+        Assert.assertEquals("create index " + PropertyIndexes.getIndexName(this.table, "status", true)
+            + " on xwikistrings (XWS_VALUE) where XWS_NAME = 'status'",
+            PropertyIndexes.getCreateStatement("PostgreSQL", this.table, "status"));
+        Assert.assertEquals("create index sdx_xwikistrings_nv on xwikistrings (XWS_NAME, XWS_VALUE(191))",
+            PropertyIndexes.getCreateStatement("MySQL", this.table, "status"));
+        Assert.assertEquals("create index sdx_xwikiintegers_nv on xwikiintegers (XWI_NAME, XWI_VALUE)",
+            PropertyIndexes.getCreateStatement("MySQL", PropertyIndexes.getTable("IntegerProperty"), "count"));
+        Assert.assertNull(PropertyIndexes.getTable("LargeStringProperty"));
+    }
+
+    @Test
+    public void testCreateDedicatedTableIndex() throws Exception
+    {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.execute("create table sdx_items (XWO_ID bigint not null, \"status\" varchar(255), "
+                + "\"title\" varchar(255), primary key (XWO_ID))");
+        }
+        try {
+            PropertyIndexes.Table dedicated = PropertyIndexes.getDedicatedTable(this.table, "sdx_items",
+                "\"status\"");
+            Assert.assertFalse(PropertyIndexes.isIndexed(this.connection, dedicated, "status"));
+
+            String product = this.connection.getMetaData().getDatabaseProductName();
+            String createStatement = PropertyIndexes.getCreateStatement(product, dedicated, "status");
+            Assert.assertEquals("create index " + PropertyIndexes.getIndexName(dedicated, "status", false)
+                + " on sdx_items (\"status\")", createStatement);
+            try (Statement statement = this.connection.createStatement()) {
+                statement.execute(createStatement);
+            }
+
+            // Each property of a dedicated table has its own index
+            Assert.assertTrue(PropertyIndexes.isIndexed(this.connection, dedicated, "status"));
+            Assert.assertFalse(PropertyIndexes.isIndexed(this.connection,
+                PropertyIndexes.getDedicatedTable(this.table, "sdx_items", "\"title\""), "title"));
+            Assert.assertEquals("create index " + PropertyIndexes.getIndexName(dedicated, "status", false)
+                + " on sdx_items (\"status\"(191))", PropertyIndexes.getCreateStatement("MySQL", dedicated, "status"));
+        } finally {
+            try (Statement statement = this.connection.createStatement()) {
+                statement.execute("drop table sdx_items");
+            }
+        }
+    }
+}
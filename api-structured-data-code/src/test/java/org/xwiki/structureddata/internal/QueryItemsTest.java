@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the items queries built from the options of the listings.
+ */
+public class QueryItemsTest
+{
+    private QueryManager queryManager;
+
+    private Map<String, Object> options = new HashMap<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.queryManager = mock(QueryManager.class);
+        when(this.queryManager.createQuery(anyString(), anyString())).thenReturn(mock(Query.class));
+    }
+
+    @Test
+    public void testCustomQueryHasStableOrder() throws Exception
+    {
+        this.options.put("query", "where item.status = 'open'");
+
+        Assert.assertTrue(getStatement().endsWith("where item.status = 'open' order by doc.fullName, item.number"));
+    }
+
+    @Test
+    public void testCustomQueryKeepsTheOrderOption() throws Exception
+    {
+        this.options.put("query", "item.status = 'open'");
+        this.options.put("order", "item.date desc");
+
+        Assert.assertTrue(
+            getStatement().endsWith(" order by item.date desc, doc.fullName, item.number"));
+    }
+
+    @Test
+    public void testCustomQueryOrderIsCompleted() throws Exception
+    {
+        this.options.put("query", "item.status = 'open' order by item.date");
+
+        Assert.assertTrue(getStatement().endsWith(" order by item.date, doc.fullName, item.number"));
+    }
+
+    @Test
+    public void testOrderByInCustomQueryLiteralIsIgnored() throws Exception
+    {
+        this.options.put("query", "item.title = 'Sort order by date' and item.status in "
+            + "(select status.name from Status status order by status.rank)");
+
+        Assert.assertTrue(getStatement().endsWith(" order by doc.fullName, item.number"));
+    }
+
+    @Test
+    public void testActiveDedicatedTableIsQueriedInHql() throws Exception
+    {
+        XWikiContext context = getContext();
+        BaseClass xClass = getXClass(DedicatedTables.ACTIVE);
+        this.options.put("order", "item.title");
+
+        QueryItems.getQuery(context, this.queryManager, "Data.ItemClass", xClass, this.options, "1=1",
+            "item.name, item.number");
+
+        ArgumentCaptor<String> statement = ArgumentCaptor.forClass(String.class);
+        verify(this.queryManager).createQuery(statement.capture(), eq(Query.HQL));
+        Assert.assertTrue(statement.getValue().startsWith("select obj.name, obj.number from XWikiDocument doc, "
+            + "BaseObject obj, Data.ItemClass as item where"));
+        Assert.assertTrue(statement.getValue().contains("obj.id = item.id"));
+        Assert.assertTrue(statement.getValue().endsWith(" order by item.title"));
+    }
+
+    @Test
+    public void testMigratingDedicatedTableIsQueriedInXwql() throws Exception
+    {
+        XWikiContext context = getContext();
+        BaseClass xClass = getXClass(DedicatedTables.MIGRATING);
+
+        QueryItems.getQuery(context, this.queryManager, "Data.ItemClass", xClass, this.options, "1=1",
+            "item.name, item.number");
+
+        ArgumentCaptor<String> statement = ArgumentCaptor.forClass(String.class);
+        verify(this.queryManager).createQuery(statement.capture(), eq(Query.XWQL));
+        Assert.assertTrue(statement.getValue().contains(" from Document doc, doc.object( 'Data.ItemClass' ) as item "));
+    }
+
+    @Test
+    public void testCustomQueryIgnoresTheDedicatedTable() throws Exception
+    {
+        XWikiContext context = getContext();
+        BaseClass xClass = getXClass(DedicatedTables.ACTIVE);
+        this.options.put("query", "where item.status = 'open'");
+
+        QueryItems.getQuery(context, this.queryManager, "Data.ItemClass", xClass, this.options, "1=1",
+            "item.name, item.number");
+
+        verify(this.queryManager).createQuery(anyString(), eq(Query.XWQL));
+    }
+
+    private XWikiContext getContext()
+    {
+        XWikiContext context = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(xwiki.hasCustomMappings()).thenReturn(true);
+        return context;
+    }
+
+    private BaseClass getXClass(String marker)
+    {
+        BaseClass xClass = mock(BaseClass.class);
+        when(xClass.getCustomMapping()).thenReturn(marker + "<property name=\"title\" type=\"string\">"
+            + "<column name=\"`title`\" length=\"255\"/></property>\n");
+        when(xClass.getCustomMappingPropertyList(any(XWikiContext.class))).thenReturn(Arrays.asList("title"));
+        return xClass;
+    }
+
+    private String getStatement() throws Exception
+    {
+        QueryItems.getQuery(mock(XWikiContext.class), this.queryManager, "Data.ItemClass", null, this.options, "1=1",
+            "doc.name");
+        ArgumentCaptor<String> statement = ArgumentCaptor.forClass(String.class);
+        verify(this.queryManager).createQuery(statement.capture(), anyString());
+        return statement.getValue();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseProperty;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.ObjectPropertyReference;
+import org.xwiki.model.reference.WikiReference;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the values memoized while handling a single request.
+ */
+public class RequestMemoTest
+{
+    private static final WikiReference WIKI = new WikiReference("xwiki");
+
+    private static final DocumentReference ALICE = new DocumentReference("xwiki", "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference("xwiki", "XWiki", "Bob");
+
+    private static final DocumentReference ITEM = new DocumentReference("xwiki", "Data", "Item1");
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.context = mock(XWikiContext.class);
+        this.xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(this.xwiki);
+        when(this.context.getUserReference()).thenReturn(ALICE);
+        when(this.xwiki.getDocument(ALICE, this.context)).thenReturn(getProfile(1));
+        when(this.xwiki.getDocument(BOB, this.context)).thenReturn(getProfile(0));
+        when(this.xwiki.getDocument(ITEM, this.context)).thenReturn(mock(XWikiDocument.class));
+    }
+
+    @Test
+    public void testMemoIsKeptInTheContext()
+    {
+        XWikiContext requestContext = new XWikiContext();
+        RequestMemo memo = RequestMemo.get(requestContext);
+
+        Assert.assertSame(memo, RequestMemo.get(requestContext));
+        // Another request has its own memo
+        Assert.assertNotSame(memo, RequestMemo.get(new XWikiContext()));
+    }
+
+    @Test
+    public void testPreferenceIsLoadedOncePerUser() throws Exception
+    {
+        RequestMemo memo = new RequestMemo();
+
+        Assert.assertTrue(memo.getViewHiddenDocuments(this.context));
+        Assert.assertTrue(memo.getViewHiddenDocuments(this.context));
+        verify(this.xwiki, times(1)).getDocument(ALICE, this.context);
+
+        // The context user may change during the request
+        when(this.context.getUserReference()).thenReturn(BOB);
+        Assert.assertFalse(memo.getViewHiddenDocuments(this.context));
+        verify(this.xwiki, times(1)).getDocument(BOB, this.context);
+    }
+
+    @Test
+    public void testReferenceIsResolvedOncePerWiki()
+    {
+        @SuppressWarnings("unchecked")
+        EntityReferenceResolver<String> resolver = mock(EntityReferenceResolver.class);
+        when(resolver.resolve("Data.Item1", EntityType.DOCUMENT, WIKI)).thenReturn(ITEM);
+        WikiReference otherWiki = new WikiReference("other");
+        DocumentReference otherItem = new DocumentReference("other", "Data", "Item1");
+        when(resolver.resolve("Data.Item1", EntityType.DOCUMENT, otherWiki)).thenReturn(otherItem);
+        RequestMemo memo = new RequestMemo();
+
+        Assert.assertEquals(ITEM, memo.resolve(resolver, "Data.Item1", WIKI));
+        Assert.assertEquals(ITEM, memo.resolve(resolver, "Data.Item1", WIKI));
+        Assert.assertEquals(otherItem, memo.resolve(resolver, "Data.Item1", otherWiki));
+        verify(resolver, times(1)).resolve("Data.Item1", EntityType.DOCUMENT, WIKI);
+        verify(resolver, times(1)).resolve("Data.Item1", EntityType.DOCUMENT, otherWiki);
+    }
+
+    @Test
+    public void testDocumentIsLoadedAgainOnceForgotten() throws Exception
+    {
+        RequestMemo memo = new RequestMemo();
+
+        XWikiDocument document = memo.getDocument(ITEM, this.context);
+        Assert.assertSame(document, memo.getDocument(ITEM, this.context));
+        verify(this.xwiki, times(1)).getDocument(ITEM, this.context);
+
+        // A saved document is loaded again by the next caller
+        memo.forgetDocument(ITEM);
+        memo.getDocument(ITEM, this.context);
+        verify(this.xwiki, times(2)).getDocument(ITEM, this.context);
+    }
+
+    private XWikiDocument getProfile(int displayHiddenDocuments)
+    {
+        BaseProperty property = mock(BaseProperty.class);
+        when(property.getValue()).thenReturn(displayHiddenDocuments);
+        XWikiDocument profile = mock(XWikiDocument.class);
+        when(profile.getXObjectProperty(any(ObjectPropertyReference.class))).thenReturn(property);
+        return profile;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the files storing the indexes and snapshots.
+ */
+public class SnapshotFilesTest
+{
+    @Test
+    public void testChangedDocuments()
+    {
+        Map<String, String> stored = new HashMap<>();
+        stored.put("Data.Same", "1.1");
+        stored.put("Data.Saved", "1.1");
+        stored.put("Data.Deleted", "2.1");
+        Map<String, String> current = new HashMap<>();
+        current.put("Data.Same", "1.1");
+        current.put("Data.Saved", "1.2");
+        current.put("Data.Created", "1.1");
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Data.Saved", "Data.Deleted", "Data.Created")),
+            SnapshotFiles.getChangedDocuments(stored, current));
+    }
+
+    @Test
+    public void testWriteAndMap() throws IOException
+    {
+        File file = new File(File.createTempFile("snapshot", "").getPath() + ".d", "Data.Class.bin");
+        try {
+            SnapshotFiles.write(file, new SnapshotFiles.Content()
+            {
+                @Override
+                public void write(DataOutputStream output) throws IOException
+                {
+                    SnapshotFiles.writeString(output, "Donn\u00e9es");
+                    SnapshotFiles.writeString(output, null);
+                    output.writeInt(42);
+                }
+            });
+            ByteBuffer content = SnapshotFiles.map(file);
+            Assert.assertEquals("Donn\u00e9es", SnapshotFiles.readString(content));
+            Assert.assertEquals(null, SnapshotFiles.readString(content));
+            ByteBuffer bytes = SnapshotFiles.readBytes(content, 4);
+            Assert.assertEquals(4, bytes.capacity());
+            Assert.assertEquals(42, bytes.getInt(0));
+            Assert.assertEquals(false, content.hasRemaining());
+        } finally {
+            file.delete();
+            file.getParentFile().delete();
+        }
+    }
+}
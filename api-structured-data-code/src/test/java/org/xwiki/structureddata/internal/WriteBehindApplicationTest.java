@@ -0,0 +1,276 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.structureddata.internal;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.structureddata.Application;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the buffered updates of the write-behind properties.
+ */
+public class WriteBehindApplicationTest
+{
+    private static final DocumentReference CLASS_REFERENCE = new DocumentReference("xwiki", "Data", "ItemClass");
+
+    private static final DocumentReference ITEM_REFERENCE = new DocumentReference("xwiki", "Data", "Item");
+
+    private static final String ITEM_ID = "Data.Item";
+
+    private static final String COUNTER = "counter";
+
+    private static final String STATUS = "status";
+
+    private static final String VIEWS = "views";
+
+    private static final String TYPE = "Type";
+
+    private DefaultItemWriteBuffer buffer;
+
+    private XWikiContext context;
+
+    private Application storedApplication;
+
+    private Application application;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        StructuredDataConfiguration configuration = mock(StructuredDataConfiguration.class);
+        when(configuration.getWriteBehindProperties())
+            .thenReturn(Arrays.asList("Data.ItemClass#counter", "Data.ItemClass#views"));
+        // The updates are saved by the tests
+        when(configuration.getWriteBehindDelay()).thenReturn(60000);
+        ContextualAuthorizationManager authorization = mock(ContextualAuthorizationManager.class);
+        when(authorization.hasAccess(any(Right.class), any(EntityReference.class))).thenReturn(true);
+        EntityReferenceResolver<String> resolver = mock(EntityReferenceResolver.class);
+        when(resolver.resolve(ITEM_ID, EntityType.DOCUMENT, CLASS_REFERENCE.getWikiReference()))
+            .thenReturn(ITEM_REFERENCE);
+        EntityReferenceSerializer<String> serializer = mock(EntityReferenceSerializer.class);
+        when(serializer.serialize(any(EntityReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation)
+            {
+                return String.valueOf(invocation.getArguments()[0]);
+            }
+        });
+        EntityReferenceSerializer<String> localSerializer = mock(EntityReferenceSerializer.class);
+        when(localSerializer.serialize(CLASS_REFERENCE)).thenReturn("Data.ItemClass");
+
+        this.buffer = new DefaultItemWriteBuffer();
+        ReflectionUtils.setFieldValue(this.buffer, "configuration", configuration);
+        ReflectionUtils.setFieldValue(this.buffer, "authorization", authorization);
+        ReflectionUtils.setFieldValue(this.buffer, "resolver", resolver);
+        ReflectionUtils.setFieldValue(this.buffer, "serializer", serializer);
+        ReflectionUtils.setFieldValue(this.buffer, "localSerializer", localSerializer);
+        this.context = mock(XWikiContext.class);
+        when(this.context.getUserReference()).thenReturn(new DocumentReference("xwiki", "XWiki", "Alice"));
+        Provider<XWikiContext> xcontextProvider = mock(Provider.class);
+        when(xcontextProvider.get()).thenReturn(this.context);
+        ReflectionUtils.setFieldValue(this.buffer, "xcontextProvider", xcontextProvider);
+        ReflectionUtils.setFieldValue(this.buffer, "execution", mock(Execution.class));
+        ReflectionUtils.setFieldValue(this.buffer, "executionContextManager", mock(ExecutionContextManager.class));
+        ReflectionUtils.setFieldValue(this.buffer, "logger", mock(Logger.class));
+        this.buffer.initialize();
+
+        this.storedApplication = mock(Application.class);
+        when(this.storedApplication.getItem(ITEM_ID)).thenAnswer(new Answer<ItemMap>()
+        {
+            @Override
+            public ItemMap answer(InvocationOnMock invocation)
+            {
+                ItemMap item = new ItemMap();
+                item.setId(ITEM_ID);
+                item.put(COUNTER, 1);
+                item.put(STATUS, "open");
+                item.put(VIEWS, 10);
+                return item;
+            }
+        });
+        Map<String, Object> schema = new HashMap<>();
+        schema.put(COUNTER, Collections.singletonMap(TYPE, "Number"));
+        schema.put(VIEWS, Collections.singletonMap(TYPE, "Number"));
+        schema.put(STATUS, Collections.singletonMap(TYPE, "String"));
+        when(this.storedApplication.getSchema()).thenReturn(schema);
+        this.application = this.buffer.wrap(this.storedApplication, CLASS_REFERENCE, null);
+    }
+
+    @After
+    public void tearDown()
+    {
+        // The pending updates are dropped, there is no wiki to save them
+        this.buffer.remove(this.buffer.getKey(CLASS_REFERENCE, ITEM_REFERENCE, 0));
+        this.buffer.dispose();
+    }
+
+    @Test
+    public void testUpdatesAreMerged() throws Exception
+    {
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "2");
+        Assert.assertEquals("1", this.application.storeItem(item).get("Success"));
+        item = this.application.getItem(ITEM_ID);
+        Assert.assertEquals(2, item.get(COUNTER));
+        item.put(COUNTER, "3");
+        this.application.storeItem(item);
+
+        verify(this.storedApplication, never()).storeItem(any(ItemMap.class), any(DocumentMap.class));
+        Assert.assertEquals(3, this.application.getItem(ITEM_ID).get(COUNTER));
+        Map<String, Object> statistics = this.buffer.getStatistics();
+        Assert.assertEquals(2L, statistics.get("Buffered"));
+        Assert.assertEquals(1, statistics.get("Pending"));
+    }
+
+    @Test
+    public void testOtherPropertiesAreSavedRightAway() throws Exception
+    {
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "2");
+        this.application.storeItem(item);
+
+        ItemMap update = new ItemMap();
+        update.setId(ITEM_ID);
+        update.put(STATUS, "closed");
+        this.application.storeItem(update);
+
+        // The buffered values are saved with the other ones
+        ArgumentCaptor<ItemMap> stored = ArgumentCaptor.forClass(ItemMap.class);
+        verify(this.storedApplication).storeItem(stored.capture(), eq((DocumentMap) null));
+        Assert.assertEquals("closed", stored.getValue().get(STATUS));
+        Assert.assertEquals("2", stored.getValue().get(COUNTER));
+        // The item of the caller is left unchanged
+        Assert.assertFalse(update.containsKey(COUNTER));
+        Assert.assertEquals(0, this.buffer.getStatistics().get("Pending"));
+    }
+
+    @Test
+    public void testInvalidValuesAreRejected() throws Exception
+    {
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "many");
+
+        Assert.assertNotNull(this.application.storeItem(item).get("Error"));
+        Assert.assertEquals(1, this.application.getItem(ITEM_ID).get(COUNTER));
+        Assert.assertEquals(0, this.buffer.getStatistics().get("Pending"));
+    }
+
+    @Test
+    public void testUpdatesOfAnotherUserAreNotMerged() throws Exception
+    {
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "2");
+        this.application.storeItem(item);
+
+        when(this.context.getUserReference()).thenReturn(new DocumentReference("xwiki", "XWiki", "Bob"));
+        item = this.application.getItem(ITEM_ID);
+        item.put(VIEWS, "11");
+        this.application.storeItem(item);
+
+        // The updates of the first user have been sent to be saved on their own
+        ItemMap pending = this.buffer.getPendingValues(this.buffer.getKey(CLASS_REFERENCE, ITEM_REFERENCE, 0));
+        Assert.assertEquals(Collections.singleton(VIEWS), pending.keySet());
+        Assert.assertEquals(1, this.buffer.getStatistics().get("Pending"));
+    }
+
+    @Test
+    public void testFlushSavesACopyOfTheDocument() throws Exception
+    {
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        XWikiDocument cached = mock(XWikiDocument.class);
+        XWikiDocument copy = mock(XWikiDocument.class);
+        when(cached.clone()).thenReturn(copy);
+        BaseObject xObj = mock(BaseObject.class);
+        when(copy.getXObject(CLASS_REFERENCE, 0)).thenReturn(xObj);
+        BaseObject updatedObj = mock(BaseObject.class);
+        when(xObj.clone()).thenReturn(updatedObj);
+        when(xwiki.getDocument(eq(ITEM_REFERENCE), any(XWikiContext.class))).thenReturn(cached);
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "2");
+        this.application.storeItem(item);
+
+        this.buffer.flush();
+
+        // The document of the wiki cache is left unchanged until the copy is saved
+        verify(updatedObj).set(eq(COUNTER), any(), eq(this.context));
+        verify(copy).setXObject(0, updatedObj);
+        verify(xwiki).saveDocument(copy, "Properties updated", this.context);
+        verify(cached, never()).getXObject(any(DocumentReference.class), anyInt());
+        Assert.assertEquals(1L, this.buffer.getStatistics().get("Saved"));
+    }
+
+    @Test
+    public void testFlushReportsTheFailedSaves() throws Exception
+    {
+        XWiki xwiki = mock(XWiki.class);
+        when(this.context.getWiki()).thenReturn(xwiki);
+        when(xwiki.getDocument(any(DocumentReference.class), any(XWikiContext.class)))
+            .thenThrow(new XWikiException());
+        ItemMap item = this.application.getItem(ITEM_ID);
+        item.put(COUNTER, "2");
+        this.application.storeItem(item);
+
+        String key = this.buffer.getKey(CLASS_REFERENCE, ITEM_REFERENCE, 0);
+        Assert.assertEquals(Arrays.asList(key), this.buffer.flush());
+        Map<String, Object> statistics = this.buffer.getStatistics();
+        Assert.assertEquals(1L, statistics.get("Failed"));
+        // The updates are tried again later
+        Assert.assertEquals(1, statistics.get("Pending"));
+    }
+}
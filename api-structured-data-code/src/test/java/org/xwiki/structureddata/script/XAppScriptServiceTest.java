@@ -38,6 +38,9 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
@@ -54,6 +57,9 @@ import org.xwiki.query.Query;
 import org.xwiki.query.QueryManager;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
 import org.xwiki.security.authorization.Right;
+import org.xwiki.structureddata.Application;
+import org.xwiki.structureddata.internal.ApplicationFactory;
+import org.xwiki.structureddata.internal.DefaultApplication;
 import org.xwiki.structureddata.internal.ItemMap;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -75,6 +81,8 @@ public class XAppScriptServiceTest
     private XWikiDocument myclassdoc;
     private BaseClass myclass;
     private DocumentReference classRef;
+    private QueryManager queryManager;
+    private EntityReferenceSerializer<String> serializer;
 
     @Before
     public void setUp() throws Exception
@@ -94,9 +102,23 @@ public class XAppScriptServiceTest
         when(xcontext.getWiki().getXClass(classRef, xcontext)).thenReturn(myclass);
         when(xcontext.getWiki().getDocument(classRef, xcontext)).thenReturn(myclassdoc);
 
-        ContextualAuthorizationManager authorization = xApp.authorizationManager;
+        final ContextualAuthorizationManager authorization = xApp.authorizationManager;
         when(authorization.hasAccess((Right) any(), (EntityReference) any())).thenReturn(true);
 
+        // The applications are created by the application factory
+        queryManager = mock(QueryManager.class);
+        serializer = mock(EntityReferenceSerializer.class);
+        ApplicationFactory applicationFactory = mocker.getInstance(ApplicationFactory.class);
+        when(applicationFactory.getClassApplication(classRef)).thenAnswer(new Answer<Application>()
+        {
+            @Override
+            public Application answer(InvocationOnMock invocation) throws Throwable
+            {
+                return new DefaultApplication(xcontext, authorization, xApp.resolver, serializer, queryManager,
+                    mock(Logger.class), classRef);
+            }
+        });
+
         PropertyClass prop1 = mock(PropertyClass.class);
         StaticListClass prop2 = mock(StaticListClass.class);
         List<PropertyClass> propList = new ArrayList<>();
@@ -131,9 +153,8 @@ public class XAppScriptServiceTest
     @Test
     public void testGetItems() throws Exception
     {
-        QueryManager qm = xApp.queryManager;
+        QueryManager qm = queryManager;
         EntityReferenceResolver<String> resolver = xApp.resolver; 
-        EntityReferenceSerializer<String> serializer = xApp.serializer;
         when(serializer.serialize(classRef)).thenReturn("My.Class");
 
         // Create 2 items
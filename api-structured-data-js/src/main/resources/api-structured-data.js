@@ -31,10 +31,32 @@ define(['jquery', 'xwiki-meta'], function ($, xm) {
         callback = options;
         options = {};
       }
+      // Structured filters (see "filters" below) are sent as JSON
+      var params = $.extend({}, options);
+      if(params.filter && typeof params.filter === 'object') {
+        params.filter = JSON.stringify(params.filter);
+      }
       $.ajax({
         url : '/xwiki/rest/'+addWikiPath+'applications/'+addCurrentPath + encodeURI(appId)+'/items',
         type: "GET",
-        data: $.param(options)
+        data: $.param(params)
+      }).success(function(data){
+        callback(null, data);
+      }).error(function(xhr, status, err) {
+        callback(err, null);
+      });
+    };
+
+    // Aggregate the items: options are function (count, sum, avg, min, max), property, groupBy, filter, query, hidden
+    var aggregate = exports.aggregate = function(options, callback) {
+      var params = $.extend({}, options);
+      if(params.filter && typeof params.filter === 'object') {
+        params.filter = JSON.stringify(params.filter);
+      }
+      $.ajax({
+        url : '/xwiki/rest/'+addWikiPath+'applications/'+addCurrentPath + encodeURI(appId)+'/aggregate',
+        type: "GET",
+        data: $.param(params)
       }).success(function(data){
         callback(null, data);
       }).error(function(xhr, status, err) {
@@ -84,6 +106,20 @@ define(['jquery', 'xwiki-meta'], function ($, xm) {
       });
     };
 
+    // Store several items in one request. Each item must have an "id" field.
+    var storeItems = exports.storeItems = function(items, callback) {
+      $.ajax({
+        url : '/xwiki/rest/'+addWikiPath+'applications/'+addCurrentPath + encodeURI(appId)+'/items',
+        type: "PUT",
+        contentType : "application/json",
+        data: JSON.stringify(items)
+      }).success(function(data){
+        callback(null, data);
+      }).error(function(xhr, status, err) {
+        callback(err, null);
+      });
+    };
+
     var deleteItem = exports.deleteItem = function(itemId, callback) {
       $.ajax({
         url : '/xwiki/rest/'+addWikiPath+'applications/'+addCurrentPath + encodeURI(appId)+'/items/'+encodeURI(itemId),
@@ -129,8 +165,41 @@ define(['jquery', 'xwiki-meta'], function ($, xm) {
     return exports;
   };
 
+  // Builders for the "filter" option of getItems()
+  var filters = {
+    eq : function(property, value) {
+      return {op: 'eq', property: property, value: value};
+    },
+    'in' : function(property, values) {
+      return {op: 'in', property: property, values: values};
+    },
+    range : function(property, min, max) {
+      var filter = {op: 'range', property: property};
+      if(typeof min !== 'undefined' && min !== null) {
+        filter.min = min;
+      }
+      if(typeof max !== 'undefined' && max !== null) {
+        filter.max = max;
+      }
+      return filter;
+    },
+    prefix : function(property, value) {
+      return {op: 'prefix', property: property, value: value};
+    },
+    isNull : function(property) {
+      return {op: 'isNull', property: property};
+    },
+    and : function() {
+      return {op: 'and', filters: Array.prototype.slice.call(arguments)};
+    },
+    or : function() {
+      return {op: 'or', filters: Array.prototype.slice.call(arguments)};
+    }
+  };
+
   return {
     getCurrent : getCurrent,
-    getApp : getApp
+    getApp : getApp,
+    filters : filters
   };
 });
\ No newline at end of file